@@ -46,8 +46,9 @@ import com.fieldbook.tracker.adapters.InfoBarAdapter;
 import com.fieldbook.tracker.adapters.TraitsStatusAdapter;
 import com.fieldbook.tracker.brapi.model.Observation;
 import com.fieldbook.tracker.database.DataHelper;
+import com.fieldbook.tracker.database.FieldCompleteness;
+import com.fieldbook.tracker.database.dao.ObservationUnitDao;
 import com.fieldbook.tracker.database.models.ObservationModel;
-import com.fieldbook.tracker.database.models.ObservationUnitModel;
 import com.fieldbook.tracker.devices.camera.UsbCameraApi;
 import com.fieldbook.tracker.devices.camera.GoProApi;
 import com.fieldbook.tracker.devices.camera.CanonApi;
@@ -56,8 +57,8 @@ import com.fieldbook.tracker.dialogs.ObservationMetadataFragment;
 import com.fieldbook.tracker.dialogs.SearchDialog;
 import com.fieldbook.tracker.interfaces.FieldSwitcher;
 import com.fieldbook.tracker.location.GPSTracker;
-import com.fieldbook.tracker.objects.FieldObject;
 import com.fieldbook.tracker.objects.InfoBarModel;
+import com.fieldbook.tracker.objects.PlotIndex;
 import com.fieldbook.tracker.objects.RangeObject;
 import com.fieldbook.tracker.objects.TraitObject;
 import com.fieldbook.tracker.traits.AbstractCameraTrait;
@@ -113,7 +114,6 @@ import org.phenoapps.utils.SoftKeyboardUtil;
 import org.phenoapps.utils.TextToSpeechHelper;
 import org.threeten.bp.OffsetDateTime;
 
-import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
@@ -125,8 +125,6 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.StringJoiner;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
 
 import javax.inject.Inject;
 
@@ -424,25 +422,16 @@ public class CollectActivity extends ThemedActivity
 
                     Log.d(TAG, "Searching initial barcode: " + barcode);
 
-                    ObservationUnitModel model = database.getObservationUnitById(barcode);
+                    List<ObservationUnitDao.UnitStudy> studies = database.getStudiesOfObservationUnit(barcode);
 
-                    if (model != null) {
+                    if (!studies.isEmpty()) {
 
                         try {
 
-                            //if barcode matches an obs. unit id
-                            if (model.getObservation_unit_db_id().equals(barcode)) {
+                            //barcode matches an obs. unit id of an existing field
+                            inputPlotId = barcode;
 
-                                inputPlotId = barcode;
-
-                                FieldObject fo = database.getFieldObject(model.getStudy_id());
-
-                                if (fo != null && fo.getExp_name() != null) {
-
-                                    switchField(model.getStudy_id(), barcode);
-
-                                }
-                            }
+                            switchField(studies.get(0).getStudyId(), barcode);
 
                         } catch (Exception e) {
 
@@ -831,72 +820,49 @@ public class CollectActivity extends ThemedActivity
             return false;
         }
 
-        // search moveto
-        if (command.equals("search")) {
-            for (int j = 1; j <= plotIndices.length; j++) {
-                rangeBox.setRangeByIndex(j - 1);
+        PlotIndex index = rangeBox.getPlotIndex();
 
-                RangeObject ro = rangeBox.getCRange();
-
-                //issue #634 fix for now to check the search query by plot_id which should be the unique id
-                if (Objects.equals(ro.plot_id, searchUnique)) {
-                    moveToResultCore(j);
-                    return true;
-                }
-            }
-        }
+        int position = -1;
 
-        // new type to skip the toast message and keep previous functionality
-        if (command.equals("quickgoto")) {
-            for (int j = 1; j <= plotIndices.length; j++) {
-                rangeBox.setRangeByIndex(j - 1);
+        switch (command) {
 
-                if (rangeBox.getCRange().range.equals(range) & rangeBox.getCRange().plot.equals(plot)) {
-                    moveToResultCore(j);
-                    return true;
-                }
-            }
-        }
+            // search moveto
+            //issue #634 fix for now to check the search query by plot_id which should be the unique id
+            case "search":
+                position = index.findUnique(searchUnique);
+                break;
 
-        //move to plot
-        if (command.equals("plot")) {
-            for (int j = 1; j <= plotIndices.length; j++) {
-                rangeBox.setRangeByIndex(j - 1);
+            // new type to skip the toast message and keep previous functionality
+            case "quickgoto":
+                position = index.findPair(range, plot);
+                break;
 
-                if (rangeBox.getCRange().plot.equals(data)) {
-                    moveToResultCore(j);
-                    return true;
-                }
-            }
-        }
+            //move to plot
+            case "plot":
+                position = index.findSecondary(data);
+                break;
 
-        //move to range
-        if (command.equals("range")) {
-            for (int j = 1; j <= plotIndices.length; j++) {
-                rangeBox.setRangeByIndex(j - 1);
+            //move to range
+            case "range":
+                position = index.findPrimary(data);
+                break;
 
-                if (rangeBox.getCRange().range.equals(data)) {
-                    moveToResultCore(j);
-                    return true;
-                }
-            }
+            //move to plot id
+            case "id":
+            case "barcode":
+                position = index.findUnique(data);
+                break;
         }
 
-        //move to plot id
-        if (command.equals("id") || command.equals("barcode")) {
-            int rangeSize = plotIndices.length;
-            for (int j = 1; j <= rangeSize; j++) {
-                rangeBox.setRangeByIndex(j - 1);
+        if (position >= 0) {
 
-                if (rangeBox.getCRange().plot_id.equals(data)) {
+            rangeBox.setRangeByIndex(position);
 
-                    if (trait == -1) {
-                        moveToResultCore(j);
-                    } else moveToResultCore(j, trait);
+            if (trait != -1 && (command.equals("id") || command.equals("barcode"))) {
+                moveToResultCore(position + 1, trait);
+            } else moveToResultCore(position + 1);
 
-                    return true;
-                }
-            }
+            return true;
         }
 
         if (!command.equals("quickgoto") && !command.equals("barcode"))
@@ -962,18 +928,7 @@ public class CollectActivity extends ThemedActivity
             DocumentFile databaseDir = BaseDocumentTreeUtil.Companion.getDirectory(this, R.string.dir_database);
             if (databaseDir != null) {
 
-                Executor executor = Executors.newFixedThreadPool(2);
-                executor.execute(() -> {
-
-                    try {
-
-                        database.exportDatabase(this,"backup");
-
-                    } catch (IOException io) {
-                        io.printStackTrace();
-                    }
-
-                });
+                database.scheduleBackup("backup");
             }
 
         } catch (Exception e) {
@@ -1969,30 +1924,18 @@ public class CollectActivity extends ThemedActivity
                     if (success) {
                         soundHelper.playCelebrate();
                     } else {
-                        boolean found = false;
-                        FieldObject studyObj = null;
-                        ObservationUnitModel[] models = database.getAllObservationUnits();
-                        for (ObservationUnitModel m : models) {
-                            if (m.getObservation_unit_db_id().equals(inputPlotId)) {
-
-                                FieldObject study = database.getFieldObject(m.getStudy_id());
-                                if (study != null && study.getExp_name() != null) {
-                                    studyObj = study;
-                                    found = true;
-                                    break;
-                                }
-                            }
-                        }
+                        List<ObservationUnitDao.UnitStudy> studies = database.getStudiesOfObservationUnit(inputPlotId);
 
-                        if (found && studyObj.getExp_name() != null && studyObj.getExp_id() != -1) {
+                        if (!studies.isEmpty()) {
 
-                            int studyId = studyObj.getExp_id();
-                            String fieldName = studyObj.getExp_alias();
+                            int studyId = studies.get(0).getStudyId();
+                            String fieldName = studies.get(0).getStudyAlias();
+                            String plotId = inputPlotId;
 
                             String msg = getString(R.string.act_collect_barcode_search_exists_in_other_field, fieldName);
 
                             SnackbarUtils.showNavigateSnack(getLayoutInflater(), findViewById(R.id.traitHolder), msg, R.id.toolbarBottom,8000, null,
-                                (v) -> switchField(studyId, null));
+                                (v) -> switchField(studyId, plotId));
 
                         } else {
 
@@ -2219,7 +2162,7 @@ public class CollectActivity extends ThemedActivity
     public boolean existsTrait(final int plotId) {
         final TraitObject trait = traitBox.getCurrentTrait();
         if (trait != null) {
-            return database.getTraitExists(plotId, trait.getId());
+            return database.getFieldCompleteness().isCollected(trait.getId(), plotId);
         } else return false;
     }
 
@@ -2232,9 +2175,10 @@ public class CollectActivity extends ThemedActivity
     @Override
     public int existsAllTraits(final int traitIndex, final int plotId) {
         final ArrayList<TraitObject> traits = database.getVisibleTraitObjects();
+        final FieldCompleteness completeness = database.getFieldCompleteness();
         for (int i = 0; i < traits.size(); i++) {
             if (i != traitIndex
-                    && !database.getTraitExists(plotId, traits.get(i).getId())) return i;
+                    && !completeness.isCollected(traits.get(i).getId(), plotId)) return i;
         }
         return -1;
     }
@@ -2244,8 +2188,9 @@ public class CollectActivity extends ThemedActivity
     public List<Integer> getNonExistingTraits(final int plotId) {
         final ArrayList<TraitObject> traits = database.getVisibleTraitObjects();
         final ArrayList<Integer> indices = new ArrayList<>();
+        final FieldCompleteness completeness = database.getFieldCompleteness();
         for (int i = 0; i < traits.size(); i++) {
-            if (!database.getTraitExists(plotId, traits.get(i).getId()))
+            if (!completeness.isCollected(traits.get(i).getId(), plotId))
                 indices.add(i);
         }
         return indices;
@@ -30,8 +30,8 @@ import com.fieldbook.tracker.BuildConfig;
 import com.fieldbook.tracker.R;
 import com.fieldbook.tracker.adapters.ImageListAdapter;
 import com.fieldbook.tracker.database.DataHelper;
+import com.fieldbook.tracker.database.dao.ObservationUnitDao;
 import com.fieldbook.tracker.database.models.ObservationModel;
-import com.fieldbook.tracker.database.models.ObservationUnitModel;
 import com.fieldbook.tracker.fragments.ImportDBFragment;
 import com.fieldbook.tracker.objects.FieldObject;
 import com.fieldbook.tracker.preferences.GeneralKeys;
@@ -58,6 +58,7 @@ import org.apache.commons.lang3.ArrayUtils;
 
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -463,18 +464,12 @@ public class ConfigActivity extends ThemedActivity {
     }
 
     @Nullable
-    private ObservationUnitModel searchPlotsForBarcode(String barcode) {
+    private ObservationUnitDao.UnitStudy searchPlotsForBarcode(String barcode) {
 
         // search for barcode in database
-        ObservationUnitModel[] models = database.getAllObservationUnits();
-        for (ObservationUnitModel m : models) {
-            if (m.getObservation_unit_db_id().equals(barcode)) {
+        List<ObservationUnitDao.UnitStudy> studies = database.getStudiesOfObservationUnit(barcode);
 
-                return m;
-            }
-        }
-
-        return null;
+        return studies.isEmpty() ? null : studies.get(0);
     }
 
     //1) study alias, 2) study names, 3) plotdbids
@@ -486,11 +481,11 @@ public class ConfigActivity extends ThemedActivity {
         if (f == null) {
 
             // search for plots
-            ObservationUnitModel m = searchPlotsForBarcode(barcode);
+            ObservationUnitDao.UnitStudy m = searchPlotsForBarcode(barcode);
 
-            if (m != null && m.getStudy_id() != -1) {
+            if (m != null) {
 
-                FieldObject study = database.getFieldObject(m.getStudy_id());
+                FieldObject study = database.getFieldObject(m.getStudyId());
 
                 resolveFuzzySearchResult(study, barcode);
 
@@ -12,6 +12,7 @@ import android.view.View
 import android.widget.ProgressBar
 import androidx.constraintlayout.widget.Group
 import androidx.databinding.DataBindingUtil
+import androidx.recyclerview.widget.LinearLayoutManager
 import androidx.recyclerview.widget.RecyclerView
 import com.evrencoskun.tableview.TableView
 import com.evrencoskun.tableview.listener.ITableViewListener
@@ -71,6 +72,19 @@ class DataGridActivity : ThemedActivity(), CoroutineScope by MainScope(), ITable
         }
     }
 
+    companion object {
+
+        //rows fetched per query, the next window is requested when the last visible row comes within half a window
+        private const val WINDOW_ROWS = 200
+
+        private val CATEGORICAL_FORMATS = setOf("categorical", "multicat", "qualitative")
+    }
+
+    /**
+     * Rows of one window, in grid order.
+     */
+    private class GridWindow(val headers: List<String>, val plotIds: List<String>, val cells: List<List<CellData>>)
+
     data class HeaderData(val name: String, override val code: String) : BlockData(code)
     data class CellData(val value: String?, override val code: String, val color: Int = Color.GREEN, val onClick: View.OnClickListener? = null): BlockData(code)
     class EmptyCell(override val code: String): BlockData(code)
@@ -95,6 +109,16 @@ class DataGridActivity : ThemedActivity(), CoroutineScope by MainScope(), ITable
     private lateinit var mPlotIds: ArrayList<String>
     private var mTraits: ArrayList<TraitObject> = ArrayList()
 
+    /**
+     * Windowed loading state, only changed on the main thread.
+     * mRowIds holds every observation unit id of the field in grid order, rows are fetched from it a window at a time.
+     * The generation discards windows that finish after the grid was reloaded with another row header.
+     */
+    private var mRowIds = IntArray(0)
+    private var mLoadedRows = 0
+    private var mLoadingWindow = false
+    private var mGeneration = 0
+
     @Inject
     lateinit var database: DataHelper
 
@@ -188,8 +212,9 @@ class DataGridActivity : ThemedActivity(), CoroutineScope by MainScope(), ITable
     }
 
     /**
-     * Uses the getExportTableData query to create a spreadsheet of values.
-     * Columns returned are plot_id followed by all traits.
+     * Creates a spreadsheet of values, columns are the visible traits and rows the field's plots in sort order.
+     * Only the rows up to the requested plot (plus a window) are queried up front,
+     * the rest are loaded a window at a time while the grid scrolls.
      */
     private fun loadGridData(prefixTrait: String? = null,
                              plotId: Int? = null,
@@ -197,8 +222,6 @@ class DataGridActivity : ThemedActivity(), CoroutineScope by MainScope(), ITable
 
         val studyId = preferences.getInt(GeneralKeys.SELECTED_FIELD_ID, 0)
 
-        val study = database.getFieldObject(studyId)
-
         val showLabel = preferences.getString(GeneralKeys.LABELVAL_CUSTOMIZE, "value") == "value"
 
         val uniqueHeader = preferences.getString(GeneralKeys.UNIQUE_NAME, "") ?: ""
@@ -217,162 +240,219 @@ class DataGridActivity : ThemedActivity(), CoroutineScope by MainScope(), ITable
 
         if (rowHeader.isNotBlank()) {
 
+            val generation = ++mGeneration
+
+            mLoadingWindow = true
+
             //background processing
             scope.launch {
 
+                val study = database.getFieldObject(studyId)
+
                 //query database for visible traits
-                mTraits.clear()
+                val traits = ArrayList(database.allTraitObjects.filter { it.visible })
+
+                //ids in the same order as the collect screen, plotId is a position in this list
+                val rowIds = database.allRangeID
+
+                val firstRows = minOf(rowIds.size, maxOf(WINDOW_ROWS, (plotId ?: 1) + WINDOW_ROWS))
 
-                val traitObjects = database.allTraitObjects
-                traitObjects.forEach {
-                    if (it.visible) {
-                        mTraits.add(it)
+                val window = try {
+
+                    queryWindow(studyId, rowIds, 0, firstRows, rowHeader, study.unique_id, traits, showLabel)
+
+                } catch (e: Exception) {
+
+                    withContext(Dispatchers.Main) {
+                        Utils.makeToast(this@DataGridActivity, getString(R.string.act_data_grid_cursor_failed))
                     }
-                }
 
-                val traits = database.allTraitObjects
+                    e.printStackTrace()
 
-                //expensive database call, only asks for the unique name plot attr and all visible traits
-                val cursor = database.getExportTableData(studyId, mTraits)
+                    GridWindow(listOf(), listOf(), listOf())
+                }
 
-                if (cursor.moveToFirst()) {
+                Log.d("DataGridActivity", "First window loaded: ${window.plotIds.size} of ${rowIds.size} rows")
 
-                    Log.d("DataGridActivity", "Query executed. Row count: ${cursor.count}")
+                withContext(Dispatchers.Main) {
 
-                    mRowHeaders = arrayListOf()
+                    if (generation != mGeneration) return@withContext
 
-                    mPlotIds = arrayListOf()
+                    mTraits = traits
 
-                    val dataMap = arrayListOf<List<CellData>>()
+                    mRowIds = rowIds
 
-                    try {
+                    mLoadedRows = window.plotIds.size
 
-                        do { //iterate over cursor results and populate lists of plot ids and related trait values
+                    mLoadingWindow = false
 
-                            val rowHeaderIndex = cursor.getColumnIndex(rowHeader)
+                    mRowHeaders = ArrayList(window.headers)
 
-                            //unique name column is always the first column
-                            val uniqueIndex = cursor.getColumnIndex(study.unique_id)
+                    mPlotIds = ArrayList(window.plotIds)
 
-                            if (uniqueIndex > -1) { //if it doesn't exist skip this row
+                    //send trait/plot indices to highlight the cell
+                    mAdapter = DataGridAdapter((trait ?: 1) - 1, (plotId ?: 1) - 1)
 
-                                val id = cursor.getString(uniqueIndex)
+                    mTableView.setHasFixedWidth(true)
 
-                                val header = cursor.getString(rowHeaderIndex)
+                    mTableView.tableViewListener = this@DataGridActivity
 
-                                val dataList = arrayListOf<CellData>()
+                    mTableView.isShowHorizontalSeparators = false
 
-                                mRowHeaders.add(header) //add unique name row header
+                    mTableView.isShowVerticalSeparators = false
 
-                                mPlotIds.add(id)
+                    mTableView.setAdapter(mAdapter)
 
-                                mTraits.forEachIndexed { _, variable ->
+                    mAdapter.setAllItems(mTraits.map { HeaderData(it.name, it.name) },
+                        mRowHeaders.map { HeaderData(it, it) },
+                        window.cells
+                    )
 
-                                    val index = cursor.getColumnIndex(variable.name)
+                    mTableView.cellRecyclerView.clearOnScrollListeners()
 
-                                    if (index > -1) {
+                    mTableView.cellRecyclerView.addOnScrollListener(object : RecyclerView.OnScrollListener() {
+                        override fun onScrolled(recyclerView: RecyclerView, dx: Int, dy: Int) {
+                            val last = (recyclerView.layoutManager as? LinearLayoutManager)?.findLastVisibleItemPosition() ?: return
+                            if (last >= mLoadedRows - WINDOW_ROWS / 2) {
+                                loadNextWindow(studyId, rowHeader, study.unique_id, showLabel)
+                            }
+                        }
+                    })
 
-                                        val value = cursor.getString(index) ?: ""
+                    //scroll to the position of the current trait/plot id
+                    if (plotId != null && trait != null) {
 
-                                        val t = traits.find { it.format in setOf("categorical", "multicat", "qualitative") }
+                        mTableView.scrollToColumnPosition(trait - 1)
 
-                                        val repeatedValues =
-                                            database.getRepeatedValues(studyId.toString(), id, variable.id)
-                                        if (repeatedValues.size > 1) {
-                                            println("$studyId $id $variable has repeated values...!")
-                                        }
+                        mTableView.scrollToRowPosition(plotId - 1)
 
-                                        var cellValue = value
+                    }
 
-                                        if (t != null) {
+                    //update the ui after background processing ends
+                    dataGridGroup.visibility = View.VISIBLE
 
-                                            try {
+                    progressBar.visibility = View.GONE
+                }
+            }
+        }
+    }
 
-                                                cellValue = CategoryJsonUtil
-                                                    .flattenMultiCategoryValue(
-                                                        decode(value),
-                                                        showLabel
-                                                    )
+    /**
+     * Appends the next window of rows, if any and none is already loading.
+     */
+    private fun loadNextWindow(studyId: Int, rowHeader: String, uniqueName: String, showLabel: Boolean) {
 
-                                            } catch (e: Exception) {
+        if (mLoadingWindow || mLoadedRows >= mRowIds.size) return
 
-                                                e.printStackTrace()
+        mLoadingWindow = true
 
-                                            }
-                                        }
+        val generation = mGeneration
+        val rowIds = mRowIds
+        val traits = mTraits
+        val from = mLoadedRows
+        val to = minOf(rowIds.size, from + WINDOW_ROWS)
 
-                                        //check repeated values and replace cellvalue with an ellipses
+        scope.launch {
 
-                                        if (repeatedValues.size > 1) {
+            val window = try {
 
-                                            //data list is a trait row in the data grid
-                                            dataList.add(CellData("...", id))
+                queryWindow(studyId, rowIds, from, to, rowHeader, uniqueName, traits, showLabel)
 
-                                        } else {
+            } catch (e: Exception) {
 
-                                            dataList.add(CellData(cellValue, id))
+                e.printStackTrace()
 
-                                        }
-                                    }
-                                }
+                null
+            }
 
-                                dataMap.add(dataList)
-                            }
+            withContext(Dispatchers.Main) {
 
-                        } while (cursor.moveToNext())
+                if (generation != mGeneration) return@withContext
 
-                    } catch (e: java.lang.IllegalStateException) {
+                mLoadingWindow = false
 
-                        withContext(Dispatchers.Main) {
-                            Utils.makeToast(this@DataGridActivity, getString(R.string.act_data_grid_cursor_failed))
-                        }
+                if (window == null) return@withContext
 
-                        e.printStackTrace()
+                mRowHeaders.addAll(window.headers)
 
-                    }
+                mPlotIds.addAll(window.plotIds)
 
-                    //send trait/plot indices to highlight the cell
-                    mAdapter = DataGridAdapter((trait ?: 1) - 1, (plotId ?: 1) - 1)
+                mAdapter.addRowRange(from, window.headers.map { HeaderData(it, it) }, window.cells)
 
-                    runOnUiThread {
+                mLoadedRows = to
+            }
+        }
+    }
 
-                        mTableView.setHasFixedWidth(true)
+    /**
+     * Queries rows [from, to) in one aggregate query and builds their cells.
+     * Repeated measures show as an ellipsis, categorical values are decoded to their label or value.
+     */
+    private fun queryWindow(
+        studyId: Int,
+        rowIds: IntArray,
+        from: Int,
+        to: Int,
+        rowHeader: String,
+        uniqueName: String,
+        traits: List<TraitObject>,
+        showLabel: Boolean
+    ): GridWindow {
 
-                        mTableView.tableViewListener = this@DataGridActivity
+        val ids = rowIds.copyOfRange(from, to)
 
-                        mTableView.isShowHorizontalSeparators = false
+        val positions = HashMap<Int, Int>(ids.size * 2)
+        ids.forEachIndexed { position, id -> positions[id] = position }
 
-                        mTableView.isShowVerticalSeparators = false
+        val headers = Array(ids.size) { "" }
+        val plotIds = Array(ids.size) { "" }
+        val cells = Array(ids.size) { traits.map { CellData("", "") } }
 
-                        mTableView.setAdapter(mAdapter)
+        val categorical = BooleanArray(traits.size) { traits[it].format in CATEGORICAL_FORMATS }
 
-                        mAdapter.setAllItems(mTraits.map { HeaderData(it.name, it.name) },
-                            mRowHeaders.map { HeaderData(it, it) },
-                            dataMap.toList()
-                        )
+        if (ids.isNotEmpty()) {
 
-                        //scroll to the position of the current trait/plot id
-                        if (plotId != null && trait != null) {
+            database.getDataGridRows(studyId, ids, rowHeader, uniqueName, traits.map { it.id })?.use { cursor ->
 
-                            mTableView.scrollToColumnPosition(trait - 1)
+                while (cursor.moveToNext()) {
 
-                            mTableView.scrollToRowPosition(plotId - 1)
+                    val position = positions[cursor.getInt(0)] ?: continue
 
-                        }
-                    }
+                    val id = cursor.getString(2) ?: ""
 
-                    cursor.close() //always remember to close your cursor! :)
+                    headers[position] = cursor.getString(1) ?: ""
 
-                    //update the ui after background processing ends
-                    runOnUiThread {
+                    plotIds[position] = id
+
+                    cells[position] = traits.indices.map { t ->
 
-                        dataGridGroup.visibility = View.VISIBLE
+                        val value = cursor.getString(3 + t * 2) ?: ""
 
-                        progressBar.visibility = View.GONE
+                        //check repeated values and replace cellvalue with an ellipses
+                        if (cursor.getInt(4 + t * 2) > 1) CellData("...", id)
+                        else CellData(if (categorical[t]) decodeCell(value, showLabel) else value, id)
                     }
                 }
             }
         }
+
+        return GridWindow(headers.asList(), plotIds.asList(), cells.asList())
+    }
+
+    private fun decodeCell(value: String, showLabel: Boolean): String {
+
+        if (value.isEmpty()) return value
+
+        return try {
+
+            CategoryJsonUtil.flattenMultiCategoryValue(decode(value), showLabel)
+
+        } catch (e: Exception) {
+
+            e.printStackTrace()
+
+            value
+        }
     }
 
     override fun onCellClicked(cellView: RecyclerView.ViewHolder, column: Int, row: Int) {
@@ -339,7 +339,7 @@ class FieldDetailFragment : Fragment(), FieldSyncController {
                     traitDetail.categories,
                     getString(R.string.field_trait_observation_total, traitDetail.count),
                     ContextCompat.getDrawable(requireContext(), iconRes ?: R.drawable.ic_trait_categorical),
-                    traitDetail.observations,
+                    traitDetail.summary,
                     traitDetail.completeness
                 )
             }
@@ -53,7 +53,7 @@ import com.fieldbook.tracker.adapters.FieldAdapter;
 import com.fieldbook.tracker.async.ImportRunnableTask;
 import com.fieldbook.tracker.brapi.BrapiInfoDialogFragment;
 import com.fieldbook.tracker.database.DataHelper;
-import com.fieldbook.tracker.database.models.ObservationUnitModel;
+import com.fieldbook.tracker.database.SpatialIndex;
 import com.fieldbook.tracker.dialogs.FieldCreatorDialogFragment;
 import com.fieldbook.tracker.dialogs.FieldSortDialogFragment;
 import com.fieldbook.tracker.dialogs.ListAddDialog;
@@ -81,12 +81,9 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.NoSuchElementException;
-import java.util.Optional;
 import java.util.stream.Collectors;
 import java.util.StringJoiner;
 import javax.inject.Inject;
@@ -132,7 +129,6 @@ public class FieldEditorActivity extends ThemedActivity
         public void run() {
             new ImportRunnableTask(FieldEditorActivity.this,
                     fieldFile,
-                    unique.getSelectedItemPosition(),
                     unique.getSelectedItem().toString(),
                     primary.getSelectedItem().toString(),
                     secondary.getSelectedItem().toString()).execute(0);
@@ -585,7 +581,7 @@ public class FieldEditorActivity extends ThemedActivity
 
     /**
      * Programmatically selects the closest field to the user's location.
-     * Finds all observation units with geocoordinate data, sorts the list and finds the first item.
+     * The nearest observation unit is looked up through the study extents and unit grid of the spatial index.
      */
     private void selectPlotByDistance() {
 
@@ -594,64 +590,41 @@ public class FieldEditorActivity extends ThemedActivity
             //get current coordinate of the user
             Location thisLocation = mGpsTracker.getLocation();
 
-            ObservationUnitModel[] units = database.getAllObservationUnits();
-            List<ObservationUnitModel> coordinates = new ArrayList<>();
+            SpatialIndex.NearestUnit closest = database.getNearestObservationUnit(thisLocation.getLatitude(), thisLocation.getLongitude());
 
-            //find all observation units with a coordinate
-            for (ObservationUnitModel model : units) {
-                String latlng = model.getGeo_coordinates();
-                if (latlng != null && !latlng.isEmpty()) {
-                    coordinates.add(model);
-                }
-            }
-
-            //sort the coordinates based on the distance from the user
-            Collections.sort(coordinates, (a, b) -> {
-                double distanceA = distanceTo(thisLocation, a.getLocation());
-                double distanceB = distanceTo(thisLocation, b.getLocation());
-                return Double.compare(distanceA, distanceB);
-            });
-
-            Optional<ObservationUnitModel> closest = coordinates.stream().findFirst();
-
-            try {
-
-                if (closest.isPresent()) {
-
-                    ObservationUnitModel model = closest.get();
+            if (closest != null) {
 
-                    int studyId = model.getStudy_id();
+                int studyId = closest.getStudyId();
 
-                    FieldObject study = database.getFieldObject(studyId);
+                FieldObject study = database.getFieldObject(studyId);
 
-                    String studyName = study.getExp_alias();
+                String studyName = study.getExp_alias();
 
-                    if (studyId == preferences.getInt(GeneralKeys.SELECTED_FIELD_ID, -1)) {
+                if (studyId == preferences.getInt(GeneralKeys.SELECTED_FIELD_ID, -1)) {
 
-                        SnackbarUtils.showNavigateSnack(getLayoutInflater(),
-                                findViewById(R.id.main_content),
-                                getString(R.string.activity_field_editor_switch_field_same),
-                                null,
-                                8000, null, null
-                                );
+                    SnackbarUtils.showNavigateSnack(getLayoutInflater(),
+                            findViewById(R.id.main_content),
+                            getString(R.string.activity_field_editor_switch_field_same),
+                            null,
+                            8000, null, null
+                            );
 
-                    } else {
+                } else {
 
-                        SnackbarUtils.showNavigateSnack(
-                                getLayoutInflater(),
-                                findViewById(R.id.main_content),
-                                getString(R.string.activity_field_editor_switch_field, studyName),
-                                null,
-                                8000,
-                                null, (v) -> {
-                                    fieldSwitcher.switchField(studyId);
-                                    queryAndLoadFields();
-                                }
-                        );
-                    }
+                    SnackbarUtils.showNavigateSnack(
+                            getLayoutInflater(),
+                            findViewById(R.id.main_content),
+                            getString(R.string.activity_field_editor_switch_field, studyName),
+                            null,
+                            8000,
+                            null, (v) -> {
+                                fieldSwitcher.switchField(studyId);
+                                queryAndLoadFields();
+                            }
+                    );
                 }
 
-            } catch (NoSuchElementException e) {
+            } else {
 
                 Toast.makeText(this, R.string.activity_field_editor_no_field_found, Toast.LENGTH_SHORT).show();
             }
@@ -662,11 +635,6 @@ public class FieldEditorActivity extends ThemedActivity
         }
     }
 
-    private double distanceTo(Location thisLocation, Location targetLocation) {
-        if (targetLocation == null) return Double.MAX_VALUE;
-        else return thisLocation.distanceTo(targetLocation);
-    }
-
     public String getFileName(Uri uri) {
         String result = null;
         if (uri.getScheme().equals("content")) {
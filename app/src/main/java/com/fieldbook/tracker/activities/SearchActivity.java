@@ -5,7 +5,6 @@ import android.content.Context;
 import android.content.DialogInterface;
 import android.content.DialogInterface.OnCancelListener;
 import android.content.SharedPreferences;
-import android.database.DatabaseUtils;
 import android.graphics.Color;
 import android.graphics.drawable.ColorDrawable;
 import android.os.Bundle;
@@ -27,11 +26,15 @@ import android.widget.TextView;
 
 import com.fieldbook.tracker.R;
 import com.fieldbook.tracker.database.DataHelper;
+import com.fieldbook.tracker.database.SearchQueryBuilder;
 import com.fieldbook.tracker.objects.SearchData;
+import com.fieldbook.tracker.objects.SearchDialogDataModel;
 import com.fieldbook.tracker.preferences.GeneralKeys;
 import com.fieldbook.tracker.utilities.Utils;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import javax.inject.Inject;
 
@@ -100,13 +103,17 @@ public class SearchActivity extends ActivityDialog {
                 ed.apply();
 
                 try {
-                    // Create the sql query based on user selection
-                    String sql1 = "select ObservationUnitProperty.id, ObservationUnitProperty." + TICK + preferences.getString(GeneralKeys.UNIQUE_NAME, "") + TICK + ", " + " ObservationUnitProperty." + TICK + preferences.getString(GeneralKeys.PRIMARY_NAME, "") + TICK + "," + " ObservationUnitProperty." + TICK + preferences.getString(GeneralKeys.SECONDARY_NAME, "") + TICK + " from ObservationUnitProperty where ObservationUnitProperty.id is not null ";
-                    String sql2 = "select ObservationUnitProperty.id, ObservationUnitProperty." + TICK + preferences.getString(GeneralKeys.UNIQUE_NAME, "") + TICK + ", " + " ObservationUnitProperty." + TICK + preferences.getString(GeneralKeys.PRIMARY_NAME, "") + TICK + "," + " ObservationUnitProperty." + TICK + preferences.getString(GeneralKeys.SECONDARY_NAME, "") + TICK + " from observation_variables, ObservationUnitProperty, observations where observations.observation_unit_id = ObservationUnitProperty." + TICK + preferences.getString(GeneralKeys.UNIQUE_NAME, "") + TICK + " and observations.observation_variable_name = observation_variables.observation_variable_name and observations.observation_variable_field_book_format = observation_variables.observation_variable_field_book_format ";
-
-                    String sql = "";
-
-                    boolean threeTables = false;
+                    // Spinner positions: equals, not equals, is like, is not like, more than, less than
+                    int[] operators = {
+                            R.drawable.ic_tb_equal,
+                            R.drawable.ic_tb_not_equal,
+                            R.drawable.ic_tb_contains,
+                            SearchQueryBuilder.NOT_CONTAINS,
+                            R.drawable.ic_tb_greater_than,
+                            R.drawable.ic_tb_less_than
+                    };
+
+                    List<SearchDialogDataModel> criteria = new ArrayList<>();
 
                     for (int i = 0; i < parent.getChildCount(); i++) {
                         LinearLayout child = (LinearLayout) parent.getChildAt(i);
@@ -116,93 +123,11 @@ public class SearchActivity extends ActivityDialog {
                         c = child.findViewById(R.id.columns);
                         s = child.findViewById(R.id.like);
 
-                        String value = "";
-                        String prefix;
-
-                        boolean before;
-
-                        if (c.getSelectedItemPosition() < rangeUntil) {
-                            before = true;
-                            prefix = "ObservationUnitProperty.";
-                        } else {
-                            before = false;
-                            threeTables = true;
-                            prefix = "observation_variables.observation_variable_name=";
-                        }
-
-                        // This is to prevent crashes when the user uses special characters
-                        String trunc = DatabaseUtils.sqlEscapeString(t.getText().toString());
-
-                        // We only want to escape the string, but not the encapsulating "'"
-                        // For example 'plot\'s', we only want plot\'s
-                        if (trunc.length() > 3)
-                            trunc = trunc.substring(1, trunc.length() - 2);
-
-                        switch (s.getSelectedItemPosition()) {
-
-                            // 0: Equals to
-                            case 0:
-                                if (before)
-                                    value = prefix + TICK + c.getSelectedItem().toString() + TICK + " = " + DatabaseUtils.sqlEscapeString(t.getText().toString()) + "";
-                                else
-                                    value = prefix + TICK + c.getSelectedItem().toString() + TICK + " and value = " + DatabaseUtils.sqlEscapeString(t.getText().toString()) + "";
-                                break;
-
-                            // 1: Not equals to
-                            case 1:
-                                if (before)
-                                    value = prefix + TICK + c.getSelectedItem().toString() + TICK + " != " + DatabaseUtils.sqlEscapeString(t.getText().toString()) + "";
-                                else
-                                    value = prefix + TICK + c.getSelectedItem().toString() + TICK + " and value != " + DatabaseUtils.sqlEscapeString(t.getText().toString()) + "";
-                                break;
-
-                            // 2: Is Like
-                            case 2:
-                                if (before)
-                                    value = prefix + TICK + c.getSelectedItem().toString() + TICK + " like " + DatabaseUtils.sqlEscapeString("%" + t.getText().toString() + "%") + "";
-                                else
-                                    value = prefix + TICK + c.getSelectedItem().toString() + TICK + " and observations.value like " + DatabaseUtils.sqlEscapeString("%" + t.getText().toString() + "%") + "";
-                                break;
-
-                            // 3: Not is like
-                            case 3:
-                                if (before)
-                                    value = prefix + TICK + c.getSelectedItem().toString() + TICK + " not like " + DatabaseUtils.sqlEscapeString("%" + t.getText().toString() + "%") + "";
-                                else
-                                    value = prefix + TICK + c.getSelectedItem().toString() + TICK + " and observations.value not like " + DatabaseUtils.sqlEscapeString("%" + t.getText().toString() + "%") + "";
-                                break;
-
-                            // 4: More than
-                            case 4:
-                                if (before)
-                                    value = prefix + TICK + c.getSelectedItem().toString() + TICK + " > " + trunc;
-                                else
-                                    value = prefix + TICK + c.getSelectedItem().toString() + TICK + " and value > " + trunc;
-                                break;
-
-                            // 5: less than
-                            case 5:
-                                if (before)
-                                    value = prefix + TICK + c.getSelectedItem().toString() + TICK + " < " + trunc;
-                                else
-                                    value = prefix + TICK + c.getSelectedItem().toString() + TICK + " and value < " + trunc;
-                                break;
-
-                        }
-
-                        if (i == parent.getChildCount() - 1)
-                            sql += "and " + value + " ";
-                        else
-                            sql += "and " + value + " ";
-
+                        criteria.add(new SearchDialogDataModel(c.getSelectedItem().toString(),
+                                operators[s.getSelectedItemPosition()], t.getText().toString()));
                     }
 
-                    if (threeTables)
-                        sql = sql2 + sql;
-                    else
-                        sql = sql1 + sql;
-
-                    final SearchData[] data = database.getRangeBySql(sql);
+                    final SearchData[] data = database.search(criteria);
 
                     AlertDialog.Builder builder = new AlertDialog.Builder(SearchActivity.this, R.style.AppAlertDialog);
 
@@ -15,15 +15,11 @@ import androidx.recyclerview.widget.RecyclerView;
 import com.fieldbook.tracker.R;
 import com.fieldbook.tracker.adapters.StatisticsAdapter;
 import com.fieldbook.tracker.database.DataHelper;
-import com.fieldbook.tracker.database.models.ObservationModel;
 import com.fieldbook.tracker.dialogs.StatisticsCalendarFragment;
 import com.google.android.material.tabs.TabLayout;
 
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
-import java.util.Set;
-import java.util.TreeSet;
 
 import javax.inject.Inject;
 
@@ -140,18 +136,8 @@ public class StatisticsActivity extends ThemedActivity {
             seasons.clear();
             seasons.add("");
         } else {
-            Set<String> uniqueSeasons = new TreeSet<>(Comparator.reverseOrder());
-
-            ObservationModel[] observations = database.getAllObservations();
-            for (ObservationModel observation : observations) {
-                String timeStamp = observation.getObservation_time_stamp();
-                if (toggleVariable == ToggleVariable.YEAR)
-                    uniqueSeasons.add(timeStamp.substring(0, 4));
-                else
-                    uniqueSeasons.add(timeStamp.substring(0, 7));
-            }
-
-            seasons = new ArrayList<>(uniqueSeasons);
+            // seasons are read from the daily observation rollup, latest first
+            seasons = new ArrayList<>(database.getObservationSeasons(toggleVariable == ToggleVariable.YEAR ? 4 : 7));
         }
         rvStatisticsCard.setAdapter(new StatisticsAdapter(this, seasons, toggleVariable));
 
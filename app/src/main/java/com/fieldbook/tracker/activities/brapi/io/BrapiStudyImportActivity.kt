@@ -17,43 +17,47 @@ import androidx.recyclerview.widget.RecyclerView
 import com.fieldbook.tracker.R
 import com.fieldbook.tracker.activities.ThemedActivity
 import com.fieldbook.tracker.activities.brapi.io.filter.filterer.BrapiStudyFilterActivity
+import com.fieldbook.tracker.activities.brapi.io.mapper.attributeNames
+import com.fieldbook.tracker.activities.brapi.io.mapper.toAttributeTable
 import com.fieldbook.tracker.activities.brapi.io.mapper.toTraitObject
 import com.fieldbook.tracker.adapters.StudyAdapter
 import com.fieldbook.tracker.adapters.StudyAdapter.Model
-import com.fieldbook.tracker.brapi.model.BrapiObservationLevel
-import com.fieldbook.tracker.brapi.model.BrapiStudyDetails
+import com.fieldbook.tracker.brapi.service.BrAPIService
 import com.fieldbook.tracker.brapi.service.BrAPIServiceFactory
 import com.fieldbook.tracker.brapi.service.BrAPIServiceV1
 import com.fieldbook.tracker.brapi.service.BrAPIServiceV2
+import com.fieldbook.tracker.brapi.service.BrapiStudyImporter
+import com.fieldbook.tracker.brapi.service.Fetcher
 import com.fieldbook.tracker.preferences.GeneralKeys
 import com.google.android.material.button.MaterialButton
 import com.google.android.material.tabs.TabLayout
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.MainScope
 import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
 import kotlinx.coroutines.cancel
 import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.ensureActive
 import kotlinx.coroutines.flow.catch
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
-import org.brapi.client.v2.model.queryParams.germplasm.GermplasmQueryParams
 import org.brapi.client.v2.model.queryParams.phenotype.ObservationUnitQueryParams
 import org.brapi.client.v2.model.queryParams.phenotype.VariableQueryParams
 import org.brapi.v2.model.core.BrAPIStudy
 import org.brapi.v2.model.germ.BrAPIGermplasm
 import org.brapi.v2.model.pheno.BrAPIObservationUnit
 import org.brapi.v2.model.pheno.BrAPIObservationVariable
-import org.brapi.v2.model.pheno.BrAPIPositionCoordinateTypeEnum
-import java.util.Locale
+import java.util.concurrent.ConcurrentHashMap
 import kotlin.collections.set
 
 /**
  * receive study information including trial
  * from trial get program
  * get obs. levels
- * get observation units, and traits, germplasm
+ * get the first page of observation units, and traits, germplasm of those units
+ * the import saves the first page and reads the following pages as it writes them
  */
 class BrapiStudyImportActivity : ThemedActivity(), CoroutineScope by MainScope() {
 
@@ -97,17 +101,15 @@ class BrapiStudyImportActivity : ThemedActivity(), CoroutineScope by MainScope()
     private val observationLevels = hashSetOf<String>()
     private val observationVariables =
         hashMapOf<String, HashSet<BrAPIObservationVariable>>().withDefault { hashSetOf() }
-    private val observationUnits =
-        hashMapOf<String, HashSet<BrAPIObservationUnit>>().withDefault { hashSetOf() }
-    private val germplasms =
-        hashMapOf<String, HashSet<BrAPIGermplasm>>().withDefault { hashSetOf() }
+    private val firstPages = ConcurrentHashMap<String, Fetcher.Page<BrAPIObservationUnit>>()
+    private val germplasms = ConcurrentHashMap<String, HashSet<BrAPIGermplasm>>()
 
     private var selectedLevel: Int = -1
     private var selectedSort: Int = -1
     private var selectedPrimary: Int = -1
     private var selectedSecondary: Int = -1
 
-    private var attributesTable: HashMap<String, Map<String, Map<String, String>>>? = null
+    private var attributeNames: HashMap<String, List<String>> = hashMapOf()
 
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
@@ -191,7 +193,7 @@ class BrapiStudyImportActivity : ThemedActivity(), CoroutineScope by MainScope()
         LEVELS, PRIMARY_ORDER, SECONDARY_ORDER, SORT
     }
 
-    private fun loadTabLayout(studyDbIds: List<String>) {
+    private suspend fun loadTabLayout(studyDbIds: List<String>) {
 
         tabLayout.visibility = View.VISIBLE
 
@@ -219,11 +221,17 @@ class BrapiStudyImportActivity : ThemedActivity(), CoroutineScope by MainScope()
 
         listView.visibility = View.VISIBLE
 
-        attributesTable = hashMapOf()
-        attributesTable?.let { table ->
-            for (study in studyDbIds) {
-                table[study] = getAttributes(study)
-            }
+        //each study's attributes are read on its own worker, only the attribute names are kept
+        val names = withContext(Dispatchers.Default) {
+            studyDbIds.map { study ->
+                val units = firstPages[study]?.models ?: listOf()
+                val germs = germplasms[study]?.toList() ?: listOf()
+                async { study to units.toAttributeTable(germs).attributeNames() }
+            }.awaitAll()
+        }
+
+        attributeNames = HashMap<String, List<String>>().also { studyNames ->
+            names.forEach { (study, attributes) -> studyNames[study] = attributes }
         }
 
         setDefaultAttributeIdentifiers()
@@ -231,9 +239,16 @@ class BrapiStudyImportActivity : ThemedActivity(), CoroutineScope by MainScope()
         setLevelListOptions()
     }
 
-    private fun existingLevels() = observationLevels.toList().intersect(observationUnits.flatMap { it.value }
-        .map { it.observationUnitPosition.observationLevel.levelName }
-        .toSet()).toTypedArray()
+    //the levels of the first pages, or every program level when a study has units past its first page
+    private fun existingLevels(): Array<String> {
+
+        val complete = firstPages.values.all { it.totalPages <= 1 }
+
+        val levels = firstPages.values.flatMap { it.models }
+            .mapNotNullTo(HashSet()) { it.observationUnitPosition?.observationLevel?.levelName }
+
+        return observationLevels.toList().filter { !complete || it in levels }.toTypedArray()
+    }
 
     private fun setLevelListOptions() {
 
@@ -266,7 +281,7 @@ class BrapiStudyImportActivity : ThemedActivity(), CoroutineScope by MainScope()
         }
     }
 
-    private fun getAttributeKeys() = attributesTable?.values?.flatMap { it.values }?.flatMap { it.keys }?.distinct() ?: listOf()
+    private fun getAttributeKeys() = attributeNames.values.flatten().distinct()
 
     private fun setSortListOptions() {
 
@@ -385,96 +400,6 @@ class BrapiStudyImportActivity : ThemedActivity(), CoroutineScope by MainScope()
         }
     }
 
-    private fun getAttributes(studyDbId: String): Map<String, Map<String, String>> {
-
-        val unitAttributes = hashMapOf<String, Map<String, String>>()
-        val germs = germplasms[studyDbId] ?: listOf()
-
-        observationUnits[studyDbId]?.forEach { unit ->
-
-            val attributes = hashMapOf<String, String>()
-
-            if (unit.germplasmName != null) {
-                attributes["Germplasm"] = unit.germplasmName
-            }
-
-            val position = unit.observationUnitPosition
-            if (position != null) {
-                position.observationLevelRelationships?.forEach { level ->
-                    if (level.levelName != null) {
-                        attributes[level.levelName.replaceFirstChar {
-                            if (it.isLowerCase()) it.titlecase(
-                                Locale.getDefault()
-                            ) else it.toString()
-                        }] = level.levelCode
-                    }
-                }
-
-                position.positionCoordinateX?.let { x ->
-                    attributes[getRowColStr(position.positionCoordinateXType) ?: "Row"] = x
-                }
-
-                position.positionCoordinateY?.let { y ->
-                    attributes[getRowColStr(position.positionCoordinateYType) ?: "Column"] = y
-                }
-
-                if (position.entryType != null && position.entryType.brapiValue != null) {
-                    attributes["EntryType"] = position.entryType.brapiValue
-                }
-            }
-
-            if (germplasms.isNotEmpty() && unit.germplasmDbId != null) {
-
-                germs.firstOrNull { it.germplasmDbId == unit.germplasmDbId }?.let { germ ->
-
-                    germ.accessionNumber?.let { accession ->
-                        attributes["AccessionNumber"] = accession
-                    }
-
-                    germ.pedigree?.let { pedigree ->
-                        attributes["Pedigree"] = pedigree
-                    }
-
-                    germ.synonyms?.let { synonyms ->
-                        attributes["Synonyms"] =
-                            synonyms.mapNotNull { it.synonym?.replace("\"", "\"\"") }
-                                .joinToString("; ")
-                    }
-                }
-            }
-
-            if (unit.observationUnitDbId != null) {
-                attributes["ObservationUnitDbId"] = unit.observationUnitDbId
-            }
-
-            if (unit.observationUnitName != null) {
-                attributes["ObservationUnitName"] = unit.observationUnitName
-            }
-
-            unitAttributes[unit.observationUnitDbId] = attributes
-        }
-
-        return unitAttributes
-
-    }
-
-    private fun getRowColStr(type: BrAPIPositionCoordinateTypeEnum?): String? {
-        if (null != type) {
-            return when (type) {
-                BrAPIPositionCoordinateTypeEnum.PLANTED_INDIVIDUAL,
-                BrAPIPositionCoordinateTypeEnum.GRID_COL,
-                BrAPIPositionCoordinateTypeEnum.MEASURED_COL,
-                BrAPIPositionCoordinateTypeEnum.LATITUDE -> "Column"
-
-                BrAPIPositionCoordinateTypeEnum.PLANTED_ROW,
-                BrAPIPositionCoordinateTypeEnum.GRID_ROW,
-                BrAPIPositionCoordinateTypeEnum.MEASURED_ROW,
-                BrAPIPositionCoordinateTypeEnum.LONGITUDE -> "Row"
-            }
-        }
-        return null
-    }
-
     private fun loadStudyList(studyDbIds: List<String>) {
 
         studyList.layoutManager = LinearLayoutManager(this).also {
@@ -502,19 +427,8 @@ class BrapiStudyImportActivity : ThemedActivity(), CoroutineScope by MainScope()
                 return observationVariables[id]?.toHashSet()
             }
 
-            override fun getObservationUnits(
-                id: String,
-                position: Int
-            ): HashSet<BrAPIObservationUnit>? {
-                return try {
-                    val levels = existingLevels()
-                    if (selectedLevel >= 0 && levels.isNotEmpty()) observationUnits[id]?.toHashSet()
-                        ?.filter { it.observationUnitPosition.observationLevel.levelName == levels.elementAt(selectedLevel) }?.toHashSet()
-                    else observationUnits[id]?.toHashSet()
-                } catch (e: Exception) {
-                    Log.e(TAG, "Failed to get observation units", e)
-                    hashSetOf()
-                }
+            override fun getObservationUnitCount(id: String, position: Int): Int? {
+                return firstPages[id]?.totalCount
             }
 
             override fun getGermplasm(id: String, position: Int): HashSet<BrAPIGermplasm>? {
@@ -556,8 +470,7 @@ class BrapiStudyImportActivity : ThemedActivity(), CoroutineScope by MainScope()
                 studyModels.forEachIndexed { index, model ->
 
                     launch {
-                        val job = fetchObservationUnits(model.id)
-                        job.join()
+                        fetchFirstPage(model.id)
                     }
                 }
 
@@ -569,8 +482,7 @@ class BrapiStudyImportActivity : ThemedActivity(), CoroutineScope by MainScope()
                 studyModels.forEachIndexed { index, model ->
 
                     launch {
-                        val job = fetchGermplasm(model.id)
-                        job.join()
+                        fetchGermplasm(model.id)
                         withContext(Dispatchers.Main) {
                             studyList.adapter?.notifyItemChanged(index)
                             loadTabLayout(studyDbIds)
@@ -581,7 +493,7 @@ class BrapiStudyImportActivity : ThemedActivity(), CoroutineScope by MainScope()
             }.await()
 
             if ((studyList.adapter as StudyAdapter).currentList.any {
-                    observationUnits[it.id]?.isEmpty() != false
+                    firstPages[it.id]?.models.isNullOrEmpty()
                 }) {
 
                 Toast.makeText(this@BrapiStudyImportActivity,
@@ -608,12 +520,36 @@ class BrapiStudyImportActivity : ThemedActivity(), CoroutineScope by MainScope()
 
             launch(Dispatchers.IO) {
 
-                studyDbIds.forEach { id ->
+                val level = getImportLevel()
+
+                val pageSize = prefs.getString(GeneralKeys.BRAPI_PAGE_SIZE, "512")?.toInt() ?: 512
 
-                    studies.firstOrNull { it.studyDbId == id }?.let {
+                val importer = BrapiStudyImporter(this@BrapiStudyImportActivity, brapiService as BrAPIServiceV2, pageSize)
 
-                        saveStudy(it)
+                val pages = ConcurrentHashMap<String, Pair<Int, Int>>()
 
+                //studies are fetched concurrently, each saves its units one page at a time
+                val responses = studyDbIds.mapNotNull { id -> studies.firstOrNull { it.studyDbId == id } }
+                    .mapNotNull { study -> getImportRequest(study, level) }
+                    .map { request ->
+                        async {
+                            importer.import(request) { saved, total ->
+                                pages[request.study.studyDbId] = saved to total
+                                launch {
+                                    setProgress(pages.values.sumOf { it.first }, pages.values.sumOf { it.second })
+                                }
+                            }
+                        }
+                    }.awaitAll()
+
+                //saved pages are kept, importing the study again continues after them
+                if (responses.any { !it.status && it.message != BrAPIService.notUniqueFieldMessage }) {
+                    withContext(Dispatchers.Main) {
+                        Toast.makeText(
+                            this@BrapiStudyImportActivity,
+                            getString(R.string.act_brapi_study_import_interrupted),
+                            Toast.LENGTH_LONG
+                        ).show()
                     }
                 }
 
@@ -623,72 +559,34 @@ class BrapiStudyImportActivity : ThemedActivity(), CoroutineScope by MainScope()
         }
     }
 
-    private fun saveStudy(study: BrAPIStudy) {
-
-        val level = BrapiObservationLevel().also {
-            it.observationLevelName = try {
-                if (selectedLevel in existingLevels().indices) {
-                    existingLevels().elementAt(selectedLevel)
-                } else {
-                    "plot"
-                }
-            } catch (e: Exception) {
-                Log.e(TAG, "Failed to get observation level", e)
-                finish()
-                ""
-            }
-        }
-
-        attributesTable?.get(study.studyDbId)?.let { studyAttributes ->
-
-            observationUnits[study.studyDbId]?.filter {
-                    if (it.observationUnitPosition.entryType.name == "TEST") true
-                    else it.observationUnitPosition.observationLevel.levelName == level.observationLevelName }
-                ?.let { units ->
-
-                    val details = BrapiStudyDetails()
-                    details.studyDbId = study.studyDbId
-                    details.studyName = study.studyName
-                    details.commonCropName = study.commonCropName
-                    details.numberOfPlots = units.size
-                    details.trialName = study.trialName
-
-                    details.traits = observationVariables[study.studyDbId]?.toList()
-                        ?.map { it.toTraitObject(this@BrapiStudyImportActivity) } ?: listOf()
-
-                    val attributes = studyAttributes.values.flatMap { it.keys }.distinct()
-                    val primaryId = attributes[selectedPrimary]
-                    val secondaryId = attributes[selectedSecondary]
-                    val sortOrder = if (selectedSort == -1) "" else attributes[selectedSort]
-
-                    details.attributes = attributes
-
-                    val unitAttributes = ArrayList<List<String>>()
-                    units.forEach { unit ->
-
-                        val row = ArrayList<String>()
-
-                        attributes.forEach { attr ->
-                            row.add(studyAttributes[unit.observationUnitDbId]?.get(attr) ?: "")
-                        }
-
-                        unitAttributes.add(row)
-
-                    }
-
-                    details.values = mutableListOf()
-                    details.values.addAll(unitAttributes)
-
-                    brapiService.saveStudyDetails(
-                        details,
-                        level,
-                        primaryId,
-                        secondaryId,
-                        sortOrder,
-                    )
-                }
+    private fun getImportLevel() = try {
+        if (selectedLevel in existingLevels().indices) {
+            existingLevels().elementAt(selectedLevel)
+        } else {
+            "plot"
         }
+    } catch (e: Exception) {
+        Log.e(TAG, "Failed to get observation level", e)
+        finish()
+        ""
+    }
 
+    private fun getImportRequest(study: BrAPIStudy, level: String): BrapiStudyImporter.Request? {
+
+        val attributes = attributeNames[study.studyDbId] ?: return null
+
+        return BrapiStudyImporter.Request(
+            study = study,
+            observationLevel = level,
+            columns = attributes,
+            primaryId = attributes[selectedPrimary],
+            secondaryId = attributes[selectedSecondary],
+            sortOrder = if (selectedSort == -1) "" else attributes[selectedSort],
+            traits = observationVariables[study.studyDbId]?.toList()
+                ?.map { it.toTraitObject(this@BrapiStudyImportActivity) } ?: listOf(),
+            germplasm = germplasms[study.studyDbId]?.toList() ?: listOf(),
+            firstPage = firstPages[study.studyDbId]
+        )
     }
 
     private suspend fun fetchObservationLevels(programDbId: String) = coroutineScope {
@@ -729,51 +627,23 @@ class BrapiStudyImportActivity : ThemedActivity(), CoroutineScope by MainScope()
         }
     }
 
-    private suspend fun fetchGermplasm(studyDbId: String) = coroutineScope {
-
-        val germs = arrayListOf<BrAPIGermplasm>()
-
-        val pageSize = prefs.getString(GeneralKeys.BRAPI_PAGE_SIZE, "512")?.toInt() ?: 512
-
-        Log.d(TAG, "Fetching germplasm for $studyDbId")
+    //only the germplasm of the first pages is needed for the attribute choices, the import fetches the rest
+    private suspend fun fetchGermplasm(studyDbId: String) = withContext(Dispatchers.IO) {
 
-        launch(Dispatchers.IO) {
+        val germplasmDbIds = firstPages[studyDbId]?.models?.mapNotNullTo(HashSet()) { it.germplasmDbId }
 
-            (brapiService as BrAPIServiceV2).germplasmService.fetchAll(GermplasmQueryParams()
-                .also {
-                    it.studyDbId(studyDbId)
-                    it.pageSize(pageSize)
-                })
-                .catch {
-                    Log.e(TAG, "Failed to fetch germplasm")
-                    cancel()
-                }
-                .collect { result ->
+        if (germplasmDbIds.isNullOrEmpty()) return@withContext
 
-                    val data = result as Pair<*, *>
-                    val total = data.first as Int
-                    val models = data.second as List<*>
-                    models.forEach { unit ->
-
-                        (unit as? BrAPIGermplasm)?.let { g ->
-                            Log.d("Unit", g.germplasmName ?: "No name")
-                            germs.add(g)
-                            if (total == germs.size) {
-                                germplasms.getOrPut(studyDbId) { hashSetOf() }
-                                    .addAll(germs)
-                                cancel()
-                            }
-                        }
-                    }
+        Log.d(TAG, "Fetching ${germplasmDbIds.size} germplasm for $studyDbId")
 
-                    if (models.isEmpty() && total == 0) {
-                        cancel()
-                    }
-                }
+        (brapiService as BrAPIServiceV2).streamGermplasmDetails(ArrayList(germplasmDbIds), { page ->
+            germplasms.getOrPut(studyDbId) { hashSetOf() }.addAll(page.values)
+        }) { _ ->
+            Log.e(TAG, "Failed to fetch germplasm")
+            null
         }
     }
 
-
     private suspend fun fetchObservationVariables(studyDbId: String) =
         coroutineScope {
 
@@ -821,49 +691,26 @@ class BrapiStudyImportActivity : ThemedActivity(), CoroutineScope by MainScope()
             }
         }
 
-    private suspend fun fetchObservationUnits(studyDbId: String) = coroutineScope {
-
-        val units = arrayListOf<BrAPIObservationUnit>()
+    private suspend fun fetchFirstPage(studyDbId: String) = withContext(Dispatchers.IO) {
 
         val pageSize = prefs.getString(GeneralKeys.BRAPI_PAGE_SIZE, "512")?.toInt() ?: 512
 
-        launch(Dispatchers.IO) {
+        try {
 
-            (brapiService as BrAPIServiceV2).observationUnitService.fetchAll(
+            firstPages[studyDbId] = (brapiService as BrAPIServiceV2).observationUnitService.fetchFirstPage(
                 ObservationUnitQueryParams().also {
                     it.studyDbId(studyDbId)
                     it.pageSize(pageSize)
-                    //it.observationUnitLevelName("plot")
                 }
             )
-                .catch {
-                    Log.e(TAG, "Failed to fetch observation units")
-                    cancel()
-                }
-                .collect { response ->
-                    Log.d("Unit", "Response")
 
-                    val data = response as Pair<*, *>
-                    val total = data.first as Int
-                    val models = data.second as List<*>
-                    models.forEach { unit ->
-
-                        (unit as? BrAPIObservationUnit)?.let { u ->
-                            Log.d("Unit", u.observationUnitName)
-                            units.add(u)
-                            if (total == units.size) {
-                                observationUnits.getOrPut(studyDbId) { hashSetOf() }
-                                    .addAll(units)
-                                cancel()
-                            }
-                        }
-                    }
+        } catch (e: CancellationException) {
 
-                    if (models.isEmpty() && total == 0) {
+            throw e
 
-                        cancel()
-                    }
-                }
+        } catch (e: Exception) {
+
+            Log.e(TAG, "Failed to fetch observation units", e)
         }
     }
 }
\ No newline at end of file
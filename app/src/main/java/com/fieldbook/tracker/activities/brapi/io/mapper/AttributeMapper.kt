@@ -0,0 +1,165 @@
+package com.fieldbook.tracker.activities.brapi.io.mapper
+
+import org.brapi.v2.model.germ.BrAPIGermplasm
+import org.brapi.v2.model.pheno.BrAPIObservationUnit
+import org.brapi.v2.model.pheno.BrAPIPositionCoordinateTypeEnum
+import java.util.Locale
+
+/**
+ * File for extension functions that build the Field Book attribute table of a BrAPI study
+ */
+
+/**
+ * Maps each unit's db id to its attribute values, joining germplasm details through an index of
+ * the germplasm by db id so each unit costs a single lookup.
+ */
+fun Collection<BrAPIObservationUnit>.toAttributeTable(
+    germplasm: Collection<BrAPIGermplasm>
+): Map<String, Map<String, String>> {
+
+    val germplasmById = germplasm.toGermplasmIndex()
+
+    val unitAttributes = HashMap<String, Map<String, String>>(capacity(size))
+
+    forEach { unit ->
+        unitAttributes[unit.observationUnitDbId] = unit.toAttributes(germplasmById)
+    }
+
+    return unitAttributes
+}
+
+/**
+ * @return the germplasm by db id, the first record of an id is kept
+ */
+fun Collection<BrAPIGermplasm>.toGermplasmIndex(): HashMap<String, BrAPIGermplasm> {
+
+    val germplasmById = HashMap<String, BrAPIGermplasm>(capacity(size))
+
+    forEach { germ ->
+        germ.germplasmDbId?.let { id -> germplasmById.putIfAbsent(id, germ) }
+    }
+
+    return germplasmById
+}
+
+/**
+ * @return the unit's attribute values, in the order the attributes are first added
+ */
+fun BrAPIObservationUnit.toAttributes(germplasmById: Map<String, BrAPIGermplasm>): Map<String, String> {
+
+    val attributes = LinkedHashMap<String, String>()
+
+    if (germplasmName != null) {
+        attributes["Germplasm"] = germplasmName
+    }
+
+    val position = observationUnitPosition
+    if (position != null) {
+        position.observationLevelRelationships?.forEach { level ->
+            if (level.levelName != null) {
+                attributes[level.levelName.replaceFirstChar {
+                    if (it.isLowerCase()) it.titlecase(
+                        Locale.getDefault()
+                    ) else it.toString()
+                }] = level.levelCode
+            }
+        }
+
+        position.positionCoordinateX?.let { x ->
+            attributes[getRowColStr(position.positionCoordinateXType) ?: "Row"] = x
+        }
+
+        position.positionCoordinateY?.let { y ->
+            attributes[getRowColStr(position.positionCoordinateYType) ?: "Column"] = y
+        }
+
+        if (position.entryType != null && position.entryType.brapiValue != null) {
+            attributes["EntryType"] = position.entryType.brapiValue
+        }
+    }
+
+    germplasmDbId?.let { germplasmById[it] }?.let { germ ->
+
+        germ.accessionNumber?.let { accession ->
+            attributes["AccessionNumber"] = accession
+        }
+
+        germ.pedigree?.let { pedigree ->
+            attributes["Pedigree"] = pedigree
+        }
+
+        germ.synonyms?.let { synonyms ->
+            attributes["Synonyms"] =
+                synonyms.mapNotNull { it.synonym?.replace("\"", "\"\"") }
+                    .joinToString("; ")
+        }
+    }
+
+    if (observationUnitDbId != null) {
+        attributes["ObservationUnitDbId"] = observationUnitDbId
+    }
+
+    if (observationUnitName != null) {
+        attributes["ObservationUnitName"] = observationUnitName
+    }
+
+    return attributes
+}
+
+/**
+ * @return the distinct attribute names of the table, in the order they first appear
+ */
+fun Map<String, Map<String, String>>.attributeNames(): List<String> {
+
+    val names = LinkedHashSet<String>()
+
+    values.forEach { names.addAll(it.keys) }
+
+    return names.toList()
+}
+
+/**
+ * @return one row of values per unit, in the order of the attribute names, missing values are empty
+ */
+fun Map<String, Map<String, String>>.toAttributeRows(
+    units: Collection<BrAPIObservationUnit>,
+    attributes: List<String>
+): List<List<String>> {
+
+    val rows = ArrayList<List<String>>(units.size)
+
+    units.forEach { unit ->
+
+        val values = this[unit.observationUnitDbId]
+
+        val row = ArrayList<String>(attributes.size)
+
+        attributes.forEach { attr ->
+            row.add(values?.get(attr) ?: "")
+        }
+
+        rows.add(row)
+    }
+
+    return rows
+}
+
+//hash map capacity that holds the given number of entries without resizing
+private fun capacity(entries: Int) = (entries / 0.75f).toInt() + 1
+
+private fun getRowColStr(type: BrAPIPositionCoordinateTypeEnum?): String? {
+    if (null != type) {
+        return when (type) {
+            BrAPIPositionCoordinateTypeEnum.PLANTED_INDIVIDUAL,
+            BrAPIPositionCoordinateTypeEnum.GRID_COL,
+            BrAPIPositionCoordinateTypeEnum.MEASURED_COL,
+            BrAPIPositionCoordinateTypeEnum.LATITUDE -> "Column"
+
+            BrAPIPositionCoordinateTypeEnum.PLANTED_ROW,
+            BrAPIPositionCoordinateTypeEnum.GRID_ROW,
+            BrAPIPositionCoordinateTypeEnum.MEASURED_ROW,
+            BrAPIPositionCoordinateTypeEnum.LONGITUDE -> "Row"
+        }
+    }
+    return null
+}
@@ -8,6 +8,7 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
+import android.widget.Toast;
 import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.ListAdapter;
@@ -57,7 +58,8 @@ public class FieldAdapter extends ListAdapter<FieldObject, FieldAdapter.ViewHold
             }
             @Override
             public boolean areContentsTheSame(@NonNull FieldObject oldItem, @NonNull FieldObject newItem) {
-                return oldItem.getExp_alias().equals(newItem.getExp_alias());
+                return oldItem.getExp_alias().equals(newItem.getExp_alias())
+                        && oldItem.isImport_incomplete() == newItem.isImport_incomplete();
             }
         });
         this.context = context;
@@ -131,6 +133,9 @@ public class FieldAdapter extends ListAdapter<FieldObject, FieldAdapter.ViewHold
                 FieldObject field = getItem(position);
                 if (field != null && isInSelectionMode) {
                     toggleSelection(field.getExp_id());
+                } else if (field != null && field.isImport_incomplete()) {
+                    // Units of a partly imported field are missing until the import is finished
+                    Toast.makeText(context, R.string.field_import_incomplete_message, Toast.LENGTH_LONG).show();
                 } else if (field != null && context instanceof FieldEditorActivity) {
                     ((FieldEditorActivity) context).setActiveField(field.getExp_id());
                 }
@@ -181,6 +186,9 @@ public class FieldAdapter extends ListAdapter<FieldObject, FieldAdapter.ViewHold
         String level = !TextUtils.isEmpty(specificLevel) ? specificLevel + " " + genericLevel : genericLevel;
 
         String formattedCount = String.format(context.getString(R.string.field_observation_count_format), count, level);
+        if (field.isImport_incomplete()) {
+            formattedCount = String.format(context.getString(R.string.field_import_incomplete_format), formattedCount);
+        }
         holder.count.setText(formattedCount);
 
         // Set source icon
@@ -19,7 +19,7 @@ import com.fieldbook.tracker.utilities.CategoryJsonUtil
 import com.github.mikephil.charting.charts.BarChart
 import com.github.mikephil.charting.charts.HorizontalBarChart
 import com.github.mikephil.charting.charts.PieChart
-import java.math.BigDecimal
+import com.fieldbook.tracker.objects.TraitSummary
 
 class FieldDetailAdapter(private var items: MutableList<FieldDetailItem>) : RecyclerView.Adapter<FieldDetailAdapter.ViewHolder>() {
 
@@ -67,42 +67,38 @@ class FieldDetailAdapter(private var items: MutableList<FieldDetailItem>) : Recy
         holder.collapsibleContent.visibility = View.VISIBLE
         holder.expandCollapseIcon.setImageResource(R.drawable.ic_chevron_up)
 
-        // Check for null and filter out NAs and empty strings
-        val filteredObservations = item.observations?.filter { it.isNotEmpty() && it != "NA" } ?: emptyList()
+        // NAs and empty strings are not part of the summary frequencies
+        val frequencies = item.summary?.frequencies ?: emptyMap()
+        val numericFrequencies = item.summary?.numericFrequencies
 
-        if (filteredObservations == null || filteredObservations.isEmpty()) {
+        if (frequencies.isEmpty()) {
             noChartAvailableMessage(holder, holder.itemView.context.getString(R.string.field_trait_chart_no_data))
             return
         } else if (item.format in nonChartableFormats) {
             noChartAvailableMessage(holder, holder.itemView.context.getString(R.string.field_trait_chart_incompatible_format))
+        } else if (numericFrequencies != null && item.format != "categorical") {
+            // Categorical traits must use bar chart
+            holder.barChart.visibility = View.GONE
+            holder.histogram.visibility = View.VISIBLE
+            holder.noChartAvailableTextView.visibility = View.GONE
+            HistogramChartHelper.setupHistogram(
+                holder.itemView.context,
+                holder.histogram,
+                numericFrequencies,
+                chartTextSize
+            )
         } else {
-            try {
-                val numericObservations = filteredObservations.map { BigDecimal(it) }
-                if (item.format == "categorical") {
-                    throw NumberFormatException("Categorical traits must use bar chart")
-                }
-                holder.barChart.visibility = View.GONE
-                holder.histogram.visibility = View.VISIBLE
-                holder.noChartAvailableTextView.visibility = View.GONE
-                HistogramChartHelper.setupHistogram(
-                    holder.itemView.context,
-                    holder.histogram,
-                    numericObservations,
-                    chartTextSize
-                )
-            } catch (e: NumberFormatException) {
-                holder.barChart.visibility = View.VISIBLE
-                holder.histogram.visibility = View.GONE
-                holder.noChartAvailableTextView.visibility = View.GONE
-                val parsedCategories = parseCategories(item.categories)
-                HorizontalBarChartHelper.setupHorizontalBarChart(
-                    holder.itemView.context,
-                    holder.barChart,
-                    filteredObservations,
-                    parsedCategories.takeIf { it.isNotEmpty() },
-                    chartTextSize
-                )
-            }
+            holder.barChart.visibility = View.VISIBLE
+            holder.histogram.visibility = View.GONE
+            holder.noChartAvailableTextView.visibility = View.GONE
+            val parsedCategories = parseCategories(item.categories)
+            HorizontalBarChartHelper.setupHorizontalBarChart(
+                holder.itemView.context,
+                holder.barChart,
+                frequencies,
+                parsedCategories.takeIf { it.isNotEmpty() },
+                chartTextSize
+            )
         }
     }
 
@@ -159,6 +155,6 @@ data class FieldDetailItem(
     val categories: String,
     val subtitle: String,
     val icon: Drawable?,
-    val observations: List<String>? = null,
+    val summary: TraitSummary? = null,
     val completeness: Float = 0.0f
 )
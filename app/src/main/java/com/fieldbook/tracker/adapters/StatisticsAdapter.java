@@ -21,6 +21,7 @@ import androidx.recyclerview.widget.RecyclerView;
 import com.fieldbook.tracker.R;
 import com.fieldbook.tracker.activities.StatisticsActivity;
 import com.fieldbook.tracker.database.DataHelper;
+import com.fieldbook.tracker.database.dao.ObservationStatisticsDao;
 import com.fieldbook.tracker.database.models.ObservationModel;
 import com.fieldbook.tracker.objects.StatisticObject;
 import com.fieldbook.tracker.traits.formats.Formats;
@@ -38,29 +39,22 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.TimeUnit;
 
 public class StatisticsAdapter extends RecyclerView.Adapter<StatisticsAdapter.ViewHolder> {
 
     StatisticsActivity originActivity;
     DataHelper database;
     List<String> seasons;
-    private final SimpleDateFormat timeStampFormat;
-    private final SimpleDateFormat failTimeStampFormat;
-    private static final String TIME_STAMP_PATTERN = "yyyy-MM-dd HH:mm:ss.SSSZZZZZ";
-    private static final String FAIL_TIME_STAMP_PATTERN = "yyyy-MM-dd HH:mm:ss";
+    private final SimpleDateFormat dayFormat;
+    private static final String DAY_PATTERN = "yyyy-MM-dd";
     private static final String DATE_FORMAT_PATTERN = "MM-dd-yy";
     private static final String YEAR_MONTH_PATTERN = "yyyy-MM";
     private static final String MONTH_VIEW_CARD_TITLE_PATTERN ="MMMM yyyy";
     private final SimpleDateFormat yearMonthFormat;
     private final SimpleDateFormat monthViewCardTitle;
-    private static final int intervalThreshold = 30;
     private Toast toast;
     StatisticsActivity.ToggleVariable cardType;
 
@@ -68,8 +62,7 @@ public class StatisticsAdapter extends RecyclerView.Adapter<StatisticsAdapter.Vi
         this.originActivity = context;
         this.database = originActivity.getDatabase();
         this.seasons = seasons;
-        this.timeStampFormat = new SimpleDateFormat(TIME_STAMP_PATTERN, Locale.getDefault());
-        this.failTimeStampFormat = new SimpleDateFormat(FAIL_TIME_STAMP_PATTERN, Locale.getDefault());
+        this.dayFormat = new SimpleDateFormat(DAY_PATTERN, Locale.getDefault());
         this.yearMonthFormat = new SimpleDateFormat(YEAR_MONTH_PATTERN, Locale.getDefault());
         this.monthViewCardTitle = new SimpleDateFormat(MONTH_VIEW_CARD_TITLE_PATTERN, Locale.getDefault());
         this.cardType = cardType;
@@ -100,85 +93,35 @@ public class StatisticsAdapter extends RecyclerView.Adapter<StatisticsAdapter.Vi
     @Override
     public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
 
-        ObservationModel[] observations = database.getAllObservationsFromAYear(seasons.get(position));
+        String season = seasons.get(position);
 
-        Set<String> fields = new HashSet<>();
-        Set<String> observationUnits = new HashSet<>();
-        Set<String> collectors = new HashSet<>();
-        ArrayList<Date> dateObjects = new ArrayList<>();
-        Map<String, Integer> dateCount = new HashMap<>();
-        Map<String, Integer> observationCount = new HashMap<>();
-        int imageCount = 0;
-
-        for (ObservationModel observation : observations) {
-
-            fields.add(observation.getStudy_id());
-
-            observationUnits.add(observation.getObservation_unit_id());
+        ObservationStatisticsDao.Summary summary = database.getObservationSummary(season);
 
-            String collector = observation.getCollector();
-            if (collector != null && !collector.trim().isEmpty()) {
-                collectors.add(collector);
-            }
+        // recycled cards are always rebound, a missing summary shows as an empty season
+        if (summary == null) summary = ObservationStatisticsDao.Summary.EMPTY;
 
-            String time = observation.getObservation_time_stamp();
-            Date dateObject;
-            try {
-                dateObject = timeStampFormat.parse(time);
-            } catch (ParseException e) {
-                try {
-                    if (time != null) {
-                        String split = time.split("\\.")[0];
-                        dateObject = failTimeStampFormat.parse(split);
-                    } else {
-                        dateObject = new Date();
-                    }
-                } catch (ParseException pe) {
-                    throw new RuntimeException(pe);
-                }
-            }
-            dateObjects.add(dateObject);
-
-            if (observation.getObservation_variable_field_book_format() != null) {
-                if (Formats.Companion.isCameraTrait(observation.getObservation_variable_field_book_format())) {
-                    imageCount++;
-                }
+        int imageCount = 0;
+        for (Map.Entry<String, Integer> entry : summary.getFormatCounts().entrySet()) {
+            if (entry.getKey() != null && Formats.Companion.isCameraTrait(entry.getKey())) {
+                imageCount += entry.getValue();
             }
-
-            String date = new SimpleDateFormat(DATE_FORMAT_PATTERN, Locale.getDefault()).format(dateObject);
-            dateCount.put(date, dateCount.getOrDefault(date, 0) + 1);
-
-            String observationUnitId = observation.getObservation_unit_id();
-            observationCount.put(observationUnitId, observationCount.getOrDefault(observationUnitId, 0) + 1);
-
         }
 
-        long totalInterval = 0;
-        for (int i = 1; i< dateObjects.size(); i++){
-            long diff = dateObjects.get(i).getTime() - dateObjects.get(i-1).getTime();
-            if (diff <= TimeUnit.MINUTES.toMillis(intervalThreshold)){
-                totalInterval += TimeUnit.MILLISECONDS.toSeconds(diff);
-            }
-        }
-        String timeString = String.format("%.2f", totalInterval / 3600.0);
+        String timeString = String.format("%.2f", summary.getActiveSeconds() / 3600.0);
 
-        int maxObservationsInADay = 0;
+        int maxObservationsInADay = summary.getBusiestDayCount();
         String dateWithMostObservations = null;
-        for (Map.Entry<String, Integer> entry : dateCount.entrySet()) {
-            if (entry.getValue() > maxObservationsInADay) {
-                maxObservationsInADay = entry.getValue();
-                dateWithMostObservations = entry.getKey();
+        if (summary.getBusiestDay() != null) {
+            try {
+                dateWithMostObservations = new SimpleDateFormat(DATE_FORMAT_PATTERN, Locale.getDefault())
+                        .format(dayFormat.parse(summary.getBusiestDay()));
+            } catch (ParseException e) {
+                dateWithMostObservations = summary.getBusiestDay();
             }
         }
 
-        int maxObservationsOnSingleUnit = 0;
-        String unitWithMostObservations = null;
-        for (Map.Entry<String, Integer> entry : observationCount.entrySet()) {
-            if (entry.getValue() > maxObservationsOnSingleUnit) {
-                maxObservationsOnSingleUnit = entry.getValue();
-                unitWithMostObservations = entry.getKey();
-            }
-        }
+        int maxObservationsOnSingleUnit = summary.getMostObservedUnitCount();
+        String unitWithMostObservations = summary.getMostObservedUnit();
 
         String cardTitle = "";
         Date date;
@@ -197,39 +140,37 @@ public class StatisticsAdapter extends RecyclerView.Adapter<StatisticsAdapter.Vi
 
         holder.year_text_view.setText(cardTitle);
 
-        List<String> fieldNames = new ArrayList<>();
-        for (String field : fields) {
-            fieldNames.add(database.getFieldObject(Integer.valueOf(field)).getExp_name());
-        }
+        List<String> fieldNames = summary.getFieldNames();
 
-        List<String> unitWithMostObservationsList = new ArrayList<>();
-        for (ObservationModel observation : observations) {
-            if (observation.getObservation_unit_id().equals(unitWithMostObservations)) {
-                final String traitFormat = observation.getObservation_variable_field_book_format();
+        ObservationModel[] unitObservations = unitWithMostObservations == null ? new ObservationModel[0]
+                : database.getAllObservationsOfUnitFromAYear(unitWithMostObservations, season);
 
-                if (traitFormat != null) {
+        List<String> unitWithMostObservationsList = new ArrayList<>();
+        for (ObservationModel observation : unitObservations) {
+            final String traitFormat = observation.getObservation_variable_field_book_format();
 
-                    TraitFormat formats = Formats.Companion.findTrait(traitFormat);
+            if (traitFormat != null) {
 
-                    Object valueModel = observation.getValue();
+                TraitFormat formats = Formats.Companion.findTrait(traitFormat);
 
-                    if (formats instanceof StringCoder) {
+                Object valueModel = observation.getValue();
 
-                        valueModel = ((StringCoder) formats).decode(valueModel.toString());
+                if (formats instanceof StringCoder) {
 
-                    }
+                    valueModel = ((StringCoder) formats).decode(valueModel.toString());
 
-                    if (formats instanceof ValuePresenter) {
+                }
 
-                        unitWithMostObservationsList.add(observation.getObservation_variable_name() + ": " + ((ValuePresenter) formats).represent(originActivity, valueModel));
+                if (formats instanceof ValuePresenter) {
 
-                    } else {
+                    unitWithMostObservationsList.add(observation.getObservation_variable_name() + ": " + ((ValuePresenter) formats).represent(originActivity, valueModel));
 
-                        unitWithMostObservationsList.add(observation.getObservation_variable_name() + ": " + observation.getValue());
+                } else {
 
-                    }
+                    unitWithMostObservationsList.add(observation.getObservation_variable_name() + ": " + observation.getValue());
 
                 }
+
             }
         }
 
@@ -237,11 +178,11 @@ public class StatisticsAdapter extends RecyclerView.Adapter<StatisticsAdapter.Vi
 
         List<StatisticObject> statisticObjectList = new ArrayList<>();
 
-        statisticObjectList.add(new StatisticObject(originActivity.getString(R.string.stat_title_fields), String.valueOf(fields.size()), R.drawable.ic_stats_field, 0, originActivity.getString(R.string.stat_fields_dialog_title) + " " + seasons.get(position), fieldNames, ""));
-        statisticObjectList.add(new StatisticObject(originActivity.getString(R.string.stat_title_entries), String.valueOf(observationUnits.size()), R.drawable.ic_stats_plot, 1, "", null, observationUnits.size() + " " + originActivity.getString(R.string.stat_entries_toast_message)));
-        statisticObjectList.add(new StatisticObject(originActivity.getString(R.string.stat_title_data), String.valueOf(observations.length), R.drawable.ic_stats_observation, 1, "", null, observations.length + " " + originActivity.getString(R.string.stat_data_toast_message)));
+        statisticObjectList.add(new StatisticObject(originActivity.getString(R.string.stat_title_fields), String.valueOf(fieldNames.size()), R.drawable.ic_stats_field, 0, originActivity.getString(R.string.stat_fields_dialog_title) + " " + seasons.get(position), fieldNames, ""));
+        statisticObjectList.add(new StatisticObject(originActivity.getString(R.string.stat_title_entries), String.valueOf(summary.getUnitCount()), R.drawable.ic_stats_plot, 1, "", null, summary.getUnitCount() + " " + originActivity.getString(R.string.stat_entries_toast_message)));
+        statisticObjectList.add(new StatisticObject(originActivity.getString(R.string.stat_title_data), String.valueOf(summary.getObservationCount()), R.drawable.ic_stats_observation, 1, "", null, summary.getObservationCount() + " " + originActivity.getString(R.string.stat_data_toast_message)));
         statisticObjectList.add(new StatisticObject(originActivity.getString(R.string.stat_title_hours), timeString, R.drawable.ic_stats_time, 1, "", null, timeString + " " + originActivity.getString(R.string.stat_hours_toast_message)));
-        statisticObjectList.add(new StatisticObject(originActivity.getString(R.string.stat_title_people), String.valueOf(collectors.size()), R.drawable.ic_stats_people, 0, originActivity.getString(R.string.stat_people_dialog_title), new ArrayList<>(collectors), ""));
+        statisticObjectList.add(new StatisticObject(originActivity.getString(R.string.stat_title_people), String.valueOf(summary.getCollectors().size()), R.drawable.ic_stats_people, 0, originActivity.getString(R.string.stat_people_dialog_title), new ArrayList<>(summary.getCollectors()), ""));
         statisticObjectList.add(new StatisticObject(originActivity.getString(R.string.stat_title_photos), String.valueOf(imageCount), R.drawable.ic_stats_photo, 1, "", null, imageCount + " " + originActivity.getString(R.string.stat_photos_toast_message)));
         statisticObjectList.add(new StatisticObject(originActivity.getString(R.string.stat_title_busiest), dateWithMostObservations, R.drawable.ic_stats_busiest, 1, "", null, maxObservationsInADay + " " + originActivity.getString(R.string.stat_busiest_toast_message) + " " + dateWithMostObservations));
         statisticObjectList.add(new StatisticObject(originActivity.getString(R.string.stat_title_most), String.valueOf(maxObservationsOnSingleUnit), R.drawable.ic_stats_most_obs, 0, unitWithMostObservations, unitWithMostObservationsList, ""));
@@ -12,7 +12,6 @@ import androidx.recyclerview.widget.RecyclerView
 import com.fieldbook.tracker.R
 import com.google.android.material.chip.Chip
 import org.brapi.v2.model.germ.BrAPIGermplasm
-import org.brapi.v2.model.pheno.BrAPIObservationUnit
 import org.brapi.v2.model.pheno.BrAPIObservationVariable
 
 /**
@@ -24,7 +23,7 @@ class StudyAdapter(private val studyLoader: StudyLoader) :
 
     interface StudyLoader {
         fun getObservationVariables(id: String, position: Int): HashSet<BrAPIObservationVariable>?
-        fun getObservationUnits(id: String, position: Int): HashSet<BrAPIObservationUnit>?
+        fun getObservationUnitCount(id: String, position: Int): Int?
         fun getGermplasm(id: String, position: Int): HashSet<BrAPIGermplasm>?
         fun getLocation(id: String): String
         fun getTrialName(id: String): String
@@ -46,7 +45,7 @@ class StudyAdapter(private val studyLoader: StudyLoader) :
         with(currentList[position]) {
             holder.titleTextView.text = title
             holder.traitCountChip.text = studyLoader.getObservationVariables(id, position)?.size?.toString() ?: "0"
-            holder.unitCountChip.text = studyLoader.getObservationUnits(id, position)?.size?.toString() ?: ""
+            holder.unitCountChip.text = studyLoader.getObservationUnitCount(id, position)?.toString() ?: ""
             holder.locationChip.text = studyLoader.getLocation(id)
             holder.trialChip.text = studyLoader.getTrialName(id)
             if (holder.traitCountChip.text.isNotBlank()
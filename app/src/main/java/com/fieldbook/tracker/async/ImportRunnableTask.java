@@ -10,6 +10,7 @@ import androidx.preference.PreferenceManager;
 
 import com.fieldbook.tracker.R;
 import com.fieldbook.tracker.activities.CollectActivity;
+import com.fieldbook.tracker.database.BulkFieldImporter;
 import com.fieldbook.tracker.database.DataHelper;
 import com.fieldbook.tracker.interfaces.FieldAdapterController;
 import com.fieldbook.tracker.objects.FieldFileObject;
@@ -19,7 +20,7 @@ import com.fieldbook.tracker.utilities.Utils;
 
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.HashSet;
 
 public class ImportRunnableTask extends AsyncTask<Integer, Integer, Integer> {
     ProgressDialog dialog;
@@ -28,16 +29,16 @@ public class ImportRunnableTask extends AsyncTask<Integer, Integer, Integer> {
     FieldAdapterController controller;
     FieldFileObject.FieldFileBase mFieldFile;
     String unique, primary, secondary;
-    int idColPosition;
     SharedPreferences preferences;
 
     int lineFail = -1;
     boolean fail;
     boolean uniqueFail;
+    boolean specialCharactersFail;
     boolean containsDuplicates = false;
 
     public ImportRunnableTask(Context context, FieldFileObject.FieldFileBase fieldFile,
-                              int idColPosition, String unique, String primary, String secondary) {
+                              String unique, String primary, String secondary) {
 
         mFieldFile = fieldFile;
 
@@ -49,7 +50,6 @@ public class ImportRunnableTask extends AsyncTask<Integer, Integer, Integer> {
 
         preferences = PreferenceManager.getDefaultSharedPreferences(context);
 
-        this.idColPosition = idColPosition;
         this.unique = unique;
         this.primary = primary;
         this.secondary = secondary;
@@ -76,15 +76,6 @@ public class ImportRunnableTask extends AsyncTask<Integer, Integer, Integer> {
         int studyId = -1;
 
         try {
-            if (!verifyUniqueColumn(mFieldFile)) {
-                uniqueFail = true;
-                return 0;
-            }
-
-            if (mFieldFile.hasSpecialCharacters()) {
-                return 0;
-            }
-
             mFieldFile.open();
             String[] data;
             String[] columns = mFieldFile.readNext();
@@ -130,70 +121,116 @@ public class ImportRunnableTask extends AsyncTask<Integer, Integer, Integer> {
             f.setPrimary_id(primary);
             f.setSecondary_id(secondary);
 
-            studyId = controller.getDatabase().createField(f, nonEmptyColumns, false);
+            DataHelper database = controller.getDatabase();
 
-            controller.getDatabase().beginTransaction();
+            //the field and its rows are committed together once every check passed,
+            //a failed or interrupted import leaves neither behind
+            database.beginTransaction();
 
-            //start iterating over all the rows of the csv file only if we found the u/p/s indices
-            if (uniqueIndex > -1 && primaryIndex > -1 && secondaryIndex > -1) {
+            try {
 
-                int line = 0;
+                studyId = database.createField(f, nonEmptyColumns, false);
 
-                try {
-                    while (true) {
-                        data = mFieldFile.readNext();
-                        if (data == null)
-                            break;
+                //start iterating over all the rows of the csv file only if we found the u/p/s indices
+                if (uniqueIndex > -1 && primaryIndex > -1 && secondaryIndex > -1) {
 
-                        //only load the row if it contains u/p/s data
-                        int rowSize = data.length;
+                    int line = 0;
 
-                        //ensure next check won't cause an AIOB
-                        if (rowSize > uniqueIndex && rowSize > primaryIndex && rowSize > secondaryIndex) {
+                    //unique ids are checked while the rows are read, the file is only read once
+                    HashSet<String> uniqueIds = new HashSet<>();
 
-                            //check that all u/p/s strings are not empty
-                            if (!data[uniqueIndex].isEmpty() && !data[primaryIndex].isEmpty()
-                                    && !data[secondaryIndex].isEmpty()) {
+                    //the importer joins the field's transaction
+                    try (BulkFieldImporter importer = database.createFieldImporter(studyId, nonEmptyColumns,
+                            (rows, rowsPerSecond) -> publishProgress(rows, Math.round(rowsPerSecond)))) {
 
-                                ArrayList<String> nonEmptyData = new ArrayList<>();
-                                for (int j = 0; j < data.length; j++) {
-                                    if (nonEmptyIndices.contains(j)) {
-                                        nonEmptyData.add(data[j]);
-                                    }
+                        ArrayList<String> nonEmptyData = new ArrayList<>(nonEmptyColumns.size());
+
+                        while (true) {
+                            data = mFieldFile.readNext();
+                            if (data == null)
+                                break;
+
+                            //only load the row if it contains u/p/s data
+                            int rowSize = data.length;
+
+                            //every non empty unique id is checked, whether or not its row is loaded
+                            if (rowSize > uniqueIndex && !data[uniqueIndex].isEmpty()) {
+
+                                String id = data[uniqueIndex];
+
+                                if (!uniqueIds.add(id)) {
+                                    uniqueFail = true;
+                                    break;
                                 }
 
-                                controller.getDatabase().createFieldData(studyId, nonEmptyColumns, nonEmptyData);
+                                //keep reading, a duplicate found later is still reported as the unique id failure
+                                if (id.contains("/") || id.contains("\\")) {
+                                    specialCharactersFail = true;
+                                }
+                            }
+
+                            //ensure next check won't cause an AIOB
+                            if (rowSize > uniqueIndex && rowSize > primaryIndex && rowSize > secondaryIndex) {
+
+                                //check that all u/p/s strings are not empty
+                                if (!data[uniqueIndex].isEmpty() && !data[primaryIndex].isEmpty()
+                                        && !data[secondaryIndex].isEmpty()) {
+
+                                    nonEmptyData.clear();
+                                    for (int index : nonEmptyIndices) {
+                                        if (index < rowSize) {
+                                            nonEmptyData.add(data[index]);
+                                        }
+                                    }
 
+                                    importer.insert(nonEmptyData);
+
+                                }
                             }
+
+                            line++;
                         }
 
-                        line++;
-                    }
+                        //a file without any unique id is rejected like a file with duplicates
+                        if (uniqueIds.isEmpty()) {
+                            uniqueFail = true;
+                        }
 
-                    controller.getDatabase().setTransactionSuccessfull();
+                        //a failed check leaves the transaction unsuccessful, the field and its rows are rolled back
+                        if (!uniqueFail && !specialCharactersFail) {
+                            importer.finish();
+                        }
 
-                } catch (Exception e) {
+                    } catch (Exception e) {
 
-                    lineFail = line;
+                        lineFail = line;
 
-                    e.printStackTrace();
+                        e.printStackTrace();
 
-                    throw e;
+                        throw e;
 
-                } finally {
+                    }
+                }
 
-                    controller.getDatabase().endTransaction();
+                //ids shared with units of other fields, checked before the special characters like the file's own ids
+                if (!uniqueFail && !database.checkUnique(studyId)) {
+                    uniqueFail = true;
+                }
 
+                if (!uniqueFail && !specialCharactersFail) {
+                    database.updateImportDate(studyId);
+                    database.setTransactionSuccessfull();
                 }
-            }
 
+            } finally {
 
-            mFieldFile.close();
+                database.endTransaction();
+            }
 
-            controller.getDatabase().close();
-            controller.getDatabase().open();
+            mFieldFile.close();
 
-            controller.getDatabase().updateImportDate(studyId);
+            database.close();
+            database.open();
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -207,6 +244,17 @@ public class ImportRunnableTask extends AsyncTask<Integer, Integer, Integer> {
         return studyId;
     }
 
+    @Override
+    protected void onProgressUpdate(Integer... values) {
+        super.onProgressUpdate(values);
+
+        Context context = mContext.get();
+
+        if (context != null && dialog != null && dialog.isShowing()) {
+            dialog.setMessage(context.getString(R.string.import_dialog_importing_progress, values[0], values[1]));
+        }
+    }
+
     @Override
     protected void onPostExecute(Integer result) {
 
@@ -215,7 +263,7 @@ public class ImportRunnableTask extends AsyncTask<Integer, Integer, Integer> {
         if (dialog.isShowing())
             dialog.dismiss();
 
-        if (fail | uniqueFail | mFieldFile.hasSpecialCharacters()) {
+        if (fail | uniqueFail | specialCharactersFail) {
             controller.getDatabase().deleteField(result);
             SharedPreferences.Editor ed = preferences.edit();
             ed.putString(GeneralKeys.FIELD_FILE, null);
@@ -230,7 +278,7 @@ public class ImportRunnableTask extends AsyncTask<Integer, Integer, Integer> {
             //makeToast(getString(R.string.import_error_general));
         } else if (uniqueFail && context != null) {
             Utils.makeToast(context,context.getString(R.string.import_error_unique));
-        } else if (mFieldFile.hasSpecialCharacters()) {
+        } else if (specialCharactersFail) {
             Utils.makeToast(context,context.getString(R.string.import_error_unique_characters_illegal));
         } else {
             SharedPreferences.Editor ed = preferences.edit();
@@ -260,13 +308,4 @@ public class ImportRunnableTask extends AsyncTask<Integer, Integer, Integer> {
             }
         }
     }
-
-    private boolean verifyUniqueColumn(FieldFileObject.FieldFileBase fieldFile) {
-        HashMap<String, String> check = fieldFile.getColumnSet(idColPosition);
-        if (check.isEmpty()) {
-            return false;
-        } else {
-            return controller.getDatabase().checkUnique(check);
-        }
-    }
 }
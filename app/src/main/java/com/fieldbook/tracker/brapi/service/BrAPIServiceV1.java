@@ -18,6 +18,7 @@ import com.fieldbook.tracker.brapi.model.BrapiStudyDetails;
 import com.fieldbook.tracker.brapi.model.BrapiTrial;
 import com.fieldbook.tracker.brapi.model.FieldBookImage;
 import com.fieldbook.tracker.brapi.model.Observation;
+import com.fieldbook.tracker.database.BulkFieldImporter;
 import com.fieldbook.tracker.database.DataHelper;
 import com.fieldbook.tracker.database.dao.ObservationUnitDao;
 import com.fieldbook.tracker.database.dao.ObservationVariableDao;
@@ -1202,8 +1203,12 @@ public class BrAPIServiceV1 extends AbstractBrAPIService implements BrAPIService
 
                 System.out.println("Size of study details: "+studyDetails.getValues().size());
 
-                for (List<String> dataRow : studyDetails.getValues()) {
-                    dataHelper.createFieldData(expId, studyDetails.getAttributes(), dataRow);
+                //the importer joins the surrounding transaction, units and traits are saved together
+                try (BulkFieldImporter importer = dataHelper.createFieldImporter(expId, studyDetails.getAttributes(), null)) {
+                    for (List<String> dataRow : studyDetails.getValues()) {
+                        importer.insert(dataRow);
+                    }
+                    importer.finish();
                 }
 
                 // Insert the traits already associated with this study
@@ -27,6 +27,7 @@ import com.fieldbook.tracker.brapi.service.core.TrialService;
 import com.fieldbook.tracker.brapi.service.germ.GermplasmService;
 import com.fieldbook.tracker.brapi.service.pheno.ObservationUnitService;
 import com.fieldbook.tracker.brapi.service.pheno.ObservationVariableService;
+import com.fieldbook.tracker.database.BulkFieldImporter;
 import com.fieldbook.tracker.database.DataHelper;
 import com.fieldbook.tracker.database.dao.ObservationUnitDao;
 import com.fieldbook.tracker.database.dao.ObservationVariableDao;
@@ -104,6 +105,7 @@ import org.json.JSONObject;
 import org.threeten.bp.OffsetDateTime;
 
 import java.lang.reflect.Type;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -115,8 +117,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import kotlin.jvm.functions.Function1;
@@ -124,6 +131,9 @@ import kotlin.jvm.functions.Function1;
 public class BrAPIServiceV2 extends AbstractBrAPIService implements BrAPIService {
 
     public static final String ADDITIONAL_INFO_OBSERVATION_LEVEL_NAMES = "observationLevelNames";
+    //search result pages requested ahead of the page being mapped
+    private static final int SEARCH_PREFETCH_PAGES = 4;
+    private static final ExecutorService searchPrefetchExecutor = Executors.newCachedThreadPool();
     protected final StudiesApi studiesApi;
     protected final ProgramsApi programsApi;
     protected final TrialsApi trialsApi;
@@ -593,7 +603,7 @@ public class BrAPIServiceV2 extends AbstractBrAPIService implements BrAPIService
 
     private void mapAttributeValues(BrapiStudyDetails study, List<BrAPIObservationUnit> data, @Nullable Map<String, BrAPIGermplasm> germplasmDetailsMap) {
 
-        Map<String, Map<String, String>> unitAttributes = new LinkedHashMap<>(); // Map to store attributes for each unit
+        Map<String, Map<String, String>> unitAttributes = new LinkedHashMap<>((int) (data.size() / 0.75f) + 1); // Map to store attributes for each unit
         Log.d("BrAPIServiceV2", "Mapping attribute values for " + data.size() + " observation units.");
 
         for (BrAPIObservationUnit unit : data) {
@@ -609,8 +619,14 @@ public class BrAPIServiceV2 extends AbstractBrAPIService implements BrAPIService
             BrAPIObservationUnitPosition pos = unit.getObservationUnitPosition();
             if (pos != null) {
 
-                List<BrAPIObservationUnitLevelRelationship> levels = pos.getObservationLevelRelationships();
-                levels.add(pos.getObservationLevel());
+                //copied so the unit's own relationships are not extended with its level
+                List<BrAPIObservationUnitLevelRelationship> levels = new ArrayList<>();
+                if (pos.getObservationLevelRelationships() != null) {
+                    levels.addAll(pos.getObservationLevelRelationships());
+                }
+                if (pos.getObservationLevel() != null) {
+                    levels.add(pos.getObservationLevel());
+                }
 
                 for (BrAPIObservationUnitLevelRelationship level : levels) {
                     if (level.getLevelName() != null) {
@@ -646,7 +662,6 @@ public class BrAPIServiceV2 extends AbstractBrAPIService implements BrAPIService
                 BrAPIGermplasm matchingGermplasm = germplasmDetailsMap.get(unit.getGermplasmDbId());
 
                 if (matchingGermplasm != null) {
-                    Log.d("BrAPIServiceV2", "Processing germplasm ID: " + unit.getGermplasmDbId());
                     if (matchingGermplasm.getPedigree() != null) {
                         attributesMap.put("Pedigree", matchingGermplasm.getPedigree());
                     }
@@ -687,19 +702,19 @@ public class BrAPIServiceV2 extends AbstractBrAPIService implements BrAPIService
         Log.d("BrAPIServiceV2", "Added attributes to the study. Current attributes are: " + study.getAttributes());
 
         // Assemble the attributesTable
-        List<List<String>> attributesTable = new ArrayList<>();
+        List<List<String>> attributesTable = new ArrayList<>(data.size());
         for (BrAPIObservationUnit unit : data) {
             String unitDbId = unit.getObservationUnitDbId();
             Map<String, String> attributesMap = unitAttributes.get(unitDbId);
 
             // Create a data row for each unit using the unique attribute names
-            List<String> dataRow = new ArrayList<>();
+            List<String> dataRow = new ArrayList<>(uniqueAttributes.size());
             for (String attr : uniqueAttributes) {
                 dataRow.add(attributesMap.getOrDefault(attr, ""));
             }
             attributesTable.add(dataRow);
-            Log.d("BrAPIServiceV2", "Added new data row to attributes table: " + dataRow);
         }
+        Log.d("BrAPIServiceV2", "Added " + attributesTable.size() + " data rows to attributes table");
 
         // Save the attributesTable to the study
         study.getValues().addAll(attributesTable);
@@ -707,6 +722,17 @@ public class BrAPIServiceV2 extends AbstractBrAPIService implements BrAPIService
     }
 
     public Map<String, BrAPIGermplasm> getGermplasmDetails(List<String> allGermplasmDbIds, final Function<Integer, Void> failFunction) {
+        Map<String, BrAPIGermplasm> germplasm = new HashMap<>((int) (allGermplasmDbIds.size() / 0.75f) + 1);
+        streamGermplasmDetails(allGermplasmDbIds, germplasm::putAll, failFunction);
+        return germplasm;
+    }
+
+    /**
+     * Searches the germplasm of the given db ids, each page of germplasm by db id is handed to onPage
+     * while the following pages download.
+     */
+    public void streamGermplasmDetails(List<String> allGermplasmDbIds, Consumer<Map<String, BrAPIGermplasm>> onPage,
+                                       final Function<Integer, Void> failFunction) {
         final Integer pageSize = Integer.parseInt(PreferenceManager.getDefaultSharedPreferences(context)
                 .getString(GeneralKeys.BRAPI_PAGE_SIZE, "50"));
         BrAPIGermplasmSearchRequest germplasmBody = new BrAPIGermplasmSearchRequest();
@@ -725,11 +751,12 @@ public class BrAPIServiceV2 extends AbstractBrAPIService implements BrAPIService
             });
         };
 
-        return executeBrapiSearch(
+        streamBrapiSearch(
                 germplasmApi::searchGermplasmPost, // Using lambda for explicit type
                 germplasmApi::searchGermplasmSearchResultsDbIdGet, // Using lambda for explicit type
                 germplasmBody,
                 germplasmMapper,
+                onPage,
                 failFunction,
                 pageSize
         );
@@ -744,39 +771,96 @@ public class BrAPIServiceV2 extends AbstractBrAPIService implements BrAPIService
             final Integer pageSize
     ) {
         Map<String, U> resultMap = new HashMap<>();
-        String searchResultsDbId = null;
-        Integer currentPage = 0;
+
+        streamBrapiSearch(searchCallFunction, searchCallWithDbIdFunction, searchRequestBody, mapper,
+                resultMap::putAll, failFunction, pageSize);
+
+        return resultMap;
+    }
+
+    /**
+     * Runs a search and hands the mapped results of each page to onPage, in page order, as they arrive.
+     * Pages of a deferred search (one answered with a searchResultsDbId) are requested SEARCH_PREFETCH_PAGES
+     * at a time, so the next pages download while the current one is mapped. The page count of the first
+     * page's metadata bounds the requests. Searches answered directly are paged one request at a time,
+     * since each page re-posts the same request body.
+     */
+    public <T extends BrAPISearchRequestParametersPaging, R, U> void streamBrapiSearch(
+            GenericSearchCallFunction<T, R> searchCallFunction,
+            GenericSearchCallWithDbIdFunction<R> searchCallWithDbIdFunction,
+            T searchRequestBody,
+            BiConsumer<List<?>, Map<String, U>> mapper,
+            Consumer<Map<String, U>> onPage,
+            Function<Integer, Void> failFunction,
+            final Integer pageSize
+    ) {
+        ArrayDeque<Future<ApiResponse<org.apache.commons.lang3.tuple.Pair<Optional<R>, Optional<BrAPIAcceptedSearchResponse>>>>> inFlight = new ArrayDeque<>();
 
         try {
             ApiResponse<org.apache.commons.lang3.tuple.Pair<Optional<R>, Optional<BrAPIAcceptedSearchResponse>>> response = searchCallFunction.apply(searchRequestBody);
             validateResponse(response);
 
-            // Process initial response
             Optional<R> listResultOpt = response.getBody().getLeft();
             Optional<BrAPIAcceptedSearchResponse> searchResponseOpt = response.getBody().getRight();
 
             if (listResultOpt.isPresent()) {
-                processResponse(response, currentPage, mapper, resultMap);
-                currentPage++;
-            } else if (searchResponseOpt.isPresent()) {
-                searchResultsDbId = searchResponseOpt.get().getResult().getSearchResultsDbId();
-            } else {
-                throw new ApiException("Response body is missing result", response.getStatusCode(), response.getHeaders(), null);
-            }
 
-            while (searchResultsDbId != null || currentPage > 0) {
-                if (searchResultsDbId != null) {
-                    response = searchCallWithDbIdFunction.apply(searchResultsDbId, currentPage, pageSize);
-                } else {
+                Integer currentPage = 0;
+
+                while (true) {
+
+                    onPage.accept(getListResultAsMap(response, mapper));
+
+                    if (!hasMorePages((BrAPIResponse) response.getBody().getLeft().get(), currentPage)) break;
+
+                    currentPage++;
                     searchRequestBody.setPage(currentPage);
                     response = searchCallFunction.apply(searchRequestBody);
+                    validateResponse(response);
+
+                    if (!response.getBody().getLeft().isPresent()) break;
                 }
 
-                validateResponse(response);
+            } else if (searchResponseOpt.isPresent()) {
+
+                String searchResultsDbId = searchResponseOpt.get().getResult().getSearchResultsDbId();
+
+                //only page 0 is requested until its metadata gives the number of pages
+                int totalPages = 1;
+                int nextRequest = 0;
+                int currentPage = 0;
+
+                while (true) {
+
+                    while (inFlight.size() < SEARCH_PREFETCH_PAGES && nextRequest < totalPages) {
+                        final int page = nextRequest++;
+                        inFlight.add(searchPrefetchExecutor.submit(() -> searchCallWithDbIdFunction.apply(searchResultsDbId, page, pageSize)));
+                    }
+
+                    if (inFlight.isEmpty()) break;
+
+                    response = awaitPage(inFlight.poll());
+                    validateResponse(response);
+
+                    Optional<R> result = response.getBody().getLeft();
+
+                    if (!result.isPresent()) break;
+
+                    onPage.accept(getListResultAsMap(response, mapper));
+
+                    BrAPIResponse listResponse = (BrAPIResponse) result.get();
 
-                boolean hasMore = processResponse(response, currentPage, mapper, resultMap);
-                if (!hasMore) break;
-                currentPage++;
+                    if (!hasMorePages(listResponse, currentPage)) break;
+
+                    if (currentPage == 0) {
+                        totalPages = listResponse.getMetadata().getPagination().getTotalPages();
+                    }
+
+                    currentPage++;
+                }
+
+            } else {
+                throw new ApiException("Response body is missing result", response.getStatusCode(), response.getHeaders(), null);
             }
         } catch (ApiException apiException) {
             Log.e("BrAPIServiceV2", "API Exception: " + apiException.getMessage() +
@@ -784,9 +868,26 @@ public class BrAPIServiceV2 extends AbstractBrAPIService implements BrAPIService
                     " Endpoint: " + (apiException.getResponseBody() != null ? apiException.getResponseBody() : "Unknown"));
 
             failFunction.apply(apiException.getCode());
+        } finally {
+            //pages past the last one or after a failure
+            for (Future<?> future : inFlight) {
+                future.cancel(true);
+            }
         }
+    }
 
-        return resultMap;
+    private <V> V awaitPage(Future<V> future) throws ApiException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ApiException) {
+                throw (ApiException) e.getCause();
+            }
+            throw new ApiException("Search page failed: " + e.getCause(), 0, null, null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiException("Search was interrupted", 0, null, null);
+        }
     }
 
     public <T extends BrAPISearchRequestParametersPaging, R, U> Pair<Integer, Map<String, U>> executeBrapiSearchByPage(
@@ -1599,10 +1700,12 @@ public class BrAPIServiceV2 extends AbstractBrAPIService implements BrAPIService
 
                 System.out.println("Size of study details: " + studyDetails.getValues().size());
 
-                for (List<String> dataRow : studyDetails.getValues()) {
-                    dataHelper.createFieldData(expId, studyDetails.getAttributes(), dataRow);
-                    Log.d("BrAPIServiceV2", "Saving: Attributes: " + studyDetails.getAttributes());
-                    Log.d("BrAPIServiceV2", "Saving: dataRow: " + dataRow);
+                //the importer joins the surrounding transaction, units and traits are saved together
+                try (BulkFieldImporter importer = dataHelper.createFieldImporter(expId, studyDetails.getAttributes(), null)) {
+                    for (List<String> dataRow : studyDetails.getValues()) {
+                        importer.insert(dataRow);
+                    }
+                    importer.finish();
                 }
 
                 // Insert the traits already associated with this study
@@ -0,0 +1,280 @@
+package com.fieldbook.tracker.brapi.service
+
+import android.content.Context
+import android.database.DatabaseUtils
+import android.util.Log
+import com.fieldbook.tracker.activities.brapi.io.mapper.toAttributes
+import com.fieldbook.tracker.activities.brapi.io.mapper.toGermplasmIndex
+import com.fieldbook.tracker.brapi.BrapiControllerResponse
+import com.fieldbook.tracker.database.BrapiImportProgress
+import com.fieldbook.tracker.database.BulkFieldImporter
+import com.fieldbook.tracker.database.DataHelper
+import com.fieldbook.tracker.database.Migrator.ObservationUnit
+import com.fieldbook.tracker.database.Migrator.Study
+import com.fieldbook.tracker.database.dao.ObservationUnitAttributeDao
+import com.fieldbook.tracker.objects.FieldObject
+import com.fieldbook.tracker.objects.ImportFormat
+import com.fieldbook.tracker.objects.TraitObject
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.emitAll
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.withContext
+import org.brapi.client.v2.model.queryParams.phenotype.ObservationUnitQueryParams
+import org.brapi.v2.model.core.BrAPIStudy
+import org.brapi.v2.model.germ.BrAPIGermplasm
+import org.brapi.v2.model.pheno.BrAPIObservationUnit
+
+/**
+ * Imports a BrAPI study by writing its observation units to the database page by page, as the pages
+ * arrive from the observation unit service, instead of saving the whole study once it is in memory.
+ *
+ * The field is created with the attribute columns of the page read for the preview, which is saved first,
+ * the following pages are then requested from the second page on. Attributes first seen on a later page
+ * are added to the field with that page, units saved before it have no value for them. Each page of units is saved
+ * in one transaction with the page to read next (BrapiImportProgress), so an import interrupted by a failed
+ * request or by the app being stopped continues with the first unsaved page when the study is imported again.
+ * Germplasm details are joined through an index by db id, germplasm the index does not know is searched for
+ * by the db ids of the page's units, each id is requested once.
+ */
+class BrapiStudyImporter(
+    private val context: Context,
+    private val service: BrAPIServiceV2,
+    private val pageSize: Int
+) {
+
+    companion object {
+
+        private const val TAG = "BrapiStudyImporter"
+    }
+
+    /**
+     * @param columns attribute columns of the field, in the order unit values are written
+     * @param germplasm germplasm already fetched for the study, more is fetched if units need it
+     * @param firstPage the first page of the study's units, read with the importer's page size for the preview
+     */
+    class Request(
+        val study: BrAPIStudy,
+        val observationLevel: String,
+        val columns: List<String>,
+        val primaryId: String,
+        val secondaryId: String,
+        val sortOrder: String,
+        val traits: List<TraitObject>,
+        val germplasm: Collection<BrAPIGermplasm>,
+        val firstPage: Fetcher.Page<BrAPIObservationUnit>? = null
+    )
+
+    fun interface ProgressListener {
+        fun onPageSaved(pages: Int, totalPages: Int)
+    }
+
+    /**
+     * @return the created field when every page was saved, otherwise the reason the import stopped.
+     * A study that stopped after some pages were saved is resumed by importing it again.
+     */
+    suspend fun import(request: Request, listener: ProgressListener? = null): BrapiControllerResponse<FieldObject> {
+
+        val database = DataHelper(context)
+
+        database.open()
+
+        val db = DataHelper.db
+
+        val studyDbId = request.study.studyDbId
+
+        val field = FieldObject().also {
+            it.study_db_id = studyDbId
+            it.exp_name = request.study.studyName
+            it.exp_alias = request.study.studyName
+            it.exp_species = request.study.commonCropName
+            it.count = "0"
+            it.observation_level = request.observationLevel
+            it.import_format = ImportFormat.BRAPI
+            it.trial_name = request.study.trialName
+            it.exp_source = BrAPIService.getHostUrl(context)
+                ?: return BrapiControllerResponse(false, "Host is null")
+            it.unique_id = "ObservationUnitDbId"
+            it.primary_id = request.primaryId
+            it.secondary_id = request.secondaryId
+            it.exp_sort = request.sortOrder
+        }
+
+        val progress = BrapiImportProgress.find(db, studyDbId, request.observationLevel)
+            ?: createField(database, field, request)
+            ?: return BrapiControllerResponse(false, BrAPIService.notUniqueFieldMessage)
+
+        val studyId = progress.studyId
+
+        field.exp_id = studyId
+
+        if (progress.nextPage > 0) {
+            Log.d(TAG, "Resuming study $studyDbId at page ${progress.nextPage}")
+        }
+
+        val germplasmById = request.germplasm.toGermplasmIndex()
+        val germplasmRequested = HashSet<String>()
+
+        var importer: BulkFieldImporter? = null
+
+        var columns = progress.columns
+
+        val params = ObservationUnitQueryParams().also {
+            it.studyDbId(studyDbId)
+            it.pageSize(progress.pageSize)
+        }
+
+        val firstPage = request.firstPage?.takeIf { progress.nextPage == 0 && progress.pageSize == pageSize }
+
+        val pages = if (firstPage == null) {
+            service.observationUnitService.fetchPages(params, progress.nextPage)
+        } else flow {
+            emit(firstPage)
+            if (firstPage.totalPages > 1) emitAll(service.observationUnitService.fetchPages(params, 1))
+        }
+
+        try {
+
+            pages.collect { page ->
+
+                val units = page.models.filter { it.isImported(request.observationLevel) }
+
+                val missing = units.mapNotNullTo(HashSet()) { unit ->
+                    unit.germplasmDbId?.takeIf { it !in germplasmById && it !in germplasmRequested }
+                }
+
+                if (missing.isNotEmpty()) {
+                    germplasmRequested.addAll(missing)
+                    fetchGermplasm(missing, germplasmById)
+                }
+
+                val unitAttributes = units.map { it.toAttributes(germplasmById) }
+
+                val added = unitAttributes.flatMapTo(LinkedHashSet()) { it.keys }.apply { removeAll(columns.toSet()) }
+
+                db.beginTransaction()
+
+                try {
+
+                    if (added.isNotEmpty()) {
+
+                        ObservationUnitAttributeDao.addMissing(studyId, added)
+
+                        importer?.close()
+                        importer = null
+
+                        columns = columns + added
+                    }
+
+                    //created inside the page transaction, so the importer leaves the commits to this loop
+                    val pageImporter = importer
+                        ?: database.createFieldImporter(studyId, columns, null).also { importer = it }
+
+                    val row = ArrayList<String>(columns.size)
+
+                    unitAttributes.forEach { attributes ->
+
+                        row.clear()
+                        columns.forEach { column -> row.add(attributes[column] ?: "") }
+
+                        pageImporter.insert(row)
+                    }
+
+                    if (page.index + 1 < page.totalPages) {
+                        BrapiImportProgress.save(db, studyDbId, request.observationLevel,
+                            progress.copy(nextPage = page.index + 1, columns = columns))
+                    } else {
+                        BrapiImportProgress.clear(db, studyId)
+                    }
+
+                    db.setTransactionSuccessful()
+
+                } finally {
+
+                    db.endTransaction()
+                }
+
+                listener?.onPageSaved(page.index + 1, page.totalPages)
+            }
+
+            importer?.finish()
+
+        } catch (e: CancellationException) {
+
+            throw e
+
+        } catch (e: Exception) {
+
+            Log.e(TAG, "Import of $studyDbId stopped, saved pages are kept", e)
+
+            return BrapiControllerResponse(false, e.toString())
+
+        } finally {
+
+            importer?.close()
+        }
+
+        if (DatabaseUtils.queryNumEntries(db, ObservationUnit.tableName, "${Study.FK} = ?", arrayOf(studyId.toString())) == 0L) {
+            database.deleteField(studyId)
+            return BrapiControllerResponse(false, BrAPIService.noPlots)
+        }
+
+        //ids shared with units of other fields
+        if (!database.checkUnique(studyId)) {
+            database.deleteField(studyId)
+            return BrapiControllerResponse(false, BrAPIService.notUniqueIdMessage)
+        }
+
+        database.updateImportDate(studyId)
+
+        return BrapiControllerResponse(true, "", field)
+    }
+
+    /**
+     * Creates the field and its traits with the progress of an import that has not saved a page yet.
+     * @return null if the study was already imported at this level
+     */
+    private fun createField(database: DataHelper, field: FieldObject, request: Request): BrapiImportProgress.Progress? {
+
+        if (database.checkBrapiStudyUnique(field.observation_level, field.study_db_id) != -1) return null
+
+        val db = DataHelper.db
+
+        db.beginTransaction()
+
+        try {
+
+            val studyId = database.createField(field, request.columns, true)
+
+            request.traits.forEach { database.insertTraits(it) }
+
+            val progress = BrapiImportProgress.Progress(studyId, 0, pageSize, request.columns)
+
+            BrapiImportProgress.save(db, field.study_db_id, field.observation_level, progress)
+
+            db.setTransactionSuccessful()
+
+            return progress
+
+        } finally {
+
+            db.endTransaction()
+        }
+    }
+
+    private suspend fun fetchGermplasm(germplasmDbIds: Collection<String>, germplasmById: HashMap<String, BrAPIGermplasm>) =
+        withContext(Dispatchers.IO) {
+
+            service.streamGermplasmDetails(ArrayList(germplasmDbIds), { page ->
+                page.forEach { (id, germ) -> germplasmById.putIfAbsent(id, germ) }
+            }) { code ->
+                Log.e(TAG, "Failed to fetch germplasm ($code), units are saved without germplasm details")
+                null
+            }
+        }
+
+    //test entries are imported at every level
+    private fun BrAPIObservationUnit.isImported(observationLevel: String) =
+        observationUnitPosition?.entryType?.name == "TEST"
+                || observationUnitPosition?.observationLevel?.levelName == observationLevel
+}
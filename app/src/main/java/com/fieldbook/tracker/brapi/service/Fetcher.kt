@@ -2,104 +2,201 @@ package com.fieldbook.tracker.brapi.service
 
 import android.util.Log
 import com.fieldbook.tracker.brapi.service.core.ApiCall
-import kotlinx.coroutines.cancel
-import kotlinx.coroutines.channels.awaitClose
-import kotlinx.coroutines.flow.callbackFlow
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.channelFlow
+import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.suspendCancellableCoroutine
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
 import okhttp3.Call
 import org.brapi.client.v2.ApiCallback
 import org.brapi.client.v2.model.exceptions.ApiException
 import org.brapi.client.v2.model.queryParams.core.BrAPIQueryParams
 import org.brapi.v2.model.BrAPIResponse
 import org.brapi.v2.model.BrAPIResponseResult
-import kotlin.reflect.KFunction2
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
 
 /**
- * Converts BrAPI REST calls into cold flows
+ * Converts paged BrAPI REST calls into cold flows of (total count, page models) pairs.
+ *
+ * The first requested page is read alone for the pagination metadata, the remaining pages are requested with at most
+ * maxInFlight calls outstanding. Failed pages are retried with exponential backoff when the failure
+ * can be transient (no response, 429 or 5xx), a page that still fails fails the flow.
+ * The flow completes after the last page, cancelling its collection cancels the outstanding calls.
+ *
+ * @param U the brapi model
  * @param T the brapi query param sub class
  * @param R the brapi response
+ * @param ordered emit pages in page order instead of as they arrive
+ * @param onPageFetched called with the timing of each fetched page
  */
-class Fetcher<U, T : BrAPIQueryParams, R : BrAPIResponse<*>> {
+class Fetcher<U, T : BrAPIQueryParams, R : BrAPIResponse<*>>(
+    private val maxInFlight: Int = DEFAULT_MAX_IN_FLIGHT,
+    private val maxAttempts: Int = DEFAULT_MAX_ATTEMPTS,
+    private val retryDelayMs: Long = DEFAULT_RETRY_DELAY_MS,
+    private val ordered: Boolean = false,
+    private val onPageFetched: ((PageMetrics) -> Unit)? = null
+) {
 
-    fun fetchAll(params: T, apiCall: KFunction2<T, ApiCallback<R>, Call>) = callbackFlow {
+    companion object {
 
-        try {
+        private const val TAG = "FETCH"
 
-            //first step: get the first page to read pagination metadata to determine how many
-            //page will need to be queried
-            params.page(0)
+        const val DEFAULT_MAX_IN_FLIGHT = 4
+        const val DEFAULT_MAX_ATTEMPTS = 3
+        const val DEFAULT_RETRY_DELAY_MS = 500L
+    }
 
-            //callback for returning the data through the flow channel, called after pagination is found
-            //callback for querying metadata about the api call, then it queries for all data
-            val initialCallback = ApiCall<R>({
+    /**
+     * @param attempts calls made for the page, including the successful one
+     * @param millis time from the first call to the response, including retries
+     */
+    data class PageMetrics(val page: Int, val attempts: Int, val millis: Long, val size: Int)
 
-                Log.d("FETCH", "Checking metadata: ${it.metadata == null}")
+    /**
+     * One page of models, with the totals read from the first page that was fetched.
+     */
+    class Page<U>(val index: Int, val totalCount: Int, val totalPages: Int, val models: List<U>)
 
-                //only care about metadata, so grab its pagination total count and call the api for all data
-                if (it.metadata != null) {
+    private class Fetched<U>(val index: Int, val totalCount: Int?, val totalPages: Int?, val models: List<U>)
 
-                    val totalCount = it.metadata.pagination.totalCount
-                    val total = it.metadata.pagination.totalPages
-                    var actualCount = 0
+    /**
+     * @param params page will be overwritten for each call
+     */
+    fun fetchAll(params: T, apiCall: (T, ApiCallback<R>) -> Call): Flow<Pair<Int, List<U>>> =
+        fetchPages(params, apiCall).map { page -> page.totalCount to page.models }
 
-                    Log.d("FETCH", "Total count: $totalCount, Total pages: $total")
+    /**
+     * Fetches the first page alone, with the totals of the query.
+     * Used to preview a query that is read with fetchPages from the second page on.
+     * @param params page will be overwritten
+     */
+    suspend fun fetchFirstPage(params: T, apiCall: (T, ApiCallback<R>) -> Call): Page<U> {
 
-                    if (totalCount == 0) {
-                        trySend(totalCount to emptyList())
-                        return@ApiCall
-                    }
+        val first = fetchPage(params, apiCall, 0)
 
-                    for (i in 0 until total) {
+        return Page(0, first.totalCount ?: first.models.size, first.totalPages ?: 1, first.models)
+    }
 
-                        params.page(i)
+    /**
+     * Fetches the pages from startPage on, used to continue an interrupted read.
+     * @param params page will be overwritten for each call
+     */
+    @JvmOverloads
+    fun fetchPages(params: T, apiCall: (T, ApiCallback<R>) -> Call, startPage: Int = 0): Flow<Page<U>> = channelFlow {
 
-                        Log.d("FETCH", "Calling page $i/$total with ${params.pageSize()} items")
-                        apiCall(params, ApiCall<R>({ response ->
+        val first = fetchPage(params, apiCall, startPage)
 
-                            if (response.metadata != null && response.result != null) {
+        val totalCount = first.totalCount ?: first.models.size
 
-                                (response.result as? BrAPIResponseResult<*>)?.data?.let { data ->
+        val totalPages = first.totalPages ?: (startPage + 1)
 
-                                    Log.d("FETCH", "Received data ${data.size}")
+        Log.d(TAG, "Total count: $totalCount, Total pages: ${first.totalPages}")
 
-                                    actualCount += data.size
+        send(Page(startPage, totalCount, totalPages, first.models))
 
-                                    trySend(totalCount to data.mapNotNull { m -> m as? U })
+        if (totalCount == 0 || totalPages <= startPage + 1) return@channelFlow
 
-                                    Log.d("FETCH", "Sent $actualCount/$totalCount models")
+        val window = Semaphore(maxInFlight)
 
-                                }
-                            }
+        val results = Channel<Fetched<U>>(Channel.UNLIMITED)
 
-                        }) { e ->
+        //semaphore permits are handed out in order, so pages are requested in page order
+        for (index in startPage + 1 until totalPages) {
+            launch {
+                window.withPermit {
+                    results.send(fetchPage(params, apiCall, index))
+                }
+            }
+        }
 
-                            e?.printStackTrace()
+        val waiting = HashMap<Int, Fetched<U>>()
+        var next = startPage + 1
 
-                        })
-                    }
-                }
+        repeat(totalPages - startPage - 1) {
+
+            val page = results.receive()
 
-            }) { e ->
+            if (!ordered) {
 
-                e?.printStackTrace()
+                send(Page(page.index, totalCount, totalPages, page.models))
 
-                cancel(e?.message ?: "Unknown error", e)
+            } else {
 
+                waiting[page.index] = page
+
+                while (true) {
+                    val ready = waiting.remove(next) ?: break
+                    send(Page(ready.index, totalCount, totalPages, ready.models))
+                    next++
+                }
             }
+        }
+    }
 
-            apiCall(params, initialCallback)
+    private suspend fun fetchPage(params: T, apiCall: (T, ApiCallback<R>) -> Call, index: Int): Fetched<U> {
 
-            Log.d("FETCH", "Initial call made")
+        val start = System.nanoTime()
 
-        } catch (e: Exception) {
+        var attempt = 0
 
-            e.printStackTrace()
+        while (true) {
 
-            cancel(e.message ?: "Unknown error")
+            attempt++
 
-            throw(e)
-        }
+            try {
+
+                val response = request(params, apiCall, index)
+
+                @Suppress("UNCHECKED_CAST")
+                val models = (response.result as? BrAPIResponseResult<*>)?.data?.mapNotNull { it as? U } ?: listOf()
+
+                val metrics = PageMetrics(index, attempt, (System.nanoTime() - start) / 1_000_000, models.size)
+
+                Log.d(TAG, "Page $index: ${metrics.size} models in ${metrics.millis} ms after ${metrics.attempts} attempt(s)")
+
+                onPageFetched?.invoke(metrics)
+
+                val pagination = response.metadata?.pagination
 
-        awaitClose()
+                return Fetched(index, pagination?.totalCount, pagination?.totalPages, models)
 
+            } catch (e: ApiException) {
+
+                if (attempt >= maxAttempts || !isTransient(e)) throw e
+
+                Log.w(TAG, "Page $index failed with ${e.code}, retrying", e)
+
+                delay(retryDelayMs shl (attempt - 1))
+            }
+        }
     }
-}
\ No newline at end of file
+
+    private fun isTransient(e: ApiException) = e.code == 0 || e.code == 429 || e.code >= 500
+
+    private suspend fun request(params: T, apiCall: (T, ApiCallback<R>) -> Call, index: Int): R =
+        suspendCancellableCoroutine { continuation ->
+
+            //the client reads the params while building the call, so concurrent pages take turns setting the page
+            val call = synchronized(params) {
+
+                params.page(index)
+
+                apiCall(params, ApiCall<R>({ response ->
+
+                    continuation.resume(response)
+
+                }) { e ->
+
+                    continuation.resumeWithException(e ?: ApiException("Page $index failed", 0, null, null))
+
+                })
+            }
+
+            continuation.invokeOnCancellation { call.cancel() }
+        }
+}
@@ -2,9 +2,7 @@ package com.fieldbook.tracker.brapi.service.core
 
 import com.fieldbook.tracker.brapi.service.BrapiV2ApiCallBack
 import com.fieldbook.tracker.brapi.service.Fetcher
-import kotlinx.coroutines.channels.awaitClose
 import kotlinx.coroutines.flow.Flow
-import kotlinx.coroutines.flow.channelFlow
 import org.brapi.client.v2.model.exceptions.ApiException
 import org.brapi.client.v2.model.queryParams.core.ProgramQueryParams
 import org.brapi.client.v2.modules.core.ProgramsApi
@@ -48,18 +46,9 @@ interface ProgramService {
         }
 
         override fun fetchAll(params: ProgramQueryParams): Flow<Any> =
-            channelFlow {
-
-                Fetcher<BrAPIProgram, ProgramQueryParams, BrAPIProgramListResponse>().fetchAll(
-                    params,
-                    api::programsGetAsync
-                ).collect { models ->
-
-                    trySend(models)
-
-                }
-
-                awaitClose()
-            }
+            Fetcher<BrAPIProgram, ProgramQueryParams, BrAPIProgramListResponse>().fetchAll(
+                params,
+                api::programsGetAsync
+            )
     }
 }
\ No newline at end of file
@@ -2,9 +2,7 @@ package com.fieldbook.tracker.brapi.service.core
 
 import com.fieldbook.tracker.brapi.service.BrapiV2ApiCallBack
 import com.fieldbook.tracker.brapi.service.Fetcher
-import kotlinx.coroutines.channels.awaitClose
 import kotlinx.coroutines.flow.Flow
-import kotlinx.coroutines.flow.channelFlow
 import org.brapi.client.v2.model.exceptions.ApiException
 import org.brapi.client.v2.model.queryParams.core.SeasonQueryParams
 import org.brapi.client.v2.modules.core.SeasonsApi
@@ -33,23 +31,9 @@ interface SeasonService {
         }
 
         override fun fetchAll(params: SeasonQueryParams): Flow<Any> =
-            channelFlow {
-
-                Fetcher<BrAPISeason, SeasonQueryParams, BrAPISeasonListResponse>().fetchAll(
-                    params,
-                    api::seasonsGetAsync
-                ).collect { models ->
-
-                    if (models == null) {
-                        close()
-                        return@collect
-                    }
-
-                    trySend(models)
-
-                }
-
-                awaitClose()
-            }
+            Fetcher<BrAPISeason, SeasonQueryParams, BrAPISeasonListResponse>().fetchAll(
+                params,
+                api::seasonsGetAsync
+            )
     }
 }
\ No newline at end of file
@@ -2,9 +2,7 @@ package com.fieldbook.tracker.brapi.service.core
 
 import com.fieldbook.tracker.brapi.service.BrapiV2ApiCallBack
 import com.fieldbook.tracker.brapi.service.Fetcher
-import kotlinx.coroutines.channels.awaitClose
 import kotlinx.coroutines.flow.Flow
-import kotlinx.coroutines.flow.channelFlow
 import org.brapi.client.v2.model.exceptions.ApiException
 import org.brapi.client.v2.model.queryParams.core.StudyQueryParams
 import org.brapi.client.v2.modules.core.StudiesApi
@@ -48,18 +46,9 @@ interface StudyService {
         }
 
         override fun fetchAll(params: StudyQueryParams): Flow<Any> =
-            channelFlow {
-
-                Fetcher<BrAPIStudy, StudyQueryParams, BrAPIStudyListResponse>().fetchAll(
-                    params,
-                    api::studiesGetAsync
-                ).collect { models ->
-
-                    trySend(models)
-
-                }
-
-                awaitClose()
-            }
+            Fetcher<BrAPIStudy, StudyQueryParams, BrAPIStudyListResponse>().fetchAll(
+                params,
+                api::studiesGetAsync
+            )
     }
 }
\ No newline at end of file
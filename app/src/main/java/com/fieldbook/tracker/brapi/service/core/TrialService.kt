@@ -3,10 +3,8 @@ package com.fieldbook.tracker.brapi.service.core
 import android.util.Log
 import com.fieldbook.tracker.brapi.service.BrapiV2ApiCallBack
 import com.fieldbook.tracker.brapi.service.Fetcher
-import kotlinx.coroutines.channels.awaitClose
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.catch
-import kotlinx.coroutines.flow.channelFlow
 import org.brapi.client.v2.model.exceptions.ApiException
 import org.brapi.client.v2.model.queryParams.core.TrialQueryParams
 import org.brapi.client.v2.modules.core.TrialsApi
@@ -50,24 +48,9 @@ interface TrialService {
         }
 
         override fun fetchAll(params: TrialQueryParams): Flow<Any> =
-            channelFlow {
-
-                Fetcher<BrAPITrial, TrialQueryParams, BrAPITrialListResponse>().fetchAll(
-                    params,
-                    api::trialsGetAsync
-                )
-                    .collect { models ->
-
-                        if (models == null) {
-                            close()
-                            return@collect
-                        }
-
-                        trySend(models)
-
-                }
-
-                awaitClose()
-            }
+            Fetcher<BrAPITrial, TrialQueryParams, BrAPITrialListResponse>().fetchAll(
+                params,
+                api::trialsGetAsync
+            )
     }
 }
\ No newline at end of file
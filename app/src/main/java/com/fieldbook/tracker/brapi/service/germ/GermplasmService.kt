@@ -4,9 +4,7 @@ import com.fieldbook.tracker.brapi.service.BrapiV2ApiCallBack
 import com.fieldbook.tracker.brapi.service.Fetcher
 import com.fieldbook.tracker.brapi.service.core.ApiFailCallback
 import com.fieldbook.tracker.brapi.service.core.ApiListSuccess
-import kotlinx.coroutines.channels.awaitClose
 import kotlinx.coroutines.flow.Flow
-import kotlinx.coroutines.flow.channelFlow
 import org.brapi.client.v2.model.exceptions.ApiException
 import org.brapi.client.v2.model.queryParams.germplasm.GermplasmQueryParams
 import org.brapi.client.v2.model.queryParams.phenotype.ObservationUnitQueryParams
@@ -65,18 +63,9 @@ interface GermplasmService {
          * @param queryParams page and pageSize will be overwritten to query all data
          */
         override fun fetchAll(params: GermplasmQueryParams): Flow<Any> =
-            channelFlow {
-
-                Fetcher<BrAPIGermplasm, GermplasmQueryParams, BrAPIGermplasmListResponse>().fetchAll(
-                    params,
-                    api::germplasmGetAsync
-                ).collect { models ->
-
-                    trySend(models)
-
-                }
-
-                awaitClose()
-            }
+            Fetcher<BrAPIGermplasm, GermplasmQueryParams, BrAPIGermplasmListResponse>().fetchAll(
+                params,
+                api::germplasmGetAsync
+            )
     }
 }
\ No newline at end of file
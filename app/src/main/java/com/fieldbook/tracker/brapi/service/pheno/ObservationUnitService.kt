@@ -4,9 +4,7 @@ import com.fieldbook.tracker.brapi.service.BrapiV2ApiCallBack
 import com.fieldbook.tracker.brapi.service.Fetcher
 import com.fieldbook.tracker.brapi.service.core.ApiFailCallback
 import com.fieldbook.tracker.brapi.service.core.ApiListSuccess
-import kotlinx.coroutines.channels.awaitClose
 import kotlinx.coroutines.flow.Flow
-import kotlinx.coroutines.flow.channelFlow
 import org.brapi.client.v2.model.exceptions.ApiException
 import org.brapi.client.v2.model.queryParams.phenotype.ObservationUnitQueryParams
 import org.brapi.client.v2.modules.phenotype.ObservationUnitsApi
@@ -25,6 +23,15 @@ interface ObservationUnitService {
         params: ObservationUnitQueryParams
     ): Flow<Any>
 
+    fun fetchPages(
+        params: ObservationUnitQueryParams,
+        startPage: Int
+    ): Flow<Fetcher.Page<BrAPIObservationUnit>>
+
+    suspend fun fetchFirstPage(
+        params: ObservationUnitQueryParams
+    ): Fetcher.Page<BrAPIObservationUnit>
+
     class Default(private val api: ObservationUnitsApi) : ObservationUnitService {
 
         override fun fetchObservationUnits(
@@ -57,18 +64,34 @@ interface ObservationUnitService {
          * @param queryParams page and pageSize will be overwritten to query all data
          */
         override fun fetchAll(params: ObservationUnitQueryParams): Flow<Any> =
-            channelFlow {
-
-                Fetcher<BrAPIObservationUnit, ObservationUnitQueryParams, BrAPIObservationUnitListResponse>().fetchAll(
-                    params,
-                    api::observationunitsGetAsync
-                ).collect { models ->
-
-                    trySend(models)
+            Fetcher<BrAPIObservationUnit, ObservationUnitQueryParams, BrAPIObservationUnitListResponse>().fetchAll(
+                params,
+                api::observationunitsGetAsync
+            )
 
-                }
+        /**
+         * Pages are emitted in page order, so each one can be saved as the last page read.
+         * @param params page will be overwritten to query the pages from startPage on
+         */
+        override fun fetchPages(
+            params: ObservationUnitQueryParams,
+            startPage: Int
+        ): Flow<Fetcher.Page<BrAPIObservationUnit>> =
+            Fetcher<BrAPIObservationUnit, ObservationUnitQueryParams, BrAPIObservationUnitListResponse>(ordered = true).fetchPages(
+                params,
+                api::observationunitsGetAsync,
+                startPage
+            )
 
-                awaitClose()
-            }
+        /**
+         * @param params page will be overwritten to query the first page
+         */
+        override suspend fun fetchFirstPage(
+            params: ObservationUnitQueryParams
+        ): Fetcher.Page<BrAPIObservationUnit> =
+            Fetcher<BrAPIObservationUnit, ObservationUnitQueryParams, BrAPIObservationUnitListResponse>().fetchFirstPage(
+                params,
+                api::observationunitsGetAsync
+            )
     }
 }
\ No newline at end of file
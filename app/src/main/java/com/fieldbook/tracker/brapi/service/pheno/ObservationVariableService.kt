@@ -4,9 +4,7 @@ import com.fieldbook.tracker.brapi.service.BrapiV2ApiCallBack
 import com.fieldbook.tracker.brapi.service.Fetcher
 import com.fieldbook.tracker.brapi.service.core.ApiFailCallback
 import com.fieldbook.tracker.brapi.service.core.ApiListSuccess
-import kotlinx.coroutines.channels.awaitClose
 import kotlinx.coroutines.flow.Flow
-import kotlinx.coroutines.flow.channelFlow
 import org.brapi.client.v2.model.exceptions.ApiException
 import org.brapi.client.v2.model.queryParams.phenotype.VariableQueryParams
 import org.brapi.client.v2.modules.phenotype.ObservationVariablesApi
@@ -57,18 +55,9 @@ interface ObservationVariableService {
          * @param queryParams page and pageSize will be overwritten to query all data
          */
         override fun fetchAll(params: VariableQueryParams): Flow<Any> =
-            channelFlow {
-
-                Fetcher<BrAPIObservationVariable, VariableQueryParams, BrAPIObservationVariableListResponse>().fetchAll(
-                    params,
-                    api::variablesGetAsync
-                ).collect { models ->
-
-                    trySend(models)
-
-                }
-
-                awaitClose()
-            }
+            Fetcher<BrAPIObservationVariable, VariableQueryParams, BrAPIObservationVariableListResponse>().fetchAll(
+                params,
+                api::variablesGetAsync
+            )
     }
 }
\ No newline at end of file
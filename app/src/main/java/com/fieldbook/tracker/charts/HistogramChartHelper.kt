@@ -30,12 +30,12 @@ object HistogramChartHelper {
      *
      * @param context The context for accessing resources.
      * @param chart An instance of the MPAndroidChart BarChart component.
-     * @param observations The data to display in the histogram, represented as a list of BigDecimal values.
+     * @param observations The data to display in the histogram, each distinct value with the number of times it was observed.
      */
-    fun setupHistogram(context: Context, chart: BarChart, observations: List<BigDecimal>, chartTextSize: Float) {
+    fun setupHistogram(context: Context, chart: BarChart, observations: Map<BigDecimal, Int>, chartTextSize: Float) {
         // Calculate min, max, and range of observations
-        val minValue = observations.minOrNull() ?: BigDecimal.ZERO
-        val maxValue = observations.maxOrNull() ?: BigDecimal.ZERO
+        val minValue = observations.keys.minOrNull() ?: BigDecimal.ZERO
+        val maxValue = observations.keys.maxOrNull() ?: BigDecimal.ZERO
         val range = maxValue.subtract(minValue)
 
         chart.visibility = View.VISIBLE
@@ -51,9 +51,9 @@ object HistogramChartHelper {
         val isBinSizeOne = binSize.compareTo(BigDecimal.ONE) == 0
 
         val binnedObservations = mutableMapOf<Int, Int>()
-        for (observation in observations) {
+        for ((observation, count) in observations) {
             val binIndex = 1 + observation.subtract(minValue).divide(binSize, 0, RoundingMode.DOWN).toInt()
-            binnedObservations[binIndex] = (binnedObservations[binIndex] ?: 0) + 1
+            binnedObservations[binIndex] = (binnedObservations[binIndex] ?: 0) + count
         }
 
         if (!isBinSizeOne) {
@@ -153,11 +153,11 @@ object HistogramChartHelper {
      * Calculates the appropriate bin count for the histogram using both the screen width and data distribution.
      *
      * @param context The context for accessing resources.
-     * @param observations The list of observations to be displayed in the histogram, represented as a list of BigDecimal values.
+     * @param observations The observations to be displayed in the histogram, distinct values with their counts.
      * @param range The range of the observations.
      * @return The calculated bin count.
      */
-    private fun getBinCount(context: Context, observations: List<BigDecimal>, range: BigDecimal): Int {
+    private fun getBinCount(context: Context, observations: Map<BigDecimal, Int>, range: BigDecimal): Int {
         // Calculate maxBinCount based on screen width
         val displayMetrics = context.resources.displayMetrics
         val minBarWidthPx = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, MIN_BAR_WIDTH_DP, displayMetrics)
@@ -165,15 +165,16 @@ object HistogramChartHelper {
         val maxBinCount = (availableScreenWidth / minBarWidthPx).toInt()
 
         // Calculate idealBinCount using modified Freedman-Diaconis rule
-        val sortedObservations = observations.sorted()
-        val q1Index = (sortedObservations.size * 0.25).toInt()
-        val q3Index = (sortedObservations.size * 0.75).toInt()
-        val q1 = sortedObservations[q1Index]
-        val q3 = sortedObservations[q3Index]
+        val sortedObservations = observations.toSortedMap()
+        val observationCount = sortedObservations.values.sum()
+        val q1Index = (observationCount * 0.25).toInt()
+        val q3Index = (observationCount * 0.75).toInt()
+        val q1 = valueAt(sortedObservations, q1Index)
+        val q3 = valueAt(sortedObservations, q3Index)
         val iqr = q3.subtract(q1)
 
         val binWidthFD = if (iqr > BigDecimal.ZERO) {
-            (2 * iqr.toDouble() / observations.size.toDouble().pow(1.0 / 2.0)).toBigDecimal()
+            (2 * iqr.toDouble() / observationCount.toDouble().pow(1.0 / 2.0)).toBigDecimal()
             // Using a square root here rather than cube root. This avoids producing too few bins
             // when n is low, while the maxBinCount limit prevents too many bins when n is high.
         } else {
@@ -193,4 +194,16 @@ object HistogramChartHelper {
         return maxOf(1, minOf(maxBinCount, idealBinCount)) // at least one bin
     }
 
+    /**
+     * The value at the index of the observations if each was repeated by its count and sorted.
+     */
+    private fun valueAt(sortedObservations: Map<BigDecimal, Int>, index: Int): BigDecimal {
+        var remaining = index
+        for ((observation, count) in sortedObservations) {
+            if (remaining < count) return observation
+            remaining -= count
+        }
+        return sortedObservations.keys.last()
+    }
+
 }
@@ -24,19 +24,17 @@ object HorizontalBarChartHelper {
      *
      * @param context The context for accessing resources.
      * @param chart An instance of the MPAndroidChart HorizontalBarChart component.
-     * @param observations The data to display in the horizontal bar chart.
+     * @param categoryCounts The number of observations of each category.
      * @param parsedCategories The parsed categories to display in the horizontal bar chart.
      * @param chartTextSize The text size for the chart.
      */
-    fun setupHorizontalBarChart(context: Context, chart: HorizontalBarChart, observations: List<Any>, parsedCategories: List<String>?, chartTextSize: Float) {
-        val categoryCounts = observations.groupingBy { it }.eachCount()
-
+    fun setupHorizontalBarChart(context: Context, chart: HorizontalBarChart, categoryCounts: Map<String, Int>, parsedCategories: List<String>?, chartTextSize: Float) {
         // Determine sorted categories: use parsedCategories if available and matching, otherwise use default order
         val sortedCategories = if (!parsedCategories.isNullOrEmpty()) {
             val matchingCategories = parsedCategories.filter { categoryCounts.containsKey(it) }.reversed()
-            if (matchingCategories.isNotEmpty()) matchingCategories else categoryCounts.keys.map { it.toString() }.sorted()
+            if (matchingCategories.isNotEmpty()) matchingCategories else categoryCounts.keys.sorted()
         } else {
-            categoryCounts.keys.map { it.toString() }.sorted()
+            categoryCounts.keys.sorted()
         }
 
         val entries = sortedCategories.mapIndexed { index, category ->
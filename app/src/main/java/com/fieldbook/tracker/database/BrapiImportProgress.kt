@@ -0,0 +1,84 @@
+package com.fieldbook.tracker.database
+
+import android.database.sqlite.SQLiteDatabase
+import androidx.core.content.contentValuesOf
+import com.fieldbook.tracker.database.Migrator.Study
+import com.google.gson.Gson
+import com.google.gson.reflect.TypeToken
+
+/**
+ * Progress of the BrAPI study imports that write observation units page by page.
+ *
+ * Each committed page of units is saved in the same transaction as the page number to read next,
+ * so an import stopped by the system (or a failed request) continues from the first page it did not save.
+ * The row is removed when the last page is saved, a study with a progress row is an unfinished import.
+ */
+object BrapiImportProgress {
+
+    const val TABLE_NAME = "brapi_import_progress"
+
+    private val gson = Gson()
+
+    private val columnsType = object : TypeToken<List<String>>() {}.type
+
+    /**
+     * @param columns the attribute columns the study was created with, in the order rows are written
+     */
+    data class Progress(val studyId: Int, val nextPage: Int, val pageSize: Int, val columns: List<String>)
+
+    private val statements = listOf(
+        """
+        CREATE TABLE IF NOT EXISTS $TABLE_NAME (
+            ${Study.FK} INTEGER PRIMARY KEY,
+            study_db_id TEXT NOT NULL,
+            observation_level TEXT NOT NULL,
+            next_page INTEGER NOT NULL,
+            page_size INTEGER NOT NULL,
+            columns TEXT NOT NULL)
+        """,
+        "CREATE UNIQUE INDEX IF NOT EXISTS ${TABLE_NAME}_study_db_id_idx ON $TABLE_NAME (study_db_id, observation_level)"
+    )
+
+    fun create(db: SQLiteDatabase) {
+
+        statements.forEach { db.execSQL(it.trimIndent()) }
+    }
+
+    /**
+     * @return the progress of an unfinished import of the study at the level, null if there is none
+     * or if its field was deleted since
+     */
+    fun find(db: SQLiteDatabase, studyDbId: String, observationLevel: String): Progress? = db.rawQuery("""
+        SELECT progress.${Study.FK}, progress.next_page, progress.page_size, progress.columns
+        FROM $TABLE_NAME AS progress
+        JOIN ${Study.tableName} AS studies ON studies.${Study.PK} = progress.${Study.FK}
+        WHERE progress.study_db_id = ? AND progress.observation_level = ?
+    """.trimIndent(), arrayOf(studyDbId, observationLevel)).use { cursor ->
+
+        if (cursor.moveToFirst()) {
+            Progress(cursor.getInt(0), cursor.getInt(1), cursor.getInt(2),
+                gson.fromJson(cursor.getString(3), columnsType))
+        } else null
+    }
+
+    /**
+     * Saves the page to read next, call in the transaction that saved the previous page.
+     * Replaces the progress left by a deleted field of the same study and level.
+     */
+    fun save(db: SQLiteDatabase, studyDbId: String, observationLevel: String, progress: Progress) {
+
+        db.insertWithOnConflict(TABLE_NAME, null, contentValuesOf(
+            Study.FK to progress.studyId,
+            "study_db_id" to studyDbId,
+            "observation_level" to observationLevel,
+            "next_page" to progress.nextPage,
+            "page_size" to progress.pageSize,
+            "columns" to gson.toJson(progress.columns)
+        ), SQLiteDatabase.CONFLICT_REPLACE)
+    }
+
+    fun clear(db: SQLiteDatabase, studyId: Int) {
+
+        db.delete(TABLE_NAME, "${Study.FK} = ?", arrayOf(studyId.toString()))
+    }
+}
@@ -0,0 +1,190 @@
+package com.fieldbook.tracker.database
+
+import android.database.sqlite.SQLiteDatabase
+import android.database.sqlite.SQLiteStatement
+import android.os.SystemClock
+import android.util.Log
+import com.fieldbook.tracker.database.Migrator.ObservationUnit
+import com.fieldbook.tracker.database.Migrator.ObservationUnitAttribute
+import com.fieldbook.tracker.database.Migrator.ObservationUnitValue
+import com.fieldbook.tracker.database.Migrator.Study
+import com.fieldbook.tracker.database.dao.ObservationUnitAttributeDao
+import com.fieldbook.tracker.database.dao.StudyDao
+import java.io.Closeable
+
+/**
+ * Bulk insert of observation units and their attribute values for a single study.
+ * Shared by the CSV/Excel import task and the BrAPI study save.
+ *
+ * Field names, the unique/primary/secondary column indices and attribute ids are resolved once
+ * when the importer is created, rows are then inserted by rebinding compiled statements.
+ * If the caller has not opened a transaction, all rows are inserted in one transaction that finish() commits,
+ * so a failed or interrupted import leaves none of its rows behind.
+ * Otherwise the caller's transaction decides what is committed.
+ *
+ * Usage: insert each row, call finish() to commit, and always close().
+ * Closing without finish() rolls back every inserted row.
+ */
+class BulkFieldImporter @JvmOverloads constructor(
+    private val db: SQLiteDatabase,
+    private val studyId: Int,
+    private val columns: List<String>,
+    private val progressInterval: Int = DEFAULT_PROGRESS_INTERVAL,
+    private val progressListener: ProgressListener? = null
+) : Closeable {
+
+    companion object {
+
+        private const val TAG = "BulkFieldImporter"
+
+        //rows between progress updates
+        const val DEFAULT_PROGRESS_INTERVAL = 1000
+    }
+
+    fun interface ProgressListener {
+        fun onProgress(rows: Int, rowsPerSecond: Float)
+    }
+
+    private val names = StudyDao.getNames(studyId)
+        ?: throw IllegalStateException("Study $studyId does not exist")
+
+    private val uniqueIndex = columns.indexOf(names.unique)
+    private val primaryIndex = columns.indexOf(names.primary)
+    private val secondaryIndex = columns.indexOf(names.secondary)
+    private val geoCoordinatesIndex = columns.indexOf("geo_coordinates")
+
+    private val studyAttributeIds = db.rawQuery(
+        "SELECT ${ObservationUnitAttribute.PK}, observation_unit_attribute_name FROM ${ObservationUnitAttribute.tableName} WHERE ${Study.FK} = ?",
+        arrayOf(studyId.toString())
+    ).use { cursor ->
+        HashMap<String, Long>(cursor.count * 2).also { ids ->
+            while (cursor.moveToNext()) {
+                val name = cursor.getString(1) ?: ""
+                if (name !in ids) ids[name] = cursor.getLong(0)
+            }
+        }
+    }
+
+    private val attributeIds = LongArray(columns.size) { resolveAttributeId(columns[it]) }
+    private val rowAttributeId = if (primaryIndex < 0) resolveAttributeId("Row") else -1L
+    private val columnAttributeId = if (secondaryIndex < 0) resolveAttributeId("Column") else -1L
+
+    private val unitStatement = db.compileStatement("""
+        INSERT INTO ${ObservationUnit.tableName} (${Study.FK}, observation_unit_db_id, primary_id, secondary_id, geo_coordinates)
+        VALUES (?, ?, ?, ?, ?)
+    """.trimIndent())
+
+    private val valueStatement = db.compileStatement("""
+        INSERT INTO ${ObservationUnitValue.tableName} (${Study.FK}, ${ObservationUnit.FK}, ${ObservationUnitAttribute.FK}, observation_unit_value_name)
+        VALUES (?, ?, ?, ?)
+    """.trimIndent())
+
+    private val ownsTransaction = !db.inTransaction()
+
+    private val startTime = SystemClock.elapsedRealtime()
+
+    var rowCount = 0
+        private set
+
+    init {
+
+        if (uniqueIndex < 0) {
+            close()
+            throw IllegalArgumentException("Unique id column ${names.unique} is missing from the imported columns")
+        }
+    }
+
+    private fun resolveAttributeId(name: String): Long =
+        studyAttributeIds[name] ?: ObservationUnitAttributeDao.getIdByName(name).toLong()
+
+    private fun SQLiteStatement.bindStringOrNull(index: Int, value: String?) {
+        if (value == null) bindNull(index) else bindString(index, value)
+    }
+
+    /**
+     * Inserts one observation unit row.
+     * Data that is shorter than the columns (s.a BrAPI units without x/y types) is filled with NA.
+     * @return the new observation unit row id
+     */
+    fun insert(data: List<String?>): Long {
+
+        if (ownsTransaction && !db.inTransaction()) {
+            db.beginTransaction()
+        }
+
+        fun valueAt(index: Int) = if (index < data.size) data[index] else "NA"
+
+        val geoCoordinates = if (geoCoordinatesIndex in data.indices) data[geoCoordinatesIndex] else ""
+
+        with(unitStatement) {
+            clearBindings()
+            bindLong(1, studyId.toLong())
+            bindStringOrNull(2, valueAt(uniqueIndex))
+            bindStringOrNull(3, if (primaryIndex < 0) "NA" else valueAt(primaryIndex))
+            bindStringOrNull(4, if (secondaryIndex < 0) "NA" else valueAt(secondaryIndex))
+            bindStringOrNull(5, geoCoordinates)
+        }
+
+        val unitId = unitStatement.executeInsert()
+
+        for (index in columns.indices) {
+            insertValue(unitId, attributeIds[index], valueAt(index))
+        }
+
+        if (primaryIndex < 0) insertValue(unitId, rowAttributeId, "NA")
+
+        if (secondaryIndex < 0) insertValue(unitId, columnAttributeId, "NA")
+
+        rowCount++
+
+        if (rowCount % progressInterval == 0) {
+            publishProgress()
+        }
+
+        return unitId
+    }
+
+    private fun insertValue(unitId: Long, attributeId: Long, value: String?) = with(valueStatement) {
+        clearBindings()
+        bindLong(1, studyId.toLong())
+        bindLong(2, unitId)
+        bindLong(3, attributeId)
+        bindStringOrNull(4, value)
+        executeInsert()
+    }
+
+    private fun publishProgress() {
+
+        val seconds = (SystemClock.elapsedRealtime() - startTime) / 1000f
+
+        progressListener?.onProgress(rowCount, if (seconds > 0f) rowCount / seconds else rowCount.toFloat())
+    }
+
+    /**
+     * Commits the inserted rows and reports the final progress.
+     */
+    fun finish() {
+
+        if (ownsTransaction && db.inTransaction()) {
+            db.setTransactionSuccessful()
+            db.endTransaction()
+        }
+
+        publishProgress()
+
+        Log.d(TAG, "Imported $rowCount rows into study $studyId")
+    }
+
+    /**
+     * Releases the compiled statements, rows of an unfinished import are rolled back.
+     */
+    override fun close() {
+
+        if (ownsTransaction && db.inTransaction()) {
+            db.endTransaction()
+        }
+
+        unitStatement.close()
+        valueStatement.close()
+    }
+}
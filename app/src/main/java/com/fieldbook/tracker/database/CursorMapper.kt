@@ -0,0 +1,109 @@
+package com.fieldbook.tracker.database
+
+import android.database.Cursor
+
+/**
+ * Typed replacement for toTable/toFirst.
+ *
+ * A mapper resolves the column indices it needs once per cursor in bind, map is then called for every row
+ * and reads the values straight into its result, there is no intermediate map, no column name lookup and
+ * no boxing per cell. Mappers keep the resolved indices, so use a new instance per query.
+ */
+abstract class CursorMapper<T> {
+
+    /**
+     * Called once per cursor before the first row is mapped.
+     */
+    abstract fun bind(cursor: Cursor)
+
+    /**
+     * Maps the cursor's current row.
+     */
+    abstract fun map(cursor: Cursor): T
+}
+
+/**
+ * Builds the map backed table models (e.g ObservationVariableModel) without the per cell overhead of toTable,
+ * models read often are better served by a typed mapper such as ObservationModel.Mapper that skips the map.
+ * Column names are read once, values keep the same types toTable produced (null, Int or String)
+ * and missing keys default to an empty string the same way.
+ */
+class RowMapper<T>(private val create: (Row) -> T) : CursorMapper<T>() {
+
+    private var names: Array<String> = emptyArray()
+
+    override fun bind(cursor: Cursor) {
+        names = cursor.columnNames
+    }
+
+    override fun map(cursor: Cursor): T {
+
+        val row = HashMap<String, Any?>(names.size * 2)
+
+        for (index in names.indices) {
+            row[names[index]] = when (cursor.getType(index)) {
+                Cursor.FIELD_TYPE_NULL -> null
+                Cursor.FIELD_TYPE_INTEGER -> cursor.getInt(index)
+                Cursor.FIELD_TYPE_BLOB -> cursor.getBlob(index).toString()
+                else -> cursor.getString(index)
+            }
+        }
+
+        return create(row.withDefault { String() })
+    }
+}
+
+/**
+ * Maps every row and closes the cursor.
+ */
+fun <T> Cursor.mapRows(mapper: CursorMapper<T>): List<T> = use {
+
+    val rows = ArrayList<T>(count.coerceAtLeast(0))
+
+    if (moveToFirst()) {
+
+        mapper.bind(this)
+
+        do {
+
+            rows.add(mapper.map(this))
+
+        } while (moveToNext())
+    }
+
+    rows
+}
+
+/**
+ * Maps the first row, if any, and closes the cursor.
+ */
+fun <T> Cursor.mapFirst(mapper: CursorMapper<T>): T? = use {
+
+    if (moveToFirst()) {
+
+        mapper.bind(this)
+
+        mapper.map(this)
+
+    } else null
+}
+
+/**
+ * Null safe getters for mappers, an index of -1 (column not selected) reads as null.
+ */
+fun Cursor.stringOrNull(index: Int): String? = if (index < 0 || isNull(index)) null else getString(index)
+
+fun Cursor.intOrDefault(index: Int, default: Int): Int = if (index < 0 || isNull(index)) default else getInt(index)
+
+fun Cursor.intOrNull(index: Int): Int? = if (index < 0 || isNull(index)) null else getInt(index)
+
+/**
+ * Getters for models built from a map, values stored with another type (e.g an id given as a string) are converted.
+ */
+fun Row.stringOrNull(key: String): String? = this[key]?.toString()
+
+fun Row.intOrDefault(key: String, default: Int): Int = when (val value = this[key]) {
+    null -> default
+    is Number -> value.toInt()
+    else -> value.toString().toIntOrNull() ?: default
+}
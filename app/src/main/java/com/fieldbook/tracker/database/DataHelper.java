@@ -18,10 +18,10 @@ import androidx.documentfile.provider.DocumentFile;
 import androidx.preference.PreferenceManager;
 
 import com.fieldbook.tracker.R;
-import com.fieldbook.tracker.activities.CollectActivity;
 import com.fieldbook.tracker.brapi.model.FieldBookImage;
 import com.fieldbook.tracker.brapi.model.Observation;
 import com.fieldbook.tracker.database.dao.ObservationDao;
+import com.fieldbook.tracker.database.dao.ObservationStatisticsDao;
 import com.fieldbook.tracker.database.dao.ObservationUnitAttributeDao;
 import com.fieldbook.tracker.database.dao.ObservationUnitDao;
 import com.fieldbook.tracker.database.dao.ObservationUnitPropertyDao;
@@ -33,6 +33,7 @@ import com.fieldbook.tracker.database.models.ObservationUnitModel;
 import com.fieldbook.tracker.database.models.ObservationVariableModel;
 import com.fieldbook.tracker.database.models.StudyModel;
 import com.fieldbook.tracker.objects.FieldObject;
+import com.fieldbook.tracker.objects.PlotIndex;
 import com.fieldbook.tracker.objects.RangeObject;
 import com.fieldbook.tracker.objects.SearchData;
 import com.fieldbook.tracker.objects.SearchDialogDataModel;
@@ -74,7 +75,7 @@ import dagger.hilt.android.qualifiers.ActivityContext;
 public class DataHelper {
     public static final String RANGE = "range";
     public static final String TRAITS = "traits";
-    public static final int DATABASE_VERSION = 11;
+    public static final int DATABASE_VERSION = 19;
     private static final String DATABASE_NAME = "fieldbook.db";
     private static final String USER_TRAITS = "user_traits";
     private static final String EXP_INDEX = "exp_id";
@@ -82,6 +83,14 @@ public class DataHelper {
     private static final String PLOT_ATTRIBUTES = "plot_attributes";
     private static final String PLOT_VALUES = "plot_values";
     public static SQLiteDatabase db;
+    //read-only connections for background readers, the writer is always db
+    public static DatabaseReaderPool readers;
+
+    //collected plots of the field loaded by getPlotIndex, kept in sync by the observation inserts/deletes below
+    private static FieldCompleteness completeness = FieldCompleteness.EMPTY;
+
+    //single background thread for the automatic backups
+    private static final DatabaseBackupWorker backupWorker = new DatabaseBackupWorker();
     private static final String TAG = "Field Book";
     private static final String TICK = "`";
     private static final String TIME_FORMAT_PATTERN = "yyyy-MM-dd HH:mm:ss.SSSZZZZZ";
@@ -105,6 +114,16 @@ public class DataHelper {
             openHelper = new OpenHelper(this);
             db = openHelper.getWritableDatabase();
 
+            if (readers == null) {
+                readers = new DatabaseReaderPool(getDatabasePath(context), DatabaseReaderPool.DEFAULT_SIZE);
+            }
+
+            //values queued by an upgrade or left by an earlier session
+            SearchIndex.INSTANCE.updateInBackground(db);
+
+            //studies that have no property table yet, s.a after the upgrade that introduced them
+            ObservationUnitPropertyDao.Companion.buildMissingInBackground(db);
+
             timeStamp = new SimpleDateFormat(TIME_FORMAT_PATTERN,
                     Locale.getDefault());
 
@@ -345,6 +364,16 @@ public class DataHelper {
         return ObservationUnitDao.Companion.getById(id);
     }
 
+    /**
+     * Studies that have a unit with the given observation unit id, an empty list if there are none.
+     */
+    public List<ObservationUnitDao.UnitStudy> getStudiesOfObservationUnit(String id) {
+
+        open();
+
+        return ObservationUnitDao.Companion.getStudiesOfUnit(id);
+    }
+
     @Nullable
     public ObservationVariableModel getObservationVariableById(String id) {
 
@@ -353,9 +382,29 @@ public class DataHelper {
         return ObservationVariableDao.Companion.getById(id);
     }
 
-    public String getSearchQuery(CollectActivity originActivity, List<SearchDialogDataModel> dataSet) {
-        SearchQueryBuilder queryBuilder = new SearchQueryBuilder(originActivity, dataSet);
-        return queryBuilder.buildSearchQuery();
+    /**
+     * The georeferenced observation unit nearest to the location, or null if no unit has coordinates.
+     */
+    @Nullable
+    public SpatialIndex.NearestUnit getNearestObservationUnit(double latitude, double longitude) {
+
+        open();
+
+        return SpatialIndex.INSTANCE.nearest(db, latitude, longitude);
+    }
+
+    /**
+     * Units of the selected field matching all search criteria, null if there are none.
+     */
+    public SearchData[] search(List<SearchDialogDataModel> dataSet) {
+
+        open();
+
+        SearchQueryBuilder queryBuilder = new SearchQueryBuilder(preferences, this, dataSet);
+
+        String sql = queryBuilder.buildSearchQuery();
+
+        return getRangeBySql(sql, queryBuilder.getArguments());
     }
 
     /**
@@ -368,7 +417,14 @@ public class DataHelper {
 
         open();
 
-        return ObservationDao.Companion.insertObservation(plotId, traitDbId, traitFormat, value, person, location, notes, studyId, observationDbId, lastSyncedTime, rep);
+        long id = ObservationDao.Companion.insertObservation(plotId, traitDbId, traitFormat, value, person, location, notes, studyId, observationDbId, lastSyncedTime, rep);
+
+        if (id != -1) {
+            completeness.onInsert(studyId, plotId, traitDbId);
+            SearchIndex.INSTANCE.updateInBackground(db);
+        }
+
+        return id;
 
 //        Cursor cursor = db.rawQuery("SELECT * from user_traits WHERE user_traits.rid = ? and user_traits.parent = ?", new String[]{rid, parent});
 //        int rep = cursor.getCount() + 1;
@@ -484,6 +540,10 @@ public class DataHelper {
 
     public void setTraitObservations(Integer studyId, Observation observation, Map<String,String> traitIdToTypeMap) {
         ObservationDao.Companion.insertObservation(studyId, observation, traitIdToTypeMap);
+
+        completeness.invalidate(null);
+
+        SearchIndex.INSTANCE.updateInBackground(db);
     }
 
     /**
@@ -846,12 +906,16 @@ public class DataHelper {
 
         ObservationDao.Companion.updateObservationModels(observations);
 
+        SearchIndex.INSTANCE.updateInBackground(db);
+
     }
 
     public void updateObservationModels(SQLiteDatabase db, List<ObservationModel> observations) {
 
         ObservationDao.Companion.updateObservationModels(db, observations);
 
+        SearchIndex.INSTANCE.updateInBackground(db);
+
     }
 
     public void updateObservation(ObservationModel observation) {
@@ -860,6 +924,8 @@ public class DataHelper {
 
         ObservationDao.Companion.updateObservation(observation);
 
+        SearchIndex.INSTANCE.updateInBackground(db);
+
     }
 
     /**
@@ -871,6 +937,8 @@ public class DataHelper {
 
         ObservationDao.Companion.updateObservations(observations);
 
+        SearchIndex.INSTANCE.updateInBackground(db);
+
 //        ArrayList<String> ids = new ArrayList<String>();
 //
 //        db.beginTransaction();
@@ -941,6 +1009,9 @@ public class DataHelper {
      */
     public void close() {
         try {
+            if (readers != null) {
+                readers.close();
+            }
             db.close();
         } catch (Exception e) {
             Log.e(TAG, e.getMessage());
@@ -979,24 +1050,29 @@ public class DataHelper {
     }
 
     /**
-     * Retrieves the columns needed for database export with all imported attributes
+     * Streams the database export rows, one observation per row, to the consumer.
+     * Pass all imported attributes or only the unique identifier as the field list.
+     * @return the number of exported rows
      */
-    public Cursor getExportDBData(String[] fieldList, ArrayList<TraitObject> traits, int fieldId) {
+    public int exportDBData(String[] fieldList, ArrayList<TraitObject> traits, int fieldId,
+                            ObservationUnitPropertyDao.ExportRowConsumer consumer) {
 
         open();
-        return ObservationUnitPropertyDao.Companion.getExportDbData(
-                context, fieldId, fieldList, traits);
+        return ObservationUnitPropertyDao.Companion.exportDbData(
+                context, fieldId, fieldList, traits, consumer);
 
     }
 
     /**
-     * Retrieves the columns needed for database export with only unique identifier
+     * Streams the table export rows, one observation unit per row, to the consumer.
+     * @return the number of exported rows
      */
-    public Cursor getExportDBDataShort(String[] fieldList, String uniqueId, ArrayList<TraitObject> traits, int fieldId) {
+    public int exportTableData(String[] fieldList, ArrayList<TraitObject> traits, int fieldId,
+                               ObservationUnitPropertyDao.ExportRowConsumer consumer) {
 
         open();
-        return ObservationUnitPropertyDao.Companion.getExportDbDataShort(
-                context, fieldId, fieldList, uniqueId, traits);
+        return ObservationUnitPropertyDao.Companion.exportTableData(
+                context, fieldId, fieldList, traits, consumer);
 
     }
 
@@ -1032,20 +1108,12 @@ public class DataHelper {
     }
 
     /**
-     * Convert EAV database to relational
-     * TODO add where statement for repeated values
+     * Data grid rows for the given window of observation unit ids, see ObservationUnitPropertyDao.getDataGridRows.
      */
-    public Cursor getExportTableDataShort(int fieldId,  String uniqueId, ArrayList<TraitObject> traits) {
-
-        open();
-        return ObservationUnitPropertyDao.Companion.getExportTableDataShort(context, fieldId, uniqueId, traits);
-
-    }
-
-    public Cursor getExportTableData(int fieldId, ArrayList<TraitObject> traits) {
+    public Cursor getDataGridRows(int studyId, int[] ids, String rowHeader, String uniqueName, List<String> traitIds) {
 
         open();
-        return ObservationUnitPropertyDao.Companion.getExportTableData(context, fieldId, traits);
+        return ObservationUnitPropertyDao.Companion.getDataGridRows(studyId, ids, rowHeader, uniqueName, traitIds);
 
     }
 
@@ -1581,20 +1649,7 @@ public class DataHelper {
      */
     public int[] getAllRangeID() {
 
-        open();
-
-        if (!isTableExists("ObservationUnitProperty")) {
-
-            ArrayList<FieldObject> fields = StudyDao.Companion.getAllFieldObjects(
-                    preferences.getString(GeneralKeys.FIELDS_LIST_SORT_ORDER, "date_import")
-            );
-
-            if (!fields.isEmpty()) {
-
-                StudyDao.Companion.switchField(fields.get(0).getExp_id());
-
-            }
-        }
+        openPropertyView();
 
         Integer[] result = ObservationUnitPropertyDao.Companion.getAllRangeId(context);
 
@@ -1633,6 +1688,60 @@ public class DataHelper {
 //        return data;
     }
 
+    /**
+     * Selects the first field if no field has been selected yet.
+     */
+    private void openPropertyView() {
+
+        open();
+
+        if (!isTableExists("ObservationUnitProperty")) {
+
+            ArrayList<FieldObject> fields = StudyDao.Companion.getAllFieldObjects(
+                    preferences.getString(GeneralKeys.FIELDS_LIST_SORT_ORDER, "date_import")
+            );
+
+            if (!fields.isEmpty()) {
+
+                StudyDao.Companion.switchField(fields.get(0).getExp_id());
+
+            }
+        }
+    }
+
+    /**
+     * Navigation index of the selected field, see PlotIndex.
+     * The ids are in the same order getAllRangeID returns.
+     */
+    public PlotIndex getPlotIndex(String first, String second, String unique) {
+
+        openPropertyView();
+
+        PlotIndex index = ObservationUnitPropertyDao.Companion.getPlotIndex(context, first, second, unique);
+
+        completeness = new FieldCompleteness(preferences.getInt(GeneralKeys.SELECTED_FIELD_ID, 0), index);
+
+        return index;
+    }
+
+    /**
+     * Recomputes the per-study counters shown in the fields list, e.g for databases restored from older backups.
+     */
+    public void rebuildStudyStatistics() {
+
+        open();
+
+        Migrator.Companion.createStudyStatistics(db);
+        Migrator.Companion.rebuildStudyStatistics(db);
+    }
+
+    /**
+     * Completeness of the field last loaded with getPlotIndex.
+     */
+    public FieldCompleteness getFieldCompleteness() {
+        return completeness;
+    }
+
     /**
      * V2 - Execute a custom sql query, returning the result as SearchData objects
      * Used for user search function
@@ -1640,11 +1749,15 @@ public class DataHelper {
      * TODO: When is this used and what queries are sent to this ?
      */
     public SearchData[] getRangeBySql(String sql) {
+        return getRangeBySql(sql, null);
+    }
+
+    public SearchData[] getRangeBySql(String sql, String[] args) {
 
         open();
 
         try {
-            Cursor cursor = db.rawQuery(sql, null);
+            Cursor cursor = db.rawQuery(sql, args);
 
             SearchData[] data = null;
 
@@ -1759,6 +1872,10 @@ public class DataHelper {
 
         ObservationDao.Companion.deleteTraitByValue(studyId, plotId, traitDbId, value);
 
+        completeness.invalidate(traitDbId);
+
+        SearchIndex.INSTANCE.updateInBackground(db);
+
 //        try {
 //            db.delete(USER_TRAITS, "rid like ? and parent like ? and userValue = ?",
 //                    new String[]{rid, parent, value});
@@ -1894,6 +2011,10 @@ public class DataHelper {
 
         ObservationDao.Companion.deleteTrait(studyId, plotId, traitDbId, rep);
 
+        completeness.invalidate(traitDbId);
+
+        SearchIndex.INSTANCE.updateInBackground(db);
+
 //        try {
 //            db.delete(USER_TRAITS, "rid like ? and parent like ?",
 //                    new String[]{rid, parent});
@@ -1912,6 +2033,8 @@ public class DataHelper {
 
         ObservationVariableDao.Companion.deleteTrait(id);
 
+        completeness.invalidate(id);
+
 //        try {
 //            db.delete(TRAITS, "id = ?",
 //                    new String[]{id});
@@ -1953,7 +2076,7 @@ public class DataHelper {
      */
     public void dropRange() {
 
-        db.execSQL("DROP TABLE IF EXISTS ObservationUnitProperty");
+        ObservationUnitPropertyDao.Companion.dropPropertyView(db);
 
 //        db.execSQL("DROP TABLE IF EXISTS " + RANGE);
     }
@@ -2150,6 +2273,17 @@ public class DataHelper {
                 trait.getDetails(), trait.getCategories(), trait.getCloseKeyboardOnOpen());
     }
 
+    /**
+     * Checks a study's imported units against the other studies, used after a streamed import.
+     * @return false if another study has a unit with the same observation unit id
+     */
+    public boolean checkUnique(int studyId) {
+
+        open();
+
+        return ObservationUnitDao.Companion.checkUnique(studyId);
+    }
+
     public boolean checkUnique(HashMap<String, String> values) {
 
         open();
@@ -2171,8 +2305,13 @@ public class DataHelper {
 //        return true;
     }
 
+    /**
+     * Last step of a field import, also queues the imported values for the search index.
+     */
     public void updateImportDate(int studyId) {
         StudyDao.Companion.updateImportDate(studyId);
+
+        SearchIndex.INSTANCE.updateInBackground(db);
     }
 
     public void updateEditDate(int studyId) {
@@ -2249,9 +2388,7 @@ public class DataHelper {
         preferences.edit().remove(GeneralKeys.LAST_PLOT).apply();
         //ep.edit().putString("lastplot", null).apply();
 
-        //delete the old table
-        db.execSQL("DROP TABLE IF EXISTS ObservationUnitProperty");
-
+        //repoint the ObservationUnitProperty view, the study's property table is only built if missing
         StudyDao.Companion.switchField(studyId);
 
 //        Cursor cursor;
@@ -2362,12 +2499,25 @@ public class DataHelper {
 //        return (int) exp_id;
     }
 
+    /**
+     * Creates an importer for many observation unit rows of one study.
+     * Prefer this over createFieldData when importing files or BrAPI studies.
+     */
+    public BulkFieldImporter createFieldImporter(int studyId, List<String> columns, @Nullable BulkFieldImporter.ProgressListener listener) {
+
+        open();
+
+        return new BulkFieldImporter(db, studyId, columns, BulkFieldImporter.DEFAULT_PROGRESS_INTERVAL, listener);
+    }
+
     public void createFieldData(int studyId, List<String> columns, List<String> data) {
 
         open();
 
         StudyDao.Companion.createFieldData(studyId, columns, data);
 
+        SearchIndex.INSTANCE.updateInBackground(db);
+
 //        // get unique_id, primary_id, secondary_id names from exp_id
 //        Cursor cursor = db.rawQuery("SELECT exp_id.unique_id, exp_id.primary_id, exp_id.secondary_id from exp_id where exp_id.exp_id = " + exp_id, null);
 //        cursor.moveToFirst();
@@ -2432,6 +2582,10 @@ public class DataHelper {
 
         close();
 
+        //the write-ahead log belongs to the replaced database, it must not be applied to the imported file
+        new File(internalDbPath + "-wal").delete();
+        new File(internalDbPath + "-shm").delete();
+
         String fileName = file.getName();
 
         if (fileName != null) {
@@ -2473,91 +2627,106 @@ public class DataHelper {
 
             }
 
+            //imported files may have been edited outside of the app, recount rather than trust their counters
+            rebuildStudyStatistics();
+
+            SearchIndex.INSTANCE.create(db);
+
+            SpatialIndex.INSTANCE.create(db);
+
+            BrapiImportProgress.INSTANCE.create(db);
+
+            SearchIndex.INSTANCE.updateInBackground(db);
+
+            ObservationUnitPropertyDao.Companion.buildMissingInBackground(db);
+
         }
     }
 
     /**
-     * Export database
-     * TODO add documentation
+     * Writes a consistent copy of the live database to the cache directory, see DatabaseSnapshot.
+     * The connections in use are left open, callers delete the returned file when they are done with it.
+     * @param name the cache sub directory for the snapshot, the file itself is always named fieldbook.db
      */
-    public void exportDatabase(Context ctx, String filename) throws IOException {
-        String internalDbPath = getDatabasePath(this.context);
-
-        close();
+    public File createSnapshot(String name) throws IOException {
+        return createSnapshot(context, name);
+    }
 
-        try {
+    private static File createSnapshot(Context ctx, String name) throws IOException {
 
-            File oldDb = new File(internalDbPath);
+        File snapshot = new File(new File(ctx.getCacheDir(), name), DATABASE_NAME);
 
-            DocumentFile databaseDir = BaseDocumentTreeUtil.Companion.getDirectory(ctx, R.string.dir_database);
+        DatabaseSnapshot.write(getDatabasePath(ctx), snapshot);
 
-            if (databaseDir != null) {
+        return snapshot;
+    }
 
-                String dbFileName = "fieldbook.db";
-                String prefFileName = filename + "_db_sharedpref";
-                String zipFileName = filename + ".zip";
+    /**
+     * Queues an export of the database and preferences to dir_database/<filename>.zip on the backup worker.
+     * Repeated requests within the worker's delay are coalesced into one backup.
+     * The task only holds the application context, not this helper or its activity.
+     */
+    public void scheduleBackup(String filename) {
 
-                DocumentFile dbDoc = databaseDir.findFile(dbFileName);
-                DocumentFile prefDoc = databaseDir.findFile(prefFileName);
-                if (dbDoc != null && dbDoc.exists()) {
-                    dbDoc.delete();
-                }
+        Context appContext = context.getApplicationContext();
 
-                if (prefDoc != null && prefDoc.exists()) {
-                    prefDoc.delete();
-                }
+        backupWorker.schedule(() -> {
 
-                DocumentFile backupDatabaseFile = databaseDir.createFile("*/*", dbFileName);
-                DocumentFile backupPreferenceFile = databaseDir.createFile("*/*", prefFileName);
+            try {
 
+                exportDatabase(appContext, filename);
 
-                DocumentFile zipFile = databaseDir.findFile(zipFileName);
-                if (zipFile == null){
-                    zipFile = databaseDir.createFile("*/*", zipFileName);
-                }
+            } catch (IOException e) {
 
-                // copy the preferences in the backupPreferenceFile
-                OutputStream tempStream = BaseDocumentTreeUtil.Companion.getFileOutputStream(context, R.string.dir_database, prefFileName);
-                ObjectOutputStream objectStream = new ObjectOutputStream(tempStream);
+                Log.e(TAG, "Backup " + filename + " failed: " + e.getMessage());
+            }
+        });
+    }
 
-                objectStream.writeObject(preferences.getAll());
+    /**
+     * Export database
+     * Zips a snapshot of the database and the shared preferences into dir_database/<filename>.zip.
+     * The database stays open while the snapshot is written, so this can run while the user keeps collecting.
+     */
+    public static void exportDatabase(Context ctx, String filename) throws IOException {
 
-                objectStream.close();
+        DocumentFile databaseDir = BaseDocumentTreeUtil.Companion.getDirectory(ctx, R.string.dir_database);
 
-                if (tempStream != null) {
-                    tempStream.close();
-                }
+        if (databaseDir == null) return;
 
-                // add the .db file and preferences file to the zip file
-                OutputStream outputStream = context.getContentResolver().openOutputStream(zipFile.getUri());
-                if (backupDatabaseFile != null && backupPreferenceFile != null) {
+        File snapshot = createSnapshot(ctx, filename);
 
-                    BaseDocumentTreeUtil.Companion.copy(context, DocumentFile.fromFile(oldDb), backupDatabaseFile);
+        File prefFile = new File(snapshot.getParentFile(), filename + "_db_sharedpref");
 
-                    if (outputStream != null){
-                        ZipUtil.Companion.zip(context, new DocumentFile[] { backupDatabaseFile, backupPreferenceFile }, outputStream);
+        try {
 
-                    }
+            // copy the preferences next to the snapshot
+            try (ObjectOutputStream objectStream = new ObjectOutputStream(new FileOutputStream(prefFile))) {
+                objectStream.writeObject(PreferenceManager.getDefaultSharedPreferences(ctx).getAll());
+            }
 
-                    // delete .db file and preferences file
-                    if (backupDatabaseFile.exists()){
-                        backupDatabaseFile.delete();
-                    }
+            String zipFileName = filename + ".zip";
 
-                    if (backupPreferenceFile.exists()){
-                        backupPreferenceFile.delete();
-                    }
-                }
+            DocumentFile zipFile = databaseDir.findFile(zipFileName);
+            if (zipFile == null) {
+                zipFile = databaseDir.createFile("*/*", zipFileName);
             }
 
-        } catch (Exception e) {
+            if (zipFile == null) {
+                throw new IOException("Unable to create " + zipFileName);
+            }
 
-            Log.e(TAG, e.getMessage());
+            // add the .db file and preferences file to the zip file
+            OutputStream outputStream = ctx.getContentResolver().openOutputStream(zipFile.getUri());
+            if (outputStream != null) {
+                ZipUtil.Companion.zip(ctx, new DocumentFile[] { DocumentFile.fromFile(snapshot), DocumentFile.fromFile(prefFile) }, outputStream);
+            }
 
         } finally {
 
-            open();
-
+            // delete .db file and preferences file
+            snapshot.delete();
+            prefFile.delete();
         }
     }
 
@@ -2777,6 +2946,44 @@ public class DataHelper {
         return ObservationDao.Companion.getAllFromAYear(year);
     }
 
+    public ObservationModel[] getAllObservationsOfUnitFromAYear(String unit, String year) {
+
+        open();
+
+        return ObservationDao.Companion.getAllOfUnitFromAYear(unit, year);
+    }
+
+    /**
+     * @param length 4 for years, 7 for months
+     */
+    public List<String> getObservationSeasons(int length) {
+
+        open();
+
+        return ObservationStatisticsDao.Companion.getSeasons(length);
+    }
+
+    public ObservationStatisticsDao.Summary getObservationSummary(String season) {
+
+        open();
+
+        return ObservationStatisticsDao.Companion.getSummary(season);
+    }
+
+    public Map<String, Integer> getDailyObservationCounts() {
+
+        open();
+
+        return ObservationStatisticsDao.Companion.getDailyCounts();
+    }
+
+    public kotlin.Pair<String, String> getObservationTimeStampRange() {
+
+        open();
+
+        return ObservationStatisticsDao.Companion.getTimeStampRange();
+    }
+
     public ObservationModel[] getRepeatedValues(String studyId, String plotId, String traitDbId) {
 
         open();
@@ -2796,6 +3003,10 @@ public class DataHelper {
         open();
 
         ObservationDao.Companion.delete(id);
+
+        completeness.invalidate(null);
+
+        SearchIndex.INSTANCE.updateInBackground(db);
     }
 
     /**
@@ -2808,17 +3019,17 @@ public class DataHelper {
         DataHelper helper;
         OpenHelper(DataHelper helper) {
             super(helper.context, DATABASE_NAME, null, DATABASE_VERSION);
+            //readers see the last commit while the collect screen writes, see DatabaseReaderPool
+            setWriteAheadLoggingEnabled(true);
             preferences = PreferenceManager.getDefaultSharedPreferences(helper.context);
             this.helper = helper;
         }
 
         @Override
-        public void onOpen(SQLiteDatabase db) {
+        public void onConfigure(SQLiteDatabase db) {
 
-            db.disableWriteAheadLogging();
-
-            //enables foreign keys for cascade deletes
-            db.rawQuery("PRAGMA foreign_keys=ON;", null).close();
+            //enables foreign keys for cascade deletes, applied to every pooled connection
+            db.setForeignKeyConstraintsEnabled(true);
 
         }
 
@@ -3031,7 +3242,7 @@ public class DataHelper {
                 // Backup database
                 try {
                     helper.open();
-                    helper.exportDatabase(helper.context, "backup_v8");
+                    exportDatabase(helper.context, "backup_v8");
 //                    File exportedDb = new File(ep2.getString(GeneralKeys.DEFAULT_STORAGE_LOCATION_DIRECTORY, Constants.MPATH) + Constants.BACKUPPATH + "/" + "backup_v8.db");
 //                    File exportedSp = new File(ep2.getString(GeneralKeys.DEFAULT_STORAGE_LOCATION_DIRECTORY, Constants.MPATH) + Constants.BACKUPPATH + "/" + "backup_v8.db_sharedpref.xml");
 //                    Utils.scanFile(helper.context, exportedDb);
@@ -3063,6 +3274,65 @@ public class DataHelper {
                 helper.fixStudyAliases(db);
 
             }
+
+            if (oldVersion <= 11 && newVersion >= 12) {
+
+                // add secondary indices for observation, unit value and attribute lookups
+                Migrator.Companion.createIndices(db);
+
+            }
+
+            if (oldVersion <= 12 && newVersion >= 13) {
+
+                // counters for the fields list, kept by triggers and filled from the existing data once
+                Migrator.Companion.createStudyCounters(db);
+                Migrator.Companion.rebuildStudyCounters(db);
+
+            }
+
+            if (oldVersion <= 13 && newVersion >= 14) {
+
+                // value frequencies per study and trait for the field detail charts
+                Migrator.Companion.createStudyTraitValues(db);
+                Migrator.Companion.rebuildStudyTraitValues(db);
+
+            }
+
+            if (oldVersion <= 14 && newVersion >= 15) {
+
+                // daily observation rollup for the statistics screens
+                Migrator.Companion.createObservationRollup(db);
+                Migrator.Companion.rebuildObservationRollup(db);
+
+            }
+
+            if (oldVersion <= 15 && newVersion >= 16) {
+
+                // full text index for the search dialog, existing values are indexed in the background once the database is open
+                SearchIndex.INSTANCE.create(db);
+
+            }
+
+            if (oldVersion <= 16 && newVersion >= 17) {
+
+                // study extents and unit grid for selecting the nearest field, built on the first lookup
+                SpatialIndex.INSTANCE.create(db);
+
+            }
+
+            if (oldVersion <= 17 && newVersion >= 18) {
+
+                // pages saved by unfinished BrAPI study imports, so they can be resumed
+                BrapiImportProgress.INSTANCE.create(db);
+
+            }
+
+            if (oldVersion <= 18 && newVersion >= 19) {
+
+                // active time from each collector's own previous observation
+                Migrator.Companion.updateObservationRollup(db);
+
+            }
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,52 @@
+package com.fieldbook.tracker.database
+
+import android.util.Log
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+
+/**
+ * Runs database backups on one dedicated low priority thread.
+ *
+ * Requests are debounced: a backup starts delayMs after the last request and requests made while one is
+ * waiting replace it, so leaving and reopening the collect screen a few times produces a single backup.
+ * A request made while a backup is running is queued behind it, backups never run concurrently.
+ */
+class DatabaseBackupWorker @JvmOverloads constructor(private val delayMs: Long = DEFAULT_DELAY_MS) {
+
+    companion object {
+
+        private const val TAG = "DatabaseBackupWorker"
+
+        const val DEFAULT_DELAY_MS = 5000L
+    }
+
+    private val executor = Executors.newSingleThreadScheduledExecutor { task ->
+        Thread(task, TAG).apply {
+            isDaemon = true
+            priority = Thread.MIN_PRIORITY
+        }
+    }
+
+    //the backup waiting for its delay, guarded by this
+    private var pending: ScheduledFuture<*>? = null
+
+    @Synchronized
+    fun schedule(backup: Runnable) {
+
+        pending?.cancel(false)
+
+        pending = executor.schedule({
+
+            try {
+
+                backup.run()
+
+            } catch (e: Exception) {
+
+                Log.e(TAG, "Backup failed", e)
+            }
+
+        }, delayMs, TimeUnit.MILLISECONDS)
+    }
+}
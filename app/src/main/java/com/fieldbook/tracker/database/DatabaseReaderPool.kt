@@ -0,0 +1,158 @@
+package com.fieldbook.tracker.database
+
+import android.database.Cursor
+import android.database.CursorWrapper
+import android.database.sqlite.SQLiteDatabase
+import android.database.sqlite.SQLiteException
+import android.util.Log
+import java.util.Collections
+import java.util.IdentityHashMap
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.TimeUnit
+
+/**
+ * Small pool of read-only connections to the field book database, used by long background reads
+ * (exports, the data grid pivot) so they do not hold the writer connection (DataHelper.db).
+ *
+ * The database runs in write-ahead-log mode, each reader sees the last committed snapshot while the
+ * collect screen keeps writing. A borrowed connection belongs to the borrowing thread until read returns,
+ * so per connection state s.a temp tables is safe to use inside the block. A connection that backs a cursor
+ * from query is borrowed until the cursor is closed.
+ * Connections are opened lazily and closed (to be reopened on demand) whenever the DataHelper is closed.
+ */
+class DatabaseReaderPool(private val path: String, private val size: Int = DEFAULT_SIZE) {
+
+    companion object {
+
+        private const val TAG = "DatabaseReaderPool"
+
+        const val DEFAULT_SIZE = 2
+
+        private const val WAIT_MS = 100L
+    }
+
+    private val idle = ArrayBlockingQueue<SQLiteDatabase>(size)
+
+    //connections opened since the last close, guarded by this
+    private val current: MutableSet<SQLiteDatabase> = Collections.newSetFromMap(IdentityHashMap())
+
+    /**
+     * Runs the block on a read-only connection, or on the fallback connection if a reader cannot be opened.
+     */
+    fun <T> read(fallback: SQLiteDatabase, block: (SQLiteDatabase) -> T): T {
+
+        val reader = acquire() ?: return block(fallback)
+
+        try {
+
+            return block(reader)
+
+        } finally {
+
+            release(reader)
+        }
+    }
+
+    /**
+     * Runs the query on a read-only connection that stays borrowed until the returned cursor is closed,
+     * so every window of the cursor is filled on it. Callers must close the cursor.
+     */
+    fun query(fallback: SQLiteDatabase, query: (SQLiteDatabase) -> Cursor): Cursor {
+
+        val reader = acquire() ?: return query(fallback)
+
+        val cursor = try {
+
+            query(reader)
+
+        } catch (e: Exception) {
+
+            release(reader)
+
+            throw e
+        }
+
+        return object : CursorWrapper(cursor) {
+
+            private var released = false
+
+            override fun close() {
+
+                try {
+
+                    super.close()
+
+                } finally {
+
+                    if (!released) {
+
+                        released = true
+
+                        release(reader)
+                    }
+                }
+            }
+        }
+    }
+
+    private fun acquire(): SQLiteDatabase? {
+
+        while (true) {
+
+            idle.poll()?.let { return it }
+
+            synchronized(this) {
+
+                if (current.size < size) {
+
+                    return open()?.also { current.add(it) }
+                }
+            }
+
+            idle.poll(WAIT_MS, TimeUnit.MILLISECONDS)?.let { return it }
+        }
+    }
+
+    private fun open(): SQLiteDatabase? = try {
+
+        SQLiteDatabase.openDatabase(path, null, SQLiteDatabase.OPEN_READONLY)
+
+    } catch (e: SQLiteException) {
+
+        Log.w(TAG, "Unable to open a reader connection: ${e.message}")
+
+        null
+    }
+
+    private fun release(reader: SQLiteDatabase) {
+
+        synchronized(this) {
+
+            if (reader in current) {
+
+                idle.offer(reader)
+
+                return
+            }
+        }
+
+        //the pool was closed while this connection was borrowed
+        reader.close()
+    }
+
+    /**
+     * Closes the idle connections, borrowed connections are closed when they are returned.
+     */
+    fun close() {
+
+        synchronized(this) {
+
+            current.clear()
+
+            while (true) {
+
+                idle.poll()?.close() ?: break
+            }
+        }
+    }
+}
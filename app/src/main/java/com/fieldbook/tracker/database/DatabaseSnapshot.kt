@@ -0,0 +1,137 @@
+package com.fieldbook.tracker.database
+
+import android.database.DatabaseUtils
+import android.database.sqlite.SQLiteDatabase
+import android.os.Build
+import android.util.Log
+import java.io.File
+import java.io.IOException
+
+/**
+ * Writes a standalone copy of a live database file without touching the connections that are using it.
+ *
+ * On Android 11+ (SQLite 3.27+) the copy is made with VACUUM INTO from its own read-only connection,
+ * which produces a consistent snapshot of the last committed state while the writer keeps going.
+ * Older SQLite versions have no online copy, there the schema is replayed into the target and each table is
+ * copied with INSERT ... SELECT from an attached read connection. Every table is then consistent on its own,
+ * but a write committed between two tables can show up in one and not the other.
+ * Full text tables are recreated empty rather than copied (their shadow tables are created with them and the
+ * rows are keyed by docid), the copy queues its SearchIndex to be rebuilt when it is opened.
+ *
+ * The target never contains the write-ahead log, it is a single file that can be zipped and restored as is.
+ */
+object DatabaseSnapshot {
+
+    private const val TAG = "DatabaseSnapshot"
+
+    private const val LIVE = "live"
+
+    //tables FTS3/4 creates for each virtual table, named <table>_<suffix>
+    private val FTS_SHADOW_SUFFIXES = listOf("content", "segments", "segdir", "docsize", "stat")
+
+    /**
+     * Writes the snapshot of the database at livePath to target, replacing any existing target file.
+     */
+    @JvmStatic
+    @Throws(IOException::class)
+    fun write(livePath: String, target: File) {
+
+        target.parentFile?.mkdirs()
+
+        if (target.exists() && !target.delete()) {
+            throw IOException("Unable to replace ${target.path}")
+        }
+
+        try {
+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+
+                vacuumInto(livePath, target)
+
+            } else copyTables(livePath, target)
+
+        } catch (e: Exception) {
+
+            target.delete()
+
+            throw IOException("Database snapshot failed: ${e.message}", e)
+        }
+    }
+
+    private fun vacuumInto(livePath: String, target: File) {
+
+        SQLiteDatabase.openDatabase(livePath, null, SQLiteDatabase.OPEN_READONLY).use { db ->
+
+            db.execSQL("VACUUM INTO ?", arrayOf(target.path))
+        }
+    }
+
+    private fun copyTables(livePath: String, target: File) {
+
+        //no localized collators so android_metadata is copied like any other table
+        val flags = SQLiteDatabase.OPEN_READWRITE or SQLiteDatabase.CREATE_IF_NECESSARY or SQLiteDatabase.NO_LOCALIZED_COLLATORS
+
+        SQLiteDatabase.openDatabase(target.path, null, flags).use { out ->
+
+            //statements run in autocommit, a transaction here would also take the write lock of the attached live database
+            out.execSQL("ATTACH DATABASE ? AS $LIVE", arrayOf(livePath))
+
+            val version = DatabaseUtils.longForQuery(out, "PRAGMA $LIVE.user_version", null)
+
+            val schema = out.rawQuery("""
+                SELECT type, name, sql FROM $LIVE.sqlite_master
+                WHERE sql IS NOT NULL AND substr(name, 1, 7) != 'sqlite_'
+                ORDER BY CASE type WHEN 'table' THEN 0 WHEN 'index' THEN 1 WHEN 'view' THEN 2 ELSE 3 END, rowid
+            """.trimIndent(), null).use { cursor ->
+
+                ArrayList<Triple<String, String, String>>(cursor.count).also { rows ->
+                    while (cursor.moveToNext()) {
+                        rows.add(Triple(cursor.getString(0), cursor.getString(1), cursor.getString(2)))
+                    }
+                }
+            }
+
+            val virtualTables = schema.filter { (type, _, sql) ->
+                type == "table" && sql.trimStart().startsWith("CREATE VIRTUAL TABLE", ignoreCase = true)
+            }.map { it.second }
+
+            val shadowTables = virtualTables.flatMap { table -> FTS_SHADOW_SUFFIXES.map { "${table}_$it" } }.toSet()
+
+            var rows = 0L
+
+            for ((type, name, sql) in schema) {
+
+                if (name in shadowTables) continue
+
+                //indices are created after their table is filled, that is cheaper than maintaining them per row
+                out.execSQL(sql)
+
+                if (type == "table" && name !in virtualTables) {
+
+                    val table = "\"${name.replace("\"", "\"\"")}\""
+
+                    out.execSQL("INSERT INTO main.$table SELECT * FROM $LIVE.$table")
+
+                    rows += DatabaseUtils.queryNumEntries(out, table)
+                }
+            }
+
+            if (DatabaseUtils.longForQuery(out, "SELECT COUNT(*) FROM $LIVE.sqlite_master WHERE name = 'sqlite_sequence'", null) > 0) {
+
+                out.execSQL("DELETE FROM main.sqlite_sequence")
+                out.execSQL("INSERT INTO main.sqlite_sequence SELECT * FROM $LIVE.sqlite_sequence")
+            }
+
+            out.execSQL("DETACH DATABASE $LIVE")
+
+            if (SearchIndex.TABLE_NAME in virtualTables) {
+                SearchIndex.create(out)
+            }
+
+            //restores run the upgrade path from this version
+            out.execSQL("PRAGMA user_version = $version")
+
+            Log.d(TAG, "Copied ${schema.size} schema objects and $rows rows")
+        }
+    }
+}
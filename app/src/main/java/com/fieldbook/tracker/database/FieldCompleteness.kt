@@ -0,0 +1,118 @@
+package com.fieldbook.tracker.database
+
+import com.fieldbook.tracker.database.Migrator.Observation
+import com.fieldbook.tracker.database.Migrator.ObservationUnit
+import com.fieldbook.tracker.database.Migrator.ObservationVariable
+import com.fieldbook.tracker.database.Migrator.Study
+import com.fieldbook.tracker.objects.PlotIndex
+import java.util.BitSet
+
+/**
+ * Which plots of the current field have an observation, one bit set per trait over the plot positions of a PlotIndex.
+ * A plot counts as collected for a trait if it has an observation with a value, the same rule the
+ * export pivot used to find entries without data.
+ *
+ * A trait's bits are read from the database the first time it is asked for. DataHelper keeps them in sync:
+ * inserts set a bit and deletes invalidate the trait so it is read again (other reps may still hold a value).
+ * A new instance is made with every PlotIndex, imports and field switches start over.
+ */
+class FieldCompleteness(private val studyId: Int, private val index: PlotIndex) {
+
+    companion object {
+
+        @JvmField
+        val EMPTY = FieldCompleteness(-1, PlotIndex.EMPTY)
+    }
+
+    //trait db id to the positions collected, guarded by this
+    private val collected = HashMap<String, BitSet>()
+
+    @Synchronized
+    private fun bits(traitDbId: String): BitSet = collected.getOrPut(traitDbId) { load(traitDbId) }
+
+    private fun load(traitDbId: String): BitSet = BitSet(index.size).also { bits ->
+
+        if (index.isEmpty()) return@also
+
+        withDatabase { db ->
+
+            db.rawQuery("""
+                SELECT DISTINCT ${ObservationUnit.FK} FROM ${Observation.tableName}
+                WHERE ${Study.FK} = ? AND ${ObservationVariable.FK} = ? AND value IS NOT NULL
+            """.trimIndent(), arrayOf(studyId.toString(), traitDbId)).use { cursor ->
+
+                while (cursor.moveToNext()) {
+
+                    val position = index.findUnique(cursor.getString(0))
+
+                    if (position >= 0) bits.set(position)
+                }
+            }
+        }
+    }
+
+    /**
+     * @param id the observation unit row id, as in the range box ids
+     */
+    fun isCollected(traitDbId: String, id: Int): Boolean {
+
+        val position = index.positionOf(id)
+
+        return position >= 0 && isCollectedAt(traitDbId, position)
+    }
+
+    fun isCollectedAt(traitDbId: String, position: Int): Boolean = synchronized(this) { bits(traitDbId)[position] }
+
+    /**
+     * Finds the next position, moving from the given one in direction and wrapping around,
+     * where at least one of the traits has no observation. The start position is checked last.
+     * @return the position found or -1 if every trait is collected everywhere
+     */
+    fun nextIncomplete(from: Int, direction: Int, traitDbIds: List<String>): Int {
+
+        val size = index.size
+
+        if (size == 0 || traitDbIds.isEmpty()) return -1
+
+        //positions where every trait is collected
+        val complete = synchronized(this) {
+            (bits(traitDbIds[0]).clone() as BitSet).also { all ->
+                for (i in 1 until traitDbIds.size) all.and(bits(traitDbIds[i]))
+            }
+        }
+
+        return if (direction > 0) {
+
+            complete.nextClearBit(from + 1).takeIf { it < size }
+                ?: complete.nextClearBit(0).takeIf { it < size }
+                ?: -1
+
+        } else {
+
+            (if (from > 0) complete.previousClearBit(from - 1) else -1).takeIf { it >= 0 }
+                ?: complete.previousClearBit(size - 1)
+        }
+    }
+
+    /**
+     * Called after an observation was saved for the unit.
+     */
+    @Synchronized
+    fun onInsert(studyId: String?, unitDbId: String?, traitDbId: String) {
+
+        if (studyId != this.studyId.toString()) return
+
+        val position = index.findUnique(unitDbId)
+
+        if (position >= 0) collected[traitDbId]?.set(position)
+    }
+
+    /**
+     * Called after observations of the trait were deleted, or with a null trait if it is not known which changed.
+     */
+    @Synchronized
+    fun invalidate(traitDbId: String?) {
+
+        if (traitDbId == null) collected.clear() else collected.remove(traitDbId)
+    }
+}
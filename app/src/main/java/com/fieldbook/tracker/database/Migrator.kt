@@ -32,6 +32,9 @@ class Migrator {
 
         const val sObservationUnitPropertyViewName = "ObservationUnitProperty"
 
+        //each study materializes its own property table, the view above selects from the active one
+        const val sObservationUnitPropertyCachePrefix = "ObservationUnitPropertyCache_"
+
         //view for getUserTraitObservations call which uses joins
         //looks like this query just finds all observations that are not pictures
         //view for all remote/local observations that are not photos format
@@ -81,6 +84,338 @@ class Migrator {
                 AND vars.observation_variable_field_book_format = 'photo'
         """
 
+        /**
+         * Secondary indices added in database version 12.
+         * These cover the non-key columns filtered by the DAO lookups on the collect screen
+         * (study/unit/variable observation lookups, attribute name lookups) and the export pivots.
+         */
+        val sIndexStatements = arrayOf(
+            "CREATE INDEX IF NOT EXISTS observations_study_unit_variable_idx ON ${Observation.tableName}(${Study.FK}, ${ObservationUnit.FK}, ${ObservationVariable.FK})",
+            "CREATE INDEX IF NOT EXISTS observations_study_variable_name_idx ON ${Observation.tableName}(${Study.FK}, observation_variable_name)",
+            "CREATE INDEX IF NOT EXISTS observations_variable_idx ON ${Observation.tableName}(${ObservationVariable.FK})",
+            "CREATE INDEX IF NOT EXISTS observation_units_study_idx ON ${ObservationUnit.tableName}(${Study.FK})",
+            "CREATE INDEX IF NOT EXISTS observation_units_db_id_idx ON ${ObservationUnit.tableName}(observation_unit_db_id)",
+            "CREATE INDEX IF NOT EXISTS observation_units_values_unit_idx ON ${ObservationUnitValue.tableName}(${ObservationUnit.FK})",
+            "CREATE INDEX IF NOT EXISTS observation_units_values_study_idx ON ${ObservationUnitValue.tableName}(${Study.FK})",
+            "CREATE INDEX IF NOT EXISTS observation_units_attributes_name_idx ON ${ObservationUnitAttribute.tableName}(observation_unit_attribute_name)",
+            "CREATE INDEX IF NOT EXISTS observation_units_attributes_study_idx ON ${ObservationUnitAttribute.tableName}(${Study.FK})",
+            "CREATE INDEX IF NOT EXISTS observation_variable_values_variable_idx ON ${ObservationVariableValue.tableName}(${ObservationVariable.FK})"
+        )
+
+        /**
+         * Per-study counters shown in the fields list, added in database version 13.
+         * study_statistics holds the attribute and observation counts of each study, study_trait_statistics the
+         * observation count per trait name (a study's trait count is its number of rows).
+         * Like the correlated subqueries they replace, only observations with a variable id > 0 are counted.
+         * Version 14 added study_trait_values, how often each raw value was observed per study and trait,
+         * which the field detail charts and summaries are computed from.
+         * The triggers keep all tables current for every write path, rebuildStudyStatistics recomputes them.
+         */
+        const val sStudyStatisticsTableName = "study_statistics"
+        const val sStudyTraitStatisticsTableName = "study_trait_statistics"
+        const val sStudyTraitValuesTableName = "study_trait_values"
+
+        private val sStudyStatisticsStatements = arrayOf(
+            """
+            CREATE TABLE IF NOT EXISTS $sStudyStatisticsTableName (
+                ${Study.FK} INTEGER PRIMARY KEY,
+                attribute_count INTEGER NOT NULL DEFAULT 0,
+                observation_count INTEGER NOT NULL DEFAULT 0)
+            """,
+            """
+            CREATE TABLE IF NOT EXISTS $sStudyTraitStatisticsTableName (
+                ${Study.FK} INTEGER NOT NULL,
+                observation_variable_name TEXT NOT NULL,
+                observation_count INTEGER NOT NULL DEFAULT 0,
+                PRIMARY KEY (${Study.FK}, observation_variable_name))
+            """,
+            """
+            CREATE TRIGGER IF NOT EXISTS observations_statistics_insert AFTER INSERT ON ${Observation.tableName}
+            WHEN NEW.${ObservationVariable.FK} > 0
+            BEGIN
+                ${observationCountStatements("NEW", 1)}
+            END
+            """,
+            """
+            CREATE TRIGGER IF NOT EXISTS observations_statistics_delete AFTER DELETE ON ${Observation.tableName}
+            WHEN OLD.${ObservationVariable.FK} > 0
+            BEGIN
+                ${observationCountStatements("OLD", -1)}
+            END
+            """,
+            //deleteField keeps observations by moving them to the negated study id, those are not counted
+            """
+            CREATE TRIGGER IF NOT EXISTS observations_statistics_update
+            AFTER UPDATE OF ${Study.FK}, ${ObservationVariable.FK}, observation_variable_name ON ${Observation.tableName}
+            BEGIN
+                ${observationCountStatements("OLD", -1, "OLD.${ObservationVariable.FK} > 0")}
+                ${observationCountStatements("NEW", 1, "NEW.${ObservationVariable.FK} > 0")}
+            END
+            """,
+            //attribute counts are recounted, attributes are also written with INSERT OR REPLACE which skips delete triggers
+            """
+            CREATE TRIGGER IF NOT EXISTS attributes_statistics_insert AFTER INSERT ON ${ObservationUnitAttribute.tableName}
+            BEGIN
+                ${attributeCountStatements("NEW")}
+            END
+            """,
+            """
+            CREATE TRIGGER IF NOT EXISTS attributes_statistics_delete AFTER DELETE ON ${ObservationUnitAttribute.tableName}
+            BEGIN
+                ${attributeCountStatements("OLD")}
+            END
+            """,
+            """
+            CREATE TRIGGER IF NOT EXISTS studies_statistics_delete AFTER DELETE ON ${Study.tableName}
+            BEGIN
+                DELETE FROM $sStudyStatisticsTableName WHERE ${Study.FK} = OLD.${Study.PK};
+                DELETE FROM $sStudyTraitStatisticsTableName WHERE ${Study.FK} = OLD.${Study.PK};
+            END
+            """
+        )
+
+        private val sStudyTraitValuesStatements = arrayOf(
+            //null values are kept as empty strings, a null primary key column would never match INSERT OR IGNORE
+            """
+            CREATE TABLE IF NOT EXISTS $sStudyTraitValuesTableName (
+                ${Study.FK} INTEGER NOT NULL,
+                ${ObservationVariable.FK} INTEGER NOT NULL,
+                value TEXT NOT NULL,
+                observation_count INTEGER NOT NULL DEFAULT 0,
+                PRIMARY KEY (${Study.FK}, ${ObservationVariable.FK}, value))
+            """,
+            """
+            CREATE TRIGGER IF NOT EXISTS observations_values_insert AFTER INSERT ON ${Observation.tableName}
+            WHEN NEW.${ObservationVariable.FK} > 0
+            BEGIN
+                ${valueCountStatements("NEW", 1)}
+            END
+            """,
+            """
+            CREATE TRIGGER IF NOT EXISTS observations_values_delete AFTER DELETE ON ${Observation.tableName}
+            WHEN OLD.${ObservationVariable.FK} > 0
+            BEGIN
+                ${valueCountStatements("OLD", -1)}
+            END
+            """,
+            """
+            CREATE TRIGGER IF NOT EXISTS observations_values_update
+            AFTER UPDATE OF ${Study.FK}, ${ObservationVariable.FK}, value ON ${Observation.tableName}
+            BEGIN
+                ${valueCountStatements("OLD", -1, "OLD.${ObservationVariable.FK} > 0")}
+                ${valueCountStatements("NEW", 1, "NEW.${ObservationVariable.FK} > 0")}
+            END
+            """,
+            """
+            CREATE TRIGGER IF NOT EXISTS studies_values_delete AFTER DELETE ON ${Study.tableName}
+            BEGIN
+                DELETE FROM $sStudyTraitValuesTableName WHERE ${Study.FK} = OLD.${Study.PK};
+            END
+            """
+        )
+
+        /**
+         * Trigger body adding delta to the counters of the row's study and trait.
+         * INSERT OR IGNORE followed by UPDATE, the UPSERT syntax needs a newer SQLite than older devices ship.
+         * Removals only update existing counters, and observations of deleted fields (negated study ids) are never counted.
+         */
+        private fun observationCountStatements(row: String, delta: Int, condition: String = "1"): String {
+
+            val counted = "$row.${Study.FK} > 0 AND $condition"
+
+            val inserts = if (delta < 0) "" else """
+                INSERT OR IGNORE INTO $sStudyStatisticsTableName (${Study.FK}) SELECT $row.${Study.FK} WHERE $counted;
+                INSERT OR IGNORE INTO $sStudyTraitStatisticsTableName (${Study.FK}, observation_variable_name)
+                    SELECT $row.${Study.FK}, $row.observation_variable_name WHERE $row.observation_variable_name IS NOT NULL AND $counted;
+            """
+
+            return """
+                $inserts
+                UPDATE $sStudyStatisticsTableName SET observation_count = observation_count + ($delta)
+                    WHERE ${Study.FK} = $row.${Study.FK} AND $counted;
+                UPDATE $sStudyTraitStatisticsTableName SET observation_count = observation_count + ($delta)
+                    WHERE ${Study.FK} = $row.${Study.FK} AND observation_variable_name = $row.observation_variable_name AND $counted;
+                DELETE FROM $sStudyTraitStatisticsTableName
+                    WHERE ${Study.FK} = $row.${Study.FK} AND observation_variable_name = $row.observation_variable_name AND observation_count <= 0;
+            """
+        }
+
+        private fun valueCountStatements(row: String, delta: Int, condition: String = "1"): String {
+
+            val counted = "$row.${Study.FK} > 0 AND $condition"
+
+            val insert = if (delta < 0) "" else """
+                INSERT OR IGNORE INTO $sStudyTraitValuesTableName (${Study.FK}, ${ObservationVariable.FK}, value)
+                    SELECT $row.${Study.FK}, $row.${ObservationVariable.FK}, IFNULL($row.value, '') WHERE $counted;
+            """
+
+            return """
+                $insert
+                UPDATE $sStudyTraitValuesTableName SET observation_count = observation_count + ($delta)
+                    WHERE ${Study.FK} = $row.${Study.FK} AND ${ObservationVariable.FK} = $row.${ObservationVariable.FK}
+                    AND value = IFNULL($row.value, '') AND $counted;
+                DELETE FROM $sStudyTraitValuesTableName
+                    WHERE ${Study.FK} = $row.${Study.FK} AND ${ObservationVariable.FK} = $row.${ObservationVariable.FK}
+                    AND value = IFNULL($row.value, '') AND observation_count <= 0;
+            """
+        }
+
+        /**
+         * Daily observation rollup for the statistics screens, added in database version 15.
+         * One row per day, study, collector and trait with the number of observations, the first and last timestamps
+         * and the active collection time: the gaps of at most sActiveGapSeconds between a collector's consecutive observations.
+         * The day is the date part of the stored timestamp, rows keep the study id the observations were collected in
+         * so observations of deleted fields are filtered by joining the studies table.
+         * Collection time is only added on insert, deleting observations gives it back with the next rebuild.
+         */
+        const val sObservationRollupTableName = "observation_daily_statistics"
+        const val sActiveGapSeconds = 30 * 60
+
+        private const val sRollupKey = "day, ${Study.FK}, collector, ${ObservationVariable.FK}"
+
+        /**
+         * Observations per day, study and observation unit, for the distinct and most observed units of a season.
+         * Kept beside the daily rollup (a unit is observed by several collectors and traits) with the same triggers.
+         */
+        const val sUnitRollupTableName = "observation_unit_daily_statistics"
+
+        private const val sUnitRollupKey = "day, ${Study.FK}, ${ObservationUnit.FK}"
+
+        private val sObservationRollupStatements = arrayOf(
+            """
+            CREATE TABLE IF NOT EXISTS $sObservationRollupTableName (
+                day TEXT NOT NULL,
+                ${Study.FK} INTEGER NOT NULL,
+                collector TEXT NOT NULL,
+                ${ObservationVariable.FK} INTEGER NOT NULL,
+                observation_count INTEGER NOT NULL DEFAULT 0,
+                first_time_stamp TEXT,
+                last_time_stamp TEXT,
+                active_seconds REAL NOT NULL DEFAULT 0,
+                PRIMARY KEY ($sRollupKey))
+            """,
+            //the previous observation lookup of the insert trigger, rows of an index are kept in rowid order
+            "CREATE INDEX IF NOT EXISTS observations_collector_idx ON ${Observation.tableName}(collector)",
+            """
+            CREATE TRIGGER IF NOT EXISTS observations_rollup_insert AFTER INSERT ON ${Observation.tableName}
+            WHEN length(NEW.observation_time_stamp) >= 10
+            BEGIN
+                ${rollupInsertStatements(activeGap("NEW", previousTimeStamp("NEW")))}
+            END
+            """,
+            """
+            CREATE TRIGGER IF NOT EXISTS observations_rollup_delete AFTER DELETE ON ${Observation.tableName}
+            WHEN length(OLD.observation_time_stamp) >= 10
+            BEGIN
+                ${rollupDeleteStatements()}
+            END
+            """,
+            //updateObservation writes every column, only moves between rows when the key changed
+            """
+            CREATE TRIGGER IF NOT EXISTS observations_rollup_update
+            AFTER UPDATE OF observation_time_stamp, collector, ${ObservationVariable.FK} ON ${Observation.tableName}
+            WHEN OLD.observation_time_stamp IS NOT NEW.observation_time_stamp OR OLD.collector IS NOT NEW.collector
+                OR OLD.${ObservationVariable.FK} IS NOT NEW.${ObservationVariable.FK}
+            BEGIN
+                ${rollupDeleteStatements("length(OLD.observation_time_stamp) >= 10")}
+                ${rollupInsertStatements("0", "length(NEW.observation_time_stamp) >= 10")}
+            END
+            """,
+            """
+            CREATE TABLE IF NOT EXISTS $sUnitRollupTableName (
+                day TEXT NOT NULL,
+                ${Study.FK} INTEGER NOT NULL,
+                ${ObservationUnit.FK} TEXT NOT NULL,
+                observation_count INTEGER NOT NULL DEFAULT 0,
+                PRIMARY KEY ($sUnitRollupKey))
+            """,
+            """
+            CREATE TRIGGER IF NOT EXISTS observations_unit_rollup_insert AFTER INSERT ON ${Observation.tableName}
+            WHEN length(NEW.observation_time_stamp) >= 10 AND NEW.${ObservationUnit.FK} IS NOT NULL
+            BEGIN
+                ${unitRollupInsertStatements()}
+            END
+            """,
+            """
+            CREATE TRIGGER IF NOT EXISTS observations_unit_rollup_delete AFTER DELETE ON ${Observation.tableName}
+            WHEN length(OLD.observation_time_stamp) >= 10 AND OLD.${ObservationUnit.FK} IS NOT NULL
+            BEGIN
+                ${unitRollupDeleteStatements()}
+            END
+            """,
+            """
+            CREATE TRIGGER IF NOT EXISTS observations_unit_rollup_update
+            AFTER UPDATE OF observation_time_stamp, ${ObservationUnit.FK} ON ${Observation.tableName}
+            WHEN OLD.observation_time_stamp IS NOT NEW.observation_time_stamp OR OLD.${ObservationUnit.FK} IS NOT NEW.${ObservationUnit.FK}
+            BEGIN
+                ${unitRollupDeleteStatements("length(OLD.observation_time_stamp) >= 10")}
+                ${unitRollupInsertStatements("length(NEW.observation_time_stamp) >= 10 AND NEW.${ObservationUnit.FK} IS NOT NULL")}
+            END
+            """
+        )
+
+        private fun unitRollupKey(row: String) = "substr($row.observation_time_stamp, 1, 10), $row.${Study.FK}, $row.${ObservationUnit.FK}"
+
+        private fun unitRollupMatches(row: String) = "day = substr($row.observation_time_stamp, 1, 10) " +
+                "AND ${Study.FK} = $row.${Study.FK} AND ${ObservationUnit.FK} = $row.${ObservationUnit.FK}"
+
+        private fun unitRollupInsertStatements(condition: String = "1") = """
+                INSERT OR IGNORE INTO $sUnitRollupTableName ($sUnitRollupKey) SELECT ${unitRollupKey("NEW")} WHERE $condition;
+                UPDATE $sUnitRollupTableName SET observation_count = observation_count + 1
+                    WHERE ${unitRollupMatches("NEW")} AND $condition;
+        """
+
+        private fun unitRollupDeleteStatements(condition: String = "1") = """
+                UPDATE $sUnitRollupTableName SET observation_count = observation_count - 1
+                    WHERE ${unitRollupMatches("OLD")} AND $condition;
+                DELETE FROM $sUnitRollupTableName WHERE ${unitRollupMatches("OLD")} AND observation_count <= 0;
+        """
+
+        private fun rollupKey(row: String) = "substr($row.observation_time_stamp, 1, 10), $row.${Study.FK}, " +
+                "IFNULL($row.collector, ''), IFNULL($row.${ObservationVariable.FK}, -1)"
+
+        //row values need a newer SQLite than older devices ship, the key columns are compared one by one
+        private fun rollupMatches(row: String) = "day = substr($row.observation_time_stamp, 1, 10) " +
+                "AND ${Study.FK} = $row.${Study.FK} AND collector = IFNULL($row.collector, '') " +
+                "AND ${ObservationVariable.FK} = IFNULL($row.${ObservationVariable.FK}, -1)"
+
+        //seconds between the row's time stamp and the previous one, 0 if that is further back than sActiveGapSeconds or later
+        private fun activeGap(row: String, previous: String): String {
+
+            val gap = "(julianday($row.observation_time_stamp) - julianday($previous)) * 86400"
+
+            return "CASE WHEN $gap BETWEEN 0 AND $sActiveGapSeconds THEN $gap ELSE 0 END"
+        }
+
+        //the same collector's previous observation, other collectors working at the same time must not shorten the gap
+        private fun previousTimeStamp(row: String) = "(SELECT observation_time_stamp FROM ${Observation.tableName} AS previous " +
+                "WHERE previous.collector IS $row.collector AND previous.${Observation.PK} < $row.${Observation.PK} " +
+                "ORDER BY previous.${Observation.PK} DESC LIMIT 1)"
+
+        private fun rollupInsertStatements(activeGap: String, condition: String = "1") = """
+                INSERT OR IGNORE INTO $sObservationRollupTableName ($sRollupKey, first_time_stamp, last_time_stamp)
+                    SELECT ${rollupKey("NEW")}, NEW.observation_time_stamp, NEW.observation_time_stamp WHERE $condition;
+                UPDATE $sObservationRollupTableName SET observation_count = observation_count + 1,
+                    first_time_stamp = MIN(first_time_stamp, NEW.observation_time_stamp),
+                    last_time_stamp = MAX(last_time_stamp, NEW.observation_time_stamp),
+                    active_seconds = active_seconds + $activeGap
+                    WHERE ${rollupMatches("NEW")} AND $condition;
+        """
+
+        private fun rollupDeleteStatements(condition: String = "1") = """
+                UPDATE $sObservationRollupTableName SET observation_count = observation_count - 1
+                    WHERE ${rollupMatches("OLD")} AND $condition;
+                DELETE FROM $sObservationRollupTableName WHERE ${rollupMatches("OLD")} AND observation_count <= 0;
+        """
+
+        //deletes only update existing rows, a study's cascaded attribute deletes must not bring its row back
+        private fun attributeCountStatements(row: String) = """
+                ${if (row == "NEW") "INSERT OR IGNORE INTO $sStudyStatisticsTableName (${Study.FK}) VALUES ($row.${Study.FK});" else ""}
+                UPDATE $sStudyStatisticsTableName
+                    SET attribute_count = (SELECT COUNT(*) FROM ${ObservationUnitAttribute.tableName} WHERE ${Study.FK} = $row.${Study.FK})
+                    WHERE ${Study.FK} = $row.${Study.FK};
+        """
+
         private val sTableNames = arrayOf(
                 Study.tableName,
                 ObservationUnit.tableName,
@@ -103,6 +438,15 @@ class Migrator {
             createTables(db, traits)
 
             removeOldTables(db)
+
+            //filled by the rebuild that follows every migration
+            createStudyStatistics(db)
+
+            SearchIndex.create(db)
+
+            SpatialIndex.create(db)
+
+            BrapiImportProgress.create(db)
         }
 
         /**
@@ -252,6 +596,185 @@ class Migrator {
             }
         }
 
+        /**
+         * Creates the version 12 secondary indices, safe to call on databases that already have them.
+         */
+        fun createIndices(db: SQLiteDatabase) {
+
+            try {
+
+                db.beginTransaction()
+
+                sIndexStatements.forEach { db.execSQL(it) }
+
+                db.setTransactionSuccessful()
+
+            } catch (e: SQLiteException) {
+
+                e.printStackTrace()
+
+            } finally {
+
+                db.endTransaction()
+
+            }
+        }
+
+        /**
+         * Creates all statistics tables and triggers, safe to call on databases that already have them.
+         * Triggers are dropped with their tables, so this is also run after the schema was migrated.
+         */
+        fun createStudyStatistics(db: SQLiteDatabase) {
+
+            createStatistics(db, sStudyStatisticsStatements + sStudyTraitValuesStatements + sObservationRollupStatements)
+        }
+
+        /**
+         * The tables of each database version, the upgrade creates and fills them one version at a time.
+         */
+        fun createStudyCounters(db: SQLiteDatabase) = createStatistics(db, sStudyStatisticsStatements)
+
+        fun createStudyTraitValues(db: SQLiteDatabase) = createStatistics(db, sStudyTraitValuesStatements)
+
+        fun createObservationRollup(db: SQLiteDatabase) = createStatistics(db, sObservationRollupStatements)
+
+        /**
+         * Database version 19 measures active time per collector, the insert trigger is replaced and the rollup refilled.
+         */
+        fun updateObservationRollup(db: SQLiteDatabase) {
+
+            db.execSQL("DROP TRIGGER IF EXISTS observations_rollup_insert")
+
+            createObservationRollup(db)
+
+            rebuildObservationRollup(db)
+        }
+
+        private fun createStatistics(db: SQLiteDatabase, statements: Array<String>) {
+
+            try {
+
+                db.beginTransaction()
+
+                statements.forEach { db.execSQL(it.trimIndent()) }
+
+                db.setTransactionSuccessful()
+
+            } catch (e: SQLiteException) {
+
+                e.printStackTrace()
+
+            } finally {
+
+                db.endTransaction()
+
+            }
+        }
+
+        /**
+         * Recomputes the study statistics from the observation and attribute tables.
+         * Used to repair counters on legacy and imported databases.
+         */
+        fun rebuildStudyStatistics(db: SQLiteDatabase) = rebuildStatistics(db) {
+
+            fillStudyCounters(db)
+
+            fillStudyTraitValues(db)
+
+            fillObservationRollup(db)
+        }
+
+        /**
+         * The fills of each database version, the upgrade fills a version's tables right after creating them.
+         */
+        fun rebuildStudyCounters(db: SQLiteDatabase) = rebuildStatistics(db) { fillStudyCounters(db) }
+
+        fun rebuildStudyTraitValues(db: SQLiteDatabase) = rebuildStatistics(db) { fillStudyTraitValues(db) }
+
+        fun rebuildObservationRollup(db: SQLiteDatabase) = rebuildStatistics(db) { fillObservationRollup(db) }
+
+        private fun rebuildStatistics(db: SQLiteDatabase, fill: () -> Unit) {
+
+            try {
+
+                db.beginTransaction()
+
+                fill()
+
+                db.setTransactionSuccessful()
+
+            } catch (e: SQLiteException) {
+
+                e.printStackTrace()
+
+            } finally {
+
+                db.endTransaction()
+
+            }
+        }
+
+        private fun fillStudyCounters(db: SQLiteDatabase) {
+
+            db.execSQL("DELETE FROM $sStudyStatisticsTableName")
+
+            db.execSQL("DELETE FROM $sStudyTraitStatisticsTableName")
+
+            db.execSQL("""
+                INSERT INTO $sStudyStatisticsTableName (${Study.FK}, attribute_count, observation_count)
+                SELECT s.${Study.PK},
+                    (SELECT COUNT(*) FROM ${ObservationUnitAttribute.tableName} WHERE ${Study.FK} = s.${Study.PK}),
+                    (SELECT COUNT(*) FROM ${Observation.tableName} WHERE ${Study.FK} = s.${Study.PK} AND ${ObservationVariable.FK} > 0)
+                FROM ${Study.tableName} AS s
+            """.trimIndent())
+
+            db.execSQL("""
+                INSERT INTO $sStudyTraitStatisticsTableName (${Study.FK}, observation_variable_name, observation_count)
+                SELECT ${Study.FK}, observation_variable_name, COUNT(*)
+                FROM ${Observation.tableName}
+                WHERE ${ObservationVariable.FK} > 0 AND observation_variable_name IS NOT NULL
+                GROUP BY ${Study.FK}, observation_variable_name
+            """.trimIndent())
+        }
+
+        private fun fillStudyTraitValues(db: SQLiteDatabase) {
+
+            db.execSQL("DELETE FROM $sStudyTraitValuesTableName")
+
+            db.execSQL("""
+                INSERT INTO $sStudyTraitValuesTableName (${Study.FK}, ${ObservationVariable.FK}, value, observation_count)
+                SELECT ${Study.FK}, ${ObservationVariable.FK}, IFNULL(value, ''), COUNT(*)
+                FROM ${Observation.tableName}
+                WHERE ${ObservationVariable.FK} > 0 AND ${Study.FK} > 0
+                GROUP BY ${Study.FK}, ${ObservationVariable.FK}, IFNULL(value, '')
+            """.trimIndent())
+        }
+
+        private fun fillObservationRollup(db: SQLiteDatabase) {
+
+            db.execSQL("DELETE FROM $sObservationRollupTableName")
+
+            db.execSQL("DELETE FROM $sUnitRollupTableName")
+
+            //the active time of each observation is its gap to the collector's observation inserted before it
+            db.execSQL("""
+                INSERT INTO $sObservationRollupTableName ($sRollupKey, observation_count, first_time_stamp, last_time_stamp, active_seconds)
+                SELECT ${rollupKey("o")}, COUNT(*), MIN(o.observation_time_stamp), MAX(o.observation_time_stamp),
+                    TOTAL(${activeGap("o", previousTimeStamp("o"))})
+                FROM ${Observation.tableName} AS o
+                WHERE length(o.observation_time_stamp) >= 10
+                GROUP BY ${rollupKey("o")}
+            """.trimIndent())
+
+            db.execSQL("""
+                INSERT INTO $sUnitRollupTableName ($sUnitRollupKey, observation_count)
+                SELECT ${unitRollupKey("o")}, COUNT(*)
+                FROM ${Observation.tableName} AS o
+                WHERE length(o.observation_time_stamp) >= 10 AND o.${ObservationUnit.FK} IS NOT NULL
+                GROUP BY ${unitRollupKey("o")}
+            """.trimIndent())
+        }
+
         /**
          * Builds a create table statement based on given parameters:
          * name: name of table to be created
@@ -0,0 +1,247 @@
+package com.fieldbook.tracker.database
+
+import android.database.sqlite.SQLiteDatabase
+import android.util.Log
+import androidx.core.content.contentValuesOf
+import com.fieldbook.tracker.database.Migrator.Observation
+import com.fieldbook.tracker.database.Migrator.ObservationUnit
+import com.fieldbook.tracker.database.Migrator.ObservationUnitAttribute
+import com.fieldbook.tracker.database.Migrator.ObservationUnitValue
+import com.fieldbook.tracker.database.Migrator.ObservationVariable
+import com.fieldbook.tracker.database.Migrator.Study
+import com.fieldbook.tracker.utilities.CategoryJsonUtil
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Full text index over observation unit attribute values and decoded observation values, used by the search
+ * dialog to answer "contains" criteria without scanning every value of the field.
+ *
+ * Each indexed value is stored with every suffix of its words as tokens, so an FTS prefix query for each word
+ * of the search text finds all values containing it; the candidates are then checked with LIKE on the value.
+ * Only the suffixes starting in the first MAX_SUFFIX_WORD_LENGTH characters of a word are indexed.
+ *
+ * Categorical values are decoded in Kotlin, so triggers only queue changed rows in a pending table with their study.
+ * The queue is indexed by updateInBackground in small transactions: DataHelper requests it after its observation and
+ * unit writes, and when the database is opened or imported. Searches read the index as it is and never wait for it.
+ * Observation documents use the observation id as docid, attribute value documents the negated value id.
+ *
+ * FTS5 is not part of the SQLite builds older devices ship, the index is an FTS4 table.
+ */
+object SearchIndex {
+
+    const val TABLE_NAME = "search_index"
+    const val PENDING_TABLE_NAME = "search_index_pending"
+
+    //suffixes are indexed for this many positions of a word, later positions are only found as part of a longer match
+    const val MAX_SUFFIX_WORD_LENGTH = 24
+
+    //values indexed per transaction, the writer is held for one batch at a time
+    private const val BATCH_SIZE = 500
+
+    private const val TAG = "SearchIndex"
+
+    private val worker = Executors.newSingleThreadExecutor { task ->
+        Thread(task, TAG).apply {
+            isDaemon = true
+            priority = Thread.MIN_PRIORITY
+        }
+    }
+
+    //set by each request, cleared by the worker before it reads the queue
+    private val requested = AtomicBoolean()
+
+    //true while a background update is queued or running
+    private val running = AtomicBoolean()
+
+    private val statements = arrayOf(
+        """
+        CREATE VIRTUAL TABLE IF NOT EXISTS $TABLE_NAME USING fts4(
+            tokens, value, ${Study.FK}, unit_id, field,
+            notindexed=value, notindexed=${Study.FK}, notindexed=unit_id, notindexed=field)
+        """,
+        "CREATE TABLE IF NOT EXISTS $PENDING_TABLE_NAME (docid INTEGER PRIMARY KEY, ${Study.FK} INTEGER)",
+        "CREATE INDEX IF NOT EXISTS ${PENDING_TABLE_NAME}_${Study.FK}_idx ON $PENDING_TABLE_NAME (${Study.FK})",
+        pendingTrigger("observations_search_insert", "INSERT", Observation.tableName, "NEW.${Observation.PK}", "NEW.${Study.FK}"),
+        pendingTrigger("observations_search_delete", "DELETE", Observation.tableName, "OLD.${Observation.PK}", "OLD.${Study.FK}"),
+        pendingTrigger("observations_search_update", "UPDATE OF value, ${Study.FK}, ${ObservationUnit.FK}, ${ObservationVariable.FK}",
+            Observation.tableName, "NEW.${Observation.PK}", movedStudy()),
+        pendingTrigger("units_values_search_insert", "INSERT", ObservationUnitValue.tableName, "-NEW.${ObservationUnitValue.PK}", "NEW.${Study.FK}"),
+        pendingTrigger("units_values_search_delete", "DELETE", ObservationUnitValue.tableName, "-OLD.${ObservationUnitValue.PK}", "OLD.${Study.FK}"),
+        pendingTrigger("units_values_search_update", "UPDATE OF observation_unit_value_name, ${ObservationUnit.FK}, ${Study.FK}",
+            ObservationUnitValue.tableName, "-NEW.${ObservationUnitValue.PK}", movedStudy())
+    )
+
+    //a value moved to another study is queued for any study, so the search of either one reindexes it
+    private fun movedStudy() = "CASE WHEN OLD.${Study.FK} IS NEW.${Study.FK} THEN NEW.${Study.FK} END"
+
+    private fun pendingTrigger(name: String, event: String, table: String, docid: String, studyId: String) = """
+        CREATE TRIGGER IF NOT EXISTS $name AFTER $event ON $table
+        BEGIN
+            INSERT OR REPLACE INTO $PENDING_TABLE_NAME (docid, ${Study.FK}) VALUES ($docid, $studyId);
+        END
+    """
+
+    /**
+     * Creates the index and queues every existing value, call updateInBackground once the database is open to index them.
+     */
+    fun create(db: SQLiteDatabase) {
+
+        statements.forEach { db.execSQL(it.trimIndent()) }
+
+        db.execSQL("DELETE FROM $TABLE_NAME")
+
+        db.execSQL("INSERT OR REPLACE INTO $PENDING_TABLE_NAME (docid, ${Study.FK}) SELECT ${Observation.PK}, ${Study.FK} FROM ${Observation.tableName}")
+
+        db.execSQL("INSERT OR REPLACE INTO $PENDING_TABLE_NAME (docid, ${Study.FK}) SELECT -${ObservationUnitValue.PK}, ${Study.FK} FROM ${ObservationUnitValue.tableName}")
+    }
+
+    fun traitField(traitDbId: String) = "t:$traitDbId"
+
+    fun attributeField(attributeName: String) = "a:$attributeName"
+
+    /**
+     * Indexes the values changed since the last update, one batch per transaction.
+     * @param studyId only index the values of this study (and values that moved between studies), null for all
+     */
+    @JvmOverloads
+    fun update(db: SQLiteDatabase, studyId: Int? = null) {
+
+        val (selection, args) = if (studyId == null) "" to null
+            else "WHERE ${Study.FK} = ? OR ${Study.FK} IS NULL" to arrayOf(studyId.toString())
+
+        while (true) {
+
+            db.beginTransaction()
+
+            try {
+
+                val pending = db.rawQuery("SELECT docid FROM $PENDING_TABLE_NAME $selection LIMIT $BATCH_SIZE", args).use { cursor ->
+                    LongArray(cursor.count) { cursor.moveToPosition(it); cursor.getLong(0) }
+                }
+
+                pending.forEach { docid ->
+
+                    db.delete(TABLE_NAME, "docid = ?", arrayOf(docid.toString()))
+
+                    if (docid > 0) indexObservation(db, docid) else indexAttributeValue(db, -docid)
+
+                    db.delete(PENDING_TABLE_NAME, "docid = ?", arrayOf(docid.toString()))
+                }
+
+                db.setTransactionSuccessful()
+
+                if (pending.size < BATCH_SIZE) return
+
+            } finally {
+
+                db.endTransaction()
+            }
+        }
+    }
+
+    /**
+     * Indexes every queued value on a low priority thread, s.a the values of a write or the whole database after an upgrade.
+     * Requests made while an update runs are folded into one more pass, so cheap enough to call after every write.
+     */
+    fun updateInBackground(db: SQLiteDatabase) {
+
+        requested.set(true)
+
+        if (!running.compareAndSet(false, true)) return
+
+        worker.execute {
+
+            try {
+
+                while (requested.getAndSet(false)) update(db)
+
+            } catch (e: Exception) {
+
+                //the database was closed or replaced, the queue is kept for the next update
+                Log.w(TAG, "Background update stopped: ${e.message}")
+
+            } finally {
+
+                running.set(false)
+            }
+
+            //a request made after the last pass, but before the flag was cleared, found the update still running
+            if (requested.get()) updateInBackground(db)
+        }
+    }
+
+    private fun indexObservation(db: SQLiteDatabase, id: Long) {
+
+        db.rawQuery("""
+            SELECT obs.${Study.FK}, units.${ObservationUnit.PK}, obs.${ObservationVariable.FK}, obs.observation_variable_field_book_format, obs.value
+            FROM ${Observation.tableName} AS obs
+            JOIN ${ObservationUnit.tableName} AS units
+                ON units.observation_unit_db_id = obs.${ObservationUnit.FK} AND units.${Study.FK} = obs.${Study.FK}
+            WHERE obs.${Observation.PK} = ?
+        """.trimIndent(), arrayOf(id.toString())).use { cursor ->
+
+            if (cursor.moveToFirst()) {
+
+                val value = CategoryJsonUtil.processValue(cursor.getString(3), cursor.getString(4))
+
+                insert(db, id, value, cursor.getInt(0), cursor.getInt(1), traitField(cursor.getString(2)))
+            }
+        }
+    }
+
+    private fun indexAttributeValue(db: SQLiteDatabase, id: Long) {
+
+        db.rawQuery("""
+            SELECT vals.${Study.FK}, vals.${ObservationUnit.FK}, attr.observation_unit_attribute_name, vals.observation_unit_value_name
+            FROM ${ObservationUnitValue.tableName} AS vals
+            JOIN ${ObservationUnitAttribute.tableName} AS attr ON attr.${ObservationUnitAttribute.PK} = vals.${ObservationUnitAttribute.FK}
+            WHERE vals.${ObservationUnitValue.PK} = ?
+        """.trimIndent(), arrayOf(id.toString())).use { cursor ->
+
+            if (cursor.moveToFirst()) {
+
+                insert(db, -id, cursor.getString(3), cursor.getInt(0), cursor.getInt(1), attributeField(cursor.getString(2)))
+            }
+        }
+    }
+
+    private fun insert(db: SQLiteDatabase, docid: Long, value: String?, studyId: Int, unitId: Int, field: String) {
+
+        if (value.isNullOrEmpty()) return
+
+        db.insert(TABLE_NAME, null, contentValuesOf(
+            "docid" to docid,
+            "tokens" to suffixTokens(value),
+            "value" to value,
+            Study.FK to studyId,
+            "unit_id" to unitId,
+            "field" to field
+        ))
+    }
+
+    /**
+     * Words as the FTS simple tokenizer sees them: runs of ASCII letters and digits or non-ASCII characters, lower case.
+     */
+    fun words(text: String): List<String> = text.lowercase()
+        .split(Regex("[\\x00-\\x2F\\x3A-\\x40\\x5B-\\x60\\x7B-\\x7F]+"))
+        .filter { it.isNotEmpty() }
+
+    private fun suffixTokens(value: String) = buildString {
+
+        for (word in words(value)) {
+
+            for (start in 0 until minOf(word.length, MAX_SUFFIX_WORD_LENGTH)) {
+
+                if (isNotEmpty()) append(' ')
+
+                append(word, start, word.length)
+            }
+        }
+    }
+
+    /**
+     * The FTS query for values containing the text, each of its words as a prefix, or null if it has no words.
+     */
+    fun containsQuery(text: String): String? = words(text).takeIf { it.isNotEmpty() }?.joinToString(" ") { "$it*" }
+}
@@ -1,10 +1,8 @@
 package com.fieldbook.tracker.database;
 
 import android.content.SharedPreferences;
-import android.database.DatabaseUtils;
 
 import com.fieldbook.tracker.R;
-import com.fieldbook.tracker.activities.CollectActivity;
 import com.fieldbook.tracker.objects.SearchDialogDataModel;
 import com.fieldbook.tracker.objects.TraitObject;
 import com.fieldbook.tracker.preferences.GeneralKeys;
@@ -15,117 +13,135 @@ import org.brapi.v2.model.pheno.BrAPIScaleValidValuesCategories;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Builds the search over the selected field's units as one select on ObservationUnitProperty,
+ * each criterion an AND predicate with its values bound as arguments (see getArguments).
+ *
+ * Trait criteria are answered from the study's observations of that trait, contains criteria
+ * from the SearchIndex on the decoded values, which is kept current in the background (see SearchIndex.updateInBackground).
+ */
 public class SearchQueryBuilder {
     public static String TICK = "\"";
-    private final CollectActivity originActivity;
+
+    // "is not like" of the search activity, the search dialog has no operator icon for it
+    public static final int NOT_CONTAINS = -1;
+
+    private final SharedPreferences ep;
+    private final DataHelper database;
     private final List<SearchDialogDataModel> dataSet;
-    private StringBuilder queryBuilder;
+    private final List<String> arguments = new ArrayList<>();
 
-    public SearchQueryBuilder(CollectActivity originActivity, List<SearchDialogDataModel> dataSet) {
-        this.originActivity = originActivity;
+    public SearchQueryBuilder(SharedPreferences ep, DataHelper database, List<SearchDialogDataModel> dataSet) {
+        this.ep = ep;
+        this.database = database;
         this.dataSet = dataSet;
     }
 
+    /**
+     * The values to bind to the last built query, in order.
+     */
+    public String[] getArguments() {
+        return arguments.toArray(new String[0]);
+    }
 
-    public String buildSearchQuery(){
-        SharedPreferences ep = originActivity.getPreferences();
-        queryBuilder = new StringBuilder();
+    public String buildSearchQuery() {
 
-        // Create the sql query based on user selection
-        String attributeSelectStatement = "select ObservationUnitProperty.id, ObservationUnitProperty." + TICK + ep.getString(GeneralKeys.UNIQUE_NAME, "") + TICK + ", " + " ObservationUnitProperty." + TICK + ep.getString(GeneralKeys.PRIMARY_NAME, "") + TICK + "," + " ObservationUnitProperty." + TICK + ep.getString(GeneralKeys.SECONDARY_NAME, "") + TICK + " from ObservationUnitProperty where ObservationUnitProperty.id is not null";
-        String traitSelectStatement = "select ObservationUnitProperty.id, ObservationUnitProperty." + TICK + ep.getString(GeneralKeys.UNIQUE_NAME, "") + TICK + ", " + " ObservationUnitProperty." + TICK + ep.getString(GeneralKeys.PRIMARY_NAME, "") + TICK + "," + " ObservationUnitProperty." + TICK + ep.getString(GeneralKeys.SECONDARY_NAME, "") + TICK + " from observation_variables, ObservationUnitProperty, observations where observations.observation_unit_id = ObservationUnitProperty." + TICK + ep.getString(GeneralKeys.UNIQUE_NAME, "") + TICK + " and observations.observation_variable_name = observation_variables.observation_variable_name and observations.observation_variable_field_book_format = observation_variables.observation_variable_field_book_format";
+        arguments.clear();
 
-        for (int i = 0; i < dataSet.size(); i++) {
+        String studyId = String.valueOf(ep.getInt(GeneralKeys.SELECTED_FIELD_ID, -1));
 
-            // Builds the SQL query for the 'i'th user selection
-            StringBuilder currentSubQuery = new StringBuilder();
+        StringBuilder queryBuilder = new StringBuilder("SELECT props.id, ")
+                .append(column(ep.getString(GeneralKeys.UNIQUE_NAME, ""))).append(", ")
+                .append(column(ep.getString(GeneralKeys.PRIMARY_NAME, ""))).append(", ")
+                .append(column(ep.getString(GeneralKeys.SECONDARY_NAME, "")))
+                .append(" FROM ObservationUnitProperty AS props WHERE props.id IS NOT NULL");
 
-            String column = dataSet.get(i).getAttribute();
-            int operator = dataSet.get(i).getImageResourceId();
-            String searchText = dataSet.get(i).getText();
+        for (SearchDialogDataModel criterion : dataSet) {
 
-            TraitObject traitObject = originActivity.getDatabase().getTraitByName(column);
+            String column = criterion.getAttribute();
+            int operator = criterion.getImageResourceId();
+            String searchText = criterion.getText() == null ? "" : criterion.getText();
 
-            boolean isAttribute = false; // Checks if 'column' is an attribute or a trait
-            boolean isCategorical = false; // Checks if 'column' is a categorical trait
+            TraitObject traitObject = database.getTraitByName(column);
 
-            if (traitObject == null) {
-                isAttribute = true;
-                currentSubQuery.append(attributeSelectStatement).append(" and ").append("ObservationUnitProperty." + TICK + column + TICK);
-            } else {
-                currentSubQuery.append(traitSelectStatement).append(" and ").append("observation_variables.observation_variable_name = " + TICK + column + TICK);
+            queryBuilder.append(" AND ");
 
-                if (traitObject.getFormat().equals("categorical") || traitObject.getFormat().equals("multicat") || traitObject.getFormat().equals("qualitative")) {
-                    isCategorical = true;
-                    searchText = encodeCategorical(searchText);
+            if (operator == R.drawable.ic_tb_contains || operator == NOT_CONTAINS) {
+
+                // matched on the decoded values of the index, categorical labels included
+                String field = traitObject == null
+                        ? SearchIndex.INSTANCE.attributeField(column)
+                        : SearchIndex.INSTANCE.traitField(traitObject.getId());
+
+                queryBuilder.append("props.id IN (SELECT unit_id FROM " + SearchIndex.TABLE_NAME + " WHERE ");
+
+                String match = SearchIndex.INSTANCE.containsQuery(searchText);
+
+                if (operator == R.drawable.ic_tb_contains && match != null) {
+                    queryBuilder.append("tokens MATCH ? AND ");
+                    arguments.add(match);
                 }
-            }
 
-            // This is to prevent crashes when the user uses special characters
-            String truncatedSearchText = DatabaseUtils.sqlEscapeString(searchText);
+                queryBuilder.append("study_id = ? AND field = ? AND value ")
+                        .append(operator == NOT_CONTAINS ? "NOT LIKE" : "LIKE").append(" ?)");
 
-            // Represents the SQL condition based on the operator and search text
-            String condition = "";
+                arguments.add(studyId);
+                arguments.add(field);
+                arguments.add("%" + searchText + "%");
 
-            // 0: Equals to
-            if (operator == R.drawable.ic_tb_equal) {
-                if (isAttribute) condition = " = " + truncatedSearchText;
-                else condition = " and value = " + truncatedSearchText;
+                continue;
             }
 
-            // 1: Not equals to
-            else if (operator == R.drawable.ic_tb_not_equal) {
-                if (isAttribute) condition = " != " + truncatedSearchText;
-                else condition = " and value != " + truncatedSearchText;
-            }
+            String value;
+
+            if (traitObject == null) {
+
+                value = column(column);
+
+            } else {
+
+                queryBuilder.append(column(ep.getString(GeneralKeys.UNIQUE_NAME, "")))
+                        .append(" IN (SELECT observation_unit_id FROM observations")
+                        .append(" WHERE study_id = ? AND observation_variable_db_id = ? AND ");
+
+                arguments.add(studyId);
+                arguments.add(traitObject.getId());
+
+                value = "value";
 
-            // 2: Contains
-            else if (operator == R.drawable.ic_tb_contains) {
-                if (isAttribute)
-                    condition = " like " + DatabaseUtils.sqlEscapeString("%" + searchText + "%");
-                else {
-                    if (!isCategorical)
-                        condition = " and observations.value like " + DatabaseUtils.sqlEscapeString("%" + searchText + "%");
-                    else {
-                        String decodedT = CategoryJsonUtil.Companion.decode(searchText).get(0).getValue();
-                        condition = " and observations.value like " + DatabaseUtils.sqlEscapeString("%[{\"label\":\"%" + decodedT + "%\",\"value\":\"%" + decodedT + "%\"}]%");
-                    }
+                String format = traitObject.getFormat();
+                if (format.equals("categorical") || format.equals("multicat") || format.equals("qualitative")) {
+                    searchText = encodeCategorical(searchText);
                 }
             }
 
-            // 3: More than
-            else if (operator == R.drawable.ic_tb_greater_than) {
-                if (isAttribute) condition = " > " + truncatedSearchText;
-                else condition = " and CAST(value AS INTEGER) > " + truncatedSearchText;
-            }
+            // numbers are compared as numbers, anything else as text
+            boolean numeric = isNumber(searchText);
 
-            // 4: less than
-            else if (operator == R.drawable.ic_tb_less_than) {
-                if (isAttribute) condition = " < " + truncatedSearchText;
-                else condition = " and CAST(value AS INTEGER) < " + truncatedSearchText;
+            if (operator == R.drawable.ic_tb_not_equal) {
+                queryBuilder.append(value).append(" != ?");
+            } else if (operator == R.drawable.ic_tb_greater_than) {
+                queryBuilder.append(numeric ? "CAST(" + value + " AS REAL) > CAST(? AS REAL)" : value + " > ?");
+            } else if (operator == R.drawable.ic_tb_less_than) {
+                queryBuilder.append(numeric ? "CAST(" + value + " AS REAL) < CAST(? AS REAL)" : value + " < ?");
+            } else {
+                queryBuilder.append(value).append(" = ?");
             }
 
-            currentSubQuery.append(condition);
+            arguments.add(searchText);
 
-            if (i == 0) queryBuilder.append(currentSubQuery);
-            else intersectQuery(currentSubQuery);
+            if (traitObject != null) queryBuilder.append(")");
         }
-        return queryBuilder.toString();
-    }
 
-    public void intersectQuery(StringBuilder query)
-    {
-        queryBuilder.append(" INTERSECT ").append(query);
+        return queryBuilder.toString();
     }
 
-    public void unionQuery(String query)
-    {
-        queryBuilder.append(" UNION ").append(query);
+    private static String column(String name) {
+        return "props." + TICK + name.replace(TICK, TICK + TICK) + TICK;
     }
 
-    public void exceptQuery(String query)
-    {
-        queryBuilder.append(" EXCEPT ").append(query);
+    private static boolean isNumber(String text) {
+        return text.trim().matches("[-+]?(\\d+\\.?\\d*|\\.\\d+)([eE][-+]?\\d+)?");
     }
 
     public String encodeCategorical(String t) {
@@ -0,0 +1,380 @@
+package com.fieldbook.tracker.database
+
+import android.database.sqlite.SQLiteDatabase
+import android.location.Location
+import androidx.core.content.contentValuesOf
+import com.fieldbook.tracker.database.Migrator.ObservationUnit
+import com.fieldbook.tracker.database.Migrator.Study
+import com.fieldbook.tracker.utilities.GeoJsonUtil
+import com.google.gson.Gson
+import kotlin.math.abs
+import kotlin.math.asin
+import kotlin.math.atan2
+import kotlin.math.cos
+import kotlin.math.floor
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.sin
+import kotlin.math.sqrt
+
+/**
+ * Spatial summary of the georeferenced observation units, used to find the unit nearest to the user
+ * without parsing and sorting the coordinates of every unit on the device.
+ *
+ * Each study stores the bounding box of its units, and each unit its parsed coordinate and the cell of a
+ * GRID_SIZE x GRID_SIZE grid over that box. The nearest unit is searched study by study, closest box first,
+ * reading only the grid cells that could hold a unit closer than the best one found so far.
+ *
+ * Coordinates are parsed in Kotlin, so triggers only queue the studies whose units changed
+ * and their summaries are rebuilt with update() before a search.
+ */
+object SpatialIndex {
+
+    const val EXTENT_TABLE_NAME = "study_extents"
+    const val LOCATION_TABLE_NAME = "observation_unit_locations"
+    const val PENDING_TABLE_NAME = "spatial_index_pending"
+
+    const val GRID_SIZE = 32
+
+    //units of a study that have coordinates, read by rebuild
+    const val STUDY_LOCATIONS_QUERY = "SELECT ${ObservationUnit.PK}, geo_coordinates FROM ${ObservationUnit.tableName} " +
+            "WHERE ${Study.FK} = ? AND geo_coordinates IS NOT NULL AND geo_coordinates != ''"
+
+    /**
+     * Locations of a study's units in the given number of grid cells, the study id is bound before the cells.
+     */
+    fun cellLocationsQuery(cells: Int) =
+        "SELECT unit_id, latitude, longitude FROM $LOCATION_TABLE_NAME WHERE ${Study.FK} = ? AND cell IN (${List(cells) { "?" }.joinToString(",")})"
+
+    //mean earth radius in meters, used for the spherical lower bounds of the boxes and cells
+    private const val EARTH_RADIUS = 6_371_008.8
+
+    //the spherical bounds are shrunk so they stay below the ellipsoid distances the units are compared with
+    private const val BOUND_MARGIN = 0.99
+
+    private val gson = Gson()
+
+    data class NearestUnit(val studyId: Int, val unitId: Int, val distance: Float)
+
+    private class Extent(val studyId: Int, val minLat: Double, val maxLat: Double, val minLng: Double, val maxLng: Double) {
+
+        val latStep = (maxLat - minLat) / GRID_SIZE
+        val lngStep = (maxLng - minLng) / GRID_SIZE
+
+        fun row(latitude: Double) = cell(latitude - minLat, latStep)
+
+        fun column(longitude: Double) = cell(longitude - minLng, lngStep)
+
+        private fun cell(offset: Double, step: Double) =
+            if (step <= 0.0) 0 else min(GRID_SIZE - 1, max(0, floor(offset / step).toInt()))
+
+        /**
+         * Lower bound in meters of the distance from the location to any unit of the box.
+         */
+        fun bound(latitude: Double, longitude: Double) = bound(latitude, longitude, minLat, maxLat, minLng, maxLng)
+
+        /**
+         * Lower bound in meters of the distance from the location to any unit of the grid cell.
+         */
+        fun cellBound(latitude: Double, longitude: Double, row: Int, column: Int): Double {
+
+            val south = minLat + row * latStep
+            val west = minLng + column * lngStep
+
+            return bound(latitude, longitude,
+                south, if (latStep > 0.0) south + latStep else maxLat,
+                west, if (lngStep > 0.0) west + lngStep else maxLng)
+        }
+
+        /**
+         * Great circle distance to the closest point of the box. Outside the box's longitudes that point is on the
+         * meridian edge with the smaller longitude gap, measured the short way around (across the antimeridian if
+         * that is shorter), at the edge latitude closest to the latitude where the location is nearest to that meridian.
+         */
+        private fun bound(latitude: Double, longitude: Double, south: Double, north: Double, west: Double, east: Double): Double {
+
+            val gap = if (longitude in west..east) 0.0 else min(eastward(longitude, west), eastward(east, longitude))
+
+            val lat = Math.toRadians(latitude)
+
+            //the great circle of the meridian is nearest to the location at this angle from the equator
+            val nearest = Math.toDegrees(atan2(sin(lat), cos(lat) * cos(Math.toRadians(gap))))
+
+            return haversine(latitude, closestLatitude(nearest, south, north), gap) * BOUND_MARGIN
+        }
+
+        //degrees to travel east from one longitude to the other, in [0, 360)
+        private fun eastward(from: Double, to: Double) = ((to - from) % 360.0 + 360.0) % 360.0
+
+        //the latitude of the edge closest to an angle along the meridian's great circle, which may be past a pole
+        private fun closestLatitude(angle: Double, south: Double, north: Double): Double {
+
+            if (angle in south..north) return angle
+
+            return if (abs(around(angle - south)) <= abs(around(angle - north))) south else north
+        }
+
+        private fun around(degrees: Double) = (degrees % 360.0 + 540.0) % 360.0 - 180.0
+
+        private fun haversine(lat1: Double, lat2: Double, gap: Double): Double {
+
+            val phi1 = Math.toRadians(lat1)
+            val phi2 = Math.toRadians(lat2)
+
+            val a = sin((phi2 - phi1) / 2).let { it * it } +
+                    cos(phi1) * cos(phi2) * sin(Math.toRadians(gap) / 2).let { it * it }
+
+            return 2 * EARTH_RADIUS * asin(sqrt(min(1.0, a)))
+        }
+
+        fun clampLat(latitude: Double) = latitude.coerceIn(minLat, maxLat)
+
+        fun clampLng(longitude: Double) = longitude.coerceIn(minLng, maxLng)
+    }
+
+    private val statements = arrayOf(
+        """
+        CREATE TABLE IF NOT EXISTS $EXTENT_TABLE_NAME (
+            ${Study.FK} INTEGER PRIMARY KEY,
+            min_latitude REAL NOT NULL, max_latitude REAL NOT NULL,
+            min_longitude REAL NOT NULL, max_longitude REAL NOT NULL,
+            unit_count INTEGER NOT NULL)
+        """,
+        """
+        CREATE TABLE IF NOT EXISTS $LOCATION_TABLE_NAME (
+            unit_id INTEGER PRIMARY KEY, ${Study.FK} INTEGER NOT NULL, cell INTEGER NOT NULL,
+            latitude REAL NOT NULL, longitude REAL NOT NULL)
+        """,
+        "CREATE INDEX IF NOT EXISTS observation_unit_locations_cell_idx ON $LOCATION_TABLE_NAME (${Study.FK}, cell)",
+        "CREATE TABLE IF NOT EXISTS $PENDING_TABLE_NAME (${Study.FK} INTEGER PRIMARY KEY)",
+        pendingTrigger("units_spatial_insert", "INSERT", "NEW.${Study.FK}"),
+        pendingTrigger("units_spatial_delete", "DELETE", "OLD.${Study.FK}"),
+        pendingTrigger("units_spatial_update", "UPDATE OF geo_coordinates, ${Study.FK}", "OLD.${Study.FK}", "NEW.${Study.FK}")
+    )
+
+    private fun pendingTrigger(name: String, event: String, vararg studyIds: String) = """
+        CREATE TRIGGER IF NOT EXISTS $name AFTER $event ON ${ObservationUnit.tableName}
+        BEGIN
+            ${studyIds.joinToString("\n") { "INSERT OR IGNORE INTO $PENDING_TABLE_NAME (${Study.FK}) VALUES ($it);" }}
+        END
+    """
+
+    /**
+     * Creates the tables and queues every study, the first search after this builds their summaries.
+     */
+    fun create(db: SQLiteDatabase) {
+
+        statements.forEach { db.execSQL(it.trimIndent()) }
+
+        db.execSQL("DELETE FROM $EXTENT_TABLE_NAME")
+
+        db.execSQL("DELETE FROM $LOCATION_TABLE_NAME")
+
+        db.execSQL("INSERT OR IGNORE INTO $PENDING_TABLE_NAME (${Study.FK}) SELECT ${Study.PK} FROM ${Study.tableName}")
+    }
+
+    /**
+     * Rebuilds the summaries of the studies changed since the last update.
+     */
+    fun update(db: SQLiteDatabase) {
+
+        db.beginTransaction()
+
+        try {
+
+            val pending = db.rawQuery("SELECT ${Study.FK} FROM $PENDING_TABLE_NAME", null).use { cursor ->
+                IntArray(cursor.count) { cursor.moveToPosition(it); cursor.getInt(0) }
+            }
+
+            pending.forEach { rebuild(db, it) }
+
+            db.delete(PENDING_TABLE_NAME, null, null)
+
+            db.setTransactionSuccessful()
+
+        } finally {
+
+            db.endTransaction()
+        }
+    }
+
+    private fun rebuild(db: SQLiteDatabase, studyId: Int) {
+
+        val args = arrayOf(studyId.toString())
+
+        db.delete(EXTENT_TABLE_NAME, "${Study.FK} = ?", args)
+
+        db.delete(LOCATION_TABLE_NAME, "${Study.FK} = ?", args)
+
+        val ids = ArrayList<Int>()
+        val latitudes = ArrayList<Double>()
+        val longitudes = ArrayList<Double>()
+
+        db.rawQuery(STUDY_LOCATIONS_QUERY, args).use { cursor ->
+
+            while (cursor.moveToNext()) {
+
+                parse(cursor.getString(1))?.let { (latitude, longitude) ->
+                    ids.add(cursor.getInt(0))
+                    latitudes.add(latitude)
+                    longitudes.add(longitude)
+                }
+            }
+        }
+
+        if (ids.isEmpty()) return
+
+        val extent = Extent(studyId, latitudes.min(), latitudes.max(), longitudes.min(), longitudes.max())
+
+        db.insert(EXTENT_TABLE_NAME, null, contentValuesOf(
+            Study.FK to studyId,
+            "min_latitude" to extent.minLat,
+            "max_latitude" to extent.maxLat,
+            "min_longitude" to extent.minLng,
+            "max_longitude" to extent.maxLng,
+            "unit_count" to ids.size
+        ))
+
+        db.compileStatement("""
+            INSERT INTO $LOCATION_TABLE_NAME (unit_id, ${Study.FK}, cell, latitude, longitude) VALUES (?, ?, ?, ?, ?)
+        """.trimIndent()).use { insert ->
+
+            ids.indices.forEach { i ->
+
+                insert.bindLong(1, ids[i].toLong())
+                insert.bindLong(2, studyId.toLong())
+                insert.bindLong(3, (extent.row(latitudes[i]) * GRID_SIZE + extent.column(longitudes[i])).toLong())
+                insert.bindDouble(4, latitudes[i])
+                insert.bindDouble(5, longitudes[i])
+                insert.executeInsert()
+            }
+        }
+    }
+
+    /**
+     * Latitude and longitude of a GeoJSON point or a "longitude;latitude" value, as ObservationUnitModel.getLocation reads them.
+     */
+    fun parse(coordinates: String): Pair<Double, Double>? = try {
+
+        if (coordinates.trimStart().startsWith("{")) {
+
+            val point = gson.fromJson(coordinates, GeoJsonUtil.GeoJSON::class.java).geometry.coordinates
+
+            point[1].toDouble() to point[0].toDouble()
+
+        } else {
+
+            val tokens = coordinates.split(";")
+
+            tokens[1].toDouble() to tokens[0].toDouble()
+        }
+
+    } catch (e: Exception) { //json syntax, missing geometry, index out of bounds or number format
+
+        null
+    }
+
+    /**
+     * The unit nearest to the location, or null if no unit has a coordinate.
+     */
+    fun nearest(db: SQLiteDatabase, latitude: Double, longitude: Double): NearestUnit? {
+
+        update(db)
+
+        val extents = db.rawQuery("""
+            SELECT ${Study.FK}, min_latitude, max_latitude, min_longitude, max_longitude FROM $EXTENT_TABLE_NAME
+        """.trimIndent(), null).use { cursor ->
+
+            ArrayList<Extent>().apply {
+                while (cursor.moveToNext()) {
+                    add(Extent(cursor.getInt(0), cursor.getDouble(1), cursor.getDouble(2), cursor.getDouble(3), cursor.getDouble(4)))
+                }
+            }
+        }
+
+        val bounds = extents.associateWith { it.bound(latitude, longitude) }
+
+        var best: NearestUnit? = null
+
+        for (extent in extents.sortedBy { bounds.getValue(it) }) {
+
+            val closest = best
+
+            if (closest != null && bounds.getValue(extent) >= closest.distance) break
+
+            best = nearestInStudy(db, extent, latitude, longitude, closest)
+        }
+
+        return best
+    }
+
+    /**
+     * Reads the grid cells in rings around the cell nearest to the user, skipping cells that cannot hold a unit
+     * closer than the best one so far. Every ring is checked, on a sphere a farther ring can still hold a closer
+     * cell (boxes across the antimeridian or near a pole), the bounds are computed without reading the cells.
+     * @return the nearest unit of the study if it is closer than best
+     */
+    private fun nearestInStudy(db: SQLiteDatabase, extent: Extent, latitude: Double, longitude: Double, best: NearestUnit?): NearestUnit? {
+
+        var nearest = best
+
+        val row = extent.row(extent.clampLat(latitude))
+        val column = extent.column(extent.clampLng(longitude))
+
+        val lastRing = maxOf(row, column, GRID_SIZE - 1 - row, GRID_SIZE - 1 - column)
+
+        for (ring in 0..lastRing) {
+
+            val cells = ringCells(row, column, ring).filter { cell ->
+                nearest.let { it == null || extent.cellBound(latitude, longitude, cell / GRID_SIZE, cell % GRID_SIZE) < it.distance }
+            }
+
+            if (cells.isEmpty()) continue
+
+            db.rawQuery(cellLocationsQuery(cells.size), arrayOf(extent.studyId.toString()) + cells.map { it.toString() }).use { cursor ->
+
+                while (cursor.moveToNext()) {
+
+                    val d = distance(latitude, longitude, cursor.getDouble(1), cursor.getDouble(2))
+
+                    if (nearest.let { it == null || d < it.distance }) {
+                        nearest = NearestUnit(extent.studyId, cursor.getInt(0), d)
+                    }
+                }
+            }
+        }
+
+        return nearest
+    }
+
+    //cells of the grid at chebyshev distance ring from the cell
+    private fun ringCells(row: Int, column: Int, ring: Int): List<Int> {
+
+        val cells = ArrayList<Int>()
+
+        for (r in row - ring..row + ring) {
+
+            if (r !in 0 until GRID_SIZE) continue
+
+            for (c in column - ring..column + ring) {
+
+                if (c !in 0 until GRID_SIZE) continue
+
+                if (r == row - ring || r == row + ring || c == column - ring || c == column + ring) {
+                    cells.add(r * GRID_SIZE + c)
+                }
+            }
+        }
+
+        return cells
+    }
+
+    private fun distance(lat1: Double, lng1: Double, lat2: Double, lng2: Double): Float {
+
+        val results = FloatArray(1)
+
+        Location.distanceBetween(lat1, lng1, lat2, lng2, results)
+
+        return results[0]
+    }
+}
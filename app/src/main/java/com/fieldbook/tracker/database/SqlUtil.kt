@@ -165,6 +165,32 @@ fun Cursor.toTable(): List<Map<String, Any?>> = if (moveToFirst()) {
  */
 fun <T> withDatabase(function: (SQLiteDatabase) -> T): T? = if (DataHelper.db != null) function(DataHelper.db) else null
 
+/**
+ * Same as withDatabase but for long read only work (exports, pivots), the function runs on one of the
+ * read-only connections so the writer stays available. Never write from inside the function.
+ */
+fun <T> withReadDatabase(function: (SQLiteDatabase) -> T): T? {
+
+    val db = DataHelper.db ?: return null
+
+    val readers = DataHelper.readers ?: return function(db)
+
+    return readers.read(db, function)
+}
+
+/**
+ * withReadDatabase for queries whose cursor outlives the block. The reader stays borrowed until the
+ * cursor is closed, so windows filled after the first one are read on the same connection.
+ */
+fun withReadCursor(query: (SQLiteDatabase) -> Cursor): Cursor? {
+
+    val db = DataHelper.db ?: return null
+
+    val readers = DataHelper.readers ?: return query(db)
+
+    return readers.query(db, query)
+}
+
 var internalTimeFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSZZZZZ")
 
 
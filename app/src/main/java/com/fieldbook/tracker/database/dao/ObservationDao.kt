@@ -3,6 +3,8 @@ package com.fieldbook.tracker.database.dao
 import android.annotation.SuppressLint
 import android.content.ContentValues
 import android.content.Context
+import android.database.Cursor
+import android.database.DatabaseUtils
 import android.database.sqlite.SQLiteDatabase
 import android.graphics.Bitmap
 import androidx.core.content.contentValuesOf
@@ -21,25 +23,30 @@ class ObservationDao {
 
     companion object {
 
+        /**
+         * Where clauses of the observation lookups, each is answered by an index of the observations table.
+         */
+        const val UNIT_TRAIT_WHERE = "${Study.FK} = ? AND ${ObservationUnit.FK} = ? AND observation_variable_db_id = ? AND observation_variable_field_book_format = ?"
+        const val UNIT_TRAIT_REP_WHERE = "${Study.FK} = ? AND observation_variable_db_id = ? AND ${ObservationUnit.FK} = ? AND rep = ? AND observation_variable_field_book_format = ?"
+        const val UNIT_WHERE = "${ObservationUnit.FK} = ? AND ${Study.FK} = ?"
+        const val TRAIT_WHERE = "${ObservationVariable.FK} = ?"
+
         fun getAll(): Array<ObservationModel> = withDatabase { db ->
 
             db.query(Observation.tableName)
-                .toTable()
-                .map { ObservationModel(it) }
+                .mapRows(ObservationModel.Mapper())
                 .toTypedArray()
 
         } ?: emptyArray()
 
         fun getAll(db: SQLiteDatabase): Array<ObservationModel> = db.query(Observation.tableName)
-            .toTable()
-            .map { ObservationModel(it) }
+            .mapRows(ObservationModel.Mapper())
             .toTypedArray()
 
         fun getAll(studyId: String): Array<ObservationModel> = withDatabase { db ->
 
             db.query(Observation.tableName, where = "${Study.FK} = ?", whereArgs = arrayOf(studyId))
-                .toTable()
-                .map { ObservationModel(it) }
+                .mapRows(ObservationModel.Mapper())
                 .toTypedArray()
 
         } ?: emptyArray()
@@ -48,11 +55,10 @@ class ObservationDao {
 
             db.query(
                 Observation.tableName,
-                where = "${ObservationVariable.FK} = ?",
+                where = TRAIT_WHERE,
                 whereArgs = arrayOf(traitDbId)
             )
-                .toTable()
-                .map { ObservationModel(it) }
+                .mapRows(ObservationModel.Mapper())
                 .toTypedArray()
 
         } ?: emptyArray()
@@ -63,8 +69,7 @@ class ObservationDao {
                 Observation.tableName, where = "${Study.FK} = ? AND ${ObservationUnit.FK} = ?",
                 whereArgs = arrayOf(studyId, obsUnit)
             )
-                .toTable()
-                .map { ObservationModel(it) }
+                .mapRows(ObservationModel.Mapper())
                 .toTypedArray()
 
         } ?: emptyArray()
@@ -74,11 +79,10 @@ class ObservationDao {
                 val traitObj = ObservationVariableDao.getTraitById(traitDbId.toInt())
                 db.query(
                     Observation.tableName,
-                    where = "${Study.FK} = ? AND ${ObservationUnit.FK} = ? AND observation_variable_db_id = ? AND observation_variable_field_book_format = ?",
+                    where = UNIT_TRAIT_WHERE,
                     whereArgs = arrayOf(studyId, obsUnit, traitDbId, traitObj?.format ?: "text")
                 )
-                    .toTable()
-                    .map { ObservationModel(it) }
+                    .mapRows(ObservationModel.Mapper())
                     .sortedBy { it.rep.toInt() }
                     .toTypedArray()
 
@@ -104,8 +108,19 @@ class ObservationDao {
                     where = "observation_time_stamp LIKE ? AND study_id > 0",
                     whereArgs = arrayOf("$year%")
             )
-                    .toTable()
-                    .map { ObservationModel(it) }
+                    .mapRows(ObservationModel.Mapper())
+                    .toTypedArray()
+
+        } ?: emptyArray()
+
+        fun getAllOfUnitFromAYear(obsUnit: String, year: String): Array<ObservationModel> = withDatabase { db ->
+
+            db.query(
+                    Observation.tableName,
+                    where = "${ObservationUnit.FK} = ? AND observation_time_stamp LIKE ? AND study_id > 0",
+                    whereArgs = arrayOf(obsUnit, "$year%")
+            )
+                    .mapRows(ObservationModel.Mapper())
                     .toTypedArray()
 
         } ?: emptyArray()
@@ -128,7 +143,7 @@ class ObservationDao {
                 traitDbId
             ).maxByOrNull { it.rep.toInt() }?.rep?.toInt() ?: 0) + 1
 
-        //false warning, cursor is closed in toTable
+        //false warning, cursor is closed in mapRows
         @SuppressLint("Recycle")
         fun getHostImageObservations(ctx: Context, hostUrl: String, missingPhoto: Bitmap): List<FieldBookImage> = withDatabase { db ->
 
@@ -162,24 +177,7 @@ class ObservationDao {
                 AND vars.trait_data_source IS NOT NULL
                 AND vars.observation_variable_field_book_format = 'photo'
                 
-        """.trimIndent(), arrayOf(hostUrl)).toTable().mapNotNull { row ->
-                if (getStringVal(row, "observation_variable_name") != null)
-                    FieldBookImage(
-                        ctx,
-                        getStringVal(row, "value"),
-                        getStringVal(row, "observation_variable_name"),
-                        missingPhoto
-                    ).apply {
-                        rep = getStringVal(row, "rep")
-                        unitDbId = getStringVal(row, "uniqueName")
-                        descriptiveOntologyTerms = listOf(getStringVal(row, "external_db_id"))
-                        description = getStringVal(row, "observation_variable_details")
-                        setTimestamp(getStringVal(row, "observation_time_stamp"))
-                        fieldBookDbId = getStringVal(row, "id")
-                        dbId = getStringVal(row, "observation_db_id")
-                        setLastSyncedTime(getStringVal(row, "last_synced_time"))
-                    } else null
-            }
+        """.trimIndent(), arrayOf(hostUrl)).mapRows(FieldBookImageMapper(ctx, missingPhoto, detailed = true)).filterNotNull()
 
         } ?: emptyList()
 
@@ -220,46 +218,15 @@ class ObservationDao {
                     AND vars.trait_data_source IS NOT NULL
                     AND vars.observation_variable_field_book_format <> 'photo'
                     
-        """.trimIndent(), arrayOf(fieldId.toString(), hostUrl)).toTable()
-                .map { row -> com.fieldbook.tracker.brapi.model.Observation().apply {
-                    rep = getStringVal(row, "rep")
-                    unitDbId = getStringVal(row, "unitDbId")
-                    variableDbId = getStringVal(row, "external_db_id")
-                    internalVariableDbId = getStringVal(row, "observation_variable_db_id")
-                    value = CategoryJsonUtil.processValue(row)
-                    variableName = getStringVal(row, "observation_variable_name")
-                    fieldBookDbId = getStringVal(row, "id")
-                    dbId = getStringVal(row, "observation_db_id")
-                    setTimestamp(getStringVal(row, "observation_time_stamp"))
-                    setLastSyncedTime(getStringVal(row, "last_synced_time"))
-                    collector = getStringVal(row, "collector")
-                    studyId = getStringVal(row, "study_db_id")
-                } }
+        """.trimIndent(), arrayOf(fieldId.toString(), hostUrl)).mapRows(BrapiObservationMapper(detailed = true))
 
         } ?: emptyList()
 
-        private fun getStringVal(row: Map<String, Any?>?, column: String?) : String? {
-            if(row != null && column != null){
-                if (row[column] != null){
-                    return row[column].toString()
-                }
-            }
-            return null
-        }
-
         fun getWrongSourceImageObservations(ctx: Context, hostUrl: String, missingPhoto: Bitmap): List<FieldBookImage> = withDatabase { db ->
 
-            db.query(sRemoteImageObservationsViewName, where = "trait_data_source <> ?", whereArgs = arrayOf(hostUrl)).toTable()
-                    .mapNotNull { row -> if (getStringVal(row, "observation_variable_name") != null)
-                        FieldBookImage(
-                            ctx,
-                            getStringVal(row, "value"),
-                            getStringVal(row, "observation_variable_name"),
-                            missingPhoto
-                        ).apply {
-                            this.fieldBookDbId = getStringVal(row, "id")
-                        } else null
-                    }
+            db.query(sRemoteImageObservationsViewName, where = "trait_data_source <> ?", whereArgs = arrayOf(hostUrl))
+                    .mapRows(FieldBookImageMapper(ctx, missingPhoto, detailed = false))
+                    .filterNotNull()
 
         } ?: emptyList()
 
@@ -270,11 +237,8 @@ class ObservationDao {
 
             db.query(sNonImageObservationsViewName,
                     where = "trait_data_source <> ? AND trait_data_source <> 'local' AND trait_data_source IS NOT NULL",
-                    whereArgs = arrayOf(hostUrl)).toTable()
-                    .map { row -> com.fieldbook.tracker.brapi.model.Observation().apply {
-                        this.fieldBookDbId = getStringVal(row, "id")
-                        this.value = CategoryJsonUtil.processValue(row)
-                    } }
+                    whereArgs = arrayOf(hostUrl))
+                    .mapRows(BrapiObservationMapper(detailed = false))
 
         } ?: emptyList()
 
@@ -288,18 +252,8 @@ class ObservationDao {
                 sLocalImageObservationsViewName,
                 where = "${Study.FK} = ?",
                 whereArgs = arrayOf(studyId)
-            ).toTable()
-                .mapNotNull { row ->
-                    if (getStringVal(row, "observation_variable_name") != null)
-                        FieldBookImage(
-                            ctx,
-                            getStringVal(row, "value"),
-                            getStringVal(row, "observation_variable_name"),
-                            missingPhoto
-                        ).apply {
-                            this.fieldBookDbId = getStringVal(row, "id")
-                        } else null
-                    }
+            ).mapRows(FieldBookImageMapper(ctx, missingPhoto, detailed = false))
+                .filterNotNull()
 
         } ?: emptyList()
 
@@ -311,13 +265,7 @@ class ObservationDao {
                     // TODO change study_db_id to match ${Study.FK} in db
                     where = "study_db_id = ? AND (trait_data_source = 'local' OR trait_data_source IS NULL)",
                     whereArgs = arrayOf(studyId)
-                ).toTable()
-                    .map { row ->
-                        com.fieldbook.tracker.brapi.model.Observation().apply {
-                            this.fieldBookDbId = getStringVal(row, "id")
-                            this.value = CategoryJsonUtil.processValue(row)
-                        }
-                    }
+                ).mapRows(BrapiObservationMapper(detailed = false))
 
             } ?: emptyList()
 
@@ -430,21 +378,21 @@ class ObservationDao {
         fun getUserDetail(studyId: String, plotId: String): HashMap<String, String> =
             withDatabase { db ->
 
-                hashMapOf(*db.query(
+                val details = hashMapOf<String, String>()
+
+                db.query(
                     Observation.tableName,
-                    arrayOf(
-                        "observation_variable_name",
-                        "observation_variable_field_book_format",
-                        "value",
-                        ObservationUnit.FK
-                    ),
-                    where = "${ObservationUnit.FK} = ? AND ${Study.FK} = ?",
+                    arrayOf("observation_variable_name", "value"),
+                    where = UNIT_WHERE,
                     whereArgs = arrayOf(plotId, studyId)
-                )
-                    .toTable().map {
-                        (it["observation_variable_name"] as? String ?: "") to it["value"].toString()
+                ).use { cursor ->
+
+                    while (cursor.moveToNext()) {
+                        details[cursor.getString(0) ?: ""] = cursor.stringOrNull(1).toString()
                     }
-                    .toTypedArray())
+                }
+
+                details
 
         } ?: hashMapOf()
 
@@ -474,17 +422,20 @@ class ObservationDao {
                         ObservationUnit.FK,
                         "observation_db_id",
                         "observation_time_stamp",
-                        "last_synced_time"
+                        "last_synced_time",
+                        "rep"
                     ),
-                    where = "${Study.FK} = ? AND observation_variable_db_id = ? AND ${ObservationUnit.FK} = ? AND rep = ? AND observation_variable_field_book_format = ?",
+                    where = UNIT_TRAIT_REP_WHERE,
                     whereArgs = arrayOf(studyId, traitDbId, plotId, rep, traitObj?.format ?: "text")
-                ).toTable().forEach {
-
-                    dbId = getStringVal(it, "observation_db_id")
-                    unitDbId = getStringVal(it, ObservationUnit.FK)
-                    setRep((it["rep"] ?: "1").toString())
-                    setTimestamp(getStringVal(it, "observation_time_stamp"))
-                    setLastSyncedTime(getStringVal(it, "last_synced_time"))
+                ).use { cursor ->
+
+                    while (cursor.moveToNext()) {
+                        dbId = cursor.getString(2)
+                        unitDbId = cursor.getString(1)
+                        setTimestamp(cursor.getString(3))
+                        setLastSyncedTime(cursor.getString(4))
+                        setRep(cursor.getString(5) ?: "1")
+                    }
                 }
             }
         }
@@ -502,9 +453,10 @@ class ObservationDao {
                     arrayOf("observation_db_id", "last_synced_time"),
                     where = "${Study.FK} = ? AND ${ObservationUnit.FK} = ? AND observation_variable_db_id = ? AND value = ?",
                     whereArgs = arrayOf(studyId, plotId, traitDbId, value)
-                ).toFirst().let {
-                    dbId = getStringVal(it, "observation_db_id")
-                    setLastSyncedTime(getStringVal(it, "last_synced_time"))
+                ).use { cursor ->
+                    val found = cursor.moveToFirst()
+                    dbId = if (found) cursor.getString(0) else null
+                    setLastSyncedTime(if (found) cursor.getString(1) else null)
                 }
             }
         }
@@ -514,9 +466,10 @@ class ObservationDao {
          */
         fun getObservationByValue(value: String): ObservationModel? = withDatabase { db ->
 
-            ObservationModel(db.query(Observation.tableName,
+            db.query(Observation.tableName,
                 where = "value LIKE ?",
-                whereArgs = arrayOf("%$value")).toFirst())
+                whereArgs = arrayOf("%$value")).mapFirst(ObservationModel.Mapper())
+                ?: ObservationModel(emptyMap())
         }
 
         /**
@@ -638,12 +591,12 @@ class ObservationDao {
 
             val traitObj = ObservationVariableDao.getTraitById(traitDbId.toInt())
             val format = traitObj?.format ?: "text"
-            db.query(
+            DatabaseUtils.queryNumEntries(
+                db,
                 Observation.tableName,
-                where = "${Study.FK} = ? AND ${ObservationUnit.FK} = ? AND observation_variable_db_id = ? AND observation_variable_field_book_format = ?",
-                whereArgs = arrayOf(studyId, plotId, traitDbId, format)
-            )
-                .toTable().size
+                UNIT_TRAIT_WHERE,
+                arrayOf(studyId, plotId, traitDbId, format)
+            ).toInt()
 
         } ?: 0
 
@@ -694,4 +647,115 @@ class ObservationDao {
 //            }
 //        }
     }
-}
\ No newline at end of file
+}
+
+/**
+ * Maps the photo observation queries to FieldBookImages, rows without a variable name map to null.
+ * The detailed columns are only selected by the host image query.
+ */
+private class FieldBookImageMapper(
+    private val ctx: Context,
+    private val missingPhoto: Bitmap,
+    private val detailed: Boolean
+) : CursorMapper<FieldBookImage?>() {
+
+    private var idIndex = -1
+    private var valueIndex = -1
+    private var variableNameIndex = -1
+    private var repIndex = -1
+    private var uniqueNameIndex = -1
+    private var externalDbIdIndex = -1
+    private var detailsIndex = -1
+    private var timestampIndex = -1
+    private var dbIdIndex = -1
+    private var lastSyncedTimeIndex = -1
+
+    override fun bind(cursor: Cursor) {
+        idIndex = cursor.getColumnIndex("id")
+        valueIndex = cursor.getColumnIndex("value")
+        variableNameIndex = cursor.getColumnIndex("observation_variable_name")
+        if (detailed) {
+            repIndex = cursor.getColumnIndex("rep")
+            uniqueNameIndex = cursor.getColumnIndex("uniqueName")
+            externalDbIdIndex = cursor.getColumnIndex("external_db_id")
+            detailsIndex = cursor.getColumnIndex("observation_variable_details")
+            timestampIndex = cursor.getColumnIndex("observation_time_stamp")
+            dbIdIndex = cursor.getColumnIndex("observation_db_id")
+            lastSyncedTimeIndex = cursor.getColumnIndex("last_synced_time")
+        }
+    }
+
+    override fun map(cursor: Cursor): FieldBookImage? {
+
+        val name = cursor.stringOrNull(variableNameIndex) ?: return null
+
+        return FieldBookImage(ctx, cursor.stringOrNull(valueIndex), name, missingPhoto).apply {
+            fieldBookDbId = cursor.stringOrNull(idIndex)
+            if (detailed) {
+                rep = cursor.stringOrNull(repIndex)
+                unitDbId = cursor.stringOrNull(uniqueNameIndex)
+                descriptiveOntologyTerms = listOf(cursor.stringOrNull(externalDbIdIndex))
+                description = cursor.stringOrNull(detailsIndex)
+                setTimestamp(cursor.stringOrNull(timestampIndex))
+                dbId = cursor.stringOrNull(dbIdIndex)
+                setLastSyncedTime(cursor.stringOrNull(lastSyncedTimeIndex))
+            }
+        }
+    }
+}
+
+/**
+ * Maps the non photo observation queries to BrAPI observations, categorical values are decoded.
+ * The detailed columns are only selected by the BrAPI export query.
+ */
+private class BrapiObservationMapper(private val detailed: Boolean) : CursorMapper<BrapiObservation>() {
+
+    private var idIndex = -1
+    private var valueIndex = -1
+    private var formatIndex = -1
+    private var repIndex = -1
+    private var unitDbIdIndex = -1
+    private var externalDbIdIndex = -1
+    private var variableDbIdIndex = -1
+    private var variableNameIndex = -1
+    private var dbIdIndex = -1
+    private var timestampIndex = -1
+    private var lastSyncedTimeIndex = -1
+    private var collectorIndex = -1
+    private var studyDbIdIndex = -1
+
+    override fun bind(cursor: Cursor) {
+        idIndex = cursor.getColumnIndex("id")
+        valueIndex = cursor.getColumnIndex("value")
+        formatIndex = cursor.getColumnIndex("observation_variable_field_book_format")
+        if (detailed) {
+            repIndex = cursor.getColumnIndex("rep")
+            unitDbIdIndex = cursor.getColumnIndex("unitDbId")
+            externalDbIdIndex = cursor.getColumnIndex("external_db_id")
+            variableDbIdIndex = cursor.getColumnIndex("observation_variable_db_id")
+            variableNameIndex = cursor.getColumnIndex("observation_variable_name")
+            dbIdIndex = cursor.getColumnIndex("observation_db_id")
+            timestampIndex = cursor.getColumnIndex("observation_time_stamp")
+            lastSyncedTimeIndex = cursor.getColumnIndex("last_synced_time")
+            collectorIndex = cursor.getColumnIndex("collector")
+            studyDbIdIndex = cursor.getColumnIndex("study_db_id")
+        }
+    }
+
+    override fun map(cursor: Cursor): BrapiObservation = BrapiObservation().apply {
+        fieldBookDbId = cursor.stringOrNull(idIndex)
+        value = CategoryJsonUtil.processValue(cursor.stringOrNull(formatIndex), cursor.stringOrNull(valueIndex))
+        if (detailed) {
+            rep = cursor.stringOrNull(repIndex)
+            unitDbId = cursor.stringOrNull(unitDbIdIndex)
+            variableDbId = cursor.stringOrNull(externalDbIdIndex)
+            internalVariableDbId = cursor.stringOrNull(variableDbIdIndex)
+            variableName = cursor.stringOrNull(variableNameIndex)
+            dbId = cursor.stringOrNull(dbIdIndex)
+            setTimestamp(cursor.stringOrNull(timestampIndex))
+            setLastSyncedTime(cursor.stringOrNull(lastSyncedTimeIndex))
+            collector = cursor.stringOrNull(collectorIndex)
+            studyId = cursor.stringOrNull(studyDbIdIndex)
+        }
+    }
+}
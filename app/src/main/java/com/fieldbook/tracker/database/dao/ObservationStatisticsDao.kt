@@ -0,0 +1,151 @@
+package com.fieldbook.tracker.database.dao
+
+import android.database.Cursor
+import com.fieldbook.tracker.database.Migrator.Companion.sObservationRollupTableName
+import com.fieldbook.tracker.database.Migrator.Companion.sUnitRollupTableName
+import com.fieldbook.tracker.database.Migrator.ObservationUnit
+import com.fieldbook.tracker.database.Migrator.ObservationVariable
+import com.fieldbook.tracker.database.Migrator.Study
+import com.fieldbook.tracker.database.withDatabase
+
+/**
+ * Queries for the statistics screens, answered from the daily observation and unit rollups (see Migrator.sObservationRollupTableName).
+ * Seasons are prefixes of the rollup days: "" for all time, "yyyy" for a year or "yyyy-MM" for a month.
+ */
+class ObservationStatisticsDao {
+
+    /**
+     * Totals shown on one statistics card, counting observations of fields that still exist.
+     */
+    data class Summary(
+        val fieldNames: List<String>,
+        val observationCount: Int,
+        val collectors: List<String>,
+        val activeSeconds: Double,
+        val busiestDay: String?,
+        val busiestDayCount: Int,
+        val formatCounts: Map<String?, Int>,
+        val unitCount: Int,
+        val mostObservedUnit: String?,
+        val mostObservedUnitCount: Int
+    ) {
+
+        companion object {
+
+            //a season without observations, or a database that could not be read
+            @JvmField
+            val EMPTY = Summary(emptyList(), 0, emptyList(), 0.0, null, 0, emptyMap(), 0, null, 0)
+        }
+    }
+
+    companion object {
+
+        //rollup rows of existing fields within the season
+        private fun seasonRows(join: String = "", table: String = sObservationRollupTableName) = """
+            FROM $table AS r
+            JOIN ${Study.tableName} AS s ON s.${Study.PK} = r.${Study.FK}
+            $join
+            WHERE r.day LIKE ?
+        """
+
+        private fun Cursor.strings() = ArrayList<String>().also { values ->
+            while (moveToNext()) {
+                values.add(getString(0))
+            }
+        }
+
+        /**
+         * @param length 4 for years, 7 for months
+         * @return the seasons with observations, latest first
+         */
+        fun getSeasons(length: Int): List<String> = withDatabase { db ->
+
+            db.rawQuery("SELECT DISTINCT substr(day, 1, ?) AS season FROM $sObservationRollupTableName ORDER BY season DESC",
+                arrayOf(length.toString())).use { it.strings() }
+
+        } ?: emptyList()
+
+        fun getSummary(season: String): Summary? = withDatabase { db ->
+
+            val args = arrayOf("$season%")
+
+            val fieldNames = db.rawQuery("SELECT s.study_name ${seasonRows()} GROUP BY s.${Study.PK}", args).use { it.strings() }
+
+            val collectors = db.rawQuery("SELECT DISTINCT r.collector ${seasonRows()} AND trim(r.collector) <> ''", args).use { it.strings() }
+
+            val (observationCount, activeSeconds) = db.rawQuery(
+                "SELECT TOTAL(r.observation_count), TOTAL(r.active_seconds) ${seasonRows()}", args).use { cursor ->
+                cursor.moveToFirst()
+                cursor.getInt(0) to cursor.getDouble(1)
+            }
+
+            val busiestDay = db.rawQuery("""
+                SELECT r.day, SUM(r.observation_count) AS total ${seasonRows()}
+                GROUP BY r.day ORDER BY total DESC, r.day LIMIT 1
+            """, args).use { cursor ->
+                if (cursor.moveToFirst()) cursor.getString(0) to cursor.getInt(1) else null
+            }
+
+            val formatCounts = db.rawQuery("""
+                SELECT v.observation_variable_field_book_format, SUM(r.observation_count)
+                ${seasonRows("LEFT JOIN ${ObservationVariable.tableName} AS v ON v.${ObservationVariable.PK} = r.${ObservationVariable.FK}")}
+                GROUP BY r.${ObservationVariable.FK}
+            """, args).use { cursor ->
+                HashMap<String?, Int>().also { counts ->
+                    while (cursor.moveToNext()) {
+                        val format = cursor.getString(0)
+                        counts[format] = (counts[format] ?: 0) + cursor.getInt(1)
+                    }
+                }
+            }
+
+            val unitCount = db.rawQuery("""
+                SELECT COUNT(DISTINCT r.${ObservationUnit.FK}) ${seasonRows(table = sUnitRollupTableName)}
+            """, args).use { cursor ->
+                if (cursor.moveToFirst()) cursor.getInt(0) else 0
+            }
+
+            val mostObservedUnit = db.rawQuery("""
+                SELECT r.${ObservationUnit.FK}, SUM(r.observation_count) AS total ${seasonRows(table = sUnitRollupTableName)}
+                GROUP BY r.${ObservationUnit.FK} ORDER BY total DESC LIMIT 1
+            """, args).use { cursor ->
+                if (cursor.moveToFirst()) cursor.getString(0) to cursor.getInt(1) else null
+            }
+
+            Summary(fieldNames, observationCount, collectors, activeSeconds,
+                busiestDay?.first, busiestDay?.second ?: 0, formatCounts,
+                unitCount, mostObservedUnit?.first, mostObservedUnit?.second ?: 0)
+        }
+
+        /**
+         * @return the number of observations of each day, in date order
+         */
+        fun getDailyCounts(): Map<String, Int> = withDatabase { db ->
+
+            db.rawQuery("""
+                SELECT day, SUM(observation_count) FROM $sObservationRollupTableName GROUP BY day ORDER BY day
+            """, null).use { cursor ->
+
+                LinkedHashMap<String, Int>().also { counts ->
+                    while (cursor.moveToNext()) {
+                        counts[cursor.getString(0)] = cursor.getInt(1)
+                    }
+                }
+            }
+
+        } ?: emptyMap()
+
+        /**
+         * @return the first and last observation time stamps, or null without observations
+         */
+        fun getTimeStampRange(): Pair<String, String>? = withDatabase { db ->
+
+            db.rawQuery("""
+                SELECT MIN(first_time_stamp), MAX(last_time_stamp) FROM $sObservationRollupTableName
+            """, null).use { cursor ->
+
+                if (cursor.moveToFirst() && !cursor.isNull(0)) cursor.getString(0) to cursor.getString(1) else null
+            }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.fieldbook.tracker.database.dao
 
+import androidx.core.content.contentValuesOf
 import com.fieldbook.tracker.database.*
 import com.fieldbook.tracker.database.Migrator.Study
 import com.fieldbook.tracker.database.Migrator.ObservationUnitAttribute
@@ -8,18 +9,45 @@ class ObservationUnitAttributeDao {
 
     companion object {
 
+        const val STUDY_WHERE = "${Study.FK} = ?"
+        const val NAME_WHERE = "observation_unit_attribute_name = ?"
+
         fun getAllNames(eid: Int): Array<String> = withDatabase { db ->
             db.query(ObservationUnitAttribute.tableName,
-                    where = "${Study.FK} = ?",
+                    where = STUDY_WHERE,
                     whereArgs = arrayOf(eid.toString())).toTable()
                 .map { it["observation_unit_attribute_name"] as? String ?: "" }
                 .filter { it.isNotBlank() && it.isNotEmpty() }
                 .toTypedArray()
         } ?: emptyArray()
 
+        /**
+         * Adds the attributes of the names the study does not have yet, in the caller's transaction.
+         * The study's property table gets a column per attribute, so an existing one is rebuilt.
+         */
+        fun addMissing(studyId: Int, names: Collection<String>) = withDatabase { db ->
+
+            val existing = getAllNames(studyId).toHashSet()
+
+            val missing = names.filter { it !in existing }.distinct()
+
+            missing.forEach { name ->
+                db.insert(ObservationUnitAttribute.tableName, null, contentValuesOf(
+                    "observation_unit_attribute_name" to name,
+                    Study.FK to studyId
+                ))
+            }
+
+            if (missing.isNotEmpty() && ObservationUnitPropertyDao.hasPropertyCache(db, studyId)) {
+
+                ObservationUnitPropertyDao.buildPropertyCache(db, studyId)
+
+            }
+        }
+
         fun getIdByName(name: String): Int = withDatabase { db ->
             db.query(ObservationUnitAttribute.tableName,
-                where = "observation_unit_attribute_name = ?",
+                where = NAME_WHERE,
                 whereArgs = arrayOf(name)).toFirst()[ObservationUnitAttribute.PK] as Int
         } ?: -1
     }
@@ -4,24 +4,52 @@ import android.content.ContentValues
 import android.database.sqlite.SQLiteDatabase
 import com.fieldbook.tracker.database.Migrator.ObservationUnit
 import com.fieldbook.tracker.database.Migrator.Study
+import com.fieldbook.tracker.database.mapFirst
+import com.fieldbook.tracker.database.mapRows
 import com.fieldbook.tracker.database.models.ObservationUnitModel
 import com.fieldbook.tracker.database.query
-import com.fieldbook.tracker.database.toFirst
-import com.fieldbook.tracker.database.toTable
 import com.fieldbook.tracker.database.withDatabase
 
 class ObservationUnitDao {
 
+    /**
+     * A study that has a unit with the looked up observation unit id.
+     */
+    data class UnitStudy(val studyId: Int, val studyAlias: String?, val unitId: Int)
+
     companion object {
 
+        const val DB_ID_WHERE = "observation_unit_db_id = ?"
+
+        //first unit of the study whose id is also used by another study
+        @JvmField
+        val CHECK_UNIQUE_QUERY = """
+            SELECT 1 FROM ${ObservationUnit.tableName} AS units
+            JOIN ${ObservationUnit.tableName} AS others
+                ON others.observation_unit_db_id = units.observation_unit_db_id AND others.${Study.FK} <> units.${Study.FK}
+            WHERE units.${Study.FK} = ?
+            LIMIT 1
+        """.trimIndent()
+
+        @JvmField
+        val STUDIES_OF_UNIT_QUERY = """
+            SELECT units.${Study.FK}, studies.study_alias, units.${ObservationUnit.PK}
+            FROM ${ObservationUnit.tableName} AS units
+            JOIN ${Study.tableName} AS studies ON studies.${Study.PK} = units.${Study.FK}
+            WHERE units.observation_unit_db_id = ? AND studies.study_name IS NOT NULL
+            ORDER BY units.${Study.FK}
+        """.trimIndent()
+
         fun checkUnique(values: HashMap<String, String>): Boolean = withDatabase { db ->
 
             var result = true
 
             db.query(ObservationUnit.tableName,
-                    select = arrayOf("observation_unit_db_id")).toTable().forEach {
-                if (it["observation_unit_db_id"] in values.keys) {
-                    result = false
+                    select = arrayOf("observation_unit_db_id")).use { cursor ->
+                while (result && cursor.moveToNext()) {
+                    if (cursor.getString(0) in values.keys) {
+                        result = false
+                    }
                 }
             }
 
@@ -29,43 +57,63 @@ class ObservationUnitDao {
 
         } ?: false
 
+        /**
+         * Checks the units already inserted for a study, joining them to the other studies' units on the unit id index.
+         * @return false if another study has a unit with the same observation unit id
+         */
+        fun checkUnique(studyId: Int): Boolean = withDatabase { db ->
+
+            db.rawQuery(CHECK_UNIQUE_QUERY, arrayOf(studyId.toString())).use { cursor -> !cursor.moveToFirst() }
+
+        } ?: false
+
         fun getAll(): Array<ObservationUnitModel> = withDatabase { db ->
 
-            arrayOf(*db.query(ObservationUnit.tableName)
-                .toTable()
-                .map { ObservationUnitModel(it) }
-                .toTypedArray())
+            db.query(ObservationUnit.tableName)
+                .mapRows(ObservationUnitModel.Mapper())
+                .toTypedArray()
 
         } ?: emptyArray()
 
         fun getAll(db: SQLiteDatabase): Array<ObservationUnitModel> =
-            arrayOf(*db.query(ObservationUnit.tableName)
-                .toTable()
-                .map { ObservationUnitModel(it) }
-                .toTypedArray())
+            db.query(ObservationUnit.tableName)
+                .mapRows(ObservationUnitModel.Mapper())
+                .toTypedArray()
 
         fun getById(id: String): ObservationUnitModel? = withDatabase { db ->
 
-            val map = db.query(
+            db.query(
                 ObservationUnit.tableName,
-                where = "observation_unit_db_id = ?",
+                where = DB_ID_WHERE,
                 whereArgs = arrayOf(id)
-            ).toFirst()
+            ).mapFirst(ObservationUnitModel.Mapper())
+        }
 
-            if ("observation_unit_db_id" in map.keys) {
-                ObservationUnitModel(map)
-            } else {
-                null
+        /**
+         * Studies with a unit of the given observation unit id, e.g for barcodes scanned outside the current field.
+         * Answered from the observation_unit_db_id index instead of reading every unit of every study,
+         * the unit's position is then found by the plot index of the study once it is loaded.
+         */
+        fun getStudiesOfUnit(id: String): List<UnitStudy> = withDatabase { db ->
+
+            db.rawQuery(STUDIES_OF_UNIT_QUERY, arrayOf(id)).use { cursor ->
+
+                ArrayList<UnitStudy>().also { studies ->
+                    while (cursor.moveToNext()) {
+                        studies.add(UnitStudy(cursor.getInt(0), cursor.getString(1), cursor.getInt(2)))
+                    }
+                }
             }
-        }
+
+        } ?: emptyList()
 
         fun getAll(eid: Int): Array<ObservationUnitModel> = withDatabase { db ->
 
-            arrayOf(*db.query(ObservationUnit.tableName,
+            db.query(ObservationUnit.tableName,
                     where = "${Study.FK} = ?",
-                    whereArgs = arrayOf(eid.toString())).toTable()
-                    .map { ObservationUnitModel(it) }
-                    .toTypedArray())
+                    whereArgs = arrayOf(eid.toString()))
+                    .mapRows(ObservationUnitModel.Mapper())
+                    .toTypedArray()
 
         } ?: emptyArray()
 
@@ -2,32 +2,282 @@ package com.fieldbook.tracker.database.dao
 
 import android.content.Context
 import android.database.Cursor
-import android.database.MatrixCursor
+import android.database.DatabaseUtils
+import android.database.sqlite.SQLiteDatabase
 import android.util.Log
 import androidx.preference.PreferenceManager
+import com.fieldbook.tracker.database.BrapiImportProgress
 import com.fieldbook.tracker.database.DataHelper
+import com.fieldbook.tracker.database.Migrator.Companion.sObservationUnitPropertyCachePrefix
 import com.fieldbook.tracker.database.Migrator.Companion.sObservationUnitPropertyViewName
+import com.fieldbook.tracker.database.Migrator.Observation
 import com.fieldbook.tracker.database.Migrator.ObservationUnit
 import com.fieldbook.tracker.database.Migrator.ObservationUnitAttribute
 import com.fieldbook.tracker.database.Migrator.ObservationUnitValue
+import com.fieldbook.tracker.database.Migrator.ObservationVariable
 import com.fieldbook.tracker.database.Migrator.Study
 import com.fieldbook.tracker.database.query
+import com.fieldbook.tracker.database.stringOrNull
 import com.fieldbook.tracker.database.toFirst
 import com.fieldbook.tracker.database.toTable
 import com.fieldbook.tracker.database.withDatabase
+import com.fieldbook.tracker.database.withReadCursor
+import com.fieldbook.tracker.database.withReadDatabase
+import com.fieldbook.tracker.objects.PlotIndex
 import com.fieldbook.tracker.objects.RangeObject
 import com.fieldbook.tracker.objects.TraitObject
 import com.fieldbook.tracker.preferences.GeneralKeys
 import com.fieldbook.tracker.utilities.CategoryJsonUtil
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicBoolean
 
 class ObservationUnitPropertyDao {
 
+    /**
+     * Receives exported rows one at a time, the row array is reused between calls.
+     */
+    fun interface ExportRowConsumer {
+        fun accept(row: Array<String?>)
+    }
+
     companion object {
 
+        //lookup of a unit in the property table by its integer primary key
+        const val ID_WHERE = "id = ?"
+
 //        internal fun selectAllRange(): Array<Map<String, Any?>>? = withDatabase { db ->
 //            db.query(sObservationUnitPropertyViewName).toTable().toTypedArray()
 //        }
 
+        /**
+         * Each study has its own materialized property table (attribute pivot) that is built once
+         * and then kept in sync by triggers on every write to the study's units and attribute values.
+         * ObservationUnitProperty is a view over the selected study's table, so switching fields
+         * only has to recreate the view.
+         */
+        fun getPropertyCacheName(studyId: Int) = "$sObservationUnitPropertyCachePrefix$studyId"
+
+        //suffixes of the triggers that maintain a study's property table
+        private val cacheTriggers = listOf("unit_insert", "unit_update", "unit_delete", "value_insert", "value_update", "value_delete")
+
+        private val worker = Executors.newSingleThreadExecutor { task ->
+            Thread(task, "ObsUnitPropertyDao").apply {
+                isDaemon = true
+                priority = Thread.MIN_PRIORITY
+            }
+        }
+
+        //true while a background build is queued or running
+        private val building = AtomicBoolean()
+
+        fun hasPropertyCache(db: SQLiteDatabase, studyId: Int): Boolean = db.rawQuery(
+            "SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = ?",
+            arrayOf(getPropertyCacheName(studyId))
+        ).use { it.moveToFirst() }
+
+        /**
+         * Attribute pivot of the study's units, one row per unit with a column per attribute name.
+         * @param unitFilter condition added to the study filter, s.a a single unit for the triggers
+         */
+        private fun getPivotQuery(studyId: Int, headers: List<String>, unitFilter: String = ""): String {
+
+            //create a select statement based on the saved plot attribute names
+            val select = headers.joinToString("") { col ->
+
+                "MAX(CASE WHEN attr.observation_unit_attribute_name = \"$col\" THEN vals.observation_unit_value_name ELSE NULL END) AS \"$col\", "
+
+            }
+
+            return """
+                SELECT $select units.${ObservationUnit.PK} AS id, units.`geo_coordinates` as "geo_coordinates"
+                FROM ${ObservationUnit.tableName} AS units
+                LEFT JOIN ${ObservationUnitValue.tableName} AS vals ON units.${ObservationUnit.PK} = vals.${ObservationUnit.FK}
+                LEFT JOIN ${ObservationUnitAttribute.tableName} AS attr on vals.${ObservationUnitAttribute.FK} = attr.${ObservationUnitAttribute.PK}
+                WHERE units.${Study.FK} = $studyId$unitFilter
+                GROUP BY units.${ObservationUnit.PK}
+            """.trimIndent()
+        }
+
+        private fun getPropertyHeaders(studyId: Int) =
+            ObservationUnitAttributeDao.getAllNames(studyId).filter { it != "geo_coordinates" }.distinct()
+
+        /**
+         * Transpose obs. unit. attribute/values into the study's property table and create the triggers that maintain it.
+         * This is the expensive pivot, it runs when the study is imported, when attributes are added to it,
+         * and for studies without a table (s.a after an upgrade) on the field switch or in buildMissingInBackground.
+         */
+        fun buildPropertyCache(db: SQLiteDatabase, studyId: Int) {
+
+            val cacheName = getPropertyCacheName(studyId)
+
+            val headers = getPropertyHeaders(studyId)
+
+            db.beginTransaction()
+
+            try {
+
+                dropPropertyCacheTriggers(db, studyId)
+
+                db.execSQL("DROP TABLE IF EXISTS $cacheName")
+
+                db.execSQL("CREATE TABLE $cacheName AS ${getPivotQuery(studyId, headers)}")
+
+                db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS ${cacheName}_id ON $cacheName(id)")
+
+                createPropertyCacheTriggers(db, studyId, headers)
+
+                db.setTransactionSuccessful()
+
+            } finally {
+
+                db.endTransaction()
+            }
+        }
+
+        /**
+         * Every write to a unit or attribute value of the study re-pivots that unit's row, so the table matches a rebuild.
+         * A write the table cannot take (s.a a column that no longer exists) fails the write instead of being skipped.
+         */
+        private fun createPropertyCacheTriggers(db: SQLiteDatabase, studyId: Int, headers: List<String>) {
+
+            val cacheName = getPropertyCacheName(studyId)
+
+            val columns = (headers + listOf("id", "geo_coordinates")).joinToString { "\"$it\"" }
+
+            fun refresh(unitId: String) =
+                "INSERT OR REPLACE INTO $cacheName ($columns) ${getPivotQuery(studyId, headers, " AND units.${ObservationUnit.PK} = $unitId")};"
+
+            fun trigger(suffix: String, event: String, table: String, condition: String, body: String) = """
+                CREATE TRIGGER IF NOT EXISTS ${cacheName}_$suffix AFTER $event ON $table
+                WHEN $condition
+                BEGIN
+                    $body
+                END
+            """.trimIndent()
+
+            val units = ObservationUnit.tableName
+            val values = ObservationUnitValue.tableName
+
+            listOf(
+                trigger("unit_insert", "INSERT", units, "NEW.${Study.FK} = $studyId", refresh("NEW.${ObservationUnit.PK}")),
+                trigger("unit_update", "UPDATE OF geo_coordinates", units, "NEW.${Study.FK} = $studyId", refresh("NEW.${ObservationUnit.PK}")),
+                trigger("unit_delete", "DELETE", units, "OLD.${Study.FK} = $studyId", "DELETE FROM $cacheName WHERE id = OLD.${ObservationUnit.PK};"),
+                trigger("value_insert", "INSERT", values, "NEW.${Study.FK} = $studyId", refresh("NEW.${ObservationUnit.FK}")),
+                trigger("value_update", "UPDATE", values, "OLD.${Study.FK} = $studyId OR NEW.${Study.FK} = $studyId",
+                    refresh("OLD.${ObservationUnit.FK}") + "\n" + refresh("NEW.${ObservationUnit.FK}")),
+                trigger("value_delete", "DELETE", values, "OLD.${Study.FK} = $studyId", refresh("OLD.${ObservationUnit.FK}"))
+            ).forEach { db.execSQL(it) }
+        }
+
+        private fun dropPropertyCacheTriggers(db: SQLiteDatabase, studyId: Int) {
+
+            val cacheName = getPropertyCacheName(studyId)
+
+            cacheTriggers.forEach { db.execSQL("DROP TRIGGER IF EXISTS ${cacheName}_$it") }
+        }
+
+        fun ensurePropertyCache(db: SQLiteDatabase, studyId: Int) {
+
+            //checked in the transaction, so a switch and the background build do not both build the table
+            db.beginTransaction()
+
+            try {
+
+                if (!hasPropertyCache(db, studyId)) {
+
+                    buildPropertyCache(db, studyId)
+
+                }
+
+                db.setTransactionSuccessful()
+
+            } finally {
+
+                db.endTransaction()
+            }
+        }
+
+        /**
+         * Builds the property tables of the studies that have none (s.a after an upgrade or a database import)
+         * on a background worker, one study per transaction. Studies with an unfinished BrAPI import are built
+         * when their import completes.
+         */
+        fun buildMissingInBackground(db: SQLiteDatabase) {
+
+            if (!building.compareAndSet(false, true)) return
+
+            worker.execute {
+
+                try {
+
+                    val studyIds = db.rawQuery("""
+                        SELECT ${Study.PK} FROM ${Study.tableName}
+                        WHERE ${Study.PK} NOT IN (SELECT ${Study.FK} FROM ${BrapiImportProgress.TABLE_NAME})
+                    """.trimIndent(), null).use { cursor ->
+                        IntArray(cursor.count) { cursor.moveToNext(); cursor.getInt(0) }
+                    }
+
+                    studyIds.forEach { studyId -> ensurePropertyCache(db, studyId) }
+
+                } catch (e: Exception) {
+
+                    //the database was closed or replaced, missing tables are built on the next start or switch
+                    Log.w("ObsUnitPropertyDao", "Background build stopped: ${e.message}")
+
+                } finally {
+
+                    building.set(false)
+                }
+            }
+        }
+
+        /**
+         * Points the ObservationUnitProperty view at the given study's property table.
+         */
+        fun selectPropertyCache(db: SQLiteDatabase, studyId: Int) {
+
+            ensurePropertyCache(db, studyId)
+
+            dropPropertyView(db)
+
+            db.execSQL("CREATE VIEW $sObservationUnitPropertyViewName AS SELECT * FROM ${getPropertyCacheName(studyId)}")
+        }
+
+        /**
+         * Older databases stored ObservationUnitProperty as a table, newer ones as a view.
+         */
+        fun dropPropertyView(db: SQLiteDatabase) {
+
+            val type = db.rawQuery(
+                "SELECT type FROM sqlite_master WHERE name = ?",
+                arrayOf(sObservationUnitPropertyViewName)
+            ).use { if (it.moveToFirst()) it.getString(0) else null }
+
+            when (type) {
+                "table" -> db.execSQL("DROP TABLE IF EXISTS $sObservationUnitPropertyViewName")
+                "view" -> db.execSQL("DROP VIEW IF EXISTS $sObservationUnitPropertyViewName")
+            }
+        }
+
+        /**
+         * Removes a study's property table and its triggers, and the view if it currently selects from it.
+         */
+        fun dropPropertyCache(db: SQLiteDatabase, studyId: Int) {
+
+            val cacheName = getPropertyCacheName(studyId)
+
+            val selected = db.rawQuery(
+                "SELECT 1 FROM sqlite_master WHERE type = 'view' AND name = ? AND sql LIKE ?",
+                arrayOf(sObservationUnitPropertyViewName, "% FROM $cacheName")
+            ).use { it.moveToFirst() }
+
+            if (selected) dropPropertyView(db)
+
+            dropPropertyCacheTriggers(db, studyId)
+
+            db.execSQL("DROP TABLE IF EXISTS $cacheName")
+        }
+
         fun getObservationUnitPropertyByUniqueId(uniqueName: String, column: String, uniqueId: String): String = withDatabase { db ->
             db.query(sObservationUnitPropertyViewName, select = arrayOf(column), where = "`${uniqueName}` = ?", whereArgs = arrayOf(uniqueId))
                     .toFirst()[column].toString()
@@ -51,6 +301,46 @@ class ObservationUnitPropertyDao {
             return emptyArray()
         }
 
+        /**
+         * Reads the navigation index of the selected study in the same order as getAllRangeId.
+         * Names are read the same way getRangeFromId reads them, a missing column or null value is "null".
+         */
+        fun getPlotIndex(context: Context, firstName: String, secondName: String, uniqueName: String): PlotIndex {
+
+            val studyId = PreferenceManager.getDefaultSharedPreferences(context)
+                .getInt(GeneralKeys.SELECTED_FIELD_ID, 0)
+
+            return getSortedObservationUnitData(context, studyId)?.use { cursor ->
+
+                val size = cursor.count
+                val ids = IntArray(size)
+                val primary = arrayOfNulls<String>(size)
+                val secondary = arrayOfNulls<String>(size)
+                val unique = arrayOfNulls<String>(size)
+
+                val idIndex = cursor.getColumnIndex("id")
+                val firstIndex = cursor.getColumnIndex(firstName)
+                val secondIndex = cursor.getColumnIndex(secondName)
+                val uniqueIndex = cursor.getColumnIndex(uniqueName)
+
+                //primary and secondary names repeat (e.g every plot of a range), keep one instance of each
+                val names = HashMap<String, String>()
+                fun shared(value: String?) = (value ?: "null").let { names.getOrPut(it) { it } }
+
+                var position = 0
+                while (cursor.moveToNext() && position < size) {
+                    ids[position] = if (idIndex < 0) -1 else cursor.getInt(idIndex)
+                    primary[position] = shared(cursor.stringOrNull(firstIndex))
+                    secondary[position] = shared(cursor.stringOrNull(secondIndex))
+                    unique[position] = cursor.stringOrNull(uniqueIndex) ?: "null"
+                    position++
+                }
+
+                @Suppress("UNCHECKED_CAST")
+                PlotIndex(ids, primary as Array<String>, secondary as Array<String>, unique as Array<String>)
+
+            } ?: PlotIndex.EMPTY
+        }
 
         fun getRangeFromId(firstName: String, secondName: String, uniqueName: String, id: Int): RangeObject = withDatabase { db ->
 //            data.range = cursor.getString(0);
@@ -60,7 +350,7 @@ class ObservationUnitPropertyDao {
 
                 val model = db.query(sObservationUnitPropertyViewName,
                     select = arrayOf(firstName, secondName, uniqueName, "id"),
-                    where = "id = ?",
+                    where = ID_WHERE,
                     whereArgs = arrayOf(id.toString())).toFirst()
 
                 range = model[firstName].toString()
@@ -144,6 +434,125 @@ class ObservationUnitPropertyDao {
 
         } ?: emptyArray<String?>()
 
+        //number of observation units read per export page, keeps each cursor well below the CursorWindow limit
+        private const val EXPORT_PAGE_UNITS = 500
+
+        private const val EXPORT_ORDER_TABLE = "export_order"
+
+        /**
+         * Writes the study's observation unit ids, in the field's sort order, to a temporary table.
+         * Exports then page through the units by position (keyset) instead of sorting the whole result set at once.
+         * Runs on a reader connection, the temp table is private to it. The property table must already exist.
+         * @return the number of units in the study
+         */
+        fun createExportOrder(context: Context, db: SQLiteDatabase, studyId: Int): Int {
+
+            dropExportOrder(db)
+
+            db.execSQL("CREATE TEMP TABLE $EXPORT_ORDER_TABLE (pos INTEGER PRIMARY KEY, id INTEGER NOT NULL)")
+
+            val sortOrderClause = getSortOrderClause(context, studyId.toString())
+
+            val orderBy = if (sortOrderClause.isNullOrEmpty()) "ORDER BY id" else "$sortOrderClause, id"
+
+            db.execSQL("INSERT INTO $EXPORT_ORDER_TABLE (id) SELECT id FROM ${getPropertyCacheName(studyId)} $orderBy")
+
+            return DatabaseUtils.queryNumEntries(db, "temp.$EXPORT_ORDER_TABLE").toInt()
+        }
+
+        private fun dropExportOrder(db: SQLiteDatabase) {
+            db.execSQL("DROP TABLE IF EXISTS temp.$EXPORT_ORDER_TABLE")
+        }
+
+        /**
+         * Runs the page query once per EXPORT_PAGE_UNITS units, the last two arguments are the page's position bounds.
+         */
+        private fun forEachExportPage(db: SQLiteDatabase, units: Int, query: String, args: Array<String>, block: (Cursor) -> Unit) {
+
+            var start = 0
+
+            while (start < units) {
+
+                val end = start + EXPORT_PAGE_UNITS
+
+                db.rawQuery(query, args + arrayOf(start.toString(), end.toString())).use(block)
+
+                start = end
+            }
+        }
+
+        /**
+         * Page query of exportDbData, one row per observation of the given number of traits.
+         * Bound with the study id, the trait names and the page's position bounds.
+         */
+        fun getExportDbPageQuery(studyId: Int, fieldList: Array<String?>, traits: Int): String {
+
+            val obsSelectAttributes =
+                arrayOf("observation_variable_name", "observation_variable_field_book_format", "value", "observation_time_stamp", "collector", "geoCoordinates", "rep")
+
+            val selectAttributes = fieldList.map { "props.\"$it\"" } + obsSelectAttributes.map { "obs.`$it`" }
+
+            return """
+                SELECT ${selectAttributes.joinToString(", ")}
+                FROM $EXPORT_ORDER_TABLE AS o
+                JOIN ${getPropertyCacheName(studyId)} AS props ON props.id = o.id
+                JOIN observation_units AS units ON units.internal_id_observation_unit = o.id
+                JOIN observations AS obs ON obs.observation_unit_id = units.observation_unit_db_id AND obs.study_id = ?
+                WHERE obs.observation_variable_name IN (${List(traits) { "?" }.joinToString(", ")})
+                  AND o.pos > ? AND o.pos <= ?
+                ORDER BY o.pos, obs.internal_id_observation
+            """.trimIndent()
+        }
+
+        /**
+         * Query of the exportDbData rows of observations without a unit in the study, printed after the pages
+         * with empty attribute columns like the observation driven export did.
+         * Bound with the study id and the trait names.
+         */
+        fun getExportDbOrphanQuery(fieldList: Array<String?>, traits: Int): String {
+
+            val obsSelectAttributes =
+                arrayOf("observation_variable_name", "observation_variable_field_book_format", "value", "observation_time_stamp", "collector", "geoCoordinates", "rep")
+
+            val selectAttributes = fieldList.map { "NULL AS \"$it\"" } + obsSelectAttributes.map { "obs.`$it`" }
+
+            return """
+                SELECT ${selectAttributes.joinToString(", ")}
+                FROM observations AS obs
+                WHERE obs.study_id = ?
+                  AND obs.observation_variable_name IN (${List(traits) { "?" }.joinToString(", ")})
+                  AND NOT EXISTS (
+                    SELECT 1 FROM observation_units AS units
+                    WHERE units.observation_unit_db_id = obs.observation_unit_id AND units.study_id = obs.study_id)
+                ORDER BY obs.internal_id_observation
+            """.trimIndent()
+        }
+
+        /**
+         * Page query of exportTableData, one row per unit with a column per trait.
+         * Bound with the study id and the page's position bounds.
+         */
+        fun getExportTablePageQuery(studyId: Int, fieldList: Array<String?>, traits: List<TraitObject>): String {
+
+            val selectObservations = traits.map { trait ->
+                val traitName = DataHelper.replaceIdentifiers(trait.name)
+                "MAX(CASE WHEN obs.observation_variable_name='$traitName' THEN obs.value ELSE NULL END)"
+            }
+
+            val selectAttributes = fieldList.map { "props.\"$it\"" } + selectObservations
+
+            return """
+                SELECT ${selectAttributes.joinToString(", ")}
+                FROM $EXPORT_ORDER_TABLE AS o
+                JOIN ${getPropertyCacheName(studyId)} AS props ON props.id = o.id
+                JOIN observation_units AS units ON units.internal_id_observation_unit = o.id
+                LEFT JOIN observations AS obs ON obs.observation_unit_id = units.observation_unit_db_id AND obs.study_id = ?
+                WHERE o.pos > ? AND o.pos <= ?
+                GROUP BY o.pos
+                ORDER BY o.pos
+            """.trimIndent()
+        }
+
         /**
          * This function is used when database is checked on export.
          * The traits array is used to determine which traits are exported.
@@ -152,193 +561,181 @@ class ObservationUnitPropertyDao {
          * Database format prints off one observation per row s.a
          * "plot_id","column","plot","tray_row","tray_id","seed_id","seed_name","pedigree","trait","value","timestamp","person","location","number"
          * "13RPN00001","1","1","1","13RPN_TRAY001","12GHT00001B","Kharkof","Kharkof","height","3","2021-08-05 11:52:45.379-05:00"," ","","2"
+         *
+         * Rows are streamed page by page to the consumer with categorical values already decoded,
+         * so memory use does not depend on the number of observations.
+         * @param fieldList the attribute columns to print, pass only the unique name for the short export
+         * @return the number of rows given to the consumer
          */
-
-        fun getExportDbData(
+        fun exportDbData(
             context: Context,
             studyId: Int,
             fieldList: Array<String?>,
-            traits: ArrayList<TraitObject>
-        ): Cursor? = withDatabase { db ->
+            traits: ArrayList<TraitObject>,
+            consumer: ExportRowConsumer
+        ): Int {
+
+            withDatabase { db -> ensurePropertyCache(db, studyId) }
+
+            return withReadDatabase { db ->
 
-            val traitRequiredFields =
-                arrayOf("trait", "userValue", "timeTaken", "person", "location", "rep")
-            val requiredFields = fieldList + traitRequiredFields
-            MatrixCursor(requiredFields).also { cursor ->
-                val placeholders = traits.joinToString(", ") { "?" }
                 val traitNames = traits.map { DataHelper.replaceIdentifiers(it.name) }.toTypedArray()
 
-                val unitSelectAttributes = fieldList.map { attributeName ->
-                    "MAX(CASE WHEN attr.observation_unit_attribute_name = '$attributeName' THEN vals.observation_unit_value_name ELSE NULL END) AS \"$attributeName\""
-                }.joinToString(", ")
-
-                val obsSelectAttributes =
-                    arrayOf("observation_variable_name", "observation_variable_field_book_format", "value", "observation_time_stamp", "collector", "geoCoordinates", "rep")
-
-                val sortOrderClause = getSortOrderClause(context, studyId.toString())
-                val query = """
-                    SELECT $unitSelectAttributes, ${obsSelectAttributes.joinToString { "obs.`$it` AS `$it`" }}
-                    FROM observations AS obs
-                    LEFT JOIN observation_units AS units ON units.observation_unit_db_id = obs.observation_unit_id
-                    LEFT JOIN observation_units_values AS vals ON units.internal_id_observation_unit = vals.observation_unit_id
-                    LEFT JOIN observation_units_attributes AS attr ON vals.observation_unit_attribute_db_id = attr.internal_id_observation_unit_attribute
-                    WHERE obs.study_id = ?
-                      AND obs.observation_variable_name IN ($placeholders)
-                    GROUP BY obs.internal_id_observation
-                    $sortOrderClause
-                """.trimIndent()
-
-                Log.d("getExportDbData", "Final Query: $query")
-                val table = db.rawQuery(query, arrayOf(studyId.toString()) + traitNames).toTable()
-
-                table.forEach { row ->
-                    cursor.addRow(fieldList.map { row[it] } + traitRequiredFields.map {
-                        when (it) {
-                            "trait" -> row["observation_variable_name"]
-                            "userValue" -> CategoryJsonUtil.processValue(row)
-                            "timeTaken" -> row["observation_time_stamp"]
-                            "person" -> row["collector"]
-                            "location" -> row["geoCoordinates"]
-                            "rep" -> row["rep"]
-                            else -> String()
+                val units = createExportOrder(context, db, studyId)
+
+                val query = getExportDbPageQuery(studyId, fieldList, traits.size)
+
+                Log.d("exportDbData", "Page Query: $query")
+
+                val attributes = fieldList.size
+                val row = arrayOfNulls<String>(attributes + 6)
+                var rows = 0
+
+                val write = { cursor: Cursor ->
+
+                    while (cursor.moveToNext()) {
+
+                        for (i in 0 until attributes) {
+                            row[i] = cursor.getString(i)
                         }
-                    })
+
+                        row[attributes] = cursor.getString(attributes)
+                        row[attributes + 1] = CategoryJsonUtil.processValue(cursor.getString(attributes + 1), cursor.getString(attributes + 2))
+                        row[attributes + 2] = cursor.getString(attributes + 3)
+                        row[attributes + 3] = cursor.getString(attributes + 4)
+                        row[attributes + 4] = cursor.getString(attributes + 5)
+                        row[attributes + 5] = cursor.getString(attributes + 6)
+
+                        consumer.accept(row)
+
+                        rows++
+                    }
+                }
+
+                try {
+
+                    forEachExportPage(db, units, query, arrayOf(studyId.toString()) + traitNames, write)
+
+                    //observations whose unit is missing are still exported, as with the observation driven query
+                    db.rawQuery(getExportDbOrphanQuery(fieldList, traits.size), arrayOf(studyId.toString()) + traitNames).use(write)
+
+                } finally {
+
+                    dropExportOrder(db)
                 }
-            }
-        }
 
+                rows
+
+            } ?: 0
+        }
 
         /**
-         * Same as database export function above, but filters all all attribute columns other than the unique id
-         * (The other attributes need to be retrieved for sorting, but can then be discarded)
+         * One window of the data grid: id, row header and unique name of the given units followed by two columns per trait,
+         * the largest observed value and the number of observations (more than one means repeated measures).
+         * Rows are grouped by unit in no particular order, callers place them by id.
+         * @param ids observation unit ids of the window, all from the study's property table
          */
-        fun getExportDbDataShort(
-            context: Context,
+        fun getDataGridRows(
             studyId: Int,
-            fieldList: Array<String?>,
+            ids: IntArray,
+            rowHeader: String,
             uniqueName: String,
-            traits: ArrayList<TraitObject>
-        ): Cursor? {
-            // Get the full data set
-            getExportDbData(context, studyId, fieldList, traits)?.use { fullCursor ->
-                val traitRequiredFields = arrayOf("trait", "userValue", "timeTaken", "person", "location", "rep")
-                val requiredColumns = mutableListOf(uniqueName).apply {
-                    addAll(traitRequiredFields)
-                }.toTypedArray()
-
-                // Create and return a cursor that only includes the required columns
-                val matrixCursor = MatrixCursor(requiredColumns)
-
-                while (fullCursor.moveToNext()) {
-                    val rowData = requiredColumns.map { columnName ->
-                        val columnIndex = fullCursor.getColumnIndex(columnName)
-                        if (columnIndex != -1) fullCursor.getString(columnIndex) else null
-                    }.toTypedArray()
-                    matrixCursor.addRow(rowData)
-                }
+            traitIds: List<String>
+        ): Cursor? = withReadCursor { db ->
 
-                // Return a cursor that only includes the required columns
-                return MatrixCursor(requiredColumns).also { filteredCursor ->
-                    matrixCursor.moveToFirst()
-                    while (!matrixCursor.isAfterLast) {
-                        val rowValues = requiredColumns.map { columnName ->
-                            matrixCursor.getString(matrixCursor.getColumnIndex(columnName))
-                        }.toTypedArray()
-                        filteredCursor.addRow(rowValues)
-                        matrixCursor.moveToNext()
-                    }
-                }
-            }
-            // Return null if the original data retrieval fails
-            return null
+            val args = traitIds.flatMap { listOf(it, it) } + studyId.toString()
+
+            db.rawQuery(getDataGridQuery(studyId, ids, rowHeader, uniqueName, traitIds.size), args.toTypedArray())
         }
 
         /**
-         * This will print all observation data (if a trait is not observed it is null/empty string) and attributes for all observation units in a study.
-         * The maxStatements parameter builds aggregate case statements for each variable, this way the output has column names that are one-to-one with variable names.
-         * Where the column observation_variable_name value will be the observation value.
-         * All observation_units are captured, even if they did not make an observation.
-         * Inputs:
-         * @param expId the field/study id
-         * @param traits the list of traits to print, either all traits or just the active ones
-         * @return a cursor that is used in CSVWriter and closed elsewhere
+         * Query of getDataGridRows, bound with each trait id twice and then the study id.
          */
+        fun getDataGridQuery(studyId: Int, ids: IntArray, rowHeader: String, uniqueName: String, traits: Int): String {
+
+            val cells = ", MAX(CASE WHEN obs.${ObservationVariable.FK} = ? THEN obs.value END)" +
+                    ", COUNT(CASE WHEN obs.${ObservationVariable.FK} = ? THEN 1 END)"
+
+            return """
+                SELECT props.id, props.`$rowHeader`, props.`$uniqueName`${cells.repeat(traits)}
+                FROM ${getPropertyCacheName(studyId)} AS props
+                JOIN ${ObservationUnit.tableName} AS units ON units.${ObservationUnit.PK} = props.id
+                LEFT JOIN ${Observation.tableName} AS obs ON obs.${ObservationUnit.FK} = units.observation_unit_db_id AND obs.${Study.FK} = ?
+                WHERE props.id IN (${ids.joinToString()})
+                GROUP BY props.id
+            """.trimIndent()
+        }
 
-        fun getExportTableData(
+        /**
+         * Streaming version of the table export used when writing files.
+         * Units are read from the study's property table page by page in the field's sort order,
+         * observations are pivoted per page and categorical values are decoded before the row is handed to the consumer.
+         * @param fieldList the attribute columns to print, pass only the unique name for the short export
+         * @return the number of rows given to the consumer
+         */
+        fun exportTableData(
             context: Context,
-            expId: Int,
-            traits: ArrayList<TraitObject>
-        ): Cursor? = withDatabase { db ->
-            val headers = ObservationUnitAttributeDao.getAllNames(expId)
+            studyId: Int,
+            fieldList: Array<String?>,
+            traits: ArrayList<TraitObject>,
+            consumer: ExportRowConsumer
+        ): Int {
 
-            val selectAttributes = headers.map { attributeName ->
-                "MAX(CASE WHEN attr.observation_unit_attribute_name = '$attributeName' THEN vals.observation_unit_value_name ELSE NULL END) AS \"$attributeName\""
-            }.joinToString(", ")
+            withDatabase { db -> ensurePropertyCache(db, studyId) }
 
-            val selectObservations = traits.map { trait ->
-                val traitName = DataHelper.replaceIdentifiers(trait.name)
-                "MAX(CASE WHEN obs.observation_variable_name='$traitName' THEN obs.value ELSE NULL END) AS \"$traitName\""
-            }.joinToString(", ")
+            return withReadDatabase { db ->
 
-            val combinedSelection = listOf(selectAttributes, selectObservations).filter { it.isNotEmpty() }.joinToString(", ")
+                val categoricalFormats = setOf("categorical", "multicat", "qualitative")
+                val categorical = BooleanArray(traits.size) { traits[it].format in categoricalFormats }
 
-            val orderByClause = getSortOrderClause(context, expId.toString())
-            //                SELECT units.internal_id_observation_unit AS id, $combinedSelection
-            val query = """
-                SELECT $combinedSelection
-                FROM observation_units AS units
-                LEFT JOIN observation_units_values AS vals ON units.internal_id_observation_unit = vals.observation_unit_id
-                LEFT JOIN observation_units_attributes AS attr ON vals.observation_unit_attribute_db_id = attr.internal_id_observation_unit_attribute
-                LEFT JOIN observations AS obs ON units.observation_unit_db_id = obs.observation_unit_id AND obs.study_id = $expId
-                WHERE units.study_id = $expId
-                GROUP BY units.internal_id_observation_unit
-                $orderByClause
-            """.trimIndent()
+                val units = createExportOrder(context, db, studyId)
 
-            Log.d("getExportTableData", "Executing query: $query")
-            db.rawQuery(query, null)
-        }
+                val query = getExportTablePageQuery(studyId, fieldList, traits)
 
-        /**
-         * Same as table export function above, but filters all all attribute columns other than the unique id
-         * (The other attributes need to be retrieved for sorting, but can then be discarded)
-         */
+                Log.d("exportTableData", "Page Query: $query")
 
-        fun getExportTableDataShort(
-            context: Context,
-            expId: Int,
-            uniqueName: String,
-            traits: ArrayList<TraitObject>
-        ): Cursor? {
-            getExportTableData(context, expId, traits)?.use { cursor ->
-                val requiredColumns = arrayOf(uniqueName) + traits.map { it.name }.toTypedArray()
-                val matrixCursor = MatrixCursor(requiredColumns)
+                val attributes = fieldList.size
+                val row = arrayOfNulls<String>(attributes + traits.size)
+                var rows = 0
 
-                while (cursor.moveToNext()) {
-                    val rowData = mutableListOf<String?>()
+                try {
 
-                    val uniqueNameIndex = cursor.getColumnIndex(uniqueName)
-                    if (uniqueNameIndex != -1) {
-                        rowData.add(cursor.getString(uniqueNameIndex))
-                    } else {
-                        rowData.add(null) // or handle appropriately
-                    }
+                    forEachExportPage(db, units, query, arrayOf(studyId.toString())) { cursor ->
+
+                        while (cursor.moveToNext()) {
+
+                            for (i in 0 until attributes) {
+                                row[i] = cursor.getString(i)
+                            }
+
+                            for (i in traits.indices) {
 
-                    traits.forEach { trait ->
-                        val traitIndex = cursor.getColumnIndex(trait.name)
-                        if (traitIndex != -1) {
-                            rowData.add(cursor.getString(traitIndex))
-                        } else {
-                            rowData.add(null) // or handle appropriately
+                                val value = cursor.getString(attributes + i)
+
+                                row[attributes + i] = if (categorical[i] && value != null) {
+                                    try {
+                                        CategoryJsonUtil.flattenMultiCategoryValue(CategoryJsonUtil.decode(value), false)
+                                    } catch (e: Exception) {
+                                        value
+                                    }
+                                } else value
+                            }
+
+                            consumer.accept(row)
+
+                            rows++
                         }
                     }
-                    matrixCursor.addRow(rowData.toTypedArray())
+
+                } finally {
+
+                    dropExportOrder(db)
                 }
-                return matrixCursor
-            }
-            return null
-        }
 
+                rows
+
+            } ?: 0
+        }
 
         /**
          * Same as above but filters by obs unit and trait format
@@ -375,26 +772,24 @@ class ObservationUnitPropertyDao {
             db.rawQuery(query, null)
         }
 
+        /**
+         * Returns the study's property table rows in the user's sort order.
+         * Reads the materialized property table when the study has one, it is built on the import and
+         * switch paths, so this only runs the attribute pivot (read-only) until the background build catches up.
+         */
         fun getSortedObservationUnitData(context: Context, studyId: Int): Cursor? = withDatabase { db ->
-            val headers = ObservationUnitAttributeDao.getAllNames(studyId).filter { it != "geo_coordinates" }
-
-            val selectStatement = headers.map { col ->
-                "MAX(CASE WHEN attr.observation_unit_attribute_name = \"$col\" THEN vals.observation_unit_value_name ELSE NULL END) AS \"$col\""
-            }.joinToString(", ")
 
             val orderByClause = getSortOrderClause(context, studyId.toString())
 
+            val source = if (hasPropertyCache(db, studyId)) getPropertyCacheName(studyId)
+                else "(${getPivotQuery(studyId, getPropertyHeaders(studyId))})"
+
             val query = """
-                SELECT ${if (selectStatement.isNotEmpty()) "$selectStatement, " else ""} units.internal_id_observation_unit AS id, units.geo_coordinates
-                FROM ${ObservationUnit.tableName} AS units
-                LEFT JOIN ${ObservationUnitValue.tableName} AS vals ON units.internal_id_observation_unit = vals.observation_unit_id
-                LEFT JOIN ${ObservationUnitAttribute.tableName} AS attr ON vals.observation_unit_attribute_db_id = attr.internal_id_observation_unit_attribute
-                WHERE units.study_id = $studyId
-                GROUP BY units.internal_id_observation_unit
-                $orderByClause
+                SELECT * FROM $source
+                ${if (orderByClause.isNullOrEmpty()) "ORDER BY id" else "$orderByClause, id"}
             """.trimIndent()
 
-            Log.d("getSortedObsUnitData", "Executing dynamic query: $query")
+            Log.d("getSortedObsUnitData", "Executing query: $query")
             db.rawQuery(query, null)
         }
 
@@ -23,7 +23,9 @@ class ObservationVariableDao {
                 db.queryForMax(
                     ObservationVariable.tableName,
                     select = arrayOf("MAX(position) as result")
-                ).toFirst()["result"].toString().toInt()
+                ).use { cursor ->
+                    if (cursor.moveToFirst()) cursor.stringOrNull(0).toString().toInt() else 0
+                }
 
             } catch (nfe: NumberFormatException) {
 
@@ -38,7 +40,7 @@ class ObservationVariableDao {
             db.query(ObservationVariable.tableName,
 //                    select = arrayOf("observation_variable_name"),
                 where = "internal_id_observation_variable = ?",
-                whereArgs = arrayOf("$id")).toFirst().toTraitObject()
+                whereArgs = arrayOf("$id")).mapFirst(TraitObjectMapper())
 
         }
 
@@ -47,7 +49,7 @@ class ObservationVariableDao {
             db.query(ObservationVariable.tableName,
 //                    select = arrayOf("observation_variable_name"),
                     where = "observation_variable_name = ? COLLATE NOCASE",
-                    whereArgs = arrayOf(name)).toFirst().toTraitObject()
+                    whereArgs = arrayOf(name)).mapFirst(TraitObjectMapper())
 
         }
 
@@ -55,33 +57,8 @@ class ObservationVariableDao {
 
             db.query(ObservationVariable.tableName,
                     where = "external_db_id = ? AND trait_data_source = ? ",
-                    whereArgs = arrayOf(externalDbId, traitDataSource)).toFirst().toTraitObject()
-
-        }
-
-        private fun Map<String, Any?>.toTraitObject() = if (this.isEmpty()) {null} else { TraitObject().also {
-
-            it.id = this[ObservationVariable.PK].toString()
-            it.name = this["observation_variable_name"] as? String ?: ""
-            it.format = this["observation_variable_field_book_format"] as? String ?: ""
-            it.defaultValue = this["default_value"].toString()
-            it.details = this["observation_variable_details"].toString()
-
-            it.realPosition = try {
-
-                 this["position"].toString().toInt()
-
-            } catch (nfe: java.lang.NumberFormatException) {
-
-                //return 0 if the position column is empty or cannot be parsed into an integer
-                0
-            }
+                    whereArgs = arrayOf(externalDbId, traitDataSource)).mapFirst(TraitObjectMapper())
 
-            it.visible = this["visible"].toString() == "true"
-            it.externalDbId = this["external_db_id"].toString()
-            it.traitDataSource = this["trait_data_source"].toString()
-
-        }
         }
 
         /**
@@ -102,10 +79,7 @@ class ObservationVariableDao {
 //            println("$id $parent $trait")
 //            println(query)
 
-                val columnNames =
-                    db.rawQuery(query, arrayOf(id.toString(), traitDbId)).toFirst().keys
-
-            "value" in columnNames
+                db.rawQuery(query, arrayOf(id.toString(), traitDbId)).use { it.moveToFirst() }
 
         } ?: false
 
@@ -113,11 +87,12 @@ class ObservationVariableDao {
 
             db.query(ObservationVariable.tableName,
                     arrayOf(ObservationVariable.PK, "observation_variable_name", "position"),
-                    orderBy = "position").use {
+                    orderBy = "position").use { cursor ->
 
-                it.toTable().map { row ->
-                    row["observation_variable_name"] as String
-                }.toTypedArray()
+                Array(cursor.count) {
+                    cursor.moveToNext()
+                    cursor.getString(1)
+                }
             }
 
         } ?: arrayOf()
@@ -131,11 +106,12 @@ class ObservationVariableDao {
             }
 
             db.query(ObservationVariable.tableName,
-                    arrayOf(queryColumn)).use {
+                    arrayOf(queryColumn)).use { cursor ->
 
-                it.toTable().mapNotNull { row ->
-                    row[queryColumn].toString()
-                }.toTypedArray()
+                Array(cursor.count) {
+                    cursor.moveToNext()
+                    cursor.stringOrNull(0).toString()
+                }
             }
 
         } ?: arrayOf()
@@ -144,7 +120,7 @@ class ObservationVariableDao {
 
             db.query(ObservationVariable.tableName).use {
 
-                (it.toTable().first().keys - setOf("id", "external_db_id", "trait_data_source")).toTypedArray()
+                (it.columnNames.toSet() - setOf("id", "external_db_id", "trait_data_source")).toTypedArray()
             }
 
         } ?: arrayOf()
@@ -205,13 +181,11 @@ class ObservationVariableDao {
 
         fun getById(id: String): ObservationVariableModel? = withDatabase { db ->
 
-            ObservationVariableModel(
-                db.query(
-                    ObservationVariable.tableName,
-                    where = "internal_id_observation_variable = ?",
-                    whereArgs = arrayOf(id)
-                ).toFirst()
-            )
+            db.query(
+                ObservationVariable.tableName,
+                where = "internal_id_observation_variable = ?",
+                whereArgs = arrayOf(id)
+            ).mapFirst(RowMapper(::ObservationVariableModel)) ?: ObservationVariableModel(emptyMap())
         }
 
         fun getAllTraitObjects(sortOrder: String = "internal_id_observation_variable"): ArrayList<TraitObject> = withDatabase { db ->
@@ -226,17 +200,28 @@ class ObservationVariableDao {
             """
 
             db.rawQuery(query, null).use { cursor ->
+
+                val nameIndex = cursor.getColumnIndexOrThrow("observation_variable_name")
+                val formatIndex = cursor.getColumnIndexOrThrow("observation_variable_field_book_format")
+                val defaultValueIndex = cursor.getColumnIndexOrThrow("default_value")
+                val detailsIndex = cursor.getColumnIndexOrThrow("observation_variable_details")
+                val idIndex = cursor.getColumnIndexOrThrow(ObservationVariable.PK)
+                val externalDbIdIndex = cursor.getColumnIndexOrThrow("external_db_id")
+                val positionIndex = cursor.getColumnIndexOrThrow("position")
+                val visibleIndex = cursor.getColumnIndexOrThrow("visible")
+                val additionalInfoIndex = cursor.getColumnIndexOrThrow("additional_info")
+
                 while (cursor.moveToNext()) {
                     val trait = TraitObject().apply {
-                        name = cursor.getString(cursor.getColumnIndexOrThrow("observation_variable_name")) ?: ""
-                        format = cursor.getString(cursor.getColumnIndexOrThrow("observation_variable_field_book_format")) ?: ""
-                        defaultValue = cursor.getString(cursor.getColumnIndexOrThrow("default_value")) ?: ""
-                        details = cursor.getString(cursor.getColumnIndexOrThrow("observation_variable_details")) ?: ""
-                        id = cursor.getInt(cursor.getColumnIndexOrThrow(ObservationVariable.PK)).toString()
-                        externalDbId = cursor.getString(cursor.getColumnIndexOrThrow("external_db_id")) ?: ""
-                        realPosition = cursor.getInt(cursor.getColumnIndexOrThrow("position"))
-                        visible = cursor.getString(cursor.getColumnIndexOrThrow("visible")).toBoolean()
-                        additionalInfo = cursor.getString(cursor.getColumnIndexOrThrow("additional_info")) ?: ""
+                        name = cursor.getString(nameIndex) ?: ""
+                        format = cursor.getString(formatIndex) ?: ""
+                        defaultValue = cursor.getString(defaultValueIndex) ?: ""
+                        details = cursor.getString(detailsIndex) ?: ""
+                        id = cursor.getInt(idIndex).toString()
+                        externalDbId = cursor.getString(externalDbIdIndex) ?: ""
+                        realPosition = cursor.getInt(positionIndex)
+                        visible = cursor.getString(visibleIndex).toBoolean()
+                        additionalInfo = cursor.getString(additionalInfoIndex) ?: ""
 
                         // Initialize these to the empty string or else they will be null
                         maximum = ""
@@ -309,11 +294,17 @@ class ObservationVariableDao {
 
         fun getTraitVisibility(): HashMap<String, String> = withDatabase { db ->
 
-            hashMapOf(*db.query(ObservationVariable.tableName,
-                    select = arrayOf("observation_variable_name", "visible"))
-                    .toTable().map {
-                        it["observation_variable_name"].toString() to it["visible"].toString()
-                    }.toTypedArray())
+            val visibility = hashMapOf<String, String>()
+
+            db.query(ObservationVariable.tableName,
+                    select = arrayOf("observation_variable_name", "visible")).use { cursor ->
+
+                while (cursor.moveToNext()) {
+                    visibility[cursor.stringOrNull(0).toString()] = cursor.stringOrNull(1).toString()
+                }
+            }
+
+            visibility
 
         } ?: hashMapOf()
 
@@ -446,4 +437,49 @@ class ObservationVariableDao {
 //        fun getTraitColumnsAsString() = getAllTraits().joinToString(",")
 
     }
-}
\ No newline at end of file
+}
+
+/**
+ * Maps an observation variable row to a TraitObject.
+ * Nullable text columns keep the "null" string the previous map based conversion produced.
+ */
+private class TraitObjectMapper : CursorMapper<TraitObject>() {
+
+    private var idIndex = -1
+    private var nameIndex = -1
+    private var formatIndex = -1
+    private var defaultValueIndex = -1
+    private var detailsIndex = -1
+    private var positionIndex = -1
+    private var visibleIndex = -1
+    private var externalDbIdIndex = -1
+    private var traitDataSourceIndex = -1
+
+    override fun bind(cursor: Cursor) {
+        idIndex = cursor.getColumnIndex(ObservationVariable.PK)
+        nameIndex = cursor.getColumnIndex("observation_variable_name")
+        formatIndex = cursor.getColumnIndex("observation_variable_field_book_format")
+        defaultValueIndex = cursor.getColumnIndex("default_value")
+        detailsIndex = cursor.getColumnIndex("observation_variable_details")
+        positionIndex = cursor.getColumnIndex("position")
+        visibleIndex = cursor.getColumnIndex("visible")
+        externalDbIdIndex = cursor.getColumnIndex("external_db_id")
+        traitDataSourceIndex = cursor.getColumnIndex("trait_data_source")
+    }
+
+    override fun map(cursor: Cursor): TraitObject = TraitObject().also {
+
+        it.id = cursor.stringOrNull(idIndex).toString()
+        it.name = cursor.stringOrNull(nameIndex) ?: ""
+        it.format = cursor.stringOrNull(formatIndex) ?: ""
+        it.defaultValue = cursor.stringOrNull(defaultValueIndex).toString()
+        it.details = cursor.stringOrNull(detailsIndex).toString()
+
+        //0 if the position column is empty or cannot be parsed into an integer
+        it.realPosition = cursor.stringOrNull(positionIndex)?.toIntOrNull() ?: 0
+
+        it.visible = cursor.stringOrNull(visibleIndex) == "true"
+        it.externalDbId = cursor.stringOrNull(externalDbIdIndex).toString()
+        it.traitDataSource = cursor.stringOrNull(traitDataSourceIndex).toString()
+    }
+}
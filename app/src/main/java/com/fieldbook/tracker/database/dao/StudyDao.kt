@@ -5,7 +5,8 @@ import android.database.sqlite.SQLiteDatabase
 import android.database.sqlite.SQLiteException
 import android.util.Log
 import androidx.core.content.contentValuesOf
-import com.fieldbook.tracker.database.Migrator.Companion.sObservationUnitPropertyViewName
+import com.fieldbook.tracker.database.BrapiImportProgress
+import com.fieldbook.tracker.database.Migrator
 import com.fieldbook.tracker.database.Migrator.Observation
 import com.fieldbook.tracker.database.Migrator.ObservationUnit
 import com.fieldbook.tracker.database.Migrator.ObservationUnitAttribute
@@ -19,6 +20,7 @@ import com.fieldbook.tracker.database.toTable
 import com.fieldbook.tracker.database.withDatabase
 import com.fieldbook.tracker.objects.FieldObject
 import com.fieldbook.tracker.objects.ImportFormat
+import com.fieldbook.tracker.objects.TraitSummary
 import com.fieldbook.tracker.utilities.CategoryJsonUtil
 import java.text.ParseException
 import java.text.SimpleDateFormat
@@ -55,52 +57,19 @@ class StudyDao {
         }
 
         /**
-         * Transpose obs. unit. attribute/values into a view based on the selected study.
-         * On further testing, creating a view here is substantially faster but queries on the
-         * view are ~4x the runtime as using a table.
+         * Selects the study's observation unit properties.
+         * The attribute pivot is materialized once per study (see ObservationUnitPropertyDao),
+         * afterwards switching only recreates the ObservationUnitProperty view over that table.
          */
         fun switchField(exp_id: Int) = withDatabase { db ->
 
-            val headers = ObservationUnitAttributeDao.getAllNames(exp_id).filter { it != "geo_coordinates" }
+            if (!ObservationUnitPropertyDao.hasPropertyCache(db, exp_id)) {
 
-            fixPlotAttributes(db)
-
-            //create a select statement based on the saved plot attribute names
-            val select = headers.map { col ->
-
-                "MAX(CASE WHEN attr.observation_unit_attribute_name = \"$col\" THEN vals.observation_unit_value_name ELSE NULL END) AS \"$col\""
+                fixPlotAttributes(db)
 
             }
 
-            //combine the case statements with commas
-            val selectStatement = if (select.isNotEmpty()) {
-                select.joinToString(", ") + ", "
-            } else ""
-
-            /**
-             * Creating a view here is faster, but
-             * using a table gives better performance for getRangeByIdAndPlot query
-             */
-            val query = """
-            CREATE TABLE IF NOT EXISTS $sObservationUnitPropertyViewName AS 
-            SELECT $selectStatement units.${ObservationUnit.PK} AS id, units.`geo_coordinates` as "geo_coordinates"
-            FROM ${ObservationUnit.tableName} AS units
-            LEFT JOIN ${ObservationUnitValue.tableName} AS vals ON units.${ObservationUnit.PK} = vals.${ObservationUnit.FK}
-            LEFT JOIN ${ObservationUnitAttribute.tableName} AS attr on vals.${ObservationUnitAttribute.FK} = attr.${ObservationUnitAttribute.PK}
-            LEFT JOIN plot_attributes as a on vals.observation_unit_attribute_db_id = a.attribute_id
-            WHERE units.${Study.FK} = $exp_id
-            GROUP BY units.${ObservationUnit.PK}
-        """.trimMargin()
-
-            db.execSQL(query)
-
-//            println("$exp_id $query")
-//
-//            println("New switch field time: ${
-//                measureTimeMillis {
-//                    db.execSQL(query)
-//                }.toLong()
-//            }")
+            ObservationUnitPropertyDao.selectPropertyCache(db, exp_id)
 
         }
 
@@ -109,11 +78,13 @@ class StudyDao {
             try {
 
                 db.rawQuery("PRAGMA foreign_keys=OFF", null)
+                ObservationUnitPropertyDao.dropPropertyCache(db, exp_id)
                 db.delete(ObservationUnit.tableName, "${Study.FK} = ?", arrayOf(exp_id.toString()))
                 db.delete(ObservationUnitValue.tableName, "${Study.FK} = ?", arrayOf(exp_id.toString()))
                 //db.delete(ObservationUnitAttribute.tableName, "${Study.FK} = ?", arrayOf(exp_id.toString()))
                 db.update(Observation.tableName, contentValuesOf(Study.FK to Integer.parseInt("-$exp_id")), "${Study.FK} = ?", arrayOf(exp_id.toString()))
                 db.delete(Study.tableName, "${Study.PK} = ?", arrayOf(exp_id.toString()))
+                BrapiImportProgress.clear(db, exp_id)
                 db.rawQuery("PRAGMA foreign_keys=ON", null)
 
             } catch (e: SQLiteException) {
@@ -188,6 +159,7 @@ class StudyDao {
             it.trait_count = this["trait_count"]?.toString()
             it.observation_count = this["observation_count"]?.toString()
             it.trial_name = this["trial_name"]?.toString()
+            it.isImport_incomplete = this["import_incomplete"]?.toString() == "1"
         }
 
         fun getAllFieldObjects(sortOrder: String): ArrayList<FieldObject> = withDatabase { db ->
@@ -198,10 +170,12 @@ class StudyDao {
             val query = """
                 SELECT 
                     Studies.*,
-                    (SELECT COUNT(*) FROM observation_units_attributes WHERE study_id = Studies.${Study.PK}) AS attribute_count,
-                    (SELECT COUNT(DISTINCT observation_variable_name) FROM observations WHERE study_id = Studies.${Study.PK} AND observation_variable_db_id > 0) AS trait_count,
-                    (SELECT COUNT(*) FROM observations WHERE study_id = Studies.${Study.PK} AND observation_variable_db_id > 0) AS observation_count
+                    IFNULL(Stats.attribute_count, 0) AS attribute_count,
+                    (SELECT COUNT(*) FROM ${Migrator.sStudyTraitStatisticsTableName} WHERE study_id = Studies.${Study.PK}) AS trait_count,
+                    IFNULL(Stats.observation_count, 0) AS observation_count,
+                    EXISTS (SELECT 1 FROM ${BrapiImportProgress.TABLE_NAME} AS Progress WHERE Progress.${Study.FK} = Studies.${Study.PK}) AS import_incomplete
                 FROM ${Study.tableName} AS Studies
+                LEFT JOIN ${Migrator.sStudyStatisticsTableName} AS Stats ON Stats.study_id = Studies.${Study.PK}
                 ORDER BY $sortOrder COLLATE NOCASE ${if (isDateSort) "DESC" else "ASC"}
             """
             db.rawQuery(query, null).use { cursor ->
@@ -238,10 +212,11 @@ class StudyDao {
                     study_sort_name,
                     trial_name,
                     count,
-                    (SELECT COUNT(*) FROM observation_units_attributes WHERE study_id = Studies.${Study.PK}) AS attribute_count,
-                    (SELECT COUNT(DISTINCT observation_variable_name) FROM observations WHERE study_id = Studies.${Study.PK} AND observation_variable_db_id > 0) AS trait_count,
-                    (SELECT COUNT(*) FROM observations WHERE study_id = Studies.${Study.PK} AND observation_variable_db_id > 0) AS observation_count
+                    IFNULL(Stats.attribute_count, 0) AS attribute_count,
+                    (SELECT COUNT(*) FROM ${Migrator.sStudyTraitStatisticsTableName} WHERE study_id = Studies.${Study.PK}) AS trait_count,
+                    IFNULL(Stats.observation_count, 0) AS observation_count
                 FROM ${Study.tableName} AS Studies
+                LEFT JOIN ${Migrator.sStudyStatisticsTableName} AS Stats ON Stats.study_id = Studies.${Study.PK}
                 WHERE ${Study.PK} = ?
                 """
 //            Log.d("StudyDao", "Query is "+query)
@@ -270,59 +245,67 @@ class StudyDao {
          *         val format: String,
          *         val categories: String,
          *         val count: Int,
-         *         val observations: List<String>
+         *         val summary: TraitSummary
          *         val completeness: Float
          * )
+         * Summaries are built from the value frequencies in study_trait_values, categorical values are decoded
+         * once per distinct value.
          */
-
         fun getTraitDetailsForStudy(studyId: Int, sortOrder: String = "internal_id_observation_variable"): List<FieldObject.TraitDetail> {
             return withDatabase { db ->
-                val traitDetails = mutableListOf<FieldObject.TraitDetail>()
 
                 // Sort ascending except for visibility, for visibility sort desc to have visible traits first
                 val orderDirection = if (sortOrder == "visible") "DESC" else "ASC"
 
-                val cursor = db.rawQuery("""
-                    SELECT o.observation_variable_name, o.observation_variable_field_book_format, COUNT(*) as count, GROUP_CONCAT(o.value, '|') as observations,
-                    (SELECT COUNT(DISTINCT observation_unit_id) FROM observations WHERE study_id = ? AND observation_variable_name = o.observation_variable_name) AS distinct_obs_units,
-                    (SELECT COUNT(*) FROM observation_units WHERE study_id = ?) AS total_obs_units,
+                val totalObsUnits = db.rawQuery("SELECT COUNT(*) FROM observation_units WHERE study_id = ?",
+                    arrayOf(studyId.toString())).use { cursor ->
+                    if (cursor.moveToFirst()) cursor.getInt(0) else 0
+                }
+
+                class Trait(val name: String, val format: String?, val categories: String?, val distinctObsUnits: Int) {
+                    val summary = TraitSummary()
+                }
+
+                val traits = LinkedHashMap<Int, Trait>()
+
+                db.rawQuery("""
+                    SELECT ov.internal_id_observation_variable AS id, ov.observation_variable_name, ov.observation_variable_field_book_format,
+                    (SELECT COUNT(DISTINCT observation_unit_id) FROM observations 
+                     WHERE study_id = ? AND observation_variable_db_id = ov.internal_id_observation_variable) AS distinct_obs_units,
                     (SELECT v.observation_variable_attribute_value 
                      FROM observation_variable_values v
                      JOIN observation_variable_attributes a ON v.observation_variable_attribute_db_id = a.internal_id_observation_variable_attribute
-                     WHERE v.observation_variable_db_id = o.observation_variable_db_id AND a.observation_variable_attribute_name = 'category') AS categories
-                    FROM observations o
-                    JOIN observation_variables ov ON o.observation_variable_db_id = ov.internal_id_observation_variable
-                    WHERE o.study_id = ? AND o.observation_variable_db_id > 0
-                    GROUP BY o.observation_variable_name, o.observation_variable_field_book_format
+                     WHERE v.observation_variable_db_id = ov.internal_id_observation_variable AND a.observation_variable_attribute_name = 'category') AS categories
+                    FROM observation_variables ov
+                    WHERE ov.internal_id_observation_variable IN (SELECT observation_variable_db_id FROM ${Migrator.sStudyTraitValuesTableName} WHERE study_id = ?)
                     ORDER BY ov.$sortOrder COLLATE NOCASE $orderDirection
-                """, arrayOf(studyId.toString(), studyId.toString(), studyId.toString()))
+                """, arrayOf(studyId.toString(), studyId.toString())).use { cursor ->
+
+                    while (cursor.moveToNext()) {
+                        traits[cursor.getInt(0)] = Trait(
+                            cursor.getString(1),
+                            cursor.getString(2),
+                            cursor.getString(4),
+                            cursor.getInt(3))
+                    }
+                }
 
-                if (cursor.moveToFirst()) {
-                    do {
-                        val traitName = cursor.getString(cursor.getColumnIndexOrThrow("observation_variable_name"))
-                        val format = cursor.getString(cursor.getColumnIndexOrThrow("observation_variable_field_book_format"))
-                        val count = cursor.getInt(cursor.getColumnIndexOrThrow("count"))
-                        val observationsString = cursor.getString(cursor.getColumnIndexOrThrow("observations"))
-                        val rawObservations = observationsString?.split("|") ?: emptyList()
-                        val observations = rawObservations.map { obs ->
-                            CategoryJsonUtil.processValue(
-                                buildMap {
-                                    put("observation_variable_field_book_format", format)
-                                    put("value", obs)
-                                }
-                            )
-                        }
-                        val distinctObsUnits = cursor.getInt(cursor.getColumnIndexOrThrow("distinct_obs_units"))
-                        val totalObsUnits = cursor.getInt(cursor.getColumnIndexOrThrow("total_obs_units"))
-                        val completeness = distinctObsUnits.toFloat() / totalObsUnits.toFloat()
-                        val categories = cursor.getString(cursor.getColumnIndexOrThrow("categories"))
+                db.rawQuery("""
+                    SELECT observation_variable_db_id, value, observation_count FROM ${Migrator.sStudyTraitValuesTableName} WHERE study_id = ?
+                """, arrayOf(studyId.toString())).use { cursor ->
+
+                    while (cursor.moveToNext()) {
 
-                        traitDetails.add(FieldObject.TraitDetail(traitName, format, categories, count, observations, completeness))
-                    } while (cursor.moveToNext())
+                        val trait = traits[cursor.getInt(0)] ?: continue
+
+                        trait.summary.add(CategoryJsonUtil.processValue(trait.format, cursor.getString(1)), cursor.getInt(2))
+                    }
                 }
 
-                cursor.close()
-                traitDetails
+                traits.values.map { trait ->
+                    FieldObject.TraitDetail(trait.name, trait.format, trait.categories, trait.summary.count, trait.summary,
+                        trait.distinctObsUnits.toFloat() / totalObsUnits.toFloat())
+                }
             } ?: emptyList()
         }
 
@@ -474,10 +457,14 @@ class StudyDao {
                     "observation_unit_value_name" to "NA"
                 ))
             }
+
         }
 
         fun updateImportDate(studyId: Int) = withDatabase { db ->
 
+            //the property table is built once per import, its triggers maintain it afterwards
+            ObservationUnitPropertyDao.ensurePropertyCache(db, studyId)
+
             db.update(Study.tableName, ContentValues().apply {
                 put("count", getCount(studyId))
                 put("date_import", getTime())
@@ -1,29 +1,98 @@
 package com.fieldbook.tracker.database.models
 
 import android.content.Context
+import android.database.Cursor
 import com.fieldbook.tracker.R
+import com.fieldbook.tracker.database.CursorMapper
 import com.fieldbook.tracker.database.Row
 import com.fieldbook.tracker.database.dao.ObservationVariableDao
+import com.fieldbook.tracker.database.intOrDefault
+import com.fieldbook.tracker.database.intOrNull
+import com.fieldbook.tracker.database.stringOrNull
 import com.fieldbook.tracker.objects.TraitObject
 import com.fieldbook.tracker.traits.CategoricalTraitLayout
 import com.fieldbook.tracker.utilities.CategoryJsonUtil.Companion.decode
 
-data class ObservationModel(val map: Row) {
-        val internal_id_observation: Int by map
-        val observation_unit_id: String by map
-        val observation_variable_db_id: Int by map
-        val observation_variable_field_book_format: String? by map
-        val observation_variable_name: String? by map
-        var value: String = if ("value" in map) (map["value"] ?: "NA").toString()
-                        else if ("observation_variable_db_id" in map.keys) ObservationVariableDao.getTraitById(observation_variable_db_id)?.defaultValue ?: "NA"
-                        else "NA"
-        val observation_time_stamp: String? by map
-        val collector: String? by map
-        val geo_coordinates: String? = if (map.containsKey("geoCoordinates")) map["geoCoordinates"]?.toString() else null
-        val study_id: String = (map["study_id"] ?: -1).toString()
-        val last_synced_time: String by map
-        val additional_info: String? by map
-        var rep: String = if (map.containsKey("rep")) map["rep"]?.toString() ?: "1" else "1"
+/**
+ * Observations read by the DAOs are built by [Mapper], straight from the cursor columns, their [map] is only
+ * built from the selected columns when it is asked for. Observations made from a map keep the map they were given,
+ * e.g the partial rows written back by the storage migrations.
+ */
+class ObservationModel private constructor(
+        val internal_id_observation: Int,
+        private val unitId: String?,
+        val observation_variable_db_id: Int,
+        val observation_variable_field_book_format: String?,
+        val observation_variable_name: String?,
+        private val storedValue: String?,
+        var value: String,
+        val observation_time_stamp: String?,
+        val collector: String?,
+        val geo_coordinates: String?,
+        private val studyId: Any?,
+        private val observationDbId: String?,
+        private val lastSyncedTime: String?,
+        val additional_info: String?,
+        private val storedRep: String?,
+        var rep: String,
+        private val notes: String?,
+        private val columns: Array<String>,
+        private val row: Row?
+) {
+
+        constructor(map: Row) : this(
+                internal_id_observation = map.intOrDefault("internal_id_observation", -1),
+                unitId = map.stringOrNull("observation_unit_id"),
+                observation_variable_db_id = map.intOrDefault("observation_variable_db_id", -1),
+                observation_variable_field_book_format = map.stringOrNull("observation_variable_field_book_format"),
+                observation_variable_name = map.stringOrNull("observation_variable_name"),
+                storedValue = map.stringOrNull("value"),
+                value = valueOf(map),
+                observation_time_stamp = map.stringOrNull("observation_time_stamp"),
+                collector = map.stringOrNull("collector"),
+                geo_coordinates = map.stringOrNull("geoCoordinates"),
+                studyId = map["study_id"],
+                observationDbId = map.stringOrNull("observation_db_id"),
+                lastSyncedTime = map.stringOrNull("last_synced_time"),
+                additional_info = map.stringOrNull("additional_info"),
+                storedRep = map.stringOrNull("rep"),
+                rep = map.stringOrNull("rep") ?: "1",
+                notes = map.stringOrNull("notes"),
+                columns = emptyArray(),
+                row = map
+        )
+
+        val observation_unit_id: String get() = unitId ?: ""
+
+        val study_id: String get() = (studyId ?: -1).toString()
+
+        val last_synced_time: String get() = lastSyncedTime ?: ""
+
+        /**
+         * The row as toTable reads it, columns by name with null, Int or String values.
+         */
+        val map: Row get() = row ?: LinkedHashMap<String, Any?>(columns.size * 2).also { cells ->
+                columns.forEach { column -> cells[column] = cell(column) }
+        }
+
+        private fun cell(column: String): Any? = when (column) {
+                "internal_id_observation" -> internal_id_observation
+                "observation_unit_id" -> unitId
+                "study_id" -> studyId
+                "observation_variable_db_id" -> observation_variable_db_id
+                "observation_variable_name" -> observation_variable_name
+                "observation_variable_field_book_format" -> observation_variable_field_book_format
+                "value" -> storedValue
+                "observation_time_stamp" -> observation_time_stamp
+                "collector" -> collector
+                "geoCoordinates" -> geo_coordinates
+                "observation_db_id" -> observationDbId
+                "last_synced_time" -> lastSyncedTime
+                "additional_info" -> additional_info
+                "rep" -> storedRep
+                "notes" -> notes
+                else -> null
+        }
 
         //used during file migration when updating photo/audio values to uris
         fun createMap() = mutableMapOf<String, Any?>(
@@ -31,11 +100,88 @@ data class ObservationModel(val map: Row) {
                 "value" to value,
         )
 
+        /**
+         * Reads observation rows by column index, the indices are resolved once per cursor.
+         */
+        class Mapper : CursorMapper<ObservationModel>() {
+
+                private var columns: Array<String> = emptyArray()
+
+                private var id = -1
+                private var unit = -1
+                private var study = -1
+                private var variable = -1
+                private var variableName = -1
+                private var format = -1
+                private var value = -1
+                private var timestamp = -1
+                private var collector = -1
+                private var coordinates = -1
+                private var dbId = -1
+                private var synced = -1
+                private var info = -1
+                private var rep = -1
+                private var notes = -1
+
+                override fun bind(cursor: Cursor) {
+                        columns = cursor.columnNames
+                        id = cursor.getColumnIndex("internal_id_observation")
+                        unit = cursor.getColumnIndex("observation_unit_id")
+                        study = cursor.getColumnIndex("study_id")
+                        variable = cursor.getColumnIndex("observation_variable_db_id")
+                        variableName = cursor.getColumnIndex("observation_variable_name")
+                        format = cursor.getColumnIndex("observation_variable_field_book_format")
+                        value = cursor.getColumnIndex("value")
+                        timestamp = cursor.getColumnIndex("observation_time_stamp")
+                        collector = cursor.getColumnIndex("collector")
+                        coordinates = cursor.getColumnIndex("geoCoordinates")
+                        dbId = cursor.getColumnIndex("observation_db_id")
+                        synced = cursor.getColumnIndex("last_synced_time")
+                        info = cursor.getColumnIndex("additional_info")
+                        rep = cursor.getColumnIndex("rep")
+                        notes = cursor.getColumnIndex("notes")
+                }
+
+                override fun map(cursor: Cursor): ObservationModel {
+
+                        val storedValue = cursor.stringOrNull(value)
+                        val storedRep = cursor.stringOrNull(rep)
+
+                        return ObservationModel(
+                                internal_id_observation = cursor.intOrDefault(id, -1),
+                                unitId = cursor.stringOrNull(unit),
+                                observation_variable_db_id = cursor.intOrDefault(variable, -1),
+                                observation_variable_field_book_format = cursor.stringOrNull(format),
+                                observation_variable_name = cursor.stringOrNull(variableName),
+                                storedValue = storedValue,
+                                value = storedValue ?: "NA",
+                                observation_time_stamp = cursor.stringOrNull(timestamp),
+                                collector = cursor.stringOrNull(collector),
+                                geo_coordinates = cursor.stringOrNull(coordinates),
+                                studyId = cursor.intOrNull(study),
+                                observationDbId = cursor.stringOrNull(dbId),
+                                lastSyncedTime = cursor.stringOrNull(synced),
+                                additional_info = cursor.stringOrNull(info),
+                                storedRep = storedRep,
+                                rep = storedRep ?: "1",
+                                notes = cursor.stringOrNull(notes),
+                                columns = columns,
+                                row = null
+                        )
+                }
+        }
+
         companion object {
                 fun createInstance(variableDbId: Int, traitName: String) = ObservationModel(mapOf(
                         "observation_variable_db_id" to variableDbId,
                         "observation_variable_name" to traitName
                 ))
+
+                //a row without a value column takes the default value of its trait
+                private fun valueOf(map: Row): String =
+                        if ("value" in map) (map["value"] ?: "NA").toString()
+                        else if ("observation_variable_db_id" in map.keys) ObservationVariableDao.getTraitById(map.intOrDefault("observation_variable_db_id", -1))?.defaultValue ?: "NA"
+                        else "NA"
         }
 
         fun getNonNullAttributes(
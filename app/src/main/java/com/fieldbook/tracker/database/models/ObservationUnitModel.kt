@@ -1,29 +1,145 @@
 package com.fieldbook.tracker.database.models
 
+import android.database.Cursor
 import android.location.Location
+import com.fieldbook.tracker.database.CursorMapper
 import com.fieldbook.tracker.database.Row
+import com.fieldbook.tracker.database.intOrDefault
+import com.fieldbook.tracker.database.stringOrNull
 import com.fieldbook.tracker.utilities.GeoJsonUtil
 import com.google.gson.Gson
 
 /**
  * Plot-level table structure.
+ * Units read by the DAOs are built by [Mapper] from the cursor columns, [map] is built when it is asked for.
  * */
-data class ObservationUnitModel(val map: Row) {
-
-    val internal_id_observation_unit: Int by map //comp. pk 1
-    val study_id: Int by map  //fk to studies table
-    val observation_unit_db_id: String by map //unique id
-    val primary_id: String by map
-    val secondary_id: String by map
-    var geo_coordinates: String? = (map["geo_coordinates"] as? String) ?: "" //blob?
-    val additionalInfo: String? by map //blob, can be replaced with value/attr query?
-    val germplasmDbId: String? by map //brapId ?
-    val germplasmName: String? by map
-    val observationLevel: String? by map
-    val position_coordinate_x: String? by map //x-axis value e.g row=1
-    val positionCoordinateXType: String? by map //x-axis label?
-    val position_coordinate_y: String? by map //y-axis value e.g col=2
-    val positionCoordinateYType: String? by map
+class ObservationUnitModel private constructor(
+    val internal_id_observation_unit: Int, //comp. pk 1
+    val study_id: Int, //fk to studies table
+    private val unitDbId: String?,
+    private val primaryId: String?,
+    private val secondaryId: String?,
+    private val storedCoordinates: String?,
+    val additionalInfo: String?, //blob, can be replaced with value/attr query?
+    val germplasmDbId: String?, //brapId ?
+    val germplasmName: String?,
+    val observationLevel: String?,
+    val position_coordinate_x: String?, //x-axis value e.g row=1
+    val positionCoordinateXType: String?, //x-axis label?
+    val position_coordinate_y: String?, //y-axis value e.g col=2
+    val positionCoordinateYType: String?,
+    private val columns: Array<String>,
+    private val row: Row?
+) {
+
+    constructor(map: Row) : this(
+        internal_id_observation_unit = map.intOrDefault("internal_id_observation_unit", -1),
+        study_id = map.intOrDefault("study_id", -1),
+        unitDbId = map.stringOrNull("observation_unit_db_id"),
+        primaryId = map.stringOrNull("primary_id"),
+        secondaryId = map.stringOrNull("secondary_id"),
+        storedCoordinates = map["geo_coordinates"] as? String,
+        additionalInfo = map.stringOrNull("additional_info"),
+        germplasmDbId = map.stringOrNull("germplasm_db_id"),
+        germplasmName = map.stringOrNull("germplasm_name"),
+        observationLevel = map.stringOrNull("observation_level"),
+        position_coordinate_x = map.stringOrNull("position_coordinate_x"),
+        positionCoordinateXType = map.stringOrNull("position_coordinate_x_type"),
+        position_coordinate_y = map.stringOrNull("position_coordinate_y"),
+        positionCoordinateYType = map.stringOrNull("position_coordinate_y_type"),
+        columns = emptyArray(),
+        row = map
+    )
+
+    val observation_unit_db_id: String get() = unitDbId ?: "" //unique id
+    val primary_id: String get() = primaryId ?: ""
+    val secondary_id: String get() = secondaryId ?: ""
+    var geo_coordinates: String? = storedCoordinates ?: "" //blob?
+
+    /**
+     * The row as toTable reads it, columns by name with null, Int or String values.
+     */
+    val map: Row get() = row ?: LinkedHashMap<String, Any?>(columns.size * 2).also { cells ->
+        columns.forEach { column -> cells[column] = cell(column) }
+    }
+
+    private fun cell(column: String): Any? = when (column) {
+        "internal_id_observation_unit" -> internal_id_observation_unit
+        "study_id" -> study_id
+        "observation_unit_db_id" -> unitDbId
+        "primary_id" -> primaryId
+        "secondary_id" -> secondaryId
+        "geo_coordinates" -> storedCoordinates
+        "additional_info" -> additionalInfo
+        "germplasm_db_id" -> germplasmDbId
+        "germplasm_name" -> germplasmName
+        "observation_level" -> observationLevel
+        "position_coordinate_x" -> position_coordinate_x
+        "position_coordinate_x_type" -> positionCoordinateXType
+        "position_coordinate_y" -> position_coordinate_y
+        "position_coordinate_y_type" -> positionCoordinateYType
+        else -> null
+    }
+
+    /**
+     * Reads unit rows by column index, the indices are resolved once per cursor.
+     */
+    class Mapper : CursorMapper<ObservationUnitModel>() {
+
+        private var columns: Array<String> = emptyArray()
+
+        private var id = -1
+        private var study = -1
+        private var dbId = -1
+        private var primary = -1
+        private var secondary = -1
+        private var coordinates = -1
+        private var info = -1
+        private var germplasmDbId = -1
+        private var germplasmName = -1
+        private var level = -1
+        private var x = -1
+        private var xType = -1
+        private var y = -1
+        private var yType = -1
+
+        override fun bind(cursor: Cursor) {
+            columns = cursor.columnNames
+            id = cursor.getColumnIndex("internal_id_observation_unit")
+            study = cursor.getColumnIndex("study_id")
+            dbId = cursor.getColumnIndex("observation_unit_db_id")
+            primary = cursor.getColumnIndex("primary_id")
+            secondary = cursor.getColumnIndex("secondary_id")
+            coordinates = cursor.getColumnIndex("geo_coordinates")
+            info = cursor.getColumnIndex("additional_info")
+            germplasmDbId = cursor.getColumnIndex("germplasm_db_id")
+            germplasmName = cursor.getColumnIndex("germplasm_name")
+            level = cursor.getColumnIndex("observation_level")
+            x = cursor.getColumnIndex("position_coordinate_x")
+            xType = cursor.getColumnIndex("position_coordinate_x_type")
+            y = cursor.getColumnIndex("position_coordinate_y")
+            yType = cursor.getColumnIndex("position_coordinate_y_type")
+        }
+
+        override fun map(cursor: Cursor) = ObservationUnitModel(
+            internal_id_observation_unit = cursor.intOrDefault(id, -1),
+            study_id = cursor.intOrDefault(study, -1),
+            unitDbId = cursor.stringOrNull(dbId),
+            primaryId = cursor.stringOrNull(primary),
+            secondaryId = cursor.stringOrNull(secondary),
+            storedCoordinates = cursor.stringOrNull(coordinates),
+            additionalInfo = cursor.stringOrNull(info),
+            germplasmDbId = cursor.stringOrNull(germplasmDbId),
+            germplasmName = cursor.stringOrNull(germplasmName),
+            observationLevel = cursor.stringOrNull(level),
+            position_coordinate_x = cursor.stringOrNull(x),
+            positionCoordinateXType = cursor.stringOrNull(xType),
+            position_coordinate_y = cursor.stringOrNull(y),
+            positionCoordinateYType = cursor.stringOrNull(yType),
+            columns = columns,
+            row = null
+        )
+    }
 
     /**
      * Converts the geo_coordinate field to a Location object or null
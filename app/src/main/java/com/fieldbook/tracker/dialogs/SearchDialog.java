@@ -164,8 +164,7 @@ public class SearchDialog extends DialogFragment implements AttributeChooserDial
     }
 
     public void createSearchResultsDialog () {
-        String searchQuery = originActivity.getDatabase().getSearchQuery(originActivity, dataSet);
-        final SearchData[] data = originActivity.getDatabase().getRangeBySql(searchQuery);
+        final SearchData[] data = originActivity.getDatabase().search(dataSet);
 
         if (data != null) {
 
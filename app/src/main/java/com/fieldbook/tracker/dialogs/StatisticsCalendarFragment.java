@@ -21,7 +21,6 @@ import androidx.fragment.app.Fragment;
 import com.fieldbook.tracker.R;
 import com.fieldbook.tracker.activities.StatisticsActivity;
 import com.fieldbook.tracker.database.DataHelper;
-import com.fieldbook.tracker.database.models.ObservationModel;
 import com.kizitonwose.calendar.core.CalendarDay;
 import com.kizitonwose.calendar.core.CalendarMonth;
 import com.kizitonwose.calendar.core.DayPosition;
@@ -36,6 +35,7 @@ import java.time.LocalDate;
 import java.time.YearMonth;
 import java.time.format.DateTimeFormatter;
 import java.time.format.TextStyle;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.HashMap;
 import java.util.List;
@@ -53,7 +53,8 @@ public class StatisticsCalendarFragment extends Fragment implements DateRangePic
     YearMonth firstMonth, lastMonth;
     LocalDate heatMapStartDate, heatMapEndDate;
     Calendar dateSelectorStartRange, dateSelectorEndRange;
-    DateTimeFormatter timeStampFormat;
+    // days with observations in date order
+    private final List<LocalDate> observationDays = new ArrayList<>();
     private static final String TIME_STAMP_PATTERN = "yyyy-MM-dd HH:mm:ss.SSSZZZZZ";
     private static final String MONTH_HEADER_PATTERN = "MMMM yyyy";
     private static final int THRESHOLD_LOW = 1;
@@ -65,7 +66,6 @@ public class StatisticsCalendarFragment extends Fragment implements DateRangePic
         this.dateToggle = 0;
         this.dateSelectorStartRange = Calendar.getInstance();
         this.dateSelectorEndRange = Calendar.getInstance();
-        this.timeStampFormat = DateTimeFormatter.ofPattern(TIME_STAMP_PATTERN);
     }
 
     @Nullable
@@ -191,15 +191,22 @@ public class StatisticsCalendarFragment extends Fragment implements DateRangePic
     }
 
     /**
-     * Calculates the number of observations collected on each day
+     * Reads the number of observations collected on each day from the daily rollup
      */
     private Map<LocalDate, Integer> getObservationCount() {
-        ObservationModel[] observations = database.getAllObservations();
 
         Map<LocalDate, Integer> observationCount = new HashMap<>();
 
+        observationDays.clear();
+
+        for (Map.Entry<String, Integer> entry : database.getDailyObservationCounts().entrySet()) {
+            LocalDate date = LocalDate.parse(entry.getKey());
+            observationDays.add(date);
+            observationCount.put(date, entry.getValue());
+        }
+
         // Sets the heatmap date range when the page loads for the first time
-        heatMapStartDate = LocalDate.parse(observations[0].getObservation_time_stamp(), timeStampFormat);
+        heatMapStartDate = observationDays.isEmpty() ? LocalDate.now() : observationDays.get(0);
         heatMapEndDate = LocalDate.now();
 
         setFirstAndLastDates();
@@ -207,17 +214,16 @@ public class StatisticsCalendarFragment extends Fragment implements DateRangePic
         SimpleDateFormat sdf = new SimpleDateFormat(TIME_STAMP_PATTERN, Locale.getDefault());
 
         // Sets the limits for the date range selection calendar
-        try {
-            dateSelectorStartRange.setTime(sdf.parse(observations[0].getObservation_time_stamp()));
-            dateSelectorEndRange.setTime(sdf.parse(observations[observations.length - 1].getObservation_time_stamp()));
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+        kotlin.Pair<String, String> timeStampRange = database.getObservationTimeStampRange();
+        if (timeStampRange != null) {
+            try {
+                dateSelectorStartRange.setTime(sdf.parse(timeStampRange.getFirst()));
+                dateSelectorEndRange.setTime(sdf.parse(timeStampRange.getSecond()));
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
         }
 
-        for (ObservationModel observation : observations) {
-            LocalDate date = LocalDate.parse(observation.getObservation_time_stamp(), timeStampFormat);
-            observationCount.put(date, observationCount.getOrDefault(date, 0) + 1);
-        }
         return observationCount;
     }
 
@@ -235,19 +241,15 @@ public class StatisticsCalendarFragment extends Fragment implements DateRangePic
      */
     public void setFirstAndLastDates() {
 
-        ObservationModel[] observations = database.getAllObservations();
-
-        for (ObservationModel observation : observations) {
-            LocalDate date = LocalDate.parse(observation.getObservation_time_stamp(), timeStampFormat);
+        for (LocalDate date : observationDays) {
             if (date.isEqual(heatMapStartDate) || (date.isAfter(heatMapStartDate) && date.isBefore(heatMapEndDate))) {
                 firstMonth = YearMonth.from(date);
                 break;
             }
         }
 
-        for (int i = observations.length - 1; i >= 0; i--) {
-            ObservationModel observation = observations[i];
-            LocalDate date = LocalDate.parse(observation.getObservation_time_stamp(), timeStampFormat);
+        for (int i = observationDays.size() - 1; i >= 0; i--) {
+            LocalDate date = observationDays.get(i);
             if (date.isEqual(heatMapEndDate) || (date.isAfter(heatMapStartDate) && date.isBefore(heatMapEndDate))) {
                 lastMonth = YearMonth.from(date);
                 break;
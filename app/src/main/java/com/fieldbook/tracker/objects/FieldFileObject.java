@@ -1,9 +1,5 @@
 package com.fieldbook.tracker.objects;
 
-import static org.apache.poi.ss.usermodel.Cell.CELL_TYPE_BOOLEAN;
-import static org.apache.poi.ss.usermodel.Cell.CELL_TYPE_NUMERIC;
-import static org.apache.poi.ss.usermodel.Cell.CELL_TYPE_STRING;
-
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
@@ -12,29 +8,19 @@ import android.provider.OpenableColumns;
 import androidx.annotation.Nullable;
 
 import com.fieldbook.tracker.utilities.CSVReader;
-
-import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.ss.usermodel.DataFormatter;
-import org.apache.poi.ss.usermodel.FormulaEvaluator;
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.xssf.usermodel.XSSFCell;
-import org.apache.poi.xssf.usermodel.XSSFFormulaEvaluator;
-import org.apache.poi.xssf.usermodel.XSSFRow;
-import org.apache.poi.xssf.usermodel.XSSFSheet;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import com.fieldbook.tracker.utilities.XlsxRowReader;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.UUID;
 
+import jxl.Cell;
+import jxl.Sheet;
 import jxl.Workbook;
 import jxl.WorkbookSettings;
+import jxl.read.biff.BiffException;
 
-//TODO when merged with xlsx edit getColumnSet
 public class FieldFileObject {
     public static FieldFileBase create(final Context ctx, final Uri path,
                                        final InputStream inputStream, @Nullable String cloudName) {
@@ -76,7 +62,6 @@ public class FieldFileObject {
 
     public abstract static class FieldFileBase {
         boolean openFail;
-        boolean specialCharactersFail;
         private final Uri path_;
         private final Context ctx;
 
@@ -86,7 +71,6 @@ public class FieldFileObject {
             this.ctx = ctx;
             path_ = path;
             openFail = false;
-            specialCharactersFail = false;
         }
 
         public final InputStream getInputStream() {
@@ -155,10 +139,6 @@ public class FieldFileObject {
             }
         }
 
-        public final boolean hasSpecialCharacters() {
-            return specialCharactersFail;
-        }
-
         public FieldObject createFieldObject() {
             FieldObject f = new FieldObject();
             if (name == null) {
@@ -191,10 +171,6 @@ public class FieldFileObject {
 
         abstract public String[] getColumns();
 
-        // return {column name: column name}
-        // if columns are duplicated, return an empty HshMap
-        abstract public HashMap<String, String> getColumnSet(int idColPosition);
-
         // read file
         abstract public void open();
 
@@ -234,41 +210,6 @@ public class FieldFileObject {
             }
         }
 
-        public HashMap<String, String> getColumnSet(int idColPosition) {
-            try {
-                openFail = false;
-                HashMap<String, String> check = new HashMap<>();
-                InputStreamReader isr = new InputStreamReader(super.getInputStream());
-                CSVReader cr = new CSVReader(isr);
-                String[] columns = cr.readNext();
-
-                while (columns != null) {
-                    columns = cr.readNext();
-
-                    if (columns != null) {
-                        String unique = columns[idColPosition];
-                        if (!unique.isEmpty()) {
-                            if (check.containsKey(unique)) {
-                                cr.close();
-                                return new HashMap<>();
-                            } else {
-                                check.put(unique, unique);
-                            }
-
-                            if (unique.contains("/") || unique.contains("\\")) {
-                                specialCharactersFail = true;
-                            }
-                        }
-                    }
-                }
-                return check;
-            } catch (Exception n) {
-                openFail = true;
-                n.printStackTrace();
-                return new HashMap<>();
-            }
-        }
-
         public void open() {
             try {
                 openFail = false;
@@ -300,8 +241,15 @@ public class FieldFileObject {
         }
     }
 
+    /**
+     * Reads the first sheet of an xls workbook.
+     * jxl has no event reader, but the file is at most 65536 rows, so the workbook is read once
+     * without drawings and document properties, and rows are copied out one at a time.
+     */
     public static class FieldFileExcel extends FieldFileBase {
         private Workbook wb;
+        private Sheet sheet;
+        private int columns;
         private int current_row;
 
         FieldFileExcel(final Context ctx, final Uri path) {
@@ -320,91 +268,92 @@ public class FieldFileObject {
             return false;
         }
 
-        public String[] getColumns() {
-            try {
-                openFail = false;
-                WorkbookSettings wbSettings = new WorkbookSettings();
-                wbSettings.setUseTemporaryFileDuringWrite(true);
+        private void load() throws IOException, BiffException {
 
-                InputStream is = super.getInputStream();
-                if (is != null) {
-                    wb = Workbook.getWorkbook(super.getInputStream(), wbSettings);
-                    String[] importColumns = new String[wb.getSheet(0).getColumns()];
+            if (wb != null) return;
 
-                    for (int s = 0; s < wb.getSheet(0).getColumns(); s++) {
-                        importColumns[s] = wb.getSheet(0).getCell(s, 0).getContents();
-                    }
-                    return importColumns;
-                }
+            WorkbookSettings wbSettings = new WorkbookSettings();
+            wbSettings.setDrawingsDisabled(true);
+            wbSettings.setPropertySets(false);
+
+            try (InputStream is = super.getInputStream()) {
+
+                if (is == null) throw new IOException("Cannot open " + getStringPath());
+
+                wb = Workbook.getWorkbook(is, wbSettings);
+            }
+
+            sheet = wb.getSheet(0);
+            columns = sheet.getColumns();
+        }
 
+        public String[] getColumns() {
+            try {
+                openFail = false;
+                load();
+                return readRow(0);
             } catch (Exception ignore) {
                 openFail = true;
                 return new String[0];
             }
-
-            return new String[0];
         }
 
-        public HashMap<String, String> getColumnSet(int idColPosition) {
-            HashMap<String, String> check = new HashMap<>();
+        public void open() {
+            try {
+                openFail = false;
+                load();
+            } catch (Exception e) {
+                openFail = true;
+                e.printStackTrace();
+            }
+            current_row = 0;
+        }
 
-            for (int s = 0; s < wb.getSheet(0).getRows(); s++) {
-                String value = wb.getSheet(0).getCell(idColPosition, s).getContents();
+        private String[] readRow(int row) {
 
-                if (!value.isEmpty()) {
-                    if (check.containsKey(value)) {
-                        return new HashMap<>();
-                    } else {
-                        check.put(value, value);
-                    }
+            Cell[] cells = sheet.getRow(row);
 
-                    if (value.contains("/") || value.contains("\\")) {
-                        specialCharactersFail = true;
-                    }
-                }
+            String[] data = new String[columns];
+            for (int s = 0; s < columns; s++) {
+                data[s] = s < cells.length ? cells[s].getContents() : "";
             }
-            return check;
-        }
 
-        public void open() {
-            current_row = 0;
+            return data;
         }
 
         public String[] readNext() {
-            if (current_row >= wb.getSheet(0).getRows()) {
+            if (sheet == null || current_row >= sheet.getRows()) {
                 return null;
             }
 
-            String[] data = new String[wb.getSheet(0).getColumns()];
-            for (int s = 0; s < wb.getSheet(0).getColumns(); s++) {
-                data[s] = wb.getSheet(0).getCell(s, current_row).getContents();
-            }
-            current_row += 1;
-            return data;
+            return readRow(current_row++);
         }
 
         public void close() {
-            try {
-                if (wb != null) {
-                    wb.close();
-                }
-                if (super.getInputStream() != null) {
-                    super.getInputStream().close();
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
+            if (wb != null) {
+                wb.close();
+                wb = null;
+                sheet = null;
             }
         }
     }
 
+    /**
+     * Streams the rows of the first sheet of an xlsx workbook, see {@link XlsxRowReader}.
+     */
     public static class FieldFileXlsx extends FieldFileBase {
-        private XSSFWorkbook wb;
-        private int currentRow;
+        private final XlsxRowReader reader = new XlsxRowReader(this::openStream);
 
         FieldFileXlsx(final Context ctx, final Uri path) {
             super(ctx, path);
         }
 
+        private InputStream openStream() throws IOException {
+            InputStream is = super.getInputStream();
+            if (is == null) throw new IOException("Cannot open " + getStringPath());
+            return is;
+        }
+
         @Override
         public boolean isCSV() {
             return false;
@@ -425,158 +374,57 @@ public class FieldFileObject {
 
             try {
 
-                if (super.getInputStream() != null) {
-
-                    wb = new XSSFWorkbook(super.getInputStream());
-
-                    XSSFSheet sheet = wb.getSheetAt(0);
-
-                    XSSFRow headerRow = sheet.getRow(0);
-
-                    ArrayList<String> columns = new ArrayList<>();
-
-                    for (Iterator<Cell> it = headerRow.cellIterator(); it.hasNext();) {
-                        XSSFCell cell = (XSSFCell) it.next();
+                openFail = false;
 
-                        columns.add(cell.getStringCellValue());
+                reader.open();
 
-                    }
+                String[] columns = reader.readNext();
 
-                    return columns.toArray(new String[] {});
-                }
+                return columns == null ? new String[0] : columns;
 
             } catch (IOException format) {
 
-                format.printStackTrace();
-
-            }
-
-            return new String[0];
-        }
-
-        public HashMap<String, String> getColumnSet(int idColPosition) {
-            HashMap<String, String> check = new HashMap<>();
-
-            XSSFSheet sheet = wb.getSheetAt(0);
-
-            for (Iterator<Row> it = sheet.rowIterator(); it.hasNext(); ) {
-                XSSFRow row = (XSSFRow) it.next();
-
-                String value = getCellStringValue(row.getCell(idColPosition));
+                openFail = true;
 
-                if (check.containsKey(value)) {
-                    return new HashMap<>();
-                } else {
-                    check.put(value, value);
-                }
+                format.printStackTrace();
 
-                if (value.contains("/") || value.contains("\\")) {
-                    specialCharactersFail = true;
-                }
+            } finally {
 
+                close();
             }
 
-            return check;
+            return new String[0];
         }
 
         public void open() {
-            currentRow = 0;
+            try {
+                openFail = false;
+                reader.open();
+            } catch (IOException e) {
+                openFail = true;
+                e.printStackTrace();
+            }
         }
 
         public String[] readNext() {
-
-            DataFormatter fmt = new DataFormatter();
-            XSSFSheet sheet = wb.getSheetAt(0);
-            XSSFFormulaEvaluator evaluator = wb.getCreationHelper().createFormulaEvaluator();
-
-            if (currentRow >= sheet.getPhysicalNumberOfRows()) {
+            try {
+                return reader.readNext();
+            } catch (IOException e) {
+                openFail = true;
+                e.printStackTrace();
                 return null;
             }
-
-            XSSFRow row = sheet.getRow(currentRow);
-            ArrayList<String> data = new ArrayList<>();
-
-            int maxColumns = sheet.getRow(0).getLastCellNum(); // Get total number of columns from header
-
-            for (int colIdx = 0; colIdx < maxColumns; colIdx++) {
-                XSSFCell cell = (row == null) ? null : row.getCell(colIdx);
-
-                if (cell != null) {
-                    if (cell.getCellType() == Cell.CELL_TYPE_FORMULA) {//formula
-                        int type = evaluator.evaluateFormulaCell(cell);
-                        switch (type) {
-                            case CELL_TYPE_BOOLEAN:
-                                data.add(String.valueOf(cell.getBooleanCellValue()));
-                                break;
-                            case CELL_TYPE_NUMERIC:
-                                data.add(String.valueOf(cell.getNumericCellValue()));
-                                break;
-                            default:
-                                data.add(cell.getStringCellValue());
-                                break;
-                        }
-                    } else {
-                        data.add(fmt.formatCellValue(cell));
-                    }
-                } else {
-                    data.add(""); // Add empty string for missing/empty cells
-                }
-            }
-
-            currentRow += 1;
-            return data.toArray(new String[] {});
         }
 
         public void close() {
             try {
-                if (wb != null) {
-                    wb.close();
-                }
-                if (super.getInputStream() != null) {
-                    super.getInputStream().close();
-                }
+                reader.close();
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
     }
 
-    /**
-     * Helper function that reads the cell value and parses to string from xlsx sheets.
-     * @param cell the xssf cell object
-     * @return attempt to parse the string value of the cell
-     */
-    private static String getCellStringValue(XSSFCell cell) {
-
-        if (cell == null) return "";
-
-        FormulaEvaluator evaluator = cell.getSheet().getWorkbook().getCreationHelper().createFormulaEvaluator();
-
-        switch (cell.getCellType()) {
-            case 0: { //numeric
-                return String.valueOf(cell.getNumericCellValue());
-            }
-            case 1: { //text
-                return cell.getStringCellValue();
-            }
-            case Cell.CELL_TYPE_FORMULA: { //formula
-                switch (evaluator.evaluateFormulaCell(cell)) {
-                    case CELL_TYPE_BOOLEAN:
-                        return String.valueOf(cell.getBooleanCellValue());
-                    case CELL_TYPE_NUMERIC:
-                        return String.valueOf(cell.getNumericCellValue());
-                    case CELL_TYPE_STRING:
-                        return cell.getStringCellValue();
-                }
-            }
-            case 3: { //boolean
-                return String.valueOf(cell.getBooleanCellValue());
-            }
-            default:
-                return "";
-        }
-    }
-
     public static class FieldFileOther extends FieldFileBase {
         FieldFileOther(final Context ctx, final Uri path) {
             super(ctx, path);
@@ -598,10 +446,6 @@ public class FieldFileObject {
             return new String[0];
         }
 
-        public HashMap<String, String> getColumnSet(int idColPosition) {
-            return new HashMap<>();
-        }
-
         public void open() {
         }
 
@@ -29,6 +29,7 @@ public class FieldObject {
     private String trait_count;
     private String observation_count;
     private String trial_name;
+    private boolean import_incomplete;
 
     public String getTrial_name() {
         return trial_name;
@@ -43,15 +44,15 @@ public class FieldObject {
         private final String format;
         private String categories;
         private final int count;
-        private final List<String> observations;
+        private final TraitSummary summary;
         private final float completeness;  // Add this line
 
-        public TraitDetail(String traitName, String format, String categories, int count, List<String> observations, float completeness) {
+        public TraitDetail(String traitName, String format, String categories, int count, TraitSummary summary, float completeness) {
             this.traitName = traitName;
             this.format = format;
             this.categories = categories;
             this.count = count;
-            this.observations = observations;
+            this.summary = summary;
             this.completeness = completeness;  // Add this line
         }
 
@@ -62,7 +63,7 @@ public class FieldObject {
             return categories;
         }
         public int getCount() { return count; }
-        public List<String> getObservations() { return observations; }
+        public TraitSummary getSummary() { return summary; }
         public float getCompleteness() { return completeness; }  // Add this line
     }
 
@@ -242,4 +243,15 @@ public class FieldObject {
     public void setObservation_count(String observation_count) {
         this.observation_count = observation_count;
     }
+
+    /**
+     * True while a paged BrAPI import of the field has pages left to save.
+     */
+    public boolean isImport_incomplete() {
+        return import_incomplete;
+    }
+
+    public void setImport_incomplete(boolean import_incomplete) {
+        this.import_incomplete = import_incomplete;
+    }
 }
\ No newline at end of file
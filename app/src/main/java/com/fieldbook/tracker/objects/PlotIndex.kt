@@ -0,0 +1,92 @@
+package com.fieldbook.tracker.objects
+
+/**
+ * Navigation index of the current field: the observation unit ids in the study's sort order together with
+ * the primary, secondary and unique names shown in the range box.
+ *
+ * Loaded once per field switch (see ObservationUnitPropertyDao.getPlotIndex) so moving between plots
+ * is an array lookup. The range box rebuilds it whenever it reloads its ids (imports, sort changes, field switches).
+ * Positions are zero-based, the range box's paging is one-based.
+ * Primary and secondary names repeat across many plots and are shared, not copied per plot.
+ */
+class PlotIndex(
+    private val ids: IntArray,
+    private val primary: Array<String>,
+    private val secondary: Array<String>,
+    private val unique: Array<String>
+) {
+
+    companion object {
+
+        @JvmField
+        val EMPTY = PlotIndex(IntArray(0), emptyArray(), emptyArray(), emptyArray())
+    }
+
+    //ids in ascending order and the position of each, for id to position lookups
+    private val sortedIds: IntArray
+    private val sortedPositions: IntArray
+
+    init {
+
+        require(primary.size == ids.size && secondary.size == ids.size && unique.size == ids.size)
+
+        sortedPositions = ids.indices.sortedBy { ids[it] }.toIntArray()
+        sortedIds = IntArray(ids.size) { ids[sortedPositions[it]] }
+    }
+
+    val size: Int get() = ids.size
+
+    fun isEmpty() = ids.isEmpty()
+
+    fun idAt(position: Int) = ids[position]
+
+    /**
+     * The ids in navigation order, callers must not modify the array.
+     */
+    fun ids(): IntArray = ids
+
+    /**
+     * @return the position of the observation unit id, or -1 if it is not part of the field
+     */
+    fun positionOf(id: Int): Int {
+
+        val index = sortedIds.binarySearch(id)
+
+        return if (index < 0) -1 else sortedPositions[index]
+    }
+
+    //name lookups for the move to commands, built on the first search of this field
+    private val uniquePositions by lazy { firstPositions { unique[it] } }
+    private val primaryPositions by lazy { firstPositions { primary[it] } }
+    private val secondaryPositions by lazy { firstPositions { secondary[it] } }
+    private val pairPositions by lazy { firstPositions { pairKey(primary[it], secondary[it]) } }
+
+    //maps each key to its first position, the plot a front to back scan would stop at
+    private fun firstPositions(key: (Int) -> String): Map<String, Int> =
+        HashMap<String, Int>(ids.size * 2).also { positions ->
+            for (position in ids.indices) {
+                positions.putIfAbsent(key(position), position)
+            }
+        }
+
+    private fun pairKey(primaryName: String, secondaryName: String) = "$primaryName\u0000$secondaryName"
+
+    /**
+     * Lookups return the first position with the given name(s), or -1 if there is none.
+     */
+    fun findUnique(name: String?): Int = name?.let { uniquePositions[it] } ?: -1
+
+    fun findPrimary(name: String?): Int = name?.let { primaryPositions[it] } ?: -1
+
+    fun findSecondary(name: String?): Int = name?.let { secondaryPositions[it] } ?: -1
+
+    fun findPair(primaryName: String?, secondaryName: String?): Int =
+        if (primaryName == null || secondaryName == null) -1
+        else pairPositions[pairKey(primaryName, secondaryName)] ?: -1
+
+    fun rangeAt(position: Int) = RangeObject().apply {
+        range = primary[position]
+        plot = secondary[position]
+        plot_id = unique[position]
+    }
+}
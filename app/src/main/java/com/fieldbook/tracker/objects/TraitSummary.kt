@@ -0,0 +1,92 @@
+package com.fieldbook.tracker.objects
+
+import java.math.BigDecimal
+
+/**
+ * Summary of a trait's observations in one study, built from the value frequencies the database keeps
+ * (see Migrator.sStudyTraitValuesTableName) so each distinct value is processed once, not once per observation.
+ *
+ * Empty and NA values are counted but are not part of the frequencies or the numeric statistics.
+ * The numeric statistics are only available while every other value parses as a number.
+ */
+class TraitSummary {
+
+    /**
+     * Number of observations, including empty and NA values.
+     */
+    var count = 0
+        private set
+
+    private val values = LinkedHashMap<String, Int>()
+
+    //numeric view of values, dropped with the first value that is not a number
+    private var numeric: LinkedHashMap<BigDecimal, Int>? = LinkedHashMap()
+    private var sum = 0.0
+    private var sumOfSquares = 0.0
+
+    var min: BigDecimal? = null
+        private set
+
+    var max: BigDecimal? = null
+        private set
+
+    /**
+     * @param value the observed value, categorical values already decoded
+     * @param observations how often it was observed
+     */
+    fun add(value: String?, observations: Int) {
+
+        count += observations
+
+        if (value.isNullOrEmpty() || value == "NA") return
+
+        values[value] = (values[value] ?: 0) + observations
+
+        numeric?.let { numbers ->
+
+            val number = value.toBigDecimalOrNull()
+
+            if (number == null) {
+
+                numeric = null
+
+            } else {
+
+                numbers[number] = (numbers[number] ?: 0) + observations
+
+                val double = number.toDouble()
+                sum += double * observations
+                sumOfSquares += double * double * observations
+
+                if (min?.let { number < it } != false) min = number
+                if (max?.let { number > it } != false) max = number
+            }
+        }
+    }
+
+    /**
+     * Observations per value, in the order values were added.
+     */
+    val frequencies: Map<String, Int> get() = values
+
+    /**
+     * Observations per numeric value, or null if a value is not a number.
+     */
+    val numericFrequencies: Map<BigDecimal, Int>? get() = numeric?.takeIf { values.isNotEmpty() }
+
+    private val numericCount get() = numeric?.values?.sum() ?: 0
+
+    val mean: Double? get() = numericCount.takeIf { numericFrequencies != null && it > 0 }?.let { sum / it }
+
+    /**
+     * Sample variance of the numeric values, null with fewer than two.
+     */
+    val variance: Double? get() {
+
+        val n = numericCount
+
+        if (numericFrequencies == null || n < 2) return null
+
+        return ((sumOfSquares - sum * sum / n) / (n - 1)).coerceAtLeast(0.0)
+    }
+}
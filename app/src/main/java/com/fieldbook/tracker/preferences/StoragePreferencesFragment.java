@@ -311,7 +311,6 @@ public class StoragePreferencesFragment extends PreferenceFragmentCompat impleme
 
         @Override
         protected Integer doInBackground(Integer... params) {
-            String dbPath = DataHelper.getDatabasePath(context);
             DocumentFile databaseDir = BaseDocumentTreeUtil.Companion.getDirectory(context, R.string.dir_database);
             if (databaseDir != null && databaseDir.exists()) {
                 DocumentFile zipFile = databaseDir.createFile("*/*", exportFileString + ".zip");
@@ -325,9 +324,12 @@ public class StoragePreferencesFragment extends PreferenceFragmentCompat impleme
                         objectStream.writeObject(preferences.getAll());
                         objectStream.close();
                         if (tempStream != null) tempStream.close();
+                        //the live file may still have commits in its write-ahead log, zip a snapshot instead
+                        File snapshot = database.createSnapshot(tempName);
                         ZipUtil.Companion.zip(context,
-                                new DocumentFile[]{DocumentFile.fromFile(new File(dbPath)), tempOutput},
+                                new DocumentFile[]{DocumentFile.fromFile(snapshot), tempOutput},
                                 zipOutput);
+                        snapshot.delete();
                         FileUtil.shareFile(context, preferences, zipFile);
                         if (tempOutput != null && !tempOutput.delete()) {
                             throw new IOException();
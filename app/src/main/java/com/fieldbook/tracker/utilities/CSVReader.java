@@ -1,165 +1,212 @@
 package com.fieldbook.tracker.utilities;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.Reader;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * Custom CSV Reading Class
- * No changes in V2
+ * V3 - RFC 4180 parser that scans a char buffer instead of reading line strings.
+ * Unquoted fields are copied from the buffer in one append, quoted fields may contain separators,
+ * doubled quotes and line breaks (which are read as \n). Quotes inside an unquoted field are kept as text.
+ * The field builder and token array are reused between rows.
  */
 public class CSVReader {
 
     private static final char DEFAULT_SEPARATOR = ',';
     private static final char DEFAULT_QUOTE_CHARACTER = '"';
-    private static final int DEFAULT_SKIP_LINES = 0;
-    private BufferedReader br;
-    private boolean hasNext = true;
-    private char separator;
-    private char quotechar;
-    private int skipLines;
-    private boolean linesSkiped;
+    private static final char UTF8_BOM = '\uFEFF';
+
+    /**
+     * Size in chars of the read buffer.
+     */
+    public static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Reader reader;
+    private final char separator;
+    private final char quotechar;
+
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int position = 0;
+    private int limit = 0;
+
+    private final StringBuilder field = new StringBuilder(64);
+    private String[] tokens = new String[16];
+    private int count;
 
     private boolean firstLineRead = false;
-    private static final String UTF8_BOM = "\uFEFF";
 
     public CSVReader(Reader reader) {
-        this(reader, DEFAULT_SEPARATOR, DEFAULT_QUOTE_CHARACTER,
-                DEFAULT_SKIP_LINES);
+        this(reader, DEFAULT_SEPARATOR, DEFAULT_QUOTE_CHARACTER);
     }
 
-    private CSVReader(Reader reader, char separator, char quotechar, int line) {
-        this.br = new BufferedReader(reader);
+    private CSVReader(Reader reader, char separator, char quotechar) {
+        this.reader = reader;
         this.separator = separator;
         this.quotechar = quotechar;
-        this.skipLines = line;
     }
 
+    /**
+     * Reads the next row.
+     * @return the row's fields, an empty line is one empty field, or null at the end of the file
+     */
     public String[] readNext() throws IOException {
 
-        String nextLine = getNextLine();
+        if (!available()) {
+            return null;
+        }
 
         if (!firstLineRead) {
 
             firstLineRead = true;
 
-            if (nextLine != null && nextLine.startsWith(UTF8_BOM)) {
+            if (buffer[position] == UTF8_BOM) {
 
-                nextLine = nextLine.substring(1);
+                position++;
 
             }
         }
-        return parseLine(nextLine);
+
+        count = 0;
+
+        boolean endOfLine;
+
+        do {
+
+            field.setLength(0);
+
+            if (available() && buffer[position] == quotechar) {
+                position++;
+                endOfLine = readQuoted();
+            } else {
+                endOfLine = readUnquoted();
+            }
+
+            if (count == tokens.length) {
+                tokens = Arrays.copyOf(tokens, count * 2);
+            }
+
+            tokens[count++] = field.toString();
+
+        } while (!endOfLine);
+
+        return Arrays.copyOf(tokens, count);
     }
 
     /**
-     * Reads the next line from the file.
+     * Makes sure the buffer has an unread char.
+     * @return false at the end of the input
      */
-    private String getNextLine() throws IOException {
-        if (!this.linesSkiped) {
-            for (int i = 0; i < skipLines; i++) {
-                br.readLine();
+    private boolean available() throws IOException {
+
+        while (position == limit) {
+
+            limit = reader.read(buffer, 0, buffer.length);
+            position = 0;
+
+            if (limit < 0) {
+                limit = 0;
+                return false;
             }
-            this.linesSkiped = true;
-        }
-        String nextLine = br.readLine();
-        if (nextLine == null) {
-            hasNext = false;
         }
-        return hasNext ? nextLine : null;
+
+        return true;
     }
 
     /**
-     * Parses an incoming String and returns an array of elements.
+     * Appends the field up to the next separator or line end, which are consumed.
+     * @return true if the field ended the row
      */
-    private String[] parseLine(String nextLine) throws IOException {
+    private boolean readUnquoted() throws IOException {
 
-        if (nextLine == null) {
-            return null;
-        }
+        while (available()) {
 
-        List<String> tokensOnThisLine = new ArrayList<>();
-        StringBuffer sb = new StringBuffer();
-        boolean inQuotes = false;
+            int start = position;
 
-        do {
-            if (inQuotes) {
-                // continuing a quoted section, reappend newline
-                sb.append("\n");
-                nextLine = getNextLine();
-                if (nextLine == null)
-                    break;
+            while (position < limit) {
+
+                char c = buffer[position];
+
+                if (c == separator) {
+                    field.append(buffer, start, position - start);
+                    position++;
+                    return false;
+                }
+
+                if (c == '\n' || c == '\r') {
+                    field.append(buffer, start, position - start);
+                    position++;
+                    if (c == '\r' && available() && buffer[position] == '\n') {
+                        position++;
+                    }
+                    return true;
+                }
+
+                position++;
             }
 
-            for (int i = 0; i < nextLine.length(); i++) {
+            field.append(buffer, start, position - start);
+        }
+
+        return true;
+    }
+
+    /**
+     * Appends a quoted field, the opening quote is already consumed.
+     * Anything between the closing quote and the next separator is kept as text.
+     * @return true if the field ended the row
+     */
+    private boolean readQuoted() throws IOException {
+
+        while (available()) {
+
+            int start = position;
+
+            while (position < limit) {
+
+                char c = buffer[position];
 
-                char c = nextLine.charAt(i);
                 if (c == quotechar) {
-                    // this gets complex... the quote may end a quoted block, or
-                    // escape another quote.
-                    // do a 1-char lookahead:
-
-                    if (inQuotes // we are in quotes, therefore there can be
-                            // escaped quotes in here.
-                            && nextLine.length() > (i + 1) // there is indeed
-                            // another character
-                            // to check.
-                            && nextLine.charAt(i + 1) == quotechar) { // ..and
-                        // that
-                        // char.
-                        // is a
-                        // quote
-                        // also.
-                        // we have two quote chars in a row == one quote char,
-                        // so consume them both and
-                        // put one on the token. we do *not* exit the quoted
-                        // text.
-                        sb.append(nextLine.charAt(i + 1));
-                        i++;
-                    } else {
-                        inQuotes = !inQuotes;
-                        // the tricky case of an embedded quote in the middle:
-                        // a,bc"d"ef,g
-                        if (i > 2 // not on the begining of the line
-                                && nextLine.charAt(i - 1) != this.separator // not
-                                // at
-                                // the
-                                // begining
-                                // of
-                                // an
-                                // escape
-                                // sequence
-                                && nextLine.length() > (i + 1)
-                                && nextLine.charAt(i + 1) != this.separator // not
-                            // at
-                            // the
-                            // end
-                            // of
-                            // an
-                            // escape
-                            // sequence
-                        ) {
-                            sb.append(c);
-                        }
+
+                    field.append(buffer, start, position - start);
+                    position++;
+
+                    if (available() && buffer[position] == quotechar) {
+                        // doubled quote, one quote of the value
+                        field.append(quotechar);
+                        position++;
+                        start = position;
+                        continue;
+                    }
+
+                    return readUnquoted();
+                }
+
+                if (c == '\r') {
+
+                    field.append(buffer, start, position - start).append('\n');
+                    position++;
+
+                    if (available() && buffer[position] == '\n') {
+                        position++;
                     }
-                } else if (c == separator && !inQuotes) {
-                    tokensOnThisLine.add(sb.toString());
-                    sb = new StringBuffer(); // start work on next token
-                } else {
-                    sb.append(c);
+
+                    start = position;
+                    continue;
                 }
+
+                position++;
             }
 
-        } while (inQuotes);
+            field.append(buffer, start, position - start);
+        }
 
-        tokensOnThisLine.add(sb.toString());
-        return tokensOnThisLine.toArray(new String[tokensOnThisLine.size()]);
+        // unterminated quote, the rest of the file was the last field
+        return true;
     }
 
     public void close() throws IOException {
-        br.close();
+        reader.close();
     }
 
-}
\ No newline at end of file
+}
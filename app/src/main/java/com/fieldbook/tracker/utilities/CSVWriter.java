@@ -2,12 +2,10 @@ package com.fieldbook.tracker.utilities;
 
 import android.database.Cursor;
 
-import com.fieldbook.tracker.objects.TraitObject;
-
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Writer;
-import java.util.ArrayList;
 
 /**
  * Custom CSV Writing Class
@@ -41,6 +39,10 @@ public class CSVWriter {
      * Default line terminator uses platform encoding.
      */
     private static final String DEFAULT_LINE_END = "\n";
+    /**
+     * Size in chars of the buffer between the writer and the file, exports write millions of cells.
+     */
+    public static final int BUFFER_SIZE = 64 * 1024;
     private final PrintWriter pw;
     private final char separator;
     private final char quotechar;
@@ -48,6 +50,10 @@ public class CSVWriter {
     private final String lineEnd;
     private final Cursor curCSV;
 
+    // reused by every line, a line is formatted here and copied to the writer in one call
+    private final StringBuilder line = new StringBuilder(256);
+    private char[] chars = new char[256];
+
     /**
      * Constructs CSVWriter using a comma for the separator.
      */
@@ -56,13 +62,20 @@ public class CSVWriter {
                 DEFAULT_ESCAPE_CHARACTER, DEFAULT_LINE_END, c);
     }
 
+    /**
+     * Constructs CSVWriter without a cursor, lines are written with writeNext.
+     */
+    public CSVWriter(Writer writer) {
+        this(writer, null);
+    }
+
     /**
      * Constructs CSVWriter with supplied separator, quote char, escape char and
      * line ending.
      */
     private CSVWriter(Writer writer, char separator, char quotechar,
                       char escapechar, String lineEnd, Cursor c) {
-        this.pw = new PrintWriter(writer);
+        this.pw = new PrintWriter(writer instanceof BufferedWriter ? writer : new BufferedWriter(writer, BUFFER_SIZE));
         this.separator = separator;
         this.quotechar = quotechar;
         this.escapechar = escapechar;
@@ -71,34 +84,21 @@ public class CSVWriter {
     }
 
     /**
-     * Outputs the field book; First Name and Last name does not exist in
-     * database, and so is passed in as a parameter
-     * V2 - Range added, columns selectable
+     * Exports traits table
      */
-    public void writeDatabaseFormat(ArrayList<String> range) throws Exception {
-        // Simply loop through all items
+    public void writeTraitFile(String[] labels) throws Exception {
         if (curCSV.getCount() > 0) {
 
-            range.add("trait");
-            range.add("value");
-            range.add("timestamp");
-            range.add("person");
-            range.add("location");
-            range.add("number");
-
-            String[] labels = range.toArray(new String[range.size()]);
-
             writeNext(labels);
 
             curCSV.moveToPosition(-1);
 
-            while (curCSV.moveToNext()) {
-                String[] arrStr = new String[labels.length];
+            String[] arrStr = new String[labels.length];
 
-                for (int i = 0; i < labels.length; i++) {
+            while (curCSV.moveToNext()) {
 
-                    String value = curCSV.getString(i);
-                    arrStr[i] = value;
+                for (int i = 0; i < arrStr.length; i++) {
+                    arrStr[i] = curCSV.getString(i);
                 }
 
                 writeNext(arrStr);
@@ -110,128 +110,80 @@ public class CSVWriter {
     }
 
     /**
-     * Exports traits table
+     * Writes the next line to the file.
+     * Used directly by the streamed field exports, which write the header and then one line per row.
      */
-    public void writeTraitFile(String[] labels) throws Exception {
-        if (curCSV.getCount() > 0) {
+    public void writeNext(String[] nextLine) {
 
-            writeNext(labels);
-
-            curCSV.moveToPosition(-1);
-
-            while (curCSV.moveToNext()) {
-
-                String[] arrStr = new String[labels.length];
-
-                for (int i = 0; i < arrStr.length; i++) {
-                    arrStr[i] = curCSV.getString(i);
-                }
-
-                writeNext(arrStr);
-            }
-        }
+        if (nextLine == null)
+            return;
 
-        curCSV.close();
-        close();
-    }
+        line.setLength(0);
 
-    private String searchForCategorical(ArrayList<TraitObject> traits, String name, String value) {
-        for (TraitObject t : traits) {
-            if (t.getName().equals(name)) {
-                if (t.getFormat().equals("categorical") || t.getFormat().equals("multicat")
-                        || t.getFormat().equals("qualitative")) {
-                    try {
-                        return CategoryJsonUtil.Companion.flattenMultiCategoryValue(
-                                CategoryJsonUtil.Companion.decode(value), false
-                        );
-                    } catch (Exception e) {
-                        return value;
-                    }
+        for (int i = 0; i < nextLine.length; i++) {
 
-                }
+            if (i != 0) {
+                line.append(separator);
             }
-        }
-        return value;
-    }
 
-    /**
-     * Generates data in an table style format
-     */
-    public void writeTableFormat(String[] labels, int rangeTotal, ArrayList<TraitObject> traits) throws Exception {
-        if (curCSV.getCount() > 0) {
-
-            writeNext(labels);
+            String nextElement = nextLine[i];
 
-            curCSV.moveToPosition(-1);
+            if (nextElement == null)
+                continue;
 
-            while (curCSV.moveToNext()) {
+            if (quotechar != NO_QUOTE_CHARACTER)
+                line.append(quotechar);
 
-                String[] arrStr = new String[labels.length];
+            appendEscaped(nextElement);
 
-                for (int k = 0; k < rangeTotal; k++) {
-                    String traitName = curCSV.getColumnName(k);
-                    String value = searchForCategorical(traits, traitName, curCSV.getString(k));
-                    arrStr[k] = value;
-                }
+            if (quotechar != NO_QUOTE_CHARACTER)
+                line.append(quotechar);
+        }
 
-                // Get matching values for every row in the Range table
-                for (int k = rangeTotal; k < labels.length; k++) {
-                    String traitName = curCSV.getColumnName(k);
-                    String value = searchForCategorical(traits, traitName, curCSV.getString(k));
-                    arrStr[k] = value;
-                }
+        line.append(lineEnd);
 
-                writeNext(arrStr);
-            }
+        int length = line.length();
+        if (chars.length < length) {
+            chars = new char[Math.max(length, chars.length * 2)];
         }
 
-        curCSV.close();
-        close();
+        line.getChars(0, length, chars, 0);
+        pw.write(chars, 0, length);
     }
 
     /**
-     * Writes the next line to the file.
+     * Appends the element with its quote and escape characters escaped.
+     * Copies the runs between quotes in bulk, most values contain no quote at all.
      */
-    private void writeNext(String[] nextLine) {
+    private void appendEscaped(String element) {
 
-        if (nextLine == null)
+        if (escapechar == NO_ESCAPE_CHARACTER) {
+            line.append(element);
             return;
+        }
 
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < nextLine.length; i++) {
-
-            if (i != 0) {
-                sb.append(separator);
-            }
-
-            String nextElement = nextLine[i];
-
-            if (nextElement == null)
-                continue;
-
-            if (quotechar != NO_QUOTE_CHARACTER)
-                sb.append(quotechar);
-
-            for (int j = 0; j < nextElement.length(); j++) {
-                char nextChar = nextElement.charAt(j);
-
-                if (escapechar != NO_ESCAPE_CHARACTER && nextChar == quotechar) {
-                    sb.append(escapechar).append(nextChar);
-                } else if (escapechar != NO_ESCAPE_CHARACTER
-                        && nextChar == escapechar) {
-                    sb.append(escapechar).append(nextChar);
-                } else {
-                    sb.append(nextChar);
+        if (escapechar != quotechar) {
+            for (int j = 0; j < element.length(); j++) {
+                char nextChar = element.charAt(j);
+                if (nextChar == quotechar || nextChar == escapechar) {
+                    line.append(escapechar);
                 }
+                line.append(nextChar);
             }
-
-            if (quotechar != NO_QUOTE_CHARACTER)
-                sb.append(quotechar);
+            return;
         }
 
-        sb.append(lineEnd);
-        pw.write(sb.toString());
+        int start = 0;
+        int quote = element.indexOf(quotechar);
+
+        while (quote >= 0) {
+            // the quote itself starts the next run
+            line.append(element, start, quote).append(escapechar);
+            start = quote;
+            quote = element.indexOf(quotechar, quote + 1);
+        }
 
+        line.append(element, start, element.length());
     }
 
     /**
@@ -1,5 +1,6 @@
 package com.fieldbook.tracker.utilities
 
+import android.util.LruCache
 import com.fieldbook.tracker.traits.CategoricalTraitLayout
 import com.google.common.reflect.TypeToken
 import com.google.gson.Gson
@@ -13,29 +14,45 @@ class CategoryJsonUtil {
 
     companion object {
 
+        //number of distinct stored values kept decoded, a trait only has a handful of categories or combinations
+        const val DECODED_CACHE_SIZE = 512
+
+        private val gson = Gson()
+
+        private val encodeType = object : TypeToken<List<BrAPIScaleValidValuesCategories?>?>() {}.type
+
+        private val decodeType = object : TypeToken<List<BrAPIScaleValidValuesCategories?>>() {}.type
+
+        //stored value -> decoded label/value pairs, shared by export, the data grid and the field statistics
+        private val decoded = LruCache<String, List<Pair<String?, String?>>>(DECODED_CACHE_SIZE)
+
         fun encode(categories: ArrayList<BrAPIScaleValidValuesCategories>): String {
-            return Gson().toJson(
-                categories,
-                object : TypeToken<List<BrAPIScaleValidValuesCategories?>?>() {}.type
-            )
+            return gson.toJson(categories, encodeType)
         }
 
+        /**
+         * Decodes a stored categorical value, values that are not json are returned as a single category.
+         * Decoded values are cached, the returned list and categories are new instances the caller may modify.
+         */
         fun decode(json: String): ArrayList<BrAPIScaleValidValuesCategories> {
-            return if (json == "NA" || !JsonUtil.isJsonValid(json)) arrayListOf(
-                BrAPIScaleValidValuesCategories().apply {
-                    label = json
-                    value = json
-                }) else Gson().fromJson(
-                json,
-                object : TypeToken<List<BrAPIScaleValidValuesCategories?>>() {}.type
-            )
+            return decodePairs(json).mapTo(ArrayList()) { (label, value) ->
+                BrAPIScaleValidValuesCategories().label(label).value(value)
+            }
+        }
+
+        private fun decodePairs(json: String): List<Pair<String?, String?>> = decoded.get(json) ?: run {
+
+            val pairs = if (json == "NA" || !JsonUtil.isJsonValid(json)) listOf(json to json)
+            else gson.fromJson<List<BrAPIScaleValidValuesCategories?>>(json, decodeType)
+                .map { it?.label to it?.value }
+
+            decoded.put(json, pairs)
+
+            pairs
         }
 
         fun decodeCategories(json: String): ArrayList<BrAPIScaleValidValuesCategories> {
-            return Gson().fromJson(
-                json,
-                object : TypeToken<List<BrAPIScaleValidValuesCategories?>>() {}.type
-            )
+            return gson.fromJson(json, decodeType)
         }
 
         /**
@@ -72,22 +89,26 @@ class CategoryJsonUtil {
          * @param row the cursor row that contains the required keys
          * @return value which represents the raw observation value or the categorical value from its label/val pair
          */
-        fun processValue(row: Map<String, Any?>): String? {
+        fun processValue(row: Map<String, Any?>): String? =
+            processValue(row["observation_variable_field_book_format"] as? String, row["value"] as? String)
 
-            val rawValue = row["value"] as? String
+        /**
+         * Same as above for callers that read the format and value straight from a cursor.
+         */
+        fun processValue(format: String?, rawValue: String?): String? {
 
-            return when(row["observation_variable_field_book_format"]) {
+            return when(format) {
                 in CategoricalTraitLayout.POSSIBLE_VALUES -> {
                     try {
-                        decode(rawValue ?: "")[0].value
+                        decodePairs(rawValue ?: "")[0].second
                     } catch (ignore: Exception) {
                         rawValue
                     }
                 }
-                in setOf("multicat") -> {
+                "multicat" -> {
                     try {
-                        decode(rawValue ?: "").joinToString(":") {
-                            it.value
+                        decodePairs(rawValue ?: "").joinToString(":") {
+                            it.second.toString()
                         }
                     } catch (ignore: Exception) {
                         rawValue
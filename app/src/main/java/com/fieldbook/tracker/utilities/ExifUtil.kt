@@ -129,10 +129,7 @@ class ExifUtil {
 
             if (unit != null) {
 
-                val unitGson =
-                    Gson().toJsonTree(unit, object : TypeToken<ObservationUnitModel>() {}.type)
-
-                val unitData = unitGson.asJsonObject.getAsJsonObject("map")
+                val unitData = Gson().toJsonTree(unit.map).asJsonObject
 
                 unitData.remove("study_id")
                 unitData.remove("internal_id_observation_unit")
@@ -6,7 +6,6 @@ import android.app.AlertDialog
 import android.app.ProgressDialog
 import android.content.Context
 import android.content.Intent
-import android.database.Cursor
 import android.os.Build
 import android.text.Html
 import android.util.Log
@@ -22,6 +21,7 @@ import com.fieldbook.tracker.activities.brapi.BrapiExportActivity
 import com.fieldbook.tracker.brapi.BrapiAuthDialogFragment
 import com.fieldbook.tracker.brapi.service.BrAPIService
 import com.fieldbook.tracker.database.DataHelper
+import com.fieldbook.tracker.database.dao.ObservationUnitPropertyDao
 import com.fieldbook.tracker.dialogs.CitationDialog
 import com.fieldbook.tracker.objects.ImportFormat
 import com.fieldbook.tracker.objects.TraitObject
@@ -35,6 +35,8 @@ import kotlinx.coroutines.withContext
 import org.phenoapps.utils.BaseDocumentTreeUtil
 import pub.devrel.easypermissions.AfterPermissionGranted
 import pub.devrel.easypermissions.EasyPermissions
+import java.io.BufferedWriter
+import java.io.IOException
 import java.io.OutputStreamWriter
 import java.text.SimpleDateFormat
 import java.util.*
@@ -351,30 +353,17 @@ class ExportUtil @Inject constructor(@ActivityContext private val context: Conte
             if (multipleFields) { fieldFileString = "${timeStamp.format(Calendar.getInstance().time)}_${fo.exp_name}" }
 
             if (checkDbBool) {
-                val columns = ArrayList<String>().apply {
-                    addAll(database.getAllObservationUnitAttributeNames(fieldId))
+                val columns = if (onlyUnique?.isChecked == true) {
+                    arrayListOf(fo.unique_id)
+                } else {
+                    ArrayList(database.getAllObservationUnitAttributeNames(fieldId).toList())
                 }
 
                 try {
-                    val cursorAndColumnsPair = when {
-                        onlyUnique?.isChecked == true -> {
-                            database.getExportDBDataShort(columns.toTypedArray(), fo.unique_id, exportTrait, fieldId) to arrayListOf(fo.unique_id)
-                        }
-                        allColumns?.isChecked == true -> {
-                            database.getExportDBData(columns.toTypedArray(), exportTrait, fieldId) to columns
-                        }
-                        else -> null
+                    val labels = columns + listOf("trait", "value", "timestamp", "person", "location", "number")
+                    createExportFile("database", fieldFileString, labels) { consumer ->
+                        database.exportDBData(columns.toTypedArray(), exportTrait, fieldId, consumer)
                     }
-
-                    cursorAndColumnsPair?.let { (cursor, columnsForExport) ->
-                        cursor.use { cur ->
-                            if (cur.count > 0) {
-                                createExportFile(cur, "database", fieldFileString, columnsForExport)
-                            } else {
-                                ExportResult.NoData
-                            }
-                        }
-                    } ?: Log.d(TAG, "No database export condition matched.")
                 } catch (e: Exception) {
                     Log.e(TAG, "Operation failed: ${e.message}", e)
                 }
@@ -387,26 +376,13 @@ class ExportUtil @Inject constructor(@ActivityContext private val context: Conte
                 }
                 Log.d(TAG, "Columns are: " + columns.joinToString())
 
-                val exportDataMethod: () -> Cursor = when {
-                    onlyUnique?.isChecked == true -> {
-                        { database.getExportTableDataShort(fieldId, fo.unique_id, exportTrait) }
-                    }
-                    allColumns?.isChecked == true -> {
-                        { database.getExportTableData(fieldId, exportTrait) }
-                    }
-                    else -> throw IllegalStateException("Neither onlyUnique nor allColumns checkboxes are checked.")
-                }
-
-                exportDataMethod().use { cursor ->
-                    try {
-                        if (cursor.count > 0) {
-                            createExportFile(cursor, "table", fieldFileString, columns)
-                        } else {
-                            ExportResult.NoData
-                        }
-                    } catch (e: Exception) {
-                        Log.e(TAG, "Operation failed: ${e.message}", e)
+                try {
+                    val labels = columns + exportTrait.map { it.name }
+                    createExportFile("table", fieldFileString, labels) { consumer ->
+                        database.exportTableData(columns.toTypedArray(), exportTrait, fieldId, consumer)
                     }
+                } catch (e: Exception) {
+                    Log.e(TAG, "Operation failed: ${e.message}", e)
                 }
             }
 
@@ -424,49 +400,44 @@ class ExportUtil @Inject constructor(@ActivityContext private val context: Conte
         }
     }
 
-    private fun createExportFile(cursor: Cursor, fileType: String, fileString: String, columns: ArrayList<String>) {
+    /**
+     * Streams the export rows into a csv file in the field export directory.
+     * The file is only created once the first row arrives, so exports without data do not leave an empty file.
+     */
+    private fun createExportFile(
+        fileType: String,
+        fileString: String,
+        labels: List<String>,
+        export: (ObservationUnitPropertyDao.ExportRowConsumer) -> Int
+    ) {
         val fileName = "${fileString}_$fileType.csv"
-        val exportDir = BaseDocumentTreeUtil.getDirectory(context, R.string.dir_field_export)
-        exportDir?.let { dir ->
-            if (dir.exists()) {
-                val file = dir.createFile("text/csv", fileName)
-                file?.let { docFile ->
-                    context.contentResolver.openOutputStream(docFile.uri)?.use { stream ->
-                        val outputStream =
-                            context.contentResolver.openOutputStream(docFile.uri) ?: return
-                        outputStream.use { stream ->
-                            val fw = OutputStreamWriter(stream)
-                            val csvWriter = CSVWriter(fw, cursor)
-                            when (fileType) {
-                                "database" -> csvWriter.writeDatabaseFormat(columns)
-                                "table" -> {
-                                    val newColumns = columns.toTypedArray()
-                                    val labels = exportTrait.map { it.name }
-
-                                    // Log the arguments
-                                    val newColumnsStr = newColumns.joinToString(", ")
-                                    val labelsStr = labels.joinToString(", ")
-                                    val columnsSizeStr = columns.size.toString()
-                                    Log.d(TAG, "Calling writeTableFormat with arguments: newColumns=[$newColumnsStr], columnsSize=[$columnsSizeStr], labels=[$labelsStr]")
-
-                                    csvWriter.writeTableFormat(
-                                        newColumns.plus(labels),
-                                        columns.size,
-                                        exportTrait
-                                    )
-                                }
-                            }
-                        }
-                        filesToExport.add(docFile)
-                    }
-                    Log.d(TAG, "Export file created: ${docFile.uri}")
-                } ?: run {
-                    Log.e(TAG, "Failed to create export file: $fileName")
+        var csvWriter: CSVWriter? = null
+        try {
+            val rows = export(ObservationUnitPropertyDao.ExportRowConsumer { row ->
+                val writer = csvWriter ?: openExportFile(fileName).also {
+                    it.writeNext(labels.toTypedArray())
+                    csvWriter = it
                 }
-            }
+                writer.writeNext(row)
+            })
+            Log.d(TAG, "Exported $rows rows to $fileName")
+        } finally {
+            csvWriter?.close()
         }
     }
 
+    private fun openExportFile(fileName: String): CSVWriter {
+        val dir = BaseDocumentTreeUtil.getDirectory(context, R.string.dir_field_export)
+            ?.takeIf { it.exists() } ?: throw IOException("Export directory is missing")
+        val docFile = dir.createFile("text/csv", fileName)
+            ?: throw IOException("Failed to create export file: $fileName")
+        val stream = context.contentResolver.openOutputStream(docFile.uri)
+            ?: throw IOException("Failed to open export file: $fileName")
+        filesToExport.add(docFile)
+        Log.d(TAG, "Export file created: ${docFile.uri}")
+        return CSVWriter(BufferedWriter(OutputStreamWriter(stream), CSVWriter.BUFFER_SIZE))
+    }
+
     private fun handleBundledFiles(fieldId: Int) {
         val fieldObject = database.getFieldObject(fieldId)
         fieldObject?.let {
@@ -0,0 +1,436 @@
+package com.fieldbook.tracker.utilities;
+
+import android.util.Xml;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Streaming reader for the rows of the first sheet of an xlsx workbook.
+ * The sheet xml is pulled row by row straight from the zip entry, only the shared strings and the
+ * date styles are kept in memory, instead of the whole workbook model.
+ *
+ * The workbook is read twice: once for the workbook parts (sheet order, shared strings, styles),
+ * which may be stored after the sheet in the zip, and once for the sheet rows.
+ *
+ * Cells are read as their stored values: numbers without trailing zeros, dates as yyyy-MM-dd
+ * (with the time if they have one), booleans as TRUE/FALSE and formulas as their cached results.
+ */
+public class XlsxRowReader implements Closeable {
+
+    /**
+     * Opens a new stream of the workbook file each time it is called.
+     */
+    public interface StreamSource {
+        InputStream open() throws IOException;
+    }
+
+    private static final String RELATIONSHIPS_NAMESPACE = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+
+    private static final String DEFAULT_SHEET = "xl/worksheets/sheet1.xml";
+
+    // days between the 1900 date system's day zero (1899-12-30) and 1970-01-01
+    private static final int EPOCH_OFFSET_DAYS = 25569;
+    private static final int DATE_1904_OFFSET_DAYS = 1462;
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    private final StreamSource source;
+
+    private final ArrayList<String> sharedStrings = new ArrayList<>();
+    private final BitSet dateStyles = new BitSet();
+    private boolean date1904 = false;
+    private String sheetEntry;
+
+    private ZipInputStream zip;
+    private XmlPullParser parser;
+
+    // number of columns of the first row, later rows are padded or cut to it
+    private int width = -1;
+    private final ArrayList<String> cells = new ArrayList<>();
+    private final StringBuilder text = new StringBuilder();
+
+    private SimpleDateFormat dateFormat;
+    private SimpleDateFormat dateTimeFormat;
+
+    public XlsxRowReader(StreamSource source) {
+        this.source = source;
+    }
+
+    private static XmlPullParser newParser(InputStream stream) throws XmlPullParserException {
+        XmlPullParser parser = Xml.newPullParser();
+        parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+        parser.setInput(stream, null);
+        return parser;
+    }
+
+    /**
+     * Positions the reader before the first row of the sheet.
+     */
+    public void open() throws IOException {
+
+        close();
+
+        try {
+
+            if (sheetEntry == null) {
+                readWorkbookParts();
+            }
+
+            zip = new ZipInputStream(source.open());
+
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (entry.getName().equals(sheetEntry)) {
+                    parser = newParser(zip);
+                    width = -1;
+                    return;
+                }
+            }
+
+        } catch (XmlPullParserException e) {
+            throw new IOException(e);
+        }
+
+        close();
+
+        throw new IOException("Workbook has no sheet " + sheetEntry);
+    }
+
+    private void readWorkbookParts() throws IOException, XmlPullParserException {
+
+        String firstSheetId = null;
+        HashMap<String, String> targets = new HashMap<>();
+
+        try (ZipInputStream parts = new ZipInputStream(source.open())) {
+
+            ZipEntry entry;
+            while ((entry = parts.getNextEntry()) != null) {
+
+                switch (entry.getName()) {
+                    case "xl/workbook.xml":
+                        firstSheetId = readWorkbook(newParser(parts));
+                        break;
+                    case "xl/_rels/workbook.xml.rels":
+                        readRelationships(newParser(parts), targets);
+                        break;
+                    case "xl/sharedStrings.xml":
+                        readSharedStrings(newParser(parts));
+                        break;
+                    case "xl/styles.xml":
+                        readStyles(newParser(parts));
+                        break;
+                }
+            }
+        }
+
+        String target = firstSheetId == null ? null : targets.get(firstSheetId);
+
+        if (target == null) {
+            sheetEntry = DEFAULT_SHEET;
+        } else if (target.startsWith("/")) {
+            sheetEntry = target.substring(1);
+        } else {
+            sheetEntry = "xl/" + target;
+        }
+    }
+
+    //returns the relationship id of the first sheet
+    private String readWorkbook(XmlPullParser parser) throws IOException, XmlPullParserException {
+
+        String firstSheetId = null;
+
+        for (int event = parser.getEventType(); event != XmlPullParser.END_DOCUMENT; event = parser.next()) {
+
+            if (event != XmlPullParser.START_TAG) continue;
+
+            if (parser.getName().equals("workbookPr")) {
+                String value = parser.getAttributeValue(null, "date1904");
+                date1904 = "1".equals(value) || "true".equals(value);
+            } else if (parser.getName().equals("sheet") && firstSheetId == null) {
+                firstSheetId = parser.getAttributeValue(RELATIONSHIPS_NAMESPACE, "id");
+            }
+        }
+
+        return firstSheetId;
+    }
+
+    private void readRelationships(XmlPullParser parser, HashMap<String, String> targets) throws IOException, XmlPullParserException {
+
+        for (int event = parser.getEventType(); event != XmlPullParser.END_DOCUMENT; event = parser.next()) {
+
+            if (event == XmlPullParser.START_TAG && parser.getName().equals("Relationship")) {
+                targets.put(parser.getAttributeValue(null, "Id"), parser.getAttributeValue(null, "Target"));
+            }
+        }
+    }
+
+    private void readSharedStrings(XmlPullParser parser) throws IOException, XmlPullParserException {
+
+        boolean inText = false;
+        boolean inPhonetic = false;
+
+        for (int event = parser.getEventType(); event != XmlPullParser.END_DOCUMENT; event = parser.next()) {
+
+            switch (event) {
+                case XmlPullParser.START_TAG:
+                    switch (parser.getName()) {
+                        case "si":
+                            text.setLength(0);
+                            break;
+                        case "rPh":
+                            inPhonetic = true;
+                            break;
+                        case "t":
+                            inText = !inPhonetic;
+                            break;
+                    }
+                    break;
+                case XmlPullParser.TEXT:
+                    if (inText) text.append(parser.getText());
+                    break;
+                case XmlPullParser.END_TAG:
+                    switch (parser.getName()) {
+                        case "si":
+                            sharedStrings.add(text.toString());
+                            break;
+                        case "rPh":
+                            inPhonetic = false;
+                            break;
+                        case "t":
+                            inText = false;
+                            break;
+                    }
+                    break;
+            }
+        }
+    }
+
+    private void readStyles(XmlPullParser parser) throws IOException, XmlPullParserException {
+
+        HashMap<Integer, String> customFormats = new HashMap<>();
+        boolean inCellFormats = false;
+        int style = 0;
+
+        for (int event = parser.getEventType(); event != XmlPullParser.END_DOCUMENT; event = parser.next()) {
+
+            if (event == XmlPullParser.START_TAG) {
+
+                switch (parser.getName()) {
+                    case "numFmt":
+                        customFormats.put(parseInt(parser.getAttributeValue(null, "numFmtId")),
+                                parser.getAttributeValue(null, "formatCode"));
+                        break;
+                    case "cellXfs":
+                        inCellFormats = true;
+                        break;
+                    case "xf":
+                        if (inCellFormats) {
+                            int format = parseInt(parser.getAttributeValue(null, "numFmtId"));
+                            if (isDateFormat(format, customFormats.get(format))) {
+                                dateStyles.set(style);
+                            }
+                            style++;
+                        }
+                        break;
+                }
+
+            } else if (event == XmlPullParser.END_TAG && parser.getName().equals("cellXfs")) {
+
+                inCellFormats = false;
+            }
+        }
+    }
+
+    private static int parseInt(String value) {
+        try {
+            return value == null ? 0 : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Built in date formats, or custom formats with date or time parts outside of quoted text and [..] sections.
+     */
+    static boolean isDateFormat(int id, String code) {
+
+        if ((id >= 14 && id <= 22) || (id >= 45 && id <= 47)) return true;
+
+        if (code == null) return false;
+
+        String parts = code.replaceAll("\"[^\"]*\"|\\[[^]]*]|\\\\.", "").toLowerCase(Locale.US);
+
+        return parts.matches(".*[ymdhs].*") && !parts.contains("general");
+    }
+
+    /**
+     * Reads the next row of the sheet, cells missing from the row are empty strings.
+     * @return the row, or null after the last row
+     */
+    public String[] readNext() throws IOException {
+
+        if (parser == null) return null;
+
+        try {
+
+            boolean inRow = false;
+            boolean inValue = false;
+            int column = 0;
+            String type = null;
+            int style = 0;
+
+            for (int event = parser.next(); event != XmlPullParser.END_DOCUMENT; event = parser.next()) {
+
+                switch (event) {
+
+                    case XmlPullParser.START_TAG:
+                        switch (parser.getName()) {
+                            case "row":
+                                inRow = true;
+                                cells.clear();
+                                column = 0;
+                                break;
+                            case "c":
+                                String reference = parser.getAttributeValue(null, "r");
+                                if (reference != null) column = columnIndex(reference);
+                                type = parser.getAttributeValue(null, "t");
+                                style = parseInt(parser.getAttributeValue(null, "s"));
+                                text.setLength(0);
+                                break;
+                            case "v":
+                            case "t":
+                                inValue = inRow;
+                                break;
+                        }
+                        break;
+
+                    case XmlPullParser.TEXT:
+                        if (inValue) text.append(parser.getText());
+                        break;
+
+                    case XmlPullParser.END_TAG:
+                        switch (parser.getName()) {
+                            case "v":
+                            case "t":
+                                inValue = false;
+                                break;
+                            case "c":
+                                while (cells.size() < column) cells.add("");
+                                if (cells.size() == column) cells.add(cellValue(type, style, text.toString()));
+                                column++;
+                                break;
+                            case "row":
+                                return finishRow();
+                        }
+                        break;
+                }
+            }
+
+        } catch (XmlPullParserException e) {
+            throw new IOException(e);
+        }
+
+        return null;
+    }
+
+    private String[] finishRow() {
+
+        if (width < 0) {
+            width = cells.size();
+        }
+
+        String[] row = cells.toArray(new String[0]);
+
+        if (row.length != width) {
+            int length = row.length;
+            row = Arrays.copyOf(row, width);
+            for (int i = length; i < width; i++) row[i] = "";
+        }
+
+        return row;
+    }
+
+    //zero based column of a cell reference s.a "AB12"
+    private static int columnIndex(String reference) {
+
+        int column = 0;
+
+        for (int i = 0; i < reference.length(); i++) {
+            char c = reference.charAt(i);
+            if (c < 'A' || c > 'Z') break;
+            column = column * 26 + (c - 'A' + 1);
+        }
+
+        return column - 1;
+    }
+
+    private String cellValue(String type, int style, String value) {
+
+        if (type == null) type = "n";
+
+        switch (type) {
+            case "s":
+                int index = parseInt(value);
+                return index < sharedStrings.size() ? sharedStrings.get(index) : "";
+            case "b":
+                return "1".equals(value) ? "TRUE" : "FALSE";
+            case "n":
+                if (value.isEmpty()) return "";
+                try {
+                    BigDecimal number = new BigDecimal(value);
+                    if (dateStyles.get(style)) return formatDate(number.doubleValue());
+                    String plain = number.stripTrailingZeros().toPlainString();
+                    return plain.equals("-0") ? "0" : plain;
+                } catch (NumberFormatException e) {
+                    return value;
+                }
+            default:
+                // inlineStr, str (formula text) and e (errors) are stored as text
+                return value;
+        }
+    }
+
+    private String formatDate(double serial) {
+
+        if (dateFormat == null) {
+            dateFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
+            dateTimeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+            dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+            dateTimeFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        }
+
+        double days = serial + (date1904 ? DATE_1904_OFFSET_DAYS : 0) - EPOCH_OFFSET_DAYS;
+
+        long millis = Math.round(days * DAY_MILLIS / 1000.0) * 1000L;
+
+        Date date = new Date(millis);
+
+        return millis % DAY_MILLIS == 0 ? dateFormat.format(date) : dateTimeFormat.format(date);
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        parser = null;
+
+        if (zip != null) {
+            zip.close();
+            zip = null;
+        }
+    }
+}
@@ -22,6 +22,7 @@ import android.widget.Toast
 import androidx.constraintlayout.widget.ConstraintLayout
 import com.fieldbook.tracker.R
 import com.fieldbook.tracker.interfaces.CollectRangeController
+import com.fieldbook.tracker.objects.PlotIndex
 import com.fieldbook.tracker.objects.RangeObject
 import com.fieldbook.tracker.objects.TraitObject
 import com.fieldbook.tracker.preferences.GeneralKeys
@@ -32,6 +33,8 @@ class RangeBoxView : ConstraintLayout {
 
     private var controller: CollectRangeController
 
+    //ids and names of the current field in navigation order, rangeID is plotIndex.ids()
+    private var plotIndex: PlotIndex
     private var rangeID: IntArray
     var paging = 0
 
@@ -88,15 +91,16 @@ class RangeBoxView : ConstraintLayout {
 
         this.controller = context as CollectRangeController
 
-        rangeID = this.controller.getDatabase().allRangeID
+        firstName = controller.getPreferences().getString(GeneralKeys.PRIMARY_NAME, "") ?: ""
+        secondName = controller.getPreferences().getString(GeneralKeys.SECONDARY_NAME, "") ?: ""
+        uniqueName = controller.getPreferences().getString(GeneralKeys.UNIQUE_NAME, "") ?: ""
+        plotIndex = this.controller.getDatabase().getPlotIndex(firstName, secondName, uniqueName)
+        rangeID = plotIndex.ids()
         cRange = RangeObject()
         cRange.plot = ""
         cRange.plot_id = ""
         cRange.range = ""
         lastRange = ""
-        firstName = controller.getPreferences().getString(GeneralKeys.PRIMARY_NAME, "") ?: ""
-        secondName = controller.getPreferences().getString(GeneralKeys.SECONDARY_NAME, "") ?: ""
-        uniqueName = controller.getPreferences().getString(GeneralKeys.UNIQUE_NAME, "") ?: ""
     }
 
     constructor(ctx: Context) : super(ctx)
@@ -125,6 +129,10 @@ class RangeBoxView : ConstraintLayout {
         return rangeID
     }
 
+    fun getPlotIndex(): PlotIndex {
+        return plotIndex
+    }
+
     fun getRangeIDByIndex(j: Int): Int {
         return rangeID[j]
     }
@@ -412,13 +420,18 @@ class RangeBoxView : ConstraintLayout {
      */
     private fun updateCurrentRange(id: Int) {
         if (firstName.isNotEmpty() && secondName.isNotEmpty() && uniqueName.isNotEmpty()) {
-            cRange = controller.getDatabase().getRange(firstName, secondName, uniqueName, id)
+            val position = plotIndex.positionOf(id)
+
+            //ids outside of the index (not reloaded yet) are still read from the database
+            cRange = if (position < 0) {
+                controller.getDatabase().getRange(firstName, secondName, uniqueName, id)
+            } else plotIndex.rangeAt(position)
 
             // RangeID is a sorted list of obs unit ids for the current field.
             // Set bar maximum to number of obs units in the field
             // Set bar progress to position of current obs unit within the sorted list
             plotsProgressBar.max = rangeID.size
-            plotsProgressBar.progress = rangeID.indexOf(id)
+            plotsProgressBar.progress = position
 
         } else {
             //TODO switch to Utils
@@ -525,7 +538,8 @@ class RangeBoxView : ConstraintLayout {
     }
 
     fun setAllRangeID() {
-        rangeID = controller.getDatabase().allRangeID
+        plotIndex = controller.getDatabase().getPlotIndex(firstName, secondName, uniqueName)
+        rangeID = plotIndex.ids()
     }
 
     fun setRange(id: Int) {
@@ -641,47 +655,24 @@ class RangeBoxView : ConstraintLayout {
     }
 
     private fun moveToNextUncollectedObs(currentPos: Int, direction: Int, traits: ArrayList<TraitObject>): Int {
-        val studyId = controller.getPreferences().getInt(GeneralKeys.SELECTED_FIELD_ID, 0)
-        val study = controller.getDatabase().getFieldObject(studyId)
-        val cursor = controller.getDatabase().getExportTableDataShort(studyId, study.unique_id, traits)
-
-        cursor?.use {
-            // Convert one-based range position to zero-based cursor position
-            val zeroBasedPos = currentPos - 1
-            cursor.moveToPosition(zeroBasedPos)
-
-            // Track the number of rows seen
-            var rowsSeen = 0
-            val totalRows = cursor.count
-
-            while (rowsSeen < totalRows) {
-                // Move in the specified direction
-                val moved = if (direction > 0) cursor.moveToNext() else cursor.moveToPrevious()
-
-                if (!moved) {
-                    if (direction > 0) {
-                        cursor.moveToFirst()
-                    } else {
-                        cursor.moveToLast()
-                    }
-                }
+        val completeness = controller.getDatabase().fieldCompleteness
 
-                val pos = cursor.position + 1 // Convert zero-based cursor position back to one-based range position
-                rowsSeen++
-
-                // Check for uncollected trait observations
-                for (trait in traits) {
-                    val value = cursor.getString(cursor.getColumnIndexOrThrow(trait.name))
-                    if (value == null) {
-                        controller.getPreferences().edit().putString(GeneralKeys.LAST_USED_TRAIT, trait.name).apply()
-                        if (pos == currentPos) {
-                            // we are back where we started, notify that current entry is only one without data
-                            Utils.makeToast(context, context.getString(R.string.collect_sole_entry_without_data))
-                        }
-                        return pos
-                    }
-                }
+        // Convert one-based range position to zero-based bit position
+        val next = completeness.nextIncomplete(currentPos - 1, direction, traits.map { it.id })
+
+        if (next >= 0) {
+            val pos = next + 1 // Convert back to one-based range position
+
+            // Select the first trait without data on the found entry
+            traits.firstOrNull { !completeness.isCollectedAt(it.id, next) }?.let { trait ->
+                controller.getPreferences().edit().putString(GeneralKeys.LAST_USED_TRAIT, trait.name).apply()
+            }
+
+            if (pos == currentPos) {
+                // we are back where we started, notify that current entry is only one without data
+                Utils.makeToast(context, context.getString(R.string.collect_sole_entry_without_data))
             }
+            return pos
         }
 
         // Display toast message if no uncollected obs is found after checking all rows
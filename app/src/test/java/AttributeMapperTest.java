@@ -0,0 +1,197 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.fieldbook.tracker.activities.brapi.io.mapper.AttributeMapperKt;
+
+import org.brapi.v2.model.germ.BrAPIGermplasm;
+import org.brapi.v2.model.germ.BrAPIGermplasmSynonyms;
+import org.brapi.v2.model.pheno.BrAPIObservationUnit;
+import org.brapi.v2.model.pheno.BrAPIObservationUnitLevelRelationship;
+import org.brapi.v2.model.pheno.BrAPIObservationUnitPosition;
+import org.brapi.v2.model.pheno.BrAPIPositionCoordinateTypeEnum;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Checks the attribute table built for a BrAPI study import, including the germplasm join. The benchmark builds
+ * the table of a study of 10k units over 3k germplasm and compares it with the linear germplasm search it replaced.
+ */
+public class AttributeMapperTest {
+
+    private static BrAPIObservationUnit unit(int id, int germplasm) {
+
+        BrAPIObservationUnitPosition position = new BrAPIObservationUnitPosition()
+                .positionCoordinateX(String.valueOf(id / 100))
+                .positionCoordinateXType(BrAPIPositionCoordinateTypeEnum.GRID_ROW)
+                .positionCoordinateY(String.valueOf(id % 100))
+                .positionCoordinateYType(BrAPIPositionCoordinateTypeEnum.GRID_COL)
+                .observationLevelRelationships(new ArrayList<>(Collections.singletonList(
+                        new BrAPIObservationUnitLevelRelationship().levelName("block").levelCode(String.valueOf(id % 4)))));
+
+        return new BrAPIObservationUnit()
+                .observationUnitDbId("ou" + id)
+                .observationUnitName("plot " + id)
+                .germplasmDbId("g" + germplasm)
+                .germplasmName("line " + germplasm)
+                .observationUnitPosition(position);
+    }
+
+    private static BrAPIGermplasm germplasm(int id) {
+        return new BrAPIGermplasm()
+                .germplasmDbId("g" + id)
+                .accessionNumber("A" + id)
+                .pedigree("P" + id + "/Q")
+                .synonyms(Arrays.asList(new BrAPIGermplasmSynonyms().synonym("s\"" + id), new BrAPIGermplasmSynonyms().synonym("t" + id)));
+    }
+
+    @Test
+    public void buildsRows() {
+
+        List<BrAPIObservationUnit> units = Arrays.asList(unit(101, 1), unit(102, 7), unit(103, 2));
+        List<BrAPIGermplasm> germs = Arrays.asList(germplasm(1), germplasm(2), germplasm(1));
+
+        Map<String, Map<String, String>> table = AttributeMapperKt.toAttributeTable(units, germs);
+
+        Map<String, String> first = table.get("ou101");
+
+        assertEquals("line 1", first.get("Germplasm"));
+        assertEquals("1", first.get("Block"));
+        assertEquals("1", first.get("Row"));
+        assertEquals("1", first.get("Column"));
+        assertEquals("A1", first.get("AccessionNumber"));
+        assertEquals("s\"\"1; t1", first.get("Synonyms"));
+
+        //no germplasm record for the unit
+        assertFalse(table.get("ou102").containsKey("Pedigree"));
+
+        List<String> names = AttributeMapperKt.attributeNames(table);
+
+        assertEquals(Arrays.asList("Germplasm", "Block", "Row", "Column", "AccessionNumber", "Pedigree",
+                "Synonyms", "ObservationUnitDbId", "ObservationUnitName"), names);
+
+        List<List<String>> rows = AttributeMapperKt.toAttributeRows(table, units, names);
+
+        assertEquals(3, rows.size());
+        assertEquals("", rows.get(1).get(names.indexOf("AccessionNumber")));
+        assertEquals("P2/Q", rows.get(2).get(names.indexOf("Pedigree")));
+        assertEquals("plot 103", rows.get(2).get(names.indexOf("ObservationUnitName")));
+    }
+
+    //the attribute assembly before the germplasm index, each unit searched the study's germplasm list
+    private static Map<String, Map<String, String>> linearAttributeTable(List<BrAPIObservationUnit> units, List<BrAPIGermplasm> germs) {
+
+        Map<String, Map<String, String>> table = new HashMap<>();
+
+        for (BrAPIObservationUnit unit : units) {
+
+            Map<String, String> attributes = new HashMap<>();
+
+            if (unit.getGermplasmName() != null) attributes.put("Germplasm", unit.getGermplasmName());
+
+            BrAPIObservationUnitPosition position = unit.getObservationUnitPosition();
+
+            if (position != null) {
+
+                for (BrAPIObservationUnitLevelRelationship level : position.getObservationLevelRelationships()) {
+                    String name = level.getLevelName();
+                    attributes.put(name.substring(0, 1).toUpperCase(Locale.getDefault()) + name.substring(1), level.getLevelCode());
+                }
+
+                attributes.put(position.getPositionCoordinateXType() == BrAPIPositionCoordinateTypeEnum.GRID_COL ? "Column" : "Row", position.getPositionCoordinateX());
+                attributes.put(position.getPositionCoordinateYType() == BrAPIPositionCoordinateTypeEnum.GRID_ROW ? "Row" : "Column", position.getPositionCoordinateY());
+            }
+
+            for (BrAPIGermplasm germ : germs) {
+
+                if (germ.getGermplasmDbId().equals(unit.getGermplasmDbId())) {
+
+                    attributes.put("AccessionNumber", germ.getAccessionNumber());
+                    attributes.put("Pedigree", germ.getPedigree());
+
+                    List<String> synonyms = new ArrayList<>();
+                    for (BrAPIGermplasmSynonyms synonym : germ.getSynonyms()) synonyms.add(synonym.getSynonym().replace("\"", "\"\""));
+                    attributes.put("Synonyms", String.join("; ", synonyms));
+
+                    break;
+                }
+            }
+
+            attributes.put("ObservationUnitDbId", unit.getObservationUnitDbId());
+            attributes.put("ObservationUnitName", unit.getObservationUnitName());
+
+            table.put(unit.getObservationUnitDbId(), attributes);
+        }
+
+        return table;
+    }
+
+    /**
+     * Builds the table a few times.
+     * @return tables per second and the bytes allocated per unit by the building thread
+     */
+    private static double[] measure(Supplier<Map<String, Map<String, String>>> build, int units) {
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        long thread = Thread.currentThread().getId();
+
+        //warm up
+        assertEquals(units, build.get().size());
+
+        int runs = 3;
+
+        long bytes = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+
+        for (int i = 0; i < runs; i++) {
+            assertEquals(units, build.get().size());
+        }
+
+        long nanos = System.nanoTime() - start;
+
+        bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+
+        return new double[]{ runs * 1e9 / nanos, (double) bytes / (runs * units) };
+    }
+
+    @Test
+    @Category(Benchmark.class)
+    public void largeStudy() {
+
+        List<BrAPIObservationUnit> units = new ArrayList<>();
+        List<BrAPIGermplasm> germs = new ArrayList<>();
+
+        for (int g = 0; g < 3_000; g++) {
+            germs.add(germplasm(g));
+        }
+
+        for (int u = 0; u < 10_000; u++) {
+            units.add(unit(u, u % 3_000));
+        }
+
+        Map<String, Map<String, String>> table = AttributeMapperKt.toAttributeTable(units, germs);
+        List<String> names = AttributeMapperKt.attributeNames(table);
+        List<List<String>> rows = AttributeMapperKt.toAttributeRows(table, units, names);
+
+        assertEquals(units.size(), rows.size());
+        assertEquals("A2999", table.get("ou9999").get("AccessionNumber"));
+        assertEquals(linearAttributeTable(units, germs), table);
+
+        double[] linear = measure(() -> linearAttributeTable(units, germs), units.size());
+        double[] indexed = measure(() -> AttributeMapperKt.toAttributeTable(units, germs), units.size());
+
+        assertTrue(String.format(Locale.US, "linear search %.1f tables/s %.0f B/unit, germplasm index %.1f tables/s %.0f B/unit",
+                linear[0], linear[1], indexed[0], indexed[1]), indexed[0] > linear[0]);
+    }
+}
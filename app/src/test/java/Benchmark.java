@@ -0,0 +1,6 @@
+/**
+ * JUnit category of the tests that time large inputs. They are left out of the unit test run,
+ * run them with ./gradlew testDebugUnitTest -Pbenchmarks and read their durations from the test report.
+ */
+public interface Benchmark {
+}
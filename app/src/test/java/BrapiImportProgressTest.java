@@ -0,0 +1,116 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.fieldbook.tracker.database.BrapiImportProgress;
+import com.fieldbook.tracker.database.DataHelper;
+import com.fieldbook.tracker.objects.FieldObject;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks that the progress of a paged BrAPI import is found for its study and level, replaced as pages
+ * are saved, forgotten with its field, and that the field is listed as incomplete until it is cleared.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.P})
+public class BrapiImportProgressTest {
+
+    private static final List<String> COLUMNS = Arrays.asList("Germplasm", "Row", "Column", "ObservationUnitDbId");
+
+    private DataHelper helper;
+    private SQLiteDatabase db;
+
+    @Before
+    public void setUp() {
+
+        helper = new DataHelper(ApplicationProvider.getApplicationContext());
+
+        db = DataHelper.db;
+    }
+
+    @Test
+    public void followsImport() {
+
+        assertNull(BrapiImportProgress.INSTANCE.find(db, "study1", "plot"));
+
+        db.execSQL("INSERT INTO studies (internal_id_study, study_name, study_db_id) VALUES (1, 'one', 'study1')");
+
+        BrapiImportProgress.INSTANCE.save(db, "study1", "plot", new BrapiImportProgress.Progress(1, 3, 100, COLUMNS));
+        BrapiImportProgress.INSTANCE.save(db, "study1", "plot", new BrapiImportProgress.Progress(1, 4, 100, COLUMNS));
+
+        BrapiImportProgress.Progress progress = BrapiImportProgress.INSTANCE.find(db, "study1", "plot");
+
+        assertNotNull(progress);
+        assertEquals(1, progress.getStudyId());
+        assertEquals(4, progress.getNextPage());
+        assertEquals(100, progress.getPageSize());
+        assertEquals(COLUMNS, progress.getColumns());
+
+        //other levels of the study are separate imports
+        assertNull(BrapiImportProgress.INSTANCE.find(db, "study1", "plant"));
+
+        BrapiImportProgress.INSTANCE.clear(db, 1);
+
+        assertNull(BrapiImportProgress.INSTANCE.find(db, "study1", "plot"));
+    }
+
+    @Test
+    public void deletedFieldIsForgotten() {
+
+        db.execSQL("INSERT INTO studies (internal_id_study, study_name, study_db_id) VALUES (1, 'one', 'study1')");
+
+        BrapiImportProgress.INSTANCE.save(db, "study1", "plot", new BrapiImportProgress.Progress(1, 2, 50, COLUMNS));
+
+        helper.deleteField(1);
+
+        assertNull(BrapiImportProgress.INSTANCE.find(db, "study1", "plot"));
+
+        //a new import of the study replaces any progress left for the level
+        db.execSQL("INSERT INTO studies (internal_id_study, study_name, study_db_id) VALUES (2, 'one', 'study1')");
+        db.execSQL("INSERT INTO " + BrapiImportProgress.TABLE_NAME
+                + " (study_id, study_db_id, observation_level, next_page, page_size, columns) VALUES (7, 'study1', 'plot', 9, 50, '[]')");
+
+        BrapiImportProgress.INSTANCE.save(db, "study1", "plot", new BrapiImportProgress.Progress(2, 0, 50, COLUMNS));
+
+        assertEquals(1, DatabaseUtils.queryNumEntries(db, BrapiImportProgress.TABLE_NAME));
+        assertEquals(2, BrapiImportProgress.INSTANCE.find(db, "study1", "plot").getStudyId());
+    }
+
+    @Test
+    public void incompleteFieldIsMarked() {
+
+        db.execSQL("INSERT INTO studies (internal_id_study, study_name, study_db_id) VALUES (1, 'one', 'study1')");
+        db.execSQL("INSERT INTO studies (internal_id_study, study_name, study_db_id) VALUES (2, 'two', 'study2')");
+
+        BrapiImportProgress.INSTANCE.save(db, "study1", "plot", new BrapiImportProgress.Progress(1, 2, 50, COLUMNS));
+
+        List<FieldObject> fields = helper.getAllFieldObjects();
+
+        assertEquals(2, fields.size());
+
+        for (FieldObject field : fields) {
+            assertEquals(field.getExp_id() == 1, field.isImport_incomplete());
+        }
+
+        BrapiImportProgress.INSTANCE.clear(db, 1);
+
+        for (FieldObject field : helper.getAllFieldObjects()) {
+            assertFalse(field.isImport_incomplete());
+        }
+    }
+}
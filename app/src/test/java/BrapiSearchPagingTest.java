@@ -0,0 +1,167 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.os.Build;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.fieldbook.tracker.brapi.service.BrAPIServiceV2;
+
+import org.brapi.client.v2.ApiResponse;
+import org.brapi.client.v2.model.exceptions.ApiException;
+import org.brapi.v2.model.BrAPIAcceptedSearchResponse;
+import org.brapi.v2.model.BrAPIAcceptedSearchResponseResult;
+import org.brapi.v2.model.BrAPIIndexPagination;
+import org.brapi.v2.model.BrAPIMetadata;
+import org.brapi.v2.model.germ.BrAPIGermplasm;
+import org.brapi.v2.model.germ.request.BrAPIGermplasmSearchRequest;
+import org.brapi.v2.model.germ.response.BrAPIGermplasmListResponse;
+import org.brapi.v2.model.germ.response.BrAPIGermplasmListResponseResult;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the pipelined search paging against a fake deferred search: pages are streamed in order, no more
+ * than the prefetch window is outstanding, and nothing past the last page is requested.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.P})
+public class BrapiSearchPagingTest {
+
+    private static final int PAGE_SIZE = 10;
+    private static final int PAGES = 25;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final Map<Integer, AtomicInteger> calls = new ConcurrentHashMap<>();
+
+    //page 13 answers with a server error
+    private boolean failPage = false;
+
+    private ApiResponse<org.apache.commons.lang3.tuple.Pair<Optional<BrAPIGermplasmListResponse>, Optional<BrAPIAcceptedSearchResponse>>> accepted(BrAPIGermplasmSearchRequest body) {
+
+        BrAPIAcceptedSearchResponse response = new BrAPIAcceptedSearchResponse()
+                .result(new BrAPIAcceptedSearchResponseResult().searchResultsDbId("search"));
+
+        return new ApiResponse<>(202, Collections.emptyMap(), org.apache.commons.lang3.tuple.Pair.of(Optional.empty(), Optional.of(response)));
+    }
+
+    //later pages answer sooner, so responses complete out of order
+    private ApiResponse<org.apache.commons.lang3.tuple.Pair<Optional<BrAPIGermplasmListResponse>, Optional<BrAPIAcceptedSearchResponse>>> page(String searchResultsDbId, Integer page, Integer pageSize) throws ApiException {
+
+        calls.computeIfAbsent(page, p -> new AtomicInteger()).incrementAndGet();
+
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+
+        try {
+            Thread.sleep(5 + (PAGES - page) % 7);
+        } catch (InterruptedException e) {
+            throw new ApiException("interrupted", 0, null, null);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+
+        if (page == 13 && failPage) {
+            throw new ApiException("failed", 500, Collections.emptyMap(), null);
+        }
+
+        List<BrAPIGermplasm> germplasm = new ArrayList<>();
+
+        for (int i = 0; i < pageSize; i++) {
+            germplasm.add(new BrAPIGermplasm().germplasmDbId(String.valueOf(page * pageSize + i)));
+        }
+
+        BrAPIGermplasmListResponse response = new BrAPIGermplasmListResponse()
+                .metadata(new BrAPIMetadata().pagination(new BrAPIIndexPagination()
+                        .currentPage(page).pageSize(pageSize).totalCount(PAGES * pageSize).totalPages(PAGES)))
+                .result(new BrAPIGermplasmListResponseResult().data(germplasm));
+
+        return new ApiResponse<>(200, Collections.emptyMap(), org.apache.commons.lang3.tuple.Pair.of(Optional.of(response), Optional.empty()));
+    }
+
+    private void map(List<?> data, Map<String, BrAPIGermplasm> result) {
+        for (Object item : data) {
+            BrAPIGermplasm germplasm = (BrAPIGermplasm) item;
+            result.put(germplasm.getGermplasmDbId(), germplasm);
+        }
+    }
+
+    @Test
+    public void streamsPagesInOrder() {
+
+        BrAPIServiceV2 service = new BrAPIServiceV2(ApplicationProvider.getApplicationContext());
+
+        List<Integer> firstIds = new ArrayList<>();
+        Integer[] failure = { null };
+
+        service.<BrAPIGermplasmSearchRequest, BrAPIGermplasmListResponse, BrAPIGermplasm>streamBrapiSearch(
+                this::accepted, this::page, new BrAPIGermplasmSearchRequest(), this::map,
+                page -> firstIds.add(page.keySet().stream().mapToInt(Integer::parseInt).min().getAsInt()),
+                code -> {
+                    failure[0] = code;
+                    return null;
+                }, PAGE_SIZE);
+
+        assertNull(failure[0]);
+        assertEquals(PAGES, firstIds.size());
+
+        for (int p = 0; p < PAGES; p++) {
+            assertEquals(p * PAGE_SIZE, (int) firstIds.get(p));
+            assertEquals(1, calls.get(p).get());
+        }
+
+        //only the pages the first page's metadata announced
+        assertEquals(PAGES, calls.size());
+
+        assertTrue("in flight " + maxInFlight.get(), maxInFlight.get() <= 4);
+    }
+
+    @Test
+    public void collectsIntoMap() {
+
+        BrAPIServiceV2 service = new BrAPIServiceV2(ApplicationProvider.getApplicationContext());
+
+        Map<String, BrAPIGermplasm> result = service.<BrAPIGermplasmSearchRequest, BrAPIGermplasmListResponse, BrAPIGermplasm>executeBrapiSearch(
+                this::accepted, this::page, new BrAPIGermplasmSearchRequest(), this::map,
+                code -> null, PAGE_SIZE);
+
+        assertEquals(PAGES * PAGE_SIZE, result.size());
+    }
+
+    @Test
+    public void failedPageStopsSearch() {
+
+        failPage = true;
+
+        BrAPIServiceV2 service = new BrAPIServiceV2(ApplicationProvider.getApplicationContext());
+
+        Map<String, BrAPIGermplasm> streamed = new HashMap<>();
+        Integer[] failure = { null };
+
+        service.<BrAPIGermplasmSearchRequest, BrAPIGermplasmListResponse, BrAPIGermplasm>streamBrapiSearch(
+                this::accepted, this::page, new BrAPIGermplasmSearchRequest(), this::map,
+                streamed::putAll,
+                code -> {
+                    failure[0] = code;
+                    return null;
+                }, PAGE_SIZE);
+
+        assertEquals(500, (int) failure[0]);
+
+        //pages before the failed one were delivered, the window never reached past it by more than its size
+        assertEquals(13 * PAGE_SIZE, streamed.size());
+        assertTrue(calls.size() <= 13 + 4);
+    }
+}
@@ -0,0 +1,105 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.fieldbook.tracker.utilities.CSVReader;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.io.Reader;
+import java.io.StringReader;
+
+/**
+ * Checks the RFC 4180 cases of the field file parser, and parses 100 MB of field rows as a benchmark.
+ */
+public class CSVReaderTest {
+
+    @Test
+    public void parsesQuotedFields() throws Exception {
+
+        CSVReader reader = new CSVReader(new StringReader("\uFEFFplot,name,notes\r\n"
+                + "1,\"a, b\",\"say \"\"hi\"\"\"\n"
+                + "2,\"two\r\nlines\",\n"
+                + "\n"
+                + "3,bc\"d\"ef,\"open"));
+
+        assertArrayEquals(new String[]{ "plot", "name", "notes" }, reader.readNext());
+        assertArrayEquals(new String[]{ "1", "a, b", "say \"hi\"" }, reader.readNext());
+        assertArrayEquals(new String[]{ "2", "two\nlines", "" }, reader.readNext());
+        assertArrayEquals(new String[]{ "" }, reader.readNext());
+        assertArrayEquals(new String[]{ "3", "bc\"d\"ef", "open" }, reader.readNext());
+        assertNull(reader.readNext());
+    }
+
+    @Test
+    public void fieldsAcrossBufferRefills() throws Exception {
+
+        StringBuilder longValue = new StringBuilder();
+        while (longValue.length() < CSVReader.BUFFER_SIZE * 2) {
+            longValue.append("value \"\" ");
+        }
+
+        CSVReader reader = new CSVReader(new StringReader("\"" + longValue + "\",end\n"));
+
+        String[] row = reader.readNext();
+
+        assertEquals(longValue.toString().replace("\"\"", "\""), row[0]);
+        assertEquals("end", row[1]);
+        assertNull(reader.readNext());
+    }
+
+    //repeats a row until the size is reached, so the benchmark does not hold the file in memory
+    private static class RepeatingReader extends Reader {
+
+        private final char[] row;
+        private final long size;
+        private long read = 0;
+
+        RepeatingReader(String row, long size) {
+            this.row = row.toCharArray();
+            this.size = size;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+
+            if (read >= size) return -1;
+
+            int n = (int) Math.min(length, size - read);
+
+            for (int i = 0; i < n; i++) {
+                buffer[offset + i] = row[(int) ((read + i) % row.length)];
+            }
+
+            read += n;
+
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    @Category(Benchmark.class)
+    public void parsingThroughput() throws Exception {
+
+        String row = "13RPN00001,1,1,\"Kansas, wheat\",PI 45\"\"12,0.25,,NA,\"2024-05-01 10:00:00\"\n";
+
+        long size = 100L * 1024 * 1024 / row.length() * row.length();
+
+        CSVReader reader = new CSVReader(new RepeatingReader(row, size));
+
+        long rows = 0;
+        String[] data;
+
+        while ((data = reader.readNext()) != null) {
+            assertEquals(9, data.length);
+            rows++;
+        }
+
+        assertEquals(size / row.length(), rows);
+    }
+}
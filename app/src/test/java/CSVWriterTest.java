@@ -0,0 +1,208 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.fieldbook.tracker.utilities.CSVWriter;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.io.BufferedWriter;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * Checks the quoting of exported lines, and compares the export of a large table with the previous writer as a benchmark.
+ */
+public class CSVWriterTest {
+
+    @Test
+    public void quotesAndEscapes() throws Exception {
+
+        StringWriter out = new StringWriter();
+
+        CSVWriter writer = new CSVWriter(out);
+        writer.writeNext(new String[]{ "plot", null, "", "say \"hi\"", "\"", "a,b" });
+        writer.writeNext(new String[]{ "second" });
+        writer.close();
+
+        assertEquals("\"plot\",,\"\",\"say \"\"hi\"\"\",\"\"\"\",\"a,b\"\n\"second\"\n", out.toString());
+    }
+
+    //the file of an export, keeps the number and checksum of the bytes so both writers' output can be compared
+    private static class ChecksumStream extends OutputStream {
+
+        final CRC32 crc = new CRC32();
+
+        long bytes = 0;
+
+        @Override
+        public void write(int b) {
+            crc.update(b);
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) {
+            crc.update(buffer, offset, length);
+            bytes += length;
+        }
+    }
+
+    /**
+     * writeNext of the writer before lines were formatted into reused buffers,
+     * one StringBuilder and String per line written straight to an unbuffered PrintWriter.
+     */
+    private static class PreviousCSVWriter {
+
+        private final PrintWriter pw;
+
+        PreviousCSVWriter(Writer writer) {
+            pw = new PrintWriter(writer);
+        }
+
+        void writeNext(String[] nextLine) {
+
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < nextLine.length; i++) {
+
+                if (i != 0) {
+                    sb.append(',');
+                }
+
+                String nextElement = nextLine[i];
+
+                if (nextElement == null)
+                    continue;
+
+                sb.append('"');
+
+                for (int j = 0; j < nextElement.length(); j++) {
+                    char nextChar = nextElement.charAt(j);
+
+                    if (nextChar == '"') {
+                        sb.append('"').append(nextChar);
+                    } else {
+                        sb.append(nextChar);
+                    }
+                }
+
+                sb.append('"');
+            }
+
+            sb.append('\n');
+            pw.write(sb.toString());
+        }
+
+        void close() {
+            pw.flush();
+            pw.close();
+        }
+    }
+
+    private static final int ROWS = 50_000;
+    private static final int COLUMNS = 60;
+
+    //the rows repeat every 100, built up front so the test time is the writer's
+    private static String[][] table() {
+
+        String[][] table = new String[100][COLUMNS];
+
+        for (int r = 0; r < 100; r++) {
+            for (int c = 0; c < COLUMNS; c++) {
+                table[r][c] = c % 10 == 9 ? null : "value " + r + (c % 20 == 0 ? " \"quoted\"" : "");
+            }
+        }
+
+        return table;
+    }
+
+    private interface Export {
+        ChecksumStream write(String[][] table) throws Exception;
+    }
+
+    private static ChecksumStream previousExport(String[][] table) {
+
+        ChecksumStream out = new ChecksumStream();
+
+        PreviousCSVWriter writer = new PreviousCSVWriter(new OutputStreamWriter(out));
+
+        for (int r = 0; r < ROWS; r++) {
+            writer.writeNext(table[r % 100]);
+        }
+
+        writer.close();
+
+        return out;
+    }
+
+    //the writer as ExportUtil creates it
+    private static ChecksumStream export(String[][] table) throws Exception {
+
+        ChecksumStream out = new ChecksumStream();
+
+        CSVWriter writer = new CSVWriter(new BufferedWriter(new OutputStreamWriter(out), CSVWriter.BUFFER_SIZE));
+
+        for (int r = 0; r < ROWS; r++) {
+            writer.writeNext(table[r % 100]);
+        }
+
+        writer.close();
+
+        return out;
+    }
+
+    //rows per second and allocated bytes per row, the checksum of the output is returned in the last element
+    private static double[] measure(Export export, String[][] table) throws Exception {
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        long thread = Thread.currentThread().getId();
+
+        //warm up
+        ChecksumStream out = export.write(table);
+
+        int runs = 5;
+
+        long bytes = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+
+        for (int i = 0; i < runs; i++) {
+            export.write(table);
+        }
+
+        long nanos = System.nanoTime() - start;
+
+        bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+
+        return new double[]{ runs * ROWS * 1e9 / nanos, (double) bytes / (runs * ROWS), out.bytes, out.crc.getValue() };
+    }
+
+    /**
+     * Exports a table of 50k rows by 60 columns with the writer before and after lines were formatted into
+     * reused buffers and written through a 64k buffer, both must write the same file.
+     */
+    @Test
+    @Category(Benchmark.class)
+    public void tableExportThroughput() throws Exception {
+
+        String[][] table = table();
+
+        double[] previous = measure(CSVWriterTest::previousExport, table);
+        double[] current = measure(CSVWriterTest::export, table);
+
+        assertEquals(previous[2], current[2], 0);
+        assertEquals(previous[3], current[3], 0);
+
+        String result = String.format(Locale.US, "previous %.0f rows/s %.0f B/row, buffered %.0f rows/s %.0f B/row",
+                previous[0], previous[1], current[0], current[1]);
+
+        assertTrue(result, current[0] > previous[0]);
+        assertTrue(result, current[1] < previous[1]);
+    }
+}
@@ -0,0 +1,136 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import android.os.Build;
+
+import com.fieldbook.tracker.utilities.CategoryJsonUtil;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import org.brapi.v2.model.pheno.BrAPIScaleValidValuesCategories;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.StringJoiner;
+
+/**
+ * Checks that cached decoding of stored categorical values hands every caller its own categories,
+ * the benchmark compares export and grid decoding with the new Gson per value they used before.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.P})
+public class CategoryJsonUtilTest {
+
+    private static final String STORED = "[{\"label\":\"Low\",\"value\":\"1\"},{\"label\":\"High\",\"value\":\"3\"}]";
+
+    @Test
+    public void decodedValuesAreNotShared() {
+
+        ArrayList<BrAPIScaleValidValuesCategories> first = CategoryJsonUtil.Companion.decode(STORED);
+
+        first.get(0).setLabel("changed");
+        first.remove(1);
+
+        ArrayList<BrAPIScaleValidValuesCategories> second = CategoryJsonUtil.Companion.decode(STORED);
+
+        assertNotSame(first, second);
+        assertEquals(2, second.size());
+        assertEquals("Low", second.get(0).getLabel());
+        assertEquals("3", second.get(1).getValue());
+    }
+
+    @Test
+    public void processedValues() {
+
+        assertEquals("1:3", CategoryJsonUtil.Companion.processValue("multicat", STORED));
+        assertEquals("1", CategoryJsonUtil.Companion.processValue("categorical", STORED));
+        assertEquals("plain", CategoryJsonUtil.Companion.processValue("categorical", "plain"));
+        assertEquals(STORED, CategoryJsonUtil.Companion.processValue("text", STORED));
+    }
+
+    //the decode export and the data grid ran before the cache, a new Gson and type token per value
+    private static List<BrAPIScaleValidValuesCategories> decodeWithNewGson(String json) {
+        return new Gson().fromJson(json, new TypeToken<List<BrAPIScaleValidValuesCategories>>() {}.getType());
+    }
+
+    /**
+     * Exports and shows in the grid 100k categorical and multicat observations over a trait's few stored values,
+     * once through the cached decoder and once decoding every value with a new Gson.
+     */
+    @Test
+    @Category(Benchmark.class)
+    public void exportAndGridThroughput() {
+
+        int observations = 100_000;
+
+        String[] categories = { "Low", "Mid", "High", "Lodged", "Missing" };
+
+        //single categories and pairs of categories as stored by the categorical and multicat layouts
+        List<String> domain = new ArrayList<>();
+
+        for (int a = 0; a < categories.length; a++) {
+
+            ArrayList<BrAPIScaleValidValuesCategories> single = new ArrayList<>();
+            single.add(new BrAPIScaleValidValuesCategories().label(categories[a]).value(String.valueOf(a)));
+            domain.add(CategoryJsonUtil.Companion.encode(single));
+
+            for (int b = a + 1; b < categories.length; b++) {
+
+                ArrayList<BrAPIScaleValidValuesCategories> pair = new ArrayList<>(single);
+                pair.add(new BrAPIScaleValidValuesCategories().label(categories[b]).value(String.valueOf(b)));
+                domain.add(CategoryJsonUtil.Companion.encode(pair));
+            }
+        }
+
+        String[] exported = new String[observations];
+        String[] shown = new String[observations];
+
+        long start = System.nanoTime();
+
+        for (int i = 0; i < observations; i++) {
+
+            String stored = domain.get(i % domain.size());
+
+            exported[i] = CategoryJsonUtil.Companion.processValue("multicat", stored);
+            shown[i] = CategoryJsonUtil.Companion.flattenMultiCategoryValue(CategoryJsonUtil.Companion.decode(stored), true);
+        }
+
+        long cached = System.nanoTime() - start;
+
+        String[] previousExported = new String[observations];
+        String[] previousShown = new String[observations];
+
+        start = System.nanoTime();
+
+        for (int i = 0; i < observations; i++) {
+
+            String stored = domain.get(i % domain.size());
+
+            StringJoiner values = new StringJoiner(":");
+            for (BrAPIScaleValidValuesCategories category : decodeWithNewGson(stored)) values.add(category.getValue());
+
+            StringJoiner labels = new StringJoiner(":");
+            for (BrAPIScaleValidValuesCategories category : decodeWithNewGson(stored)) labels.add(category.getLabel());
+
+            previousExported[i] = values.toString();
+            previousShown[i] = labels.toString();
+        }
+
+        long uncached = System.nanoTime() - start;
+
+        assertArrayEquals(previousExported, exported);
+        assertArrayEquals(previousShown, shown);
+
+        assertTrue(String.format(Locale.US, "%d observations: cached %.0f values/s, new Gson per value %.0f values/s",
+                        observations, observations * 1e9 / cached, observations * 1e9 / uncached),
+                cached < uncached);
+    }
+}
@@ -0,0 +1,170 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+
+import com.fieldbook.tracker.database.CursorMapperKt;
+import com.fieldbook.tracker.database.SqlUtilKt;
+import com.fieldbook.tracker.database.models.ObservationModel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.IntSupplier;
+
+/**
+ * Checks the observation mapper against toTable. The benchmark builds the same observations each way
+ * and compares their rows per second and allocations.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.P})
+public class CursorMapperTest {
+
+    private static final int ROWS = 20000;
+
+    private static final String QUERY = "SELECT * FROM observations";
+
+    private SQLiteDatabase db;
+
+    @Before
+    public void setUp() {
+
+        db = SQLiteDatabase.create(null);
+
+        db.execSQL("CREATE TABLE observations (internal_id_observation INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "observation_unit_id TEXT, study_id INT, observation_variable_db_id INT, observation_variable_name TEXT, "
+                + "observation_variable_field_book_format TEXT, value TEXT, observation_time_stamp TEXT, collector TEXT, "
+                + "geoCoordinates TEXT, observation_db_id TEXT, last_synced_time TEXT, additional_info TEXT, rep TEXT, notes TEXT)");
+
+        db.beginTransaction();
+
+        for (int i = 0; i < ROWS; i++) {
+            ContentValues values = new ContentValues();
+            values.put("observation_unit_id", "unit" + i / 10);
+            values.put("study_id", 1);
+            values.put("observation_variable_db_id", i % 10);
+            values.put("observation_variable_name", "trait" + i % 10);
+            values.put("observation_variable_field_book_format", "numeric");
+            values.put("value", String.valueOf(i));
+            values.put("observation_time_stamp", "2024-01-01 12:00:00.000-05:00");
+            values.put("collector", "collector");
+            values.put("rep", "1");
+            db.insert("observations", null, values);
+        }
+
+        db.setTransactionSuccessful();
+        db.endTransaction();
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void mapperMatchesToTable() {
+
+        List<Map<String, Object>> table = SqlUtilKt.toTable(db.rawQuery(QUERY, null));
+
+        List<ObservationModel> models = CursorMapperKt.mapRows(db.rawQuery(QUERY, null), new ObservationModel.Mapper());
+
+        assertEquals(table.size(), models.size());
+
+        for (int i = 0; i < table.size(); i++) {
+
+            ObservationModel expected = new ObservationModel(table.get(i));
+            ObservationModel model = models.get(i);
+
+            assertEquals(table.get(i), model.getMap());
+            assertEquals(expected.getInternal_id_observation(), model.getInternal_id_observation());
+            assertEquals(expected.getObservation_unit_id(), model.getObservation_unit_id());
+            assertEquals(expected.getStudy_id(), model.getStudy_id());
+            assertEquals(expected.getObservation_variable_db_id(), model.getObservation_variable_db_id());
+            assertEquals(expected.getObservation_variable_name(), model.getObservation_variable_name());
+            assertEquals(expected.getValue(), model.getValue());
+            assertEquals(expected.getObservation_time_stamp(), model.getObservation_time_stamp());
+            assertEquals(expected.getLast_synced_time(), model.getLast_synced_time());
+            assertEquals(expected.getRep(), model.getRep());
+        }
+    }
+
+    @Test
+    public void mapFirstEmptyCursor() {
+
+        assertNull(CursorMapperKt.mapFirst(db.rawQuery(QUERY + " WHERE study_id = 2", null), new ObservationModel.Mapper()));
+    }
+
+    //the previous read path, a defaulted map per row that the model is then built from
+    private int readToTable() {
+
+        List<Map<String, Object>> table = SqlUtilKt.toTable(db.rawQuery(QUERY, null));
+
+        List<ObservationModel> models = new ArrayList<>(table.size());
+
+        for (Map<String, Object> row : table) {
+            models.add(new ObservationModel(row));
+        }
+
+        return models.size();
+    }
+
+    private int readMapper() {
+        return CursorMapperKt.mapRows(db.rawQuery(QUERY, null), new ObservationModel.Mapper()).size();
+    }
+
+    /**
+     * Reads the observations a few times through the given path.
+     * @return rows per second and the bytes allocated per row by the reading thread
+     */
+    private double[] measure(IntSupplier read) {
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        long thread = Thread.currentThread().getId();
+
+        //warm up
+        assertEquals(ROWS, read.getAsInt());
+
+        int runs = 5;
+
+        long bytes = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+
+        for (int i = 0; i < runs; i++) {
+            assertEquals(ROWS, read.getAsInt());
+        }
+
+        long nanos = System.nanoTime() - start;
+
+        bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+
+        return new double[]{ runs * ROWS * 1e9 / nanos, (double) bytes / (runs * ROWS) };
+    }
+
+    @Test
+    @Category(Benchmark.class)
+    public void readPathsBenchmark() {
+
+        double[] table = measure(this::readToTable);
+        double[] mapper = measure(this::readMapper);
+
+        String result = String.format(Locale.US, "toTable %.0f rows/s %.0f B/row, mapper %.0f rows/s %.0f B/row",
+                table[0], table[1], mapper[0], mapper[1]);
+
+        assertTrue(result, mapper[0] > table[0]);
+        assertTrue(result, mapper[1] < table[1]);
+    }
+}
@@ -0,0 +1,96 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.fieldbook.tracker.database.DataHelper;
+import com.fieldbook.tracker.database.DatabaseReaderPool;
+import com.fieldbook.tracker.database.SqlUtilKt;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks that read blocks run once whatever they return, and that a reader backing a cursor
+ * is only given to the next borrower once the cursor is closed.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.P})
+public class DatabaseReaderPoolTest {
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private SQLiteDatabase db;
+    private DatabaseReaderPool pool;
+
+    @Before
+    public void setUp() {
+
+        Context context = ApplicationProvider.getApplicationContext();
+
+        new DataHelper(context);
+
+        db = DataHelper.db;
+
+        pool = new DatabaseReaderPool(DataHelper.getDatabasePath(context), 1);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        pool.close();
+    }
+
+    @Test
+    public void nullResultRunsOnce() {
+
+        AtomicInteger runs = new AtomicInteger();
+
+        assertNull(SqlUtilKt.withReadDatabase(reader -> {
+            runs.incrementAndGet();
+            return null;
+        }));
+
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    public void cursorKeepsReader() throws Exception {
+
+        Cursor cursor = pool.query(db, reader -> reader.rawQuery("SELECT name FROM sqlite_master", null));
+
+        Future<Integer> next = executor.submit(() -> pool.read(db, reader -> 1));
+
+        try {
+
+            next.get(300, TimeUnit.MILLISECONDS);
+
+            throw new AssertionError("the reader was lent while its cursor was open");
+
+        } catch (TimeoutException e) {
+
+            assertFalse(next.isDone());
+        }
+
+        cursor.close();
+
+        assertEquals(1, (int) next.get(2, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,108 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.fieldbook.tracker.database.DataHelper;
+import com.fieldbook.tracker.database.SearchIndex;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+
+/**
+ * Checks the online backup snapshot against the live database, which must stay open while it is written.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.P})
+public class DatabaseSnapshotTest {
+
+    private DataHelper helper;
+
+    @Before
+    public void setUp() {
+        Context context = ApplicationProvider.getApplicationContext();
+        helper = new DataHelper(context);
+        assertNotNull(DataHelper.db);
+    }
+
+    @Test
+    public void snapshotKeepsLiveConnectionOpen() throws Exception {
+
+        SQLiteDatabase live = DataHelper.db;
+
+        live.execSQL("CREATE TABLE snapshot_test (id INTEGER PRIMARY KEY AUTOINCREMENT, value TEXT)");
+        live.execSQL("CREATE INDEX snapshot_test_value ON snapshot_test (value)");
+
+        for (int i = 0; i < 100; i++) {
+            live.execSQL("INSERT INTO snapshot_test (value) VALUES (?)", new Object[]{ "v" + i });
+        }
+
+        File snapshot = helper.createSnapshot("snapshot_test");
+
+        assertTrue(live.isOpen());
+
+        try (SQLiteDatabase copy = SQLiteDatabase.openDatabase(snapshot.getPath(), null, SQLiteDatabase.OPEN_READONLY)) {
+
+            assertEquals(100, DatabaseUtils.queryNumEntries(copy, "snapshot_test"));
+
+            assertEquals(DataHelper.DATABASE_VERSION, copy.getVersion());
+
+            assertEquals(1, DatabaseUtils.longForQuery(copy,
+                    "SELECT COUNT(*) FROM sqlite_master WHERE type = 'index' AND name = 'snapshot_test_value'", null));
+
+            assertEquals(100, DatabaseUtils.longForQuery(copy,
+                    "SELECT seq FROM sqlite_sequence WHERE name = 'snapshot_test'", null));
+
+            assertEquals(DatabaseUtils.queryNumEntries(live, "studies"), DatabaseUtils.queryNumEntries(copy, "studies"));
+        }
+
+        assertTrue(snapshot.delete());
+    }
+
+    //below Android 11 the snapshot is copied table by table, the full text index is recreated and queued instead
+    @Test
+    @Config(sdk = {Build.VERSION_CODES.P})
+    public void tableCopyQueuesSearchIndex() throws Exception {
+
+        SQLiteDatabase live = DataHelper.db;
+
+        live.execSQL("INSERT INTO studies (internal_id_study, study_name) VALUES (1, 'one')");
+        live.execSQL("INSERT INTO observation_units (internal_id_observation_unit, study_id, observation_unit_db_id) VALUES (1, 1, 'u1')");
+        live.execSQL("INSERT INTO observation_units_attributes (internal_id_observation_unit_attribute, observation_unit_attribute_name, study_id) VALUES (1, 'accession', 1)");
+        live.execSQL("INSERT INTO observation_units_values (internal_id_observation_unit_value, observation_unit_attribute_db_id, observation_unit_value_name, observation_unit_id, study_id) "
+                + "VALUES (3, 1, 'Kansas wheat', 1, 1)");
+
+        SearchIndex.INSTANCE.update(live);
+
+        assertEquals(1, DatabaseUtils.queryNumEntries(live, SearchIndex.TABLE_NAME));
+
+        File snapshot = helper.createSnapshot("snapshot_test");
+
+        try (SQLiteDatabase copy = SQLiteDatabase.openDatabase(snapshot.getPath(), null, SQLiteDatabase.OPEN_READWRITE)) {
+
+            assertEquals(1, DatabaseUtils.queryNumEntries(copy, "observation_units_values"));
+
+            assertEquals(0, DatabaseUtils.queryNumEntries(copy, SearchIndex.TABLE_NAME));
+
+            assertEquals(-3, DatabaseUtils.longForQuery(copy, "SELECT docid FROM " + SearchIndex.PENDING_TABLE_NAME, null));
+
+            SearchIndex.INSTANCE.update(copy);
+
+            assertEquals(1, DatabaseUtils.longForQuery(copy,
+                    "SELECT unit_id FROM " + SearchIndex.TABLE_NAME + " WHERE tokens MATCH 'whe*'", null));
+        }
+
+        assertTrue(snapshot.delete());
+    }
+}
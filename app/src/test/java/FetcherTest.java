@@ -0,0 +1,276 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockingDetails;
+
+import android.os.Build;
+
+import com.fieldbook.tracker.brapi.service.Fetcher;
+
+import org.brapi.client.v2.ApiCallback;
+import org.brapi.client.v2.model.exceptions.ApiException;
+import org.brapi.client.v2.model.queryParams.phenotype.ObservationUnitQueryParams;
+import org.brapi.v2.model.BrAPIIndexPagination;
+import org.brapi.v2.model.BrAPIMetadata;
+import org.brapi.v2.model.pheno.BrAPIObservationUnit;
+import org.brapi.v2.model.pheno.response.BrAPIObservationUnitListResponse;
+import org.brapi.v2.model.pheno.response.BrAPIObservationUnitListResponseResult;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import kotlin.Pair;
+import kotlin.Unit;
+import kotlin.coroutines.EmptyCoroutineContext;
+import kotlin.jvm.functions.Function2;
+import kotlinx.coroutines.BuildersKt;
+import kotlinx.coroutines.flow.Flow;
+import kotlinx.coroutines.flow.FlowKt;
+import okhttp3.Call;
+
+/**
+ * Runs the page fetcher against a fake paged endpoint: the in-flight window, retries of transient
+ * failures, ordered emission, failing the flow on a page that cannot be read and cancelling calls.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.P})
+public class FetcherTest {
+
+    private static final int PAGE_SIZE = 10;
+    private static final int PAGES = 60;
+
+    private final ExecutorService server = Executors.newFixedThreadPool(16);
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final Map<Integer, AtomicInteger> calls = new ConcurrentHashMap<>();
+    private final List<Call> issued = Collections.synchronizedList(new ArrayList<>());
+
+    //failure codes returned for the first calls of a page
+    private final Map<Integer, int[]> failures = new ConcurrentHashMap<>();
+
+    @After
+    public void tearDown() {
+        server.shutdownNow();
+    }
+
+    private BrAPIObservationUnitListResponse page(int page) {
+
+        List<BrAPIObservationUnit> units = new ArrayList<>();
+
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            units.add(new BrAPIObservationUnit().observationUnitDbId(String.valueOf(page * PAGE_SIZE + i)));
+        }
+
+        return new BrAPIObservationUnitListResponse()
+                .metadata(new BrAPIMetadata().pagination(new BrAPIIndexPagination()
+                        .currentPage(page).pageSize(PAGE_SIZE).totalCount(PAGES * PAGE_SIZE).totalPages(PAGES)))
+                .result(new BrAPIObservationUnitListResponseResult().data(units));
+    }
+
+    //answers on a server thread after a delay, later pages answer sooner so responses arrive out of order
+    private Call call(ObservationUnitQueryParams params, ApiCallback<BrAPIObservationUnitListResponse> callback) {
+
+        int page = params.page();
+
+        int attempt = calls.computeIfAbsent(page, p -> new AtomicInteger()).getAndIncrement();
+
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+
+        server.execute(() -> {
+
+            try {
+                Thread.sleep(5 + (PAGES - page) % 7);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            inFlight.decrementAndGet();
+
+            int[] codes = failures.get(page);
+
+            if (codes != null && attempt < codes.length) {
+                callback.onFailure(new ApiException("failed", codes[attempt], Collections.emptyMap(), null),
+                        codes[attempt], Collections.emptyMap());
+            } else {
+                callback.onSuccess(page(page), 200, Collections.emptyMap());
+            }
+        });
+
+        Call call = mock(Call.class);
+        issued.add(call);
+        return call;
+    }
+
+    private Flow<Pair<Integer, List<BrAPIObservationUnit>>> fetch(boolean ordered, List<Fetcher.PageMetrics> metrics) {
+
+        Fetcher<BrAPIObservationUnit, ObservationUnitQueryParams, BrAPIObservationUnitListResponse> fetcher =
+                new Fetcher<>(4, 3, 1L, ordered, m -> {
+                    metrics.add(m);
+                    return Unit.INSTANCE;
+                });
+
+        ObservationUnitQueryParams params = new ObservationUnitQueryParams();
+        params.pageSize(PAGE_SIZE);
+
+        return fetcher.fetchAll(params, this::call);
+    }
+
+    private static <T> List<T> collect(Flow<T> flow) throws Exception {
+
+        Function2<kotlinx.coroutines.CoroutineScope, kotlin.coroutines.Continuation<? super List<T>>, Object> block =
+                (scope, continuation) -> FlowKt.toList(flow, new ArrayList<>(), continuation);
+
+        return BuildersKt.runBlocking(EmptyCoroutineContext.INSTANCE, block);
+    }
+
+    @Test
+    public void orderedPagesWithRetries() throws Exception {
+
+        failures.put(5, new int[]{ 503 });
+        failures.put(7, new int[]{ 0, 429 });
+
+        List<Fetcher.PageMetrics> metrics = Collections.synchronizedList(new ArrayList<>());
+
+        List<Pair<Integer, List<BrAPIObservationUnit>>> pages = collect(fetch(true, metrics));
+
+        assertEquals(PAGES, pages.size());
+
+        for (int p = 0; p < PAGES; p++) {
+            assertEquals(PAGES * PAGE_SIZE, (int) pages.get(p).getFirst());
+            assertEquals(String.valueOf(p * PAGE_SIZE), pages.get(p).getSecond().get(0).getObservationUnitDbId());
+        }
+
+        assertTrue("in flight " + maxInFlight.get(), maxInFlight.get() <= 4);
+
+        assertEquals(2, calls.get(5).get());
+        assertEquals(3, calls.get(7).get());
+        assertEquals(1, calls.get(8).get());
+
+        assertEquals(PAGES, metrics.size());
+
+        for (Fetcher.PageMetrics m : metrics) {
+            if (m.getPage() == 7) assertEquals(3, m.getAttempts());
+        }
+    }
+
+    @Test
+    public void unorderedEmitsEveryPage() throws Exception {
+
+        List<Pair<Integer, List<BrAPIObservationUnit>>> pages = collect(fetch(false, new ArrayList<>()));
+
+        int units = 0;
+        for (Pair<Integer, List<BrAPIObservationUnit>> page : pages) {
+            units += page.getSecond().size();
+        }
+
+        assertEquals(PAGES * PAGE_SIZE, units);
+    }
+
+    @Test
+    public void resumesFromStartPage() throws Exception {
+
+        Fetcher<BrAPIObservationUnit, ObservationUnitQueryParams, BrAPIObservationUnitListResponse> fetcher =
+                new Fetcher<>(4, 3, 1L, true, null);
+
+        ObservationUnitQueryParams params = new ObservationUnitQueryParams();
+        params.pageSize(PAGE_SIZE);
+
+        List<Fetcher.Page<BrAPIObservationUnit>> pages = collect(fetcher.fetchPages(params, this::call, 50));
+
+        assertEquals(PAGES - 50, pages.size());
+
+        for (int i = 0; i < pages.size(); i++) {
+            assertEquals(50 + i, pages.get(i).getIndex());
+            assertEquals(PAGES, pages.get(i).getTotalPages());
+        }
+
+        //pages before the start page are not requested
+        assertEquals(PAGES - 50, calls.size());
+        assertTrue(calls.keySet().stream().allMatch(page -> page >= 50));
+    }
+
+    @Test
+    public void firstPageAlone() throws Exception {
+
+        Fetcher<BrAPIObservationUnit, ObservationUnitQueryParams, BrAPIObservationUnitListResponse> fetcher =
+                new Fetcher<>(4, 3, 1L, true, null);
+
+        ObservationUnitQueryParams params = new ObservationUnitQueryParams();
+        params.pageSize(PAGE_SIZE);
+
+        Function2<kotlinx.coroutines.CoroutineScope, kotlin.coroutines.Continuation<? super Fetcher.Page<BrAPIObservationUnit>>, Object> block =
+                (scope, continuation) -> fetcher.fetchFirstPage(params, this::call, continuation);
+
+        Fetcher.Page<BrAPIObservationUnit> page = BuildersKt.runBlocking(EmptyCoroutineContext.INSTANCE, block);
+
+        assertEquals(0, page.getIndex());
+        assertEquals(PAGES * PAGE_SIZE, page.getTotalCount());
+        assertEquals(PAGES, page.getTotalPages());
+        assertEquals(PAGE_SIZE, page.getModels().size());
+
+        //the following pages are left to fetchPages
+        assertEquals(1, calls.size());
+    }
+
+    @Test
+    public void failedPageFailsFlow() throws Exception {
+
+        failures.put(3, new int[]{ 404 });
+
+        try {
+
+            collect(fetch(false, new ArrayList<>()));
+
+            fail("expected the missing page to fail the fetch");
+
+        } catch (ApiException e) {
+
+            //coroutines may rethrow a copy with the original as its cause
+            ApiException error = e.getCause() instanceof ApiException ? (ApiException) e.getCause() : e;
+
+            assertEquals(404, error.getCode());
+        }
+
+        //not found is not retried
+        assertEquals(1, calls.get(3).get());
+    }
+
+    @Test
+    public void cancellingCancelsCalls() throws Exception {
+
+        List<Pair<Integer, List<BrAPIObservationUnit>>> pages = collect(FlowKt.take(fetch(false, new ArrayList<>()), 3));
+
+        assertEquals(3, pages.size());
+
+        server.shutdown();
+        server.awaitTermination(1, TimeUnit.SECONDS);
+
+        assertTrue(issued.size() < PAGES);
+
+        //pages still outstanding when the collection stopped had their calls cancelled
+        boolean cancelled = false;
+
+        synchronized (issued) {
+            for (Call call : issued) {
+                cancelled |= mockingDetails(call).getInvocations().stream()
+                        .anyMatch(invocation -> invocation.getMethod().getName().equals("cancel"));
+            }
+        }
+
+        assertTrue(cancelled);
+    }
+}
@@ -0,0 +1,91 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.fieldbook.tracker.database.DataHelper;
+import com.fieldbook.tracker.database.FieldCompleteness;
+import com.fieldbook.tracker.objects.PlotIndex;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Checks the skip-to-next-uncollected bit scan against a small field of five plots.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.P})
+public class FieldCompletenessTest {
+
+    private static final int STUDY = 1;
+
+    private FieldCompleteness completeness;
+
+    @Before
+    public void setUp() {
+
+        new DataHelper(ApplicationProvider.getApplicationContext());
+
+        SQLiteDatabase db = DataHelper.db;
+
+        //plots in navigation order, ids deliberately not sorted
+        PlotIndex index = new PlotIndex(new int[]{ 5, 3, 9, 1, 7 },
+                new String[]{ "1", "1", "1", "2", "2" },
+                new String[]{ "1", "2", "3", "1", "2" },
+                new String[]{ "a", "b", "c", "d", "e" });
+
+        //trait 10 is collected on a, b and d, trait 11 on every plot but e
+        for (String unit : Arrays.asList("a", "b", "d")) {
+            insert(db, unit, "10");
+        }
+
+        for (String unit : Arrays.asList("a", "b", "c", "d")) {
+            insert(db, unit, "11");
+        }
+
+        completeness = new FieldCompleteness(STUDY, index);
+    }
+
+    private static void insert(SQLiteDatabase db, String unit, String trait) {
+        db.execSQL("INSERT INTO observations (study_id, observation_unit_id, observation_variable_db_id, value) VALUES (?, ?, ?, ?)",
+                new Object[]{ STUDY, unit, trait, "x" });
+    }
+
+    @Test
+    public void forwardAndBackwardWrap() {
+
+        assertEquals(2, completeness.nextIncomplete(0, 1, Collections.singletonList("10")));
+        assertEquals(2, completeness.nextIncomplete(4, 1, Collections.singletonList("10")));
+        assertEquals(4, completeness.nextIncomplete(2, -1, Collections.singletonList("10")));
+        assertEquals(4, completeness.nextIncomplete(0, 1, Collections.singletonList("11")));
+
+        //either trait missing
+        assertEquals(2, completeness.nextIncomplete(1, 1, Arrays.asList("10", "11")));
+    }
+
+    @Test
+    public void insertsAndDeletesStayInSync() {
+
+        assertFalse(completeness.isCollected("11", 7));
+
+        completeness.onInsert(String.valueOf(STUDY), "e", "11");
+
+        assertTrue(completeness.isCollected("11", 7));
+        assertEquals(-1, completeness.nextIncomplete(0, 1, Collections.singletonList("11")));
+
+        //the insert above never reached the database, an invalidated trait is read again
+        completeness.invalidate("11");
+
+        assertFalse(completeness.isCollected("11", 7));
+    }
+}
@@ -0,0 +1,215 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.fieldbook.tracker.database.DataHelper;
+import com.fieldbook.tracker.database.dao.ObservationUnitPropertyDao;
+import com.fieldbook.tracker.database.dao.StudyDao;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that the triggers keep a study's property table equal to a rebuild of it,
+ * and times the field switch over the property tables against the pivot the switch used to run.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.P})
+public class PropertyCacheTest {
+
+    private static final String[] ATTRIBUTES = { "plot_id", "Row", "Column", "entry", "rep", "block", "pedigree", "name" };
+
+    private Context context;
+
+    private SQLiteDatabase db;
+
+    @Before
+    public void setUp() {
+
+        context = ApplicationProvider.getApplicationContext();
+
+        new DataHelper(context);
+
+        db = DataHelper.db;
+    }
+
+    //a study with units of the given count, attribute ids are study * 100 + the attribute index
+    private void insertStudy(int study, int units) {
+
+        db.beginTransaction();
+
+        db.execSQL("INSERT INTO studies (internal_id_study, study_name, study_unique_id_name, study_primary_id_name, study_secondary_id_name) "
+                + "VALUES (?, ?, 'plot_id', 'Row', 'Column')", new Object[]{ study, "study" + study });
+
+        for (int a = 0; a < ATTRIBUTES.length; a++) {
+            db.execSQL("INSERT INTO observation_units_attributes (internal_id_observation_unit_attribute, observation_unit_attribute_name, study_id) VALUES (?, ?, ?)",
+                    new Object[]{ study * 100 + a, ATTRIBUTES[a], study });
+        }
+
+        SQLiteStatement unit = db.compileStatement("INSERT INTO observation_units "
+                + "(internal_id_observation_unit, study_id, observation_unit_db_id, primary_id, secondary_id, geo_coordinates) VALUES (?, ?, ?, ?, ?, '')");
+
+        SQLiteStatement value = db.compileStatement("INSERT INTO observation_units_values "
+                + "(observation_unit_attribute_db_id, observation_unit_value_name, observation_unit_id, study_id) VALUES (?, ?, ?, ?)");
+
+        for (int u = 0; u < units; u++) {
+
+            long id = study * 1_000_000L + u;
+
+            unit.bindLong(1, id);
+            unit.bindLong(2, study);
+            unit.bindString(3, study + "-" + u);
+            unit.bindString(4, String.valueOf(u / 100));
+            unit.bindString(5, String.valueOf(u % 100));
+            unit.executeInsert();
+
+            for (int a = 0; a < ATTRIBUTES.length; a++) {
+                value.bindLong(1, study * 100 + a);
+                value.bindString(2, a == 0 ? study + "-" + u : ATTRIBUTES[a] + " " + (u % 97));
+                value.bindLong(3, id);
+                value.bindLong(4, study);
+                value.executeInsert();
+            }
+        }
+
+        unit.close();
+        value.close();
+
+        db.setTransactionSuccessful();
+        db.endTransaction();
+    }
+
+    private List<String> rows(int study) {
+
+        List<String> rows = new ArrayList<>();
+
+        try (Cursor cursor = db.rawQuery("SELECT * FROM " + ObservationUnitPropertyDao.Companion.getPropertyCacheName(study) + " ORDER BY id", null)) {
+
+            while (cursor.moveToNext()) {
+
+                StringBuilder row = new StringBuilder();
+
+                for (int c = 0; c < cursor.getColumnCount(); c++) {
+                    row.append(cursor.getColumnName(c)).append('=').append(cursor.getString(c)).append(';');
+                }
+
+                rows.add(row.toString());
+            }
+        }
+
+        return rows;
+    }
+
+    //reads the selected study's rows the way the collect screen does
+    private int readSorted(int study) {
+
+        try (Cursor cursor = ObservationUnitPropertyDao.Companion.getSortedObservationUnitData(context, study)) {
+
+            int count = 0;
+
+            while (cursor.moveToNext()) count++;
+
+            return count;
+        }
+    }
+
+    @Test
+    public void triggersMatchRebuild() {
+
+        insertStudy(1, 3);
+        insertStudy(2, 2);
+
+        ObservationUnitPropertyDao.Companion.buildPropertyCache(db, 1);
+
+        //a unit added after the import, without a value for every attribute
+        db.execSQL("INSERT INTO observation_units (internal_id_observation_unit, study_id, observation_unit_db_id, geo_coordinates) VALUES (1000005, 1, 'new', '')");
+        db.execSQL("INSERT INTO observation_units_values (observation_unit_attribute_db_id, observation_unit_value_name, observation_unit_id, study_id) VALUES (100, 'new', 1000005, 1)");
+
+        db.execSQL("UPDATE observation_units_values SET observation_unit_value_name = 'edited' WHERE observation_unit_attribute_db_id = 103");
+        db.execSQL("DELETE FROM observation_units_values WHERE observation_unit_attribute_db_id = 104 AND observation_unit_id = 1000000");
+        db.execSQL("UPDATE observation_units SET geo_coordinates = '-96.6;39.3' WHERE internal_id_observation_unit = 1000001");
+        db.execSQL("DELETE FROM observation_units WHERE internal_id_observation_unit = 1000002");
+
+        //writes to other studies leave the table alone
+        db.execSQL("UPDATE observation_units_values SET observation_unit_value_name = 'other' WHERE study_id = 2");
+
+        List<String> maintained = rows(1);
+
+        assertEquals(3, maintained.size());
+        assertTrue(maintained.get(0).contains("rep=null;"));
+        assertTrue(maintained.get(1).contains("geo_coordinates=-96.6;39.3;"));
+        assertTrue(maintained.get(2).contains("plot_id=new;"));
+
+        ObservationUnitPropertyDao.Companion.buildPropertyCache(db, 1);
+
+        assertEquals(rows(1), maintained);
+    }
+
+    @Test
+    public void sortedDataWithoutTable() {
+
+        insertStudy(1, 4);
+
+        ObservationUnitPropertyDao.Companion.dropPropertyCache(db, 1);
+
+        //read from the attribute pivot, the table is left to the switch and background build
+        assertEquals(4, readSorted(1));
+    }
+
+    /**
+     * The switch used to materialize the attribute pivot of the field, it now only points the view at
+     * the property table that was built when the field was imported.
+     */
+    @Test
+    @Category(Benchmark.class)
+    public void switchLatency() {
+
+        int[] sizes = { 1_000, 10_000, 50_000 };
+
+        for (int i = 0; i < sizes.length; i++) {
+
+            int study = i + 1;
+
+            insertStudy(study, sizes[i]);
+
+            ObservationUnitPropertyDao.Companion.ensurePropertyCache(db, study);
+        }
+
+        for (int i = 0; i < sizes.length; i++) {
+
+            int study = i + 1;
+
+            long start = System.nanoTime();
+
+            ObservationUnitPropertyDao.Companion.buildPropertyCache(db, study);
+            StudyDao.Companion.switchField(study);
+            assertEquals(sizes[i], readSorted(study));
+
+            long pivot = System.nanoTime() - start;
+
+            start = System.nanoTime();
+
+            StudyDao.Companion.switchField(study);
+            assertEquals(sizes[i], readSorted(study));
+
+            long view = System.nanoTime() - start;
+
+            assertTrue(sizes[i] + " units: switch " + view / 1_000_000 + " ms, with the pivot " + pivot / 1_000_000 + " ms",
+                    view < pivot);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.os.Build;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.fieldbook.tracker.database.DataHelper;
+import com.fieldbook.tracker.database.Migrator;
+import com.fieldbook.tracker.database.SpatialIndex;
+import com.fieldbook.tracker.database.dao.ObservationDao;
+import com.fieldbook.tracker.database.dao.ObservationUnitAttributeDao;
+import com.fieldbook.tracker.database.dao.ObservationUnitDao;
+import com.fieldbook.tracker.database.dao.ObservationUnitPropertyDao;
+import com.fieldbook.tracker.objects.TraitObject;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * EXPLAIN QUERY PLAN regression checks for the hot DAO lookups, run on the SQL the DAOs build.
+ * Fails if any of these queries regresses to a full table scan or a temporary automatic index.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.P})
+public class QueryPlanTest {
+
+    //matches plan details s.a "SCAN TABLE observations" or "SCAN obs", but not "SCAN obs USING INDEX ..."
+    private static final Pattern FULL_SCAN = Pattern.compile("^SCAN (TABLE )?\\S+( AS \\S+)?$");
+
+    private SQLiteDatabase db;
+
+    @Before
+    public void setUp() {
+        new DataHelper(ApplicationProvider.getApplicationContext());
+        db = DataHelper.db;
+        assertNotNull(db);
+    }
+
+    private List<String> plan(String sql, String... args) {
+
+        List<String> details = new ArrayList<>();
+
+        try (Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args)) {
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                details.add(cursor.getString(detail));
+            }
+        }
+
+        return details;
+    }
+
+    private void assertIndexed(String sql, String... args) {
+        for (String detail : plan(sql, args)) {
+            assertFalse("Full table scan: " + detail + " in " + sql, FULL_SCAN.matcher(detail).matches());
+            assertFalse("Automatic index: " + detail + " in " + sql, detail.contains("AUTOMATIC"));
+        }
+    }
+
+    //the statement SQLiteDatabase.query builds for a DAO's where clause
+    private static String select(String table, String where) {
+        return SQLiteQueryBuilder.buildQueryString(false, table, null, where, null, null, null, null);
+    }
+
+    @Test
+    public void observationLookupsUseIndex() {
+
+        //ObservationDao.getAll(studyId, obsUnit, traitDbId) and getRep
+        assertIndexed(select(Migrator.Observation.tableName, ObservationDao.UNIT_TRAIT_WHERE), "1", "unit", "1", "numeric");
+
+        //ObservationDao.getObservation
+        assertIndexed(select(Migrator.Observation.tableName, ObservationDao.UNIT_TRAIT_REP_WHERE), "1", "1", "unit", "1", "numeric");
+
+        //ObservationDao.getUserDetail
+        assertIndexed(select(Migrator.Observation.tableName, ObservationDao.UNIT_WHERE), "unit", "1");
+
+        //ObservationDao.getAllOfTrait
+        assertIndexed(select(Migrator.Observation.tableName, ObservationDao.TRAIT_WHERE), "1");
+    }
+
+    @Test
+    public void attributeLookupsUseIndex() {
+
+        //ObservationUnitAttributeDao.getIdByName
+        assertIndexed(select(Migrator.ObservationUnitAttribute.tableName, ObservationUnitAttributeDao.NAME_WHERE), "plot");
+
+        //ObservationUnitAttributeDao.getAllNames
+        assertIndexed(select(Migrator.ObservationUnitAttribute.tableName, ObservationUnitAttributeDao.STUDY_WHERE), "1");
+
+        //ObservationUnitDao.getById
+        assertIndexed(select(Migrator.ObservationUnit.tableName, ObservationUnitDao.DB_ID_WHERE), "unit");
+
+        //ObservationUnitDao.checkUnique(studyId)
+        assertIndexed(ObservationUnitDao.CHECK_UNIQUE_QUERY, "1");
+
+        //ObservationUnitDao.getStudiesOfUnit
+        assertIndexed(ObservationUnitDao.STUDIES_OF_UNIT_QUERY, "unit");
+    }
+
+    @Test
+    public void rangeLookupUsesIndex() {
+
+        ObservationUnitPropertyDao.Companion.selectPropertyCache(db, 1);
+
+        //ObservationUnitPropertyDao.getRangeFromId
+        assertIndexed(select(Migrator.sObservationUnitPropertyViewName, ObservationUnitPropertyDao.ID_WHERE), "1");
+    }
+
+    @Test
+    public void exportPivotsUseIndex() {
+
+        Context context = ApplicationProvider.getApplicationContext();
+
+        TraitObject trait = new TraitObject();
+        trait.setName("height");
+
+        ArrayList<TraitObject> traits = new ArrayList<>(Collections.singletonList(trait));
+
+        //ObservationUnitPropertyDao.exportDbData and exportTableData page queries
+        ObservationUnitPropertyDao.Companion.buildPropertyCache(db, 1);
+        ObservationUnitPropertyDao.Companion.createExportOrder(context, db, 1);
+
+        String[] fields = { "id" };
+
+        assertIndexed(ObservationUnitPropertyDao.Companion.getExportDbPageQuery(1, fields, 1), "1", "height", "0", "500");
+
+        assertIndexed(ObservationUnitPropertyDao.Companion.getExportDbOrphanQuery(fields, 1), "1", "height");
+
+        assertIndexed(ObservationUnitPropertyDao.Companion.getExportTablePageQuery(1, fields, traits), "1", "0", "500");
+    }
+
+    @Test
+    public void dataGridWindowUsesIndex() {
+
+        ObservationUnitPropertyDao.Companion.buildPropertyCache(db, 1);
+
+        //ObservationUnitPropertyDao.getDataGridRows
+        assertIndexed(ObservationUnitPropertyDao.Companion.getDataGridQuery(1, new int[]{ 1, 2, 3 }, "id", "id", 1), "1", "1", "1");
+    }
+
+    @Test
+    public void spatialIndexUsesIndex() {
+
+        //SpatialIndex.rebuild
+        assertIndexed(SpatialIndex.STUDY_LOCATIONS_QUERY, "1");
+
+        //SpatialIndex.nearestInStudy
+        assertIndexed(SpatialIndex.INSTANCE.cellLocationsQuery(3), "1", "0", "1", "32");
+    }
+}
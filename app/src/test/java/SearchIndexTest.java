@@ -0,0 +1,109 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.fieldbook.tracker.database.DataHelper;
+import com.fieldbook.tracker.database.SearchIndex;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Checks that contains searches through the full text index find values containing the text anywhere,
+ * categorical observations by their label, and that the index follows changes to the values.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.P})
+public class SearchIndexTest {
+
+    private SQLiteDatabase db;
+
+    @Before
+    public void setUp() {
+
+        new DataHelper(ApplicationProvider.getApplicationContext());
+
+        db = DataHelper.db;
+
+        db.execSQL("INSERT INTO studies (internal_id_study, study_name) VALUES (1, 'one')");
+        db.execSQL("INSERT INTO observation_units (internal_id_observation_unit, study_id, observation_unit_db_id) VALUES (1, 1, 'u1'), (2, 1, 'u2')");
+        db.execSQL("INSERT INTO observation_units_attributes (internal_id_observation_unit_attribute, observation_unit_attribute_name, study_id) VALUES (1, 'accession', 1)");
+        db.execSQL("INSERT INTO observation_units_values (observation_unit_attribute_db_id, observation_unit_value_name, observation_unit_id, study_id) "
+                + "VALUES (1, 'PI-Durum_4512', 1, 1), (1, 'Kansas wheat', 2, 1)");
+        db.execSQL("INSERT INTO observations (study_id, observation_unit_id, observation_variable_db_id, observation_variable_field_book_format, value) "
+                + "VALUES (1, 'u2', 7, 'categorical', '[{\"label\":\"dark green\",\"value\":\"dark green\"}]')");
+    }
+
+    //units whose value of the field contains the text, as the search dialog queries them
+    private String contains(String field, String text) {
+
+        SearchIndex.INSTANCE.update(db, 1);
+
+        StringBuilder units = new StringBuilder();
+
+        try (Cursor cursor = db.rawQuery("SELECT unit_id FROM search_index WHERE tokens MATCH ? AND study_id = 1 AND field = ? AND value LIKE ? ORDER BY unit_id",
+                new String[]{ SearchIndex.INSTANCE.containsQuery(text), field, "%" + text + "%" })) {
+
+            while (cursor.moveToNext()) {
+                units.append(cursor.getInt(0));
+            }
+        }
+
+        return units.toString();
+    }
+
+    @Test
+    public void containsWithinWords() {
+
+        String accession = SearchIndex.INSTANCE.attributeField("accession");
+
+        assertEquals("1", contains(accession, "durum_45"));
+        assertEquals("1", contains(accession, "rum"));
+        assertEquals("2", contains(accession, "sas whe"));
+        assertEquals("", contains(accession, "wheat kansas"));
+        assertEquals("1", contains(accession, "512"));
+
+        assertEquals("2", contains(SearchIndex.INSTANCE.traitField("7"), "green"));
+
+        assertNull(SearchIndex.INSTANCE.containsQuery(" - "));
+    }
+
+    @Test
+    public void followsChanges() {
+
+        String accession = SearchIndex.INSTANCE.attributeField("accession");
+
+        assertEquals("2", contains(accession, "kansas"));
+
+        db.execSQL("UPDATE observation_units_values SET observation_unit_value_name = 'Nebraska wheat' WHERE observation_unit_id = 2");
+
+        assertEquals("", contains(accession, "kansas"));
+        assertEquals("2", contains(accession, "braska"));
+
+        db.execSQL("DELETE FROM observations");
+
+        assertEquals("", contains(SearchIndex.INSTANCE.traitField("7"), "green"));
+    }
+
+    @Test
+    public void followsValuesToOtherStudies() {
+
+        String accession = SearchIndex.INSTANCE.attributeField("accession");
+
+        assertEquals("2", contains(accession, "kansas"));
+
+        db.execSQL("INSERT INTO studies (internal_id_study, study_name) VALUES (2, 'two')");
+        db.execSQL("UPDATE observation_units_values SET study_id = 2 WHERE observation_unit_id = 2");
+
+        //only study 1 is brought up to date, the moved value is queued for every study
+        assertEquals("", contains(accession, "kansas"));
+    }
+}
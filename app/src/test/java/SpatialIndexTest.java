@@ -0,0 +1,166 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.location.Location;
+import android.os.Build;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.fieldbook.tracker.database.DataHelper;
+import com.fieldbook.tracker.database.SpatialIndex;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Checks that the nearest unit found through the study extents and unit grid is the one a scan of
+ * every unit finds, and that the index follows changes to the units.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.P})
+public class SpatialIndexTest {
+
+    private SQLiteDatabase db;
+
+    @Before
+    public void setUp() {
+
+        new DataHelper(ApplicationProvider.getApplicationContext());
+
+        db = DataHelper.db;
+    }
+
+    private static String geoJson(double latitude, double longitude) {
+        return String.format(Locale.US, "{\"type\":\"Feature\",\"geometry\":{\"type\":\"Point\",\"coordinates\":[\"%f\",\"%f\"]}}", longitude, latitude);
+    }
+
+    @Test
+    public void followsChanges() {
+
+        db.execSQL("INSERT INTO studies (internal_id_study, study_name) VALUES (1, 'one'), (2, 'two')");
+        db.execSQL("INSERT INTO observation_units (internal_id_observation_unit, study_id, observation_unit_db_id, geo_coordinates) VALUES "
+                + "(1, 1, 'u1', '" + geoJson(39.19, -96.58) + "'), "
+                + "(2, 1, 'u2', '-96.57;39.18'), "
+                + "(3, 2, 'u3', '-96.60;39.25'), "
+                + "(4, 2, 'u4', 'not a coordinate'), "
+                + "(5, 2, 'u5', '')");
+
+        SpatialIndex.NearestUnit nearest = SpatialIndex.INSTANCE.nearest(db, 39.181, -96.571);
+
+        assertNotNull(nearest);
+        assertEquals(1, nearest.getStudyId());
+        assertEquals(2, nearest.getUnitId());
+
+        assertEquals(3, SpatialIndex.INSTANCE.nearest(db, 39.3, -96.6).getUnitId());
+
+        db.execSQL("UPDATE observation_units SET geo_coordinates = '-96.6;39.3' WHERE internal_id_observation_unit = 5");
+
+        assertEquals(5, SpatialIndex.INSTANCE.nearest(db, 39.3, -96.6).getUnitId());
+
+        db.execSQL("DELETE FROM observation_units WHERE study_id = 2");
+
+        assertEquals(1, SpatialIndex.INSTANCE.nearest(db, 39.3, -96.6).getUnitId());
+
+        db.execSQL("DELETE FROM observation_units");
+
+        assertNull(SpatialIndex.INSTANCE.nearest(db, 39.3, -96.6));
+    }
+
+    @Test
+    public void boundsFollowTheSphere() {
+
+        db.execSQL("INSERT INTO studies (internal_id_study, study_name) VALUES (1, 'one'), (2, 'two'), (3, 'three'), (4, 'four')");
+
+        //4605 km away at 60N, 90 degrees of longitude along the parallel would be 5009 km
+        //the study 4726 km away due south must not hide it
+        db.execSQL("INSERT INTO observation_units (internal_id_observation_unit, study_id, observation_unit_db_id, geo_coordinates) VALUES "
+                + "(1, 1, 'u1', '90;60'), "
+                + "(2, 2, 'u2', '0;17.5'), "
+                + "(3, 3, 'u3', '179.5;0'), "
+                + "(4, 4, 'u4', '-178;1')");
+
+        assertEquals(1, SpatialIndex.INSTANCE.nearest(db, 60, 0).getUnitId());
+
+        //67 km away across the antimeridian, the study 237 km away on the same side must not hide it
+        assertEquals(3, SpatialIndex.INSTANCE.nearest(db, 0, -179.9).getUnitId());
+    }
+
+    @Test
+    @Category(Benchmark.class)
+    public void matchesFullScan() {
+
+        int studies = 20;
+        int unitsPerStudy = 5_000;
+
+        Random random = new Random(42);
+
+        double[] latitudes = new double[studies * unitsPerStudy];
+        double[] longitudes = new double[studies * unitsPerStudy];
+
+        db.beginTransaction();
+
+        SQLiteStatement insert = db.compileStatement("INSERT INTO observation_units "
+                + "(internal_id_observation_unit, study_id, observation_unit_db_id, geo_coordinates) VALUES (?, ?, ?, ?)");
+
+        for (int s = 0; s < studies; s++) {
+
+            db.execSQL("INSERT INTO studies (internal_id_study, study_name) VALUES (" + (s + 1) + ", 'study" + s + "')");
+
+            //fields of a few hundred meters scattered over a region of about 100 km
+            double originLat = 38.5 + random.nextDouble();
+            double originLng = -97.5 + random.nextDouble();
+
+            for (int u = 0; u < unitsPerStudy; u++) {
+
+                int id = s * unitsPerStudy + u;
+
+                latitudes[id] = originLat + random.nextDouble() * 0.004;
+                longitudes[id] = originLng + random.nextDouble() * 0.004;
+
+                insert.bindLong(1, id + 1);
+                insert.bindLong(2, s + 1);
+                insert.bindString(3, "u" + id);
+                insert.bindString(4, u % 2 == 0 ? geoJson(latitudes[id], longitudes[id])
+                        : String.format(Locale.US, "%f;%f", longitudes[id], latitudes[id]));
+                insert.executeInsert();
+            }
+        }
+
+        db.setTransactionSuccessful();
+        db.endTransaction();
+
+        SpatialIndex.INSTANCE.update(db);
+
+        float[] result = new float[1];
+
+        for (int q = 0; q < 50; q++) {
+
+            double latitude = 38.4 + random.nextDouble() * 1.2;
+            double longitude = -97.6 + random.nextDouble() * 1.2;
+
+            SpatialIndex.NearestUnit nearest = SpatialIndex.INSTANCE.nearest(db, latitude, longitude);
+
+            float best = Float.MAX_VALUE;
+
+            for (int i = 0; i < latitudes.length; i++) {
+                Location.distanceBetween(latitude, longitude, latitudes[i], longitudes[i], result);
+                best = Math.min(best, result[0]);
+            }
+
+            assertNotNull(nearest);
+
+            //coordinates were stored with six decimals
+            assertEquals(best, nearest.getDistance(), 0.5f);
+        }
+    }
+}
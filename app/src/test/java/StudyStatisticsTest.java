@@ -0,0 +1,355 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.fieldbook.tracker.database.DataHelper;
+import com.fieldbook.tracker.database.dao.ObservationDao;
+import com.fieldbook.tracker.database.dao.ObservationStatisticsDao;
+import com.fieldbook.tracker.database.dao.StudyDao;
+import com.fieldbook.tracker.database.models.ObservationModel;
+import com.fieldbook.tracker.objects.FieldObject;
+import com.fieldbook.tracker.objects.TraitSummary;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Checks that the counters kept by the statistics triggers match a full rebuild,
+ * the trait summaries built from the value frequencies and the daily observation rollup.
+ * The benchmark compares the statistics screen queries with counting the observations they replaced.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.P})
+public class StudyStatisticsTest {
+
+    private DataHelper database;
+
+    private SQLiteDatabase db;
+
+    @Before
+    public void setUp() {
+
+        database = new DataHelper(ApplicationProvider.getApplicationContext());
+
+        db = DataHelper.db;
+
+        db.execSQL("INSERT INTO studies (internal_id_study, study_name) VALUES (1, 'one'), (2, 'two')");
+    }
+
+    private void observe(int study, String unit, int traitDbId, String trait) {
+        db.execSQL("INSERT INTO observations (study_id, observation_unit_id, observation_variable_db_id, observation_variable_name, value) VALUES (?, ?, ?, ?, ?)",
+                new Object[]{ study, unit, traitDbId, trait, "x" });
+    }
+
+    private void attribute(int study, String name) {
+        db.execSQL("INSERT INTO observation_units_attributes (observation_unit_attribute_name, study_id) VALUES (?, ?)",
+                new Object[]{ name, study });
+    }
+
+    //attribute, trait and observation counts of the study as listed in the fields list
+    private String counts(int study) {
+
+        try (Cursor cursor = db.rawQuery("SELECT IFNULL(s.attribute_count, 0), "
+                + "(SELECT COUNT(*) FROM study_trait_statistics WHERE study_id = ?), "
+                + "IFNULL(s.observation_count, 0) "
+                + "FROM studies LEFT JOIN study_statistics AS s ON s.study_id = internal_id_study "
+                + "WHERE internal_id_study = ?", new String[]{ String.valueOf(study), String.valueOf(study) })) {
+
+            cursor.moveToFirst();
+
+            return cursor.getInt(0) + "/" + cursor.getInt(1) + "/" + cursor.getInt(2);
+        }
+    }
+
+    @Test
+    public void triggersMatchRebuild() {
+
+        attribute(1, "plot");
+        attribute(1, "row");
+        attribute(2, "plot");
+
+        observe(1, "a", 10, "height");
+        observe(1, "b", 10, "height");
+        observe(1, "a", 11, "width");
+        observe(2, "c", 10, "height");
+
+        //not a trait observation, never counted
+        observe(1, "a", 0, "photo");
+
+        assertEquals("2/2/3", counts(1));
+        assertEquals("1/1/1", counts(2));
+
+        db.execSQL("DELETE FROM observations WHERE observation_variable_name = 'width'");
+        db.execSQL("DELETE FROM observation_units_attributes WHERE observation_unit_attribute_name = 'row'");
+
+        assertEquals("1/1/2", counts(1));
+
+        //a trait renamed in place moves its counts
+        db.execSQL("UPDATE observations SET observation_variable_name = 'tall' WHERE study_id = 1");
+
+        assertEquals("1/1/2", counts(1));
+
+        String one = counts(1);
+        String two = counts(2);
+
+        database.rebuildStudyStatistics();
+
+        assertEquals(one, counts(1));
+        assertEquals(two, counts(2));
+    }
+
+    @Test
+    public void deletedStudyIsNotCounted() {
+
+        attribute(1, "plot");
+        observe(1, "a", 10, "height");
+
+        database.deleteField(1);
+
+        //the observations kept under the negated study id are edited and removed without counters of their own
+        db.execSQL("UPDATE observations SET value = 'y', observation_variable_name = 'tall' WHERE study_id < 0");
+        db.execSQL("DELETE FROM observations WHERE study_id < 0");
+
+        for (String table : new String[]{ "study_statistics", "study_trait_statistics", "study_trait_values" }) {
+
+            try (Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + table + " WHERE study_id <> 2", null)) {
+
+                cursor.moveToFirst();
+
+                assertEquals(table, 0, cursor.getInt(0));
+            }
+        }
+    }
+
+    @Test
+    public void traitSummariesFromValueFrequencies() {
+
+        db.execSQL("INSERT INTO observation_variables (internal_id_observation_variable, observation_variable_name, observation_variable_field_book_format) "
+                + "VALUES (10, 'height', 'numeric'), (11, 'color', 'text')");
+
+        observe(1, "a", 10, "height");
+        db.execSQL("UPDATE observations SET value = '4' WHERE observation_unit_id = 'a'");
+
+        for (String value : new String[]{ "2", "4", "4", "NA" }) {
+            db.execSQL("INSERT INTO observations (study_id, observation_unit_id, observation_variable_db_id, observation_variable_name, value) VALUES (1, 'b', 10, 'height', ?)",
+                    new Object[]{ value });
+        }
+
+        observe(1, "a", 11, "color");
+
+        List<FieldObject.TraitDetail> details = StudyDao.Companion.getTraitDetailsForStudy(1, "internal_id_observation_variable");
+
+        assertEquals(2, details.size());
+
+        TraitSummary height = details.get(0).getSummary();
+
+        assertEquals(5, height.getCount());
+        assertEquals(Integer.valueOf(3), height.getNumericFrequencies().get(new BigDecimal("4")));
+        assertEquals(new BigDecimal("2"), height.getMin());
+        assertEquals(3.5, height.getMean(), 1e-9);
+        assertEquals(1.0, height.getVariance(), 1e-9);
+
+        TraitSummary color = details.get(1).getSummary();
+
+        assertNull(color.getNumericFrequencies());
+        assertEquals(Integer.valueOf(1), color.getFrequencies().get("x"));
+    }
+
+    private void collect(int study, String unit, String collector, String timeStamp) {
+        db.execSQL("INSERT INTO observations (study_id, observation_unit_id, observation_variable_db_id, collector, observation_time_stamp, value) VALUES (?, ?, 10, ?, ?, 'x')",
+                new Object[]{ study, unit, collector, timeStamp });
+    }
+
+    private String rollup() {
+
+        StringBuilder rows = new StringBuilder();
+
+        try (Cursor cursor = db.rawQuery("SELECT day, study_id, collector, observation_count, CAST(ROUND(active_seconds) AS INTEGER) "
+                + "FROM observation_daily_statistics ORDER BY day, study_id, collector", null)) {
+
+            while (cursor.moveToNext()) {
+                rows.append(cursor.getString(0)).append(' ').append(cursor.getInt(1)).append(' ').append(cursor.getString(2))
+                        .append(' ').append(cursor.getInt(3)).append(' ').append(cursor.getInt(4)).append('\n');
+            }
+        }
+
+        return rows.toString();
+    }
+
+    @Test
+    public void dailyRollup() {
+
+        //two collectors working at the same time, each one's gaps are measured from their own observations
+        collect(1, "a", "ann", "2024-05-01 10:00:00.000-05:00");
+        collect(1, "a", "bob", "2024-05-01 10:02:00.000-05:00");
+        collect(1, "b", "ann", "2024-05-01 10:10:00.000-05:00");
+        collect(1, "a", "bob", "2024-05-01 10:07:00.000-05:00");
+        //more than half an hour later, not active time
+        collect(1, "b", "ann", "2024-05-01 11:00:00.000-05:00");
+        collect(2, "c", "", "2024-06-02 09:00:00.000-05:00");
+        collect(2, "c", "", "2024-06-02 09:05:00.000-05:00");
+
+        assertEquals("2024-05-01 1 ann 3 600\n2024-05-01 1 bob 2 300\n2024-06-02 2  2 300\n", rollup());
+
+        ObservationStatisticsDao.Summary may = database.getObservationSummary("2024-05");
+
+        assertNotNull(may);
+        assertEquals(5, may.getObservationCount());
+        assertEquals(2, may.getUnitCount());
+        assertEquals("a", may.getMostObservedUnit());
+        assertEquals(3, may.getMostObservedUnitCount());
+        assertEquals(Arrays.asList("ann", "bob"), may.getCollectors());
+        assertEquals(900.0, may.getActiveSeconds(), 1e-3);
+        assertEquals("2024-05-01", may.getBusiestDay());
+
+        assertEquals(Arrays.asList("2024-06", "2024-05"), database.getObservationSeasons(7));
+
+        Map<String, Integer> days = database.getDailyObservationCounts();
+
+        assertEquals(Integer.valueOf(2), days.get("2024-06-02"));
+
+        db.execSQL("DELETE FROM observations WHERE collector = 'bob'");
+
+        assertEquals(2, database.getObservationSummary("2024-05").getMostObservedUnitCount());
+
+        String triggered = rollup();
+
+        database.rebuildStudyStatistics();
+
+        assertEquals(triggered, rollup());
+
+        //deleted fields keep their rollup rows but are not part of the season totals
+        database.deleteField(2);
+
+        assertEquals(0, database.getObservationSummary("2024-06").getObservationCount());
+        assertEquals(0, database.getObservationSummary("2024-06").getUnitCount());
+    }
+
+    //the season totals the statistics cards used to count from every observation of the season
+    private static int[] countObservations(ObservationModel[] observations) {
+
+        Set<String> units = new HashSet<>();
+        Set<String> collectors = new HashSet<>();
+        Map<String, Integer> days = new HashMap<>();
+        Map<String, Integer> unitCounts = new HashMap<>();
+
+        for (ObservationModel observation : observations) {
+
+            units.add(observation.getObservation_unit_id());
+
+            String collector = observation.getCollector();
+            if (collector != null && !collector.trim().isEmpty()) collectors.add(collector);
+
+            days.merge(observation.getObservation_time_stamp().substring(0, 10), 1, Integer::sum);
+            unitCounts.merge(observation.getObservation_unit_id(), 1, Integer::sum);
+        }
+
+        return new int[]{ observations.length, units.size(), collectors.size(),
+                days.isEmpty() ? 0 : Collections.max(days.values()),
+                unitCounts.isEmpty() ? 0 : Collections.max(unitCounts.values()) };
+    }
+
+    /**
+     * Loads the season tabs and the card of each month of a year of observations, once from the rollups
+     * and once by counting the season's observations the way the cards used to.
+     */
+    @Test
+    @Category(Benchmark.class)
+    public void seasonSummariesBenchmark() {
+
+        String[] collectors = { "ann", "bob", "cy", "" };
+
+        db.beginTransaction();
+
+        SQLiteStatement insert = db.compileStatement("INSERT INTO observations "
+                + "(study_id, observation_unit_id, observation_variable_db_id, observation_variable_name, collector, observation_time_stamp, value) "
+                + "VALUES (?, ?, ?, ?, ?, ?, 'x')");
+
+        int observations = 0;
+
+        for (int month = 1; month <= 12; month++) {
+            for (int day = 1; day <= 28; day++) {
+                for (int i = 0; i < 300; i++, observations++) {
+
+                    insert.bindLong(1, observations % 2 + 1);
+                    insert.bindString(2, "u" + observations % 2_000);
+                    insert.bindLong(3, 10 + i % 5);
+                    insert.bindString(4, "trait" + i % 5);
+                    insert.bindString(5, collectors[i / 75]);
+                    insert.bindString(6, String.format(Locale.US, "2024-%02d-%02d %02d:%02d:%02d.000-05:00", month, day, 8 + i / 60, i % 60, i % 7));
+                    insert.executeInsert();
+                }
+            }
+        }
+
+        db.setTransactionSuccessful();
+        db.endTransaction();
+
+        long start = System.nanoTime();
+
+        List<String> seasons = database.getObservationSeasons(7);
+
+        List<int[]> rollups = new ArrayList<>();
+
+        for (String season : seasons) {
+
+            ObservationStatisticsDao.Summary summary = database.getObservationSummary(season);
+
+            rollups.add(new int[]{ summary.getObservationCount(), summary.getUnitCount(), summary.getCollectors().size(),
+                    summary.getBusiestDayCount(), summary.getMostObservedUnitCount() });
+        }
+
+        long rollup = System.nanoTime() - start;
+
+        start = System.nanoTime();
+
+        Set<String> scanned = new TreeSet<>(Comparator.reverseOrder());
+
+        for (ObservationModel observation : database.getAllObservations()) {
+            scanned.add(observation.getObservation_time_stamp().substring(0, 7));
+        }
+
+        List<int[]> counts = new ArrayList<>();
+
+        for (String season : scanned) {
+            counts.add(countObservations(ObservationDao.Companion.getAllFromAYear(season)));
+        }
+
+        long counted = System.nanoTime() - start;
+
+        assertEquals(new ArrayList<>(scanned), seasons);
+
+        for (int i = 0; i < seasons.size(); i++) {
+            assertArrayEquals(seasons.get(i), counts.get(i), rollups.get(i));
+        }
+
+        assertTrue(observations + " observations: rollups " + rollup / 1_000_000 + " ms, counting observations " + counted / 1_000_000 + " ms",
+                rollup < counted);
+    }
+}
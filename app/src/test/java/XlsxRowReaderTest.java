@@ -0,0 +1,182 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import android.os.Build;
+
+import com.fieldbook.tracker.utilities.XlsxRowReader;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Checks the cell types of the streamed xlsx rows, and reads a 200k row sheet as a benchmark.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.P})
+public class XlsxRowReaderTest {
+
+    private static final String WORKBOOK = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<workbook xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\" "
+            + "xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\">"
+            + "<sheets><sheet name=\"field\" sheetId=\"1\" r:id=\"rId2\"/><sheet name=\"notes\" sheetId=\"2\" r:id=\"rId1\"/></sheets>"
+            + "</workbook>";
+
+    private static final String RELATIONSHIPS = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+            + "<Relationship Id=\"rId1\" Target=\"worksheets/sheet1.xml\"/>"
+            + "<Relationship Id=\"rId2\" Target=\"/xl/worksheets/sheet2.xml\"/>"
+            + "</Relationships>";
+
+    private static final String STYLES = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<styleSheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\">"
+            + "<numFmts count=\"1\"><numFmt numFmtId=\"164\" formatCode=\"yyyy\\-mm\\-dd\\ hh:mm\"/></numFmts>"
+            + "<cellStyleXfs count=\"1\"><xf numFmtId=\"14\"/></cellStyleXfs>"
+            + "<cellXfs count=\"4\"><xf numFmtId=\"0\"/><xf numFmtId=\"14\"/><xf numFmtId=\"164\"/><xf numFmtId=\"2\"/></cellXfs>"
+            + "</styleSheet>";
+
+    private static final String SHARED_STRINGS = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<sst xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\">"
+            + "<si><t>plot_id</t></si>"
+            + "<si><t>row</t></si>"
+            + "<si><r><t>Kansas</t></r><r><t xml:space=\"preserve\">, wheat</t></r><rPh><t>kana</t></rPh></si>"
+            + "</sst>";
+
+    private static final String SHEET_START = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\"><sheetData>";
+
+    private static final String SHEET_END = "</sheetData></worksheet>";
+
+    private static void put(ZipOutputStream zip, String name, String content) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(content.getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+    }
+
+    //the sheet is stored before the shared strings and styles, as some writers do
+    private static byte[] workbook(String sheet) throws IOException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            put(zip, "xl/workbook.xml", WORKBOOK);
+            put(zip, "xl/_rels/workbook.xml.rels", RELATIONSHIPS);
+            put(zip, "xl/worksheets/sheet1.xml", SHEET_START + SHEET_END);
+            put(zip, "xl/worksheets/sheet2.xml", sheet);
+            put(zip, "xl/sharedStrings.xml", SHARED_STRINGS);
+            put(zip, "xl/styles.xml", STYLES);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void readsCellTypes() throws Exception {
+
+        byte[] file = workbook(SHEET_START
+                + "<row r=\"1\"><c r=\"A1\" t=\"s\"><v>0</v></c><c r=\"B1\" t=\"s\"><v>1</v></c>"
+                + "<c r=\"C1\" t=\"inlineStr\"><is><t>name</t></is></c><c r=\"D1\" t=\"s\"><v>2</v></c>"
+                + "<c r=\"E1\" t=\"inlineStr\"><is><t>planted</t></is></c><c r=\"F1\" t=\"inlineStr\"><is><t>scored</t></is></c></row>"
+                + "<row r=\"2\"><c r=\"A2\"><v>13.50</v></c><c r=\"C2\" t=\"b\"><v>1</v></c>"
+                + "<c r=\"D2\" t=\"str\"><f>A2&amp;\"x\"</f><v>13.5x</v></c>"
+                + "<c r=\"E2\" s=\"1\"><v>45413</v></c><c r=\"F2\" s=\"2\"><v>45413.4375</v></c></row>"
+                + "<row r=\"4\"><c r=\"B4\" s=\"3\"><v>2</v></c><c r=\"G4\"><v>1E-3</v></c><c r=\"H4\" t=\"e\"><v>#DIV/0!</v></c></row>"
+                + SHEET_END);
+
+        XlsxRowReader reader = new XlsxRowReader(() -> new ByteArrayInputStream(file));
+
+        reader.open();
+
+        assertArrayEquals(new String[]{ "plot_id", "row", "name", "Kansas, wheat", "planted", "scored" }, reader.readNext());
+        assertArrayEquals(new String[]{ "13.5", "", "TRUE", "13.5x", "2024-05-01", "2024-05-01 10:30:00" }, reader.readNext());
+        assertArrayEquals(new String[]{ "", "2", "", "", "", "" }, reader.readNext());
+        assertNull(reader.readNext());
+
+        //reopening starts over at the header
+        reader.open();
+
+        assertEquals("plot_id", reader.readNext()[0]);
+
+        reader.close();
+
+        assertNull(reader.readNext());
+    }
+
+    //sheet xml written row by row into the zip, so building the file does not hold the sheet text
+    private static byte[] largeWorkbook(int rows) throws IOException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+
+            put(zip, "xl/workbook.xml", WORKBOOK);
+            put(zip, "xl/_rels/workbook.xml.rels", RELATIONSHIPS);
+            put(zip, "xl/sharedStrings.xml", SHARED_STRINGS);
+            put(zip, "xl/styles.xml", STYLES);
+
+            zip.putNextEntry(new ZipEntry("xl/worksheets/sheet2.xml"));
+
+            OutputStream out = zip;
+            out.write(SHEET_START.getBytes(StandardCharsets.UTF_8));
+
+            StringBuilder row = new StringBuilder();
+
+            for (int r = 1; r <= rows; r++) {
+
+                row.setLength(0);
+                row.append("<row r=\"").append(r).append("\">")
+                        .append("<c r=\"A").append(r).append("\" t=\"inlineStr\"><is><t>13RPN").append(r).append("</t></is></c>")
+                        .append("<c r=\"B").append(r).append("\"><v>").append(r % 50).append("</v></c>")
+                        .append("<c r=\"C").append(r).append("\"><v>").append(r % 20).append("</v></c>")
+                        .append("<c r=\"D").append(r).append("\" t=\"s\"><v>2</v></c>")
+                        .append("<c r=\"E").append(r).append("\" s=\"1\"><v>45413</v></c>")
+                        .append("<c r=\"F").append(r).append("\"><v>0.25</v></c>")
+                        .append("</row>");
+
+                out.write(row.toString().getBytes(StandardCharsets.UTF_8));
+            }
+
+            out.write(SHEET_END.getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+        }
+
+        return bytes.toByteArray();
+    }
+
+    @Test
+    @Category(Benchmark.class)
+    public void streamingThroughput() throws Exception {
+
+        int rows = 200_000;
+
+        byte[] file = largeWorkbook(rows);
+
+        XlsxRowReader reader = new XlsxRowReader(() -> new ByteArrayInputStream(file));
+
+        reader.open();
+
+        int read = 0;
+        String[] data;
+
+        while ((data = reader.readNext()) != null) {
+
+            assertEquals(6, data.length);
+            read++;
+        }
+
+        reader.close();
+
+        assertEquals(rows, read);
+    }
+}